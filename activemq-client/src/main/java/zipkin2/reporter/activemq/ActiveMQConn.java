@@ -15,31 +15,195 @@ package zipkin2.reporter.activemq;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
+import javax.jms.Queue;
 import javax.jms.QueueSender;
 import javax.jms.QueueSession;
+import javax.jms.Session;
 import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.transport.TransportListener;
+import zipkin2.Callback;
 import zipkin2.CheckResult;
 
+import static zipkin2.reporter.activemq.ActiveMQSender.ioException;
+
+/**
+ * Holds a connection and a pool of sessions, as a JMS session must not be used by several threads
+ * at the same time.
+ *
+ * <p>When transacted, a session commits once it holds {@link #transactedBatchSize} messages, or
+ * when no other send waits for a session. Otherwise, the session goes to the head of the pool, so
+ * that the next send adds its message to the same transaction. Callbacks complete on commit.
+ */
 final class ActiveMQConn implements TransportListener, Closeable {
   static final CheckResult
     CLOSED = CheckResult.failed(new IllegalStateException("Collector intentionally closed")),
     INTERRUPTION = CheckResult.failed(new IOException("Recoverable error on ActiveMQ connection"));
 
+  static final class PooledSession {
+    final QueueSession session;
+    final QueueSender sender;
+    final List<Callback<Void>> pending = new ArrayList<>(); // only used when transacted
+
+    PooledSession(QueueSession session, QueueSender sender) {
+      this.session = session;
+      this.sender = sender;
+    }
+  }
+
   final ActiveMQConnection connection;
-  final QueueSession session;
-  final QueueSender sender;
+  final Queue destination;
+  final int sessionPoolSize, transactedBatchSize;
+  final boolean transacted;
+  final LinkedBlockingDeque<PooledSession> idleSessions = new LinkedBlockingDeque<>();
+  final AtomicInteger sessionCount = new AtomicInteger(), waiting = new AtomicInteger();
 
   volatile CheckResult checkResult = CheckResult.OK;
 
-  ActiveMQConn(ActiveMQConnection connection, QueueSession session, QueueSender sender) {
+  ActiveMQConn(ActiveMQConnection connection, PooledSession session, Queue destination,
+    int sessionPoolSize, int transactedBatchSize) {
     this.connection = connection;
-    this.session = session;
-    this.sender = sender;
+    this.destination = destination;
+    this.sessionPoolSize = sessionPoolSize;
+    this.transactedBatchSize = transactedBatchSize;
+    this.transacted = transactedBatchSize > 1;
+    sessionCount.set(1);
+    idleSessions.offer(session);
     connection.addTransportListener(this);
   }
 
+  /**
+   * Sends the message, completing the callback once sent or, when transacted, committed. Errors
+   * before the message is added to a transaction are thrown instead.
+   */
+  void send(byte[] body, String contentEncoding, Callback<Void> callback) throws IOException {
+    try {
+      doSend(body, contentEncoding, callback);
+    } finally {
+      // Even when this send failed, another may have left messages for us to commit.
+      if (transacted && waiting.get() == 0) commitIdleSessions();
+    }
+  }
+
+  void doSend(byte[] body, String contentEncoding, Callback<Void> callback) throws IOException {
+    PooledSession pooled = borrowSession();
+    try {
+      BytesMessage bytesMessage = pooled.session.createBytesMessage();
+      if (contentEncoding != null) {
+        bytesMessage.setStringProperty("contentEncoding", contentEncoding);
+      }
+      bytesMessage.writeBytes(body);
+      pooled.sender.send(bytesMessage);
+    } catch (JMSException e) {
+      IOException error = ioException("Unable to send message: ", e);
+      discard(pooled, error);
+      throw error;
+    }
+
+    if (!transacted) {
+      idleSessions.offerLast(pooled);
+      callback.onSuccess(null);
+      return;
+    }
+
+    pooled.pending.add(callback);
+    if (pooled.pending.size() >= transactedBatchSize || waiting.get() == 0) {
+      if (commit(pooled)) idleSessions.offerLast(pooled);
+    } else {
+      idleSessions.offerFirst(pooled); // the next send joins this transaction
+    }
+  }
+
+  PooledSession borrowSession() throws IOException {
+    PooledSession pooled = idleSessions.pollFirst();
+    if (pooled != null) return pooled;
+    if (sessionCount.incrementAndGet() <= sessionPoolSize) {
+      boolean created = false;
+      try {
+        pooled = newSession();
+        created = true;
+        return pooled;
+      } finally {
+        if (!created) sessionCount.decrementAndGet();
+      }
+    }
+    sessionCount.decrementAndGet();
+    waiting.incrementAndGet();
+    try {
+      pooled = idleSessions.takeFirst();
+    } catch (InterruptedException e) {
+      // a session may have been left uncommitted for us
+      if (waiting.decrementAndGet() == 0) commitIdleSessions();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting for a session");
+    }
+    waiting.decrementAndGet();
+    return pooled;
+  }
+
+  PooledSession newSession() throws IOException {
+    if (checkResult == CLOSED) throw new IllegalStateException("closed");
+    try {
+      return newSession(connection, destination, transacted);
+    } catch (JMSException e) {
+      throw ioException("Unable to create queueSender(" + destination + "): ", e);
+    }
+  }
+
+  static PooledSession newSession(ActiveMQConnection connection, Queue destination,
+    boolean transacted) throws JMSException {
+    // Pass redundant info as we can't use default method in activeMQ
+    QueueSession session = connection.createQueueSession(transacted,
+      transacted ? Session.SESSION_TRANSACTED : Session.AUTO_ACKNOWLEDGE);
+    try {
+      return new PooledSession(session, session.createSender(destination));
+    } catch (JMSException e) {
+      session.close();
+      throw e;
+    }
+  }
+
+  /** Commits pending messages left in idle sessions, as no send will join their transaction. */
+  void commitIdleSessions() {
+    PooledSession pooled;
+    while ((pooled = idleSessions.peekFirst()) != null && !pooled.pending.isEmpty()) {
+      if (!idleSessions.removeFirstOccurrence(pooled)) continue; // another send took it
+      if (commit(pooled)) idleSessions.offerLast(pooled);
+    }
+  }
+
+  /** Returns false if the session was discarded. */
+  boolean commit(PooledSession pooled) {
+    if (pooled.pending.isEmpty()) return true;
+    try {
+      pooled.session.commit();
+    } catch (JMSException e) {
+      discard(pooled, ioException("Unable to commit messages: ", e));
+      return false;
+    }
+    for (Callback<Void> callback : pooled.pending) callback.onSuccess(null);
+    pooled.pending.clear();
+    return true;
+  }
+
+  /** Closes a session after an error, failing messages in its transaction. */
+  void discard(PooledSession pooled, Throwable error) {
+    sessionCount.decrementAndGet();
+    for (Callback<Void> callback : pooled.pending) callback.onError(error);
+    pooled.pending.clear();
+    try {
+      pooled.session.close(); // also rolls back
+    } catch (JMSException ignored) {
+      // the callbacks already have the error that got us here, and the session is unusable
+    }
+  }
+
   @Override public void onCommand(Object o) {
   }
 
@@ -59,11 +223,14 @@ final class ActiveMQConn implements TransportListener, Closeable {
     if (checkResult == CLOSED) return;
     checkResult = CLOSED;
     connection.removeTransportListener(this);
+    IOException error = new IOException("Sender closed before messages were committed");
+    for (PooledSession pooled; (pooled = idleSessions.pollFirst()) != null; ) {
+      discard(pooled, error);
+    }
     try {
-      sender.close();
-      session.close();
       connection.close();
     } catch (JMSException ignored) {
+      // nothing to do, as the sender is closed and messages not committed already failed
     }
   }
 }
@@ -15,17 +15,18 @@ package zipkin2.reporter.activemq;
 
 import java.io.IOException;
 import java.util.List;
-import javax.jms.BytesMessage;
 import javax.jms.JMSException;
-import javax.jms.QueueSender;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.CheckResult;
 import zipkin2.codec.Encoding;
 import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.AwaitableCallback;
 import zipkin2.reporter.BytesMessageEncoder;
 import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
 import zipkin2.reporter.Sender;
 
 /**
@@ -59,7 +60,8 @@ import zipkin2.reporter.Sender;
  *
  * <h3>Implementation Notes</h3>
  *
- * <p>This sender is thread-safe.
+ * <p>This sender is thread-safe: each send borrows a session from a pool of at most {@link
+ * Builder#sessionPoolSize(int)} sessions.
  */
 public final class ActiveMQSender extends Sender {
 
@@ -78,6 +80,9 @@ public final class ActiveMQSender extends Sender {
     String queue = "zipkin";
     Encoding encoding = Encoding.JSON;
     int messageMaxBytes = 500_000;
+    Compression compression;
+    int sessionPoolSize = 4, transactedBatchSize = 1, producerWindowSize = 1024 * 1024;
+    boolean asyncSend;
 
     public Builder connectionFactory(ActiveMQConnectionFactory connectionFactory) {
       if (connectionFactory == null) throw new NullPointerException("connectionFactory == null");
@@ -109,6 +114,84 @@ public final class ActiveMQSender extends Sender {
       return this;
     }
 
+    /**
+     * Compresses each message, and sets the "contentEncoding" string property to its {@link
+     * Compression#encoding()}. Default none.
+     *
+     * <p>Note: The consumer must honor the content encoding, or it will fail to decode spans.
+     *
+     * @since 2.17
+     */
+    public Builder compression(Compression compression) {
+      if (compression == null) throw new NullPointerException("compression == null");
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * Maximum count of sessions, each with its own producer, to send on. Sessions are created as
+     * needed, and a send waits for one when all are in use. Default 4.
+     *
+     * <p>Raise {@link AsyncReporter.Builder#messagesInFlight(int)} to send on several sessions at
+     * the same time.
+     *
+     * @since 2.17
+     */
+    public Builder sessionPoolSize(int sessionPoolSize) {
+      if (sessionPoolSize <= 0) {
+        throw new IllegalArgumentException("sessionPoolSize <= 0: " + sessionPoolSize);
+      }
+      this.sessionPoolSize = sessionPoolSize;
+      return this;
+    }
+
+    /**
+     * When true, messages are sent without waiting for the broker to receive them, up to {@link
+     * #producerWindowSize(int)} bytes per producer. This overrides the connection factory setting.
+     * Default false.
+     *
+     * <p>Note: A message the broker fails to receive is not reported to the call, so it won't
+     * count as dropped.
+     *
+     * @since 2.17
+     */
+    public Builder asyncSend(boolean asyncSend) {
+      this.asyncSend = asyncSend;
+      return this;
+    }
+
+    /**
+     * Maximum bytes a producer sends with {@link #asyncSend(boolean)} before waiting for the
+     * broker to acknowledge them. Default 1MiB.
+     *
+     * @since 2.17
+     */
+    public Builder producerWindowSize(int producerWindowSize) {
+      if (producerWindowSize <= 0) {
+        throw new IllegalArgumentException("producerWindowSize <= 0: " + producerWindowSize);
+      }
+      this.producerWindowSize = producerWindowSize;
+      return this;
+    }
+
+    /**
+     * When above one, sessions are transacted, and commit up to this many messages at a time. A
+     * call completes when its message is committed. Default 1: not transacted.
+     *
+     * <p>A session commits early when no other send is waiting for a session, so messages don't
+     * wait for a batch to fill. Batches form when sends overlap, so raise {@link
+     * AsyncReporter.Builder#messagesInFlight(int)} above {@link #sessionPoolSize(int)}.
+     *
+     * @since 2.17
+     */
+    public Builder transactedBatchSize(int transactedBatchSize) {
+      if (transactedBatchSize <= 0) {
+        throw new IllegalArgumentException("transactedBatchSize <= 0: " + transactedBatchSize);
+      }
+      this.transactedBatchSize = transactedBatchSize;
+      return this;
+    }
+
     public final ActiveMQSender build() {
       if (connectionFactory == null) throw new NullPointerException("connectionFactory == null");
       return new ActiveMQSender(this);
@@ -121,6 +204,7 @@ public final class ActiveMQSender extends Sender {
   final Encoding encoding;
   final int messageMaxBytes;
   final BytesMessageEncoder encoder;
+  final Compression compression;
 
   final LazyInit lazyInit;
 
@@ -128,6 +212,7 @@ public final class ActiveMQSender extends Sender {
     this.encoding = builder.encoding;
     this.messageMaxBytes = builder.messageMaxBytes;
     this.encoder = BytesMessageEncoder.forEncoding(encoding);
+    this.compression = builder.compression;
     this.lazyInit = new LazyInit(builder);
   }
 
@@ -157,6 +242,12 @@ public final class ActiveMQSender extends Sender {
     return new ActiveMQCall(message);
   }
 
+  /** Like {@link #sendSpans(List)}, except the message is copied once, as it is already framed. */
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    return new ActiveMQCall(message.toByteArray());
+  }
+
   @Override public CheckResult check() {
     try {
       lazyInit.get();
@@ -187,19 +278,24 @@ public final class ActiveMQSender extends Sender {
     }
 
     @Override protected Void doExecute() throws IOException {
-      send();
+      AwaitableCallback callback = new AwaitableCallback();
+      send(callback);
+      try {
+        callback.await(); // only blocks when transacted, until the message is committed
+      } catch (RuntimeException e) {
+        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+        throw e;
+      }
       return null;
     }
 
-    void send() throws IOException {
-      try {
-        ActiveMQConn conn = lazyInit.get();
-        QueueSender sender = conn.sender;
-        BytesMessage bytesMessage = conn.session.createBytesMessage();
-        bytesMessage.writeBytes(message);
-        sender.send(bytesMessage);
-      } catch (JMSException e) {
-        throw ioException("Unable to send message: ", e);
+    void send(Callback<Void> callback) throws IOException {
+      ActiveMQConn conn = lazyInit.get();
+      if (compression != null) {
+        byte[] body = compression.compress(message, 0, message.length);
+        conn.send(body, compression.encoding(), callback);
+      } else {
+        conn.send(message, null, callback);
       }
     }
 
@@ -209,8 +305,7 @@ public final class ActiveMQSender extends Sender {
 
     @Override protected void doEnqueue(Callback<Void> callback) {
       try {
-        send();
-        callback.onSuccess(null);
+        send(callback);
       } catch (IOException | RuntimeException | Error e) {
         callback.onError(e);
       }
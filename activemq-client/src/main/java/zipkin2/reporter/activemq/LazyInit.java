@@ -14,13 +14,13 @@
 package zipkin2.reporter.activemq;
 
 import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.jms.JMSException;
 import javax.jms.Queue;
-import javax.jms.QueueSender;
-import javax.jms.QueueSession;
-import javax.jms.Session;
 import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQQueue;
+import zipkin2.reporter.activemq.ActiveMQConn.PooledSession;
 
 import static zipkin2.reporter.activemq.ActiveMQSender.ioException;
 
@@ -31,18 +31,29 @@ import static zipkin2.reporter.activemq.ActiveMQSender.ioException;
 final class LazyInit {
   final ActiveMQConnectionFactory connectionFactory;
   final String queue;
+  final int sessionPoolSize, transactedBatchSize, producerWindowSize;
+  final boolean asyncSend;
 
+  // Not synchronized, as that would pin a virtual thread to its carrier while connecting
+  final ReentrantLock lock = new ReentrantLock();
   volatile ActiveMQConn result;
 
   LazyInit(ActiveMQSender.Builder builder) {
     connectionFactory = builder.connectionFactory;
     queue = builder.queue;
+    sessionPoolSize = builder.sessionPoolSize;
+    transactedBatchSize = builder.transactedBatchSize;
+    asyncSend = builder.asyncSend;
+    producerWindowSize = builder.producerWindowSize;
   }
 
   ActiveMQConn get() throws IOException {
     if (result == null) {
-      synchronized (this) {
+      lock.lock();
+      try {
         if (result == null) result = doGet();
+      } finally {
+        lock.unlock();
       }
     }
     return result;
@@ -57,18 +68,24 @@ final class LazyInit {
     final ActiveMQConnection connection;
     try {
       connection = (ActiveMQConnection) connectionFactory.createQueueConnection();
+      if (asyncSend) {
+        // Set on the connection, so that the factory, which may be shared, is unchanged
+        connection.setUseAsyncSend(true);
+        connection.setProducerWindowSize(producerWindowSize);
+      }
       connection.start();
     } catch (JMSException e) {
       throw ioException("Unable to establish connection to ActiveMQ broker: ", e);
     }
 
     try {
-      // Pass redundant info as we can't use default method in activeMQ
-      QueueSession session = connection.createQueueSession(false, Session.AUTO_ACKNOWLEDGE);
       // No need to do anything on ActiveMQ side as physical queues are created on demand
-      Queue destination = session.createQueue(queue);
-      QueueSender sender = session.createSender(destination);
-      return new ActiveMQConn(connection, session, sender);
+      Queue destination = new ActiveMQQueue(queue);
+      // Create the first session eagerly, so that problems show in the check result
+      PooledSession session =
+        ActiveMQConn.newSession(connection, destination, transactedBatchSize > 1);
+      return new ActiveMQConn(
+        connection, session, destination, sessionPoolSize, transactedBatchSize);
     } catch (JMSException e) {
       try {
         connection.close();
@@ -13,8 +13,18 @@
  */
 package zipkin2.reporter.activemq;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import javax.jms.BytesMessage;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.junit.EmbeddedActiveMQBroker;
@@ -25,12 +35,15 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
 import zipkin2.Call;
+import zipkin2.Callback;
 import zipkin2.CheckResult;
 import zipkin2.Span;
 import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.AwaitableCallback;
+import zipkin2.reporter.Compression;
 import zipkin2.reporter.Sender;
 
 import static java.util.stream.Collectors.toList;
@@ -107,6 +120,105 @@ public class ITActiveMQSender {
       .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
   }
 
+  @Test public void compression() throws Exception {
+    sender.close();
+    sender = builder().compression(Compression.GZIP).build();
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    BytesMessage message = activemq.peekBytesMessage(sender.lazyInit.queue);
+    assertThat(message.getStringProperty("contentEncoding")).isEqualTo("gzip");
+    byte[] compressed = new byte[(int) message.getBodyLength()];
+    message.readBytes(compressed);
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(readAllBytes(in)))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+    }
+  }
+
+  @Test public void sessionPool_sendsConcurrently() throws Exception {
+    sender.close();
+    sender = builder().sessionPoolSize(2).build();
+
+    sendConcurrently(10);
+
+    assertThat(activemq.getMessageCount(sender.lazyInit.queue)).isEqualTo(10);
+    assertThat(sender.lazyInit.get().sessionCount.get()).isBetween(1, 2);
+  }
+
+  @Test public void sessionPoolSize_mustBePositive() {
+    assertThatThrownBy(() -> builder().sessionPoolSize(0))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("sessionPoolSize <= 0: 0");
+  }
+
+  @Test public void transactedBatchSize_commitsBeforeCompleting() throws Exception {
+    sender.close();
+    sender = builder().transactedBatchSize(5).build();
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(readMessage()))
+      .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void transactedBatchSize_sendsConcurrently() throws Exception {
+    sender.close();
+    sender = builder().sessionPoolSize(1).transactedBatchSize(5).build();
+
+    sendConcurrently(10);
+
+    assertThat(activemq.getMessageCount(sender.lazyInit.queue)).isEqualTo(10);
+    assertThat(sender.lazyInit.get().idleSessions)
+      .allSatisfy(pooled -> assertThat(pooled.pending).isEmpty());
+  }
+
+  @Test public void transactedBatchSize_failedSendCommitsOtherSessions() throws Exception {
+    sender.close();
+    sender = builder().sessionPoolSize(2).transactedBatchSize(5).build();
+    ActiveMQConn conn = sender.lazyInit.get();
+
+    ActiveMQConn.PooledSession withPending = conn.borrowSession(), broken = conn.borrowSession();
+
+    // Leave a message in an idle session's transaction, as a send does when others wait.
+    BytesMessage message = withPending.session.createBytesMessage();
+    message.writeBytes(new byte[] {'[', ']'});
+    withPending.sender.send(message);
+    List<Object> results = new ArrayList<>();
+    withPending.pending.add(new Callback<Void>() {
+      @Override public void onSuccess(Void value) {
+        results.add("success");
+      }
+
+      @Override public void onError(Throwable t) {
+        results.add(t);
+      }
+    });
+    conn.idleSessions.offerLast(withPending);
+
+    // The next send takes a broken session, so it fails.
+    broken.session.close();
+    conn.idleSessions.offerFirst(broken);
+
+    assertThatThrownBy(() -> conn.send(new byte[] {'[', ']'}, null, new AwaitableCallback()))
+      .isInstanceOf(IOException.class);
+
+    assertThat(results).containsExactly("success");
+    assertThat(activemq.getMessageCount(sender.lazyInit.queue)).isEqualTo(1);
+  }
+
+  @Test public void asyncSend() throws Exception {
+    sender.close();
+    sender = builder().asyncSend(true).producerWindowSize(1024).build();
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    assertThat(sender.lazyInit.get().connection.isUseAsyncSend()).isTrue();
+    assertThat(sender.lazyInit.get().connection.getProducerWindowSize()).isEqualTo(1024);
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(readMessage()))
+      .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
   @Test public void sendsSpansToCorrectQueue() throws Exception {
     sender.close();
     sender = builder().queue("customzipkinqueue").build();
@@ -154,6 +266,20 @@ public class ITActiveMQSender {
     return sender.sendSpans(Stream.of(spans).map(bytesEncoder::encode).collect(toList()));
   }
 
+  /** Sends messages from several threads, so that they wait for sessions. */
+  void sendConcurrently(int count) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(count);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        futures.add(executor.submit(() -> send(CLIENT_SPAN).execute()));
+      }
+      for (Future<Void> future : futures) future.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private byte[] readMessage() throws Exception {
     BytesMessage message = activemq.peekBytesMessage(sender.lazyInit.queue);
     byte[] result = new byte[(int) message.getBodyLength()];
@@ -161,6 +287,13 @@ public class ITActiveMQSender {
     return result;
   }
 
+  static byte[] readAllBytes(InputStream in) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buf = new byte[1024];
+    for (int read; (read = in.read(buf)) != -1; ) result.write(buf, 0, read);
+    return result.toByteArray();
+  }
+
   ActiveMQSender.Builder builder() {
     return ActiveMQSender.newBuilder()
       .connectionFactory(activemq.createConnectionFactory())
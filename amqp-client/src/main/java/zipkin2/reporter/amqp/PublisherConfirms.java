@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.amqp;
+
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import zipkin2.Callback;
+
+/**
+ * Completes callbacks of messages published on a channel in confirm mode, when the broker acks or
+ * nacks them. Outstanding callbacks fail when the channel shuts down, as confirms can no longer
+ * arrive.
+ *
+ * <p>Delivery tags are per-channel, so there is one instance per channel.
+ */
+final class PublisherConfirms implements ConfirmListener, ShutdownListener {
+  final ConcurrentSkipListMap<Long, Callback<Void>> outstanding = new ConcurrentSkipListMap<>();
+
+  /** Call before publishing, with {@link com.rabbitmq.client.Channel#getNextPublishSeqNo()}. */
+  void add(long deliveryTag, Callback<Void> callback) {
+    outstanding.put(deliveryTag, callback);
+  }
+
+  /** Call when publishing failed, as no confirm will arrive for the delivery tag. */
+  void remove(long deliveryTag) {
+    outstanding.remove(deliveryTag);
+  }
+
+  int size() {
+    return outstanding.size();
+  }
+
+  @Override public void handleAck(long deliveryTag, boolean multiple) {
+    complete(deliveryTag, multiple, null);
+  }
+
+  @Override public void handleNack(long deliveryTag, boolean multiple) {
+    complete(deliveryTag, multiple, new IOException("Broker rejected message " + deliveryTag));
+  }
+
+  @Override public void shutdownCompleted(ShutdownSignalException cause) {
+    for (Long deliveryTag : outstanding.keySet()) {
+      complete(deliveryTag, cause);
+    }
+  }
+
+  void complete(long deliveryTag, boolean multiple, Throwable error) {
+    if (!multiple) {
+      complete(deliveryTag, error);
+      return;
+    }
+    for (Long tag : outstanding.headMap(deliveryTag, true).keySet()) {
+      complete(tag, error);
+    }
+  }
+
+  void complete(long deliveryTag, Throwable error) {
+    Callback<Void> callback = outstanding.remove(deliveryTag);
+    if (callback == null) return; // already completed
+    if (error == null) {
+      callback.onSuccess(null);
+    } else {
+      callback.onError(error);
+    }
+  }
+}
@@ -13,14 +13,21 @@
  */
 package zipkin2.reporter.amqp;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Address;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.CheckResult;
@@ -28,6 +35,8 @@ import zipkin2.codec.Encoding;
 import zipkin2.reporter.AsyncReporter;
 import zipkin2.reporter.BytesMessageEncoder;
 import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
 import zipkin2.reporter.Sender;
 
 import static zipkin2.Call.propagateIfFatal;
@@ -64,12 +73,12 @@ import static zipkin2.Call.propagateIfFatal;
  *
  * <h3>Implementation Notes</h3>
  *
- * <p>The sender does not use <a href="https://www.rabbitmq.com/confirms.html">RabbitMQ Publisher
- * Confirms</a>, so messages considered sent may not necessarily be received by consumers in case of
- * RabbitMQ failure.
+ * <p>By default, the sender does not use <a href="https://www.rabbitmq.com/confirms.html">RabbitMQ
+ * Publisher Confirms</a>, so messages considered sent may not necessarily be received by consumers
+ * in case of RabbitMQ failure. See {@link Builder#publisherConfirms(boolean)}.
  *
- * <p>This sender is thread-safe: a channel is created for each thread that calls
- * {@link #sendSpans(List)}.
+ * <p>This sender is thread-safe: each publish borrows a channel from a pool of at most {@link
+ * Builder#channelPoolSize(int)} channels.
  */
 public final class RabbitMQSender extends Sender {
   /** Creates a sender that sends {@link Encoding#JSON} messages. */
@@ -88,6 +97,10 @@ public final class RabbitMQSender extends Sender {
     String queue = "zipkin";
     Encoding encoding = Encoding.JSON;
     int messageMaxBytes = 500_000;
+    Compression compression;
+    boolean publisherConfirms;
+    int confirmTimeout = 10_000;
+    int channelPoolSize = 4;
 
     Builder(RabbitMQSender sender) {
       connectionFactory = sender.connectionFactory.clone();
@@ -95,6 +108,10 @@ public final class RabbitMQSender extends Sender {
       queue = sender.queue;
       encoding = sender.encoding;
       messageMaxBytes = sender.messageMaxBytes;
+      compression = sender.compression;
+      publisherConfirms = sender.publisherConfirms;
+      confirmTimeout = sender.confirmTimeout;
+      channelPoolSize = sender.channelPoolSize;
     }
 
     public Builder connectionFactory(ConnectionFactory connectionFactory) {
@@ -164,6 +181,66 @@ public final class RabbitMQSender extends Sender {
       return this;
     }
 
+    /**
+     * Compresses each message, and sets the "content_encoding" property to its {@link
+     * Compression#encoding()}. Default none.
+     *
+     * <p>Note: The consumer must honor the content encoding, or it will fail to decode spans.
+     *
+     * @since 2.17
+     */
+    public Builder compression(Compression compression) {
+      if (compression == null) throw new NullPointerException("compression == null");
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * When true, channels are put in confirm mode, and a call completes when the broker confirms
+     * its message. A message the broker rejects, or that is unconfirmed when its channel closes,
+     * fails the call, so it counts as dropped. So does a message unconfirmed after the {@link
+     * #confirmTimeout(int)}. Default false.
+     *
+     * <p>Confirms arrive asynchronously, so a channel is only held while publishing. Raise {@link
+     * AsyncReporter.Builder#messagesInFlight(int)} to publish more messages while awaiting their
+     * confirms.
+     *
+     * @since 2.17
+     */
+    public Builder publisherConfirms(boolean publisherConfirms) {
+      this.publisherConfirms = publisherConfirms;
+      return this;
+    }
+
+    /**
+     * When {@link #publisherConfirms(boolean) publisher confirms} are enabled, how long in
+     * milliseconds {@link Call#execute()} waits for the broker to confirm a message before failing.
+     * Defaults to 10 seconds.
+     *
+     * @since 2.17
+     */
+    public Builder confirmTimeout(int confirmTimeout) {
+      if (confirmTimeout <= 0) {
+        throw new IllegalArgumentException("confirmTimeout <= 0: " + confirmTimeout);
+      }
+      this.confirmTimeout = confirmTimeout;
+      return this;
+    }
+
+    /**
+     * Maximum count of channels to publish on. Channels are opened as needed, and a publish waits
+     * for one when all are in use. Default 4.
+     *
+     * @since 2.17
+     */
+    public Builder channelPoolSize(int channelPoolSize) {
+      if (channelPoolSize <= 0) {
+        throw new IllegalArgumentException("channelPoolSize <= 0: " + channelPoolSize);
+      }
+      this.channelPoolSize = channelPoolSize;
+      return this;
+    }
+
     public final RabbitMQSender build() {
       return new RabbitMQSender(this);
     }
@@ -178,6 +255,12 @@ public final class RabbitMQSender extends Sender {
   final String queue;
   final ConnectionFactory connectionFactory;
   final BytesMessageEncoder encoder;
+  final Compression compression;
+  final AMQP.BasicProperties properties;
+  final boolean publisherConfirms;
+  final int confirmTimeout, channelPoolSize;
+  final BlockingQueue<PooledChannel> idleChannels;
+  final AtomicInteger channelCount = new AtomicInteger();
 
   RabbitMQSender(Builder builder) {
     if (builder.addresses == null) throw new NullPointerException("addresses == null");
@@ -187,6 +270,14 @@ public final class RabbitMQSender extends Sender {
     addresses = builder.addresses;
     queue = builder.queue;
     connectionFactory = builder.connectionFactory.clone();
+    compression = builder.compression;
+    properties = compression != null
+        ? new AMQP.BasicProperties.Builder().contentEncoding(compression.encoding()).build()
+        : null;
+    publisherConfirms = builder.publisherConfirms;
+    confirmTimeout = builder.confirmTimeout;
+    channelPoolSize = builder.channelPoolSize;
+    idleChannels = new ArrayBlockingQueue<>(channelPoolSize);
   }
 
   public final Builder toBuilder() {
@@ -220,10 +311,21 @@ public final class RabbitMQSender extends Sender {
     return new RabbitMQCall(message);
   }
 
+  /** Like {@link #sendSpans(List)}, except the message is copied once, as it is already framed. */
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    return new RabbitMQCall(message.toByteArray());
+  }
+
   /** Ensures there are no connection issues. */
   @Override public CheckResult check() {
     try {
-      if (localChannel().isOpen()) return CheckResult.OK;
+      PooledChannel pooled = borrowChannel();
+      try {
+        if (pooled.channel.isOpen()) return CheckResult.OK;
+      } finally {
+        idleChannels.offer(pooled);
+      }
       throw new IllegalStateException("Not Open");
     } catch (Throwable e) {
       propagateIfFatal(e);
@@ -257,25 +359,64 @@ public final class RabbitMQSender extends Sender {
   @Override public synchronized void close() throws IOException {
     if (closeCalled) return;
     Connection connection = this.connection;
-    if (connection != null) connection.close();
+    if (connection != null) connection.close(); // fails any unconfirmed messages
+    idleChannels.clear();
     closeCalled = true;
   }
 
-  final ThreadLocal<Channel> CHANNEL = new ThreadLocal<>();
+  static final class PooledChannel {
+    final Channel channel;
+    final PublisherConfirms confirms; // null unless publisherConfirms
+
+    PooledChannel(Channel channel, PublisherConfirms confirms) {
+      this.channel = channel;
+      this.confirms = confirms;
+    }
+  }
 
   /**
-   * In most circumstances there will only be one thread calling {@link #sendSpans(List)}, the
-   * {@link AsyncReporter}. Just in case someone is flushing manually, we use a thread-local. All of
-   * this is to avoid recreating a channel for each publish, as that costs two additional network
-   * roundtrips.
+   * Channels are reused, as creating one for each publish costs two additional network roundtrips.
+   * Unlike a thread-local, the pool doesn't leak channels when the threads that publish change.
+   * Callers must return the channel to {@link #idleChannels}, even when it was closed, so that
+   * waiting callers wake up and replace it.
    */
-  Channel localChannel() throws IOException {
-    Channel channel = CHANNEL.get();
-    if (channel == null) {
-      channel = get().createChannel();
-      CHANNEL.set(channel);
+  PooledChannel borrowChannel() throws IOException {
+    while (true) {
+      PooledChannel pooled = idleChannels.poll();
+      if (pooled == null) {
+        if (channelCount.incrementAndGet() <= channelPoolSize) {
+          boolean created = false;
+          try {
+            pooled = newChannel();
+            created = true;
+            return pooled;
+          } finally {
+            if (!created) channelCount.decrementAndGet();
+          }
+        }
+        channelCount.decrementAndGet();
+        try {
+          pooled = idleChannels.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted waiting for a channel");
+        }
+      }
+      if (pooled.channel.isOpen()) return pooled;
+      channelCount.decrementAndGet(); // discard a channel closed by the broker
     }
-    return channel;
+  }
+
+  PooledChannel newChannel() throws IOException {
+    if (closeCalled) throw new ClosedSenderException();
+    Channel channel = get().createChannel();
+    if (channel == null) throw new IOException("No channels available on " + connection);
+    if (!publisherConfirms) return new PooledChannel(channel, null);
+    PublisherConfirms confirms = new PublisherConfirms();
+    channel.addConfirmListener(confirms);
+    channel.addShutdownListener(confirms);
+    channel.confirmSelect();
+    return new PooledChannel(channel, confirms);
   }
 
   class RabbitMQCall extends Call.Base<Void> { // RabbitMQFuture is not cancelable
@@ -286,18 +427,45 @@ public final class RabbitMQSender extends Sender {
     }
 
     @Override protected Void doExecute() throws IOException {
-      publish();
+      if (!publisherConfirms) {
+        publish(null);
+        return null;
+      }
+      ConfirmCallback callback = new ConfirmCallback();
+      publish(callback);
+      callback.await(confirmTimeout);
       return null;
     }
 
-    void publish() throws IOException {
-      localChannel().basicPublish("", queue, null, message);
+    /** When publisher confirms are enabled, the callback completes when the broker confirms. */
+    void publish(Callback<Void> callback) throws IOException {
+      byte[] body = compression != null
+          ? compression.compress(message, 0, message.length)
+          : message;
+      PooledChannel pooled = borrowChannel();
+      try {
+        if (pooled.confirms == null) {
+          pooled.channel.basicPublish("", queue, properties, body);
+          return;
+        }
+        long deliveryTag = pooled.channel.getNextPublishSeqNo();
+        pooled.confirms.add(deliveryTag, callback);
+        boolean published = false;
+        try {
+          pooled.channel.basicPublish("", queue, properties, body);
+          published = true;
+        } finally {
+          if (!published) pooled.confirms.remove(deliveryTag);
+        }
+      } finally {
+        idleChannels.offer(pooled);
+      }
     }
 
     @Override protected void doEnqueue(Callback<Void> callback) {
       try {
-        publish();
-        callback.onSuccess(null);
+        publish(publisherConfirms ? callback : null);
+        if (!publisherConfirms) callback.onSuccess(null);
       } catch (IOException | RuntimeException | Error e) {
         callback.onError(e);
       }
@@ -308,6 +476,40 @@ public final class RabbitMQSender extends Sender {
     }
   }
 
+  /** Like {@link Channel#waitForConfirms(long)}, this bounds how long a caller waits. */
+  static final class ConfirmCallback implements Callback<Void> {
+    final CountDownLatch countDown = new CountDownLatch(1);
+    Throwable throwable; // thread visibility guaranteed by the countdown latch
+
+    /** Throws the error the message failed with, such as an {@link IOException} on nack. */
+    void await(int timeoutMillis) throws IOException {
+      try {
+        if (!countDown.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw new IOException(
+              "Timed out after " + timeoutMillis + "ms waiting for the broker to confirm");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted waiting for the broker to confirm");
+      }
+      Throwable result = throwable;
+      if (result == null) return;
+      if (result instanceof IOException) throw (IOException) result;
+      if (result instanceof Error) throw (Error) result;
+      if (result instanceof RuntimeException) throw (RuntimeException) result;
+      throw new IOException(result);
+    }
+
+    @Override public void onSuccess(Void ignored) {
+      countDown.countDown();
+    }
+
+    @Override public void onError(Throwable t) {
+      throwable = t;
+      countDown.countDown();
+    }
+  }
+
   static List<Address> convertAddresses(String addresses) {
     String[] addressStrings = addresses.split(",");
     Address[] addressArray = new Address[addressStrings.length];
@@ -30,6 +30,7 @@ import zipkin2.Span;
 import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.reporter.AwaitableCallback;
 import zipkin2.reporter.Sender;
 
 import static java.util.stream.Collectors.toList;
@@ -62,6 +63,38 @@ public class ITRabbitMQSender {
         .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
   }
 
+  @Test public void publisherConfirms() throws Exception {
+    sender.close();
+    sender = rabbit.tryToInitializeSender(rabbit.newSenderBuilder().publisherConfirms(true));
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(readMessage()))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void publisherConfirms_enqueueCompletesOnConfirm() throws Exception {
+    sender.close();
+    sender = rabbit.tryToInitializeSender(rabbit.newSenderBuilder().publisherConfirms(true));
+
+    AwaitableCallback callback = new AwaitableCallback();
+    send(CLIENT_SPAN, CLIENT_SPAN).enqueue(callback);
+    callback.await();
+
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(readMessage()))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void reusesPooledChannels() throws Exception {
+    sender.close();
+    sender = rabbit.tryToInitializeSender(rabbit.newSenderBuilder().channelPoolSize(1));
+
+    send(CLIENT_SPAN).execute();
+    send(CLIENT_SPAN).execute();
+
+    assertThat(sender.channelCount).hasValue(1);
+  }
+
   @Test public void sendsSpansToCorrectQueue() throws Exception {
     String differentQueue = "zipkin-test2";
 
@@ -99,14 +132,19 @@ public class ITRabbitMQSender {
     final AtomicReference<byte[]> result = new AtomicReference<>();
 
     // Don't close this as it invalidates the sender's connection!
-    Channel channel = sender.localChannel();
-    channel.basicConsume(sender.queue, true, new DefaultConsumer(channel) {
-      @Override public void handleDelivery(String consumerTag, Envelope envelope,
-          AMQP.BasicProperties properties, byte[] body) {
-        result.set(body);
-        countDown.countDown();
-      }
-    });
+    RabbitMQSender.PooledChannel pooled = sender.borrowChannel();
+    try {
+      Channel channel = pooled.channel;
+      channel.basicConsume(sender.queue, true, new DefaultConsumer(channel) {
+        @Override public void handleDelivery(String consumerTag, Envelope envelope,
+            AMQP.BasicProperties properties, byte[] body) {
+          result.set(body);
+          countDown.countDown();
+        }
+      });
+    } finally {
+      sender.idleChannels.offer(pooled);
+    }
     assertThat(countDown.await(10, TimeUnit.SECONDS))
         .withFailMessage("Timed out waiting to read message")
         .isTrue();
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.amqp;
+
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import org.junit.Test;
+import zipkin2.reporter.AwaitableCallback;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PublisherConfirmsTest {
+  PublisherConfirms confirms = new PublisherConfirms();
+  AwaitableCallback one = new AwaitableCallback(), two = new AwaitableCallback(),
+    three = new AwaitableCallback();
+
+  @Test public void ack_completesOnlyThatMessage() {
+    confirms.add(1, one);
+    confirms.add(2, two);
+
+    confirms.handleAck(1, false);
+
+    one.await();
+    assertThat(confirms.outstanding).containsOnlyKeys(2L);
+  }
+
+  @Test public void ack_multipleCompletesUpToDeliveryTag() {
+    confirms.add(1, one);
+    confirms.add(2, two);
+    confirms.add(3, three);
+
+    confirms.handleAck(2, true);
+
+    one.await();
+    two.await();
+    assertThat(confirms.outstanding).containsOnlyKeys(3L);
+  }
+
+  @Test public void nack_fails() {
+    confirms.add(1, one);
+
+    confirms.handleNack(1, false);
+
+    assertThatThrownBy(one::await)
+      .hasCauseInstanceOf(IOException.class)
+      .hasMessageContaining("Broker rejected message 1");
+    assertThat(confirms.size()).isZero();
+  }
+
+  @Test public void nack_multipleFailsUpToDeliveryTag() {
+    confirms.add(1, one);
+    confirms.add(2, two);
+    confirms.add(3, three);
+
+    confirms.handleNack(2, true);
+
+    assertThatThrownBy(one::await).hasCauseInstanceOf(IOException.class);
+    assertThatThrownBy(two::await).hasCauseInstanceOf(IOException.class);
+    assertThat(confirms.outstanding).containsOnlyKeys(3L);
+  }
+
+  @Test public void remove_ignoresLaterConfirm() {
+    confirms.add(1, one);
+    confirms.remove(1);
+
+    confirms.handleAck(1, false); // doesn't throw
+
+    assertThat(confirms.size()).isZero();
+  }
+
+  @Test public void shutdown_failsOutstanding() {
+    confirms.add(1, one);
+    confirms.add(2, two);
+    ShutdownSignalException cause = new ShutdownSignalException(false, false, null, null);
+
+    confirms.shutdownCompleted(cause);
+
+    assertThatThrownBy(one::await).isSameAs(cause);
+    assertThatThrownBy(two::await).isSameAs(cause);
+    assertThat(confirms.size()).isZero();
+  }
+}
@@ -13,6 +13,7 @@
  */
 package zipkin2.reporter.amqp;
 
+import java.io.IOException;
 import org.junit.Test;
 import zipkin2.CheckResult;
 import zipkin2.reporter.AsyncReporter;
@@ -43,6 +44,38 @@ public class RabbitMQSenderTest {
         .isInstanceOf(ClosedSenderException.class);
   }
 
+  @Test public void channelPoolSize_mustBePositive() {
+    assertThatThrownBy(() -> RabbitMQSender.newBuilder().channelPoolSize(0))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("channelPoolSize <= 0: 0");
+  }
+
+  @Test public void confirmTimeout_mustBePositive() {
+    assertThatThrownBy(() -> RabbitMQSender.newBuilder().confirmTimeout(0))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("confirmTimeout <= 0: 0");
+  }
+
+  @Test public void confirmCallback_timesOut() {
+    RabbitMQSender.ConfirmCallback callback = new RabbitMQSender.ConfirmCallback();
+
+    assertThatThrownBy(() -> callback.await(1))
+        .isInstanceOf(IOException.class)
+        .hasMessage("Timed out after 1ms waiting for the broker to confirm");
+  }
+
+  @Test public void confirmCallback_throwsNackAsIOException() {
+    PublisherConfirms confirms = new PublisherConfirms();
+    RabbitMQSender.ConfirmCallback callback = new RabbitMQSender.ConfirmCallback();
+    confirms.add(1, callback);
+
+    confirms.handleNack(1, false);
+
+    assertThatThrownBy(() -> callback.await(1000))
+        .isInstanceOf(IOException.class)
+        .hasMessage("Broker rejected message 1");
+  }
+
   /**
    * The output of toString() on {@link Sender} implementations appears in thread names created by
    * {@link AsyncReporter}. Since thread names are likely to be exposed in logs and other monitoring
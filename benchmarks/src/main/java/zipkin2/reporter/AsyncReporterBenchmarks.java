@@ -35,6 +35,7 @@ import org.openjdk.jmh.annotations.Warmup;
 import zipkin2.Span;
 import zipkin2.TestObjects;
 import zipkin2.codec.Encoding;
+import zipkin2.reporter.AsyncReporter.QueueType;
 
 @Measurement(iterations = 5, time = 1)
 @Warmup(iterations = 10, time = 1)
@@ -50,6 +51,9 @@ public class AsyncReporterBenchmarks {
   @Param
   public Encoding encoding;
 
+  @Param
+  public QueueType queueType;
+
   @AuxCounters
   @State(Scope.Thread)
   public static class InMemoryReporterMetricsAsCounters {
@@ -88,6 +92,7 @@ public class AsyncReporterBenchmarks {
     reporter = AsyncReporter.builder(new NoopSender(encoding))
         .messageMaxBytes(1000000) // example default from Kafka message.max.bytes
         .metrics(metrics)
+        .queueType(queueType)
         .build();
   }
 
@@ -106,6 +111,11 @@ public class AsyncReporterBenchmarks {
     reporter.report(clientSpan);
   }
 
+  @Benchmark @Group("extreme_contention") @GroupThreads(64)
+  public void extreme_contention_report(InMemoryReporterMetricsAsCounters counters) {
+    reporter.report(clientSpan);
+  }
+
   @TearDown(Level.Iteration)
   public void clear() throws IOException {
     spanBacklog.addAndGet(((AsyncReporter.BoundedAsyncReporter) reporter).pending.clear());
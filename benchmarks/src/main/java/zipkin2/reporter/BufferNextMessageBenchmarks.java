@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.codec.Encoding;
+
+/**
+ * Fills a message of small spans, then drains it, as a flush does. Run with the gc profiler (as
+ * {@link #main} does) to see allocation per flush, via {@code gc.alloc.rate.norm}.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class BufferNextMessageBenchmarks {
+  static final Object SPAN = new Object();
+
+  // default max message size, and 64KiB
+  @Param({"500000", "65536"})
+  public int messageMaxBytes;
+
+  // small spans are the worst case, as there are more per message
+  @Param({"100", "500"})
+  public int spanSizeInBytes;
+
+  BufferNextMessage<Object> bundler;
+  SpanWithSizeConsumer<Object> drainAll = new SpanWithSizeConsumer<Object>() {
+    @Override public boolean offer(Object next, int nextSizeInBytes) {
+      return true;
+    }
+  };
+
+  @Setup public void setup() {
+    bundler = BufferNextMessage.create(Encoding.JSON, messageMaxBytes, 0L);
+    fill(); // grow arrays, as a long-lived flusher would have
+    bundler.drain(drainAll);
+  }
+
+  @Benchmark public int fillAndDrain() {
+    fill();
+    int count = bundler.count();
+    bundler.drain(drainAll);
+    return count;
+  }
+
+  /** Like when the sender's message overhead leaves half the spans for the next message. */
+  @Benchmark public int fillAndDrainHalf() {
+    fill();
+    final int half = bundler.count() / 2;
+    bundler.drain(new SpanWithSizeConsumer<Object>() {
+      int drained;
+
+      @Override public boolean offer(Object next, int nextSizeInBytes) {
+        return drained++ < half;
+      }
+    });
+    int count = bundler.count();
+    bundler.drain(drainAll);
+    return count;
+  }
+
+  void fill() {
+    while (bundler.offer(SPAN, spanSizeInBytes)) ;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + BufferNextMessageBenchmarks.class.getSimpleName() + ".*")
+        .addProfiler(GCProfiler.class)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -24,6 +24,7 @@ import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
@@ -33,6 +34,7 @@ import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.reporter.AsyncReporter.QueueType;
 
 @Measurement(iterations = 5, time = 1)
 @Warmup(iterations = 10, time = 1)
@@ -46,8 +48,8 @@ public class ByteBoundedQueueBenchmarks {
   @AuxCounters
   @State(Scope.Thread)
   public static class OfferCounters {
-    public int offersFailed;
-    public int offersMade;
+    public long offersFailed;
+    public long offersMade;
 
     @Setup(Level.Iteration)
     public void clean() {
@@ -58,7 +60,7 @@ public class ByteBoundedQueueBenchmarks {
   @AuxCounters
   @State(Scope.Thread)
   public static class DrainCounters {
-    public int drained;
+    public long drained;
 
     @Setup(Level.Iteration)
     public void clean() {
@@ -75,11 +77,14 @@ public class ByteBoundedQueueBenchmarks {
     }
   }
 
-  ByteBoundedQueue<Byte> q;
+  @Param
+  public QueueType queueType;
+
+  BoundedQueue<Byte> q;
 
   @Setup
   public void setup() {
-    q = new ByteBoundedQueue<>(10000, 10000);
+    q = BoundedQueue.create(queueType, 10000, 10000);
   }
 
   @Benchmark @Group("no_contention") @GroupThreads(1)
@@ -133,6 +138,41 @@ public class ByteBoundedQueueBenchmarks {
     }, 1000);
   }
 
+  @Benchmark @Group("very_high_contention") @GroupThreads(16)
+  public void very_high_contention_offer(OfferCounters counters) {
+    if (q.offer(ONE, 1)) {
+      counters.offersMade++;
+    } else {
+      counters.offersFailed++;
+    }
+  }
+
+  @Benchmark @Group("very_high_contention") @GroupThreads(1)
+  public void very_high_contention_drain(DrainCounters counters, ConsumerMarker cm) {
+    q.drainTo((s, b) -> {
+      counters.drained++;
+      return true;
+    }, 1000);
+  }
+
+  /** Models a reporter shared by all request threads of a large host */
+  @Benchmark @Group("extreme_contention") @GroupThreads(64)
+  public void extreme_contention_offer(OfferCounters counters) {
+    if (q.offer(ONE, 1)) {
+      counters.offersMade++;
+    } else {
+      counters.offersFailed++;
+    }
+  }
+
+  @Benchmark @Group("extreme_contention") @GroupThreads(1)
+  public void extreme_contention_drain(DrainCounters counters, ConsumerMarker cm) {
+    q.drainTo((s, b) -> {
+      counters.drained++;
+      return true;
+    }, 1000);
+  }
+
   @TearDown(Level.Iteration)
   public void emptyQ() {
     // If this thread didn't drain, return
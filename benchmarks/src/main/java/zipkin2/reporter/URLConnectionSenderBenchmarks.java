@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2019 The OpenZipkin Authors
+ * Copyright 2016-2020 The OpenZipkin Authors
  *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
  * in compliance with the License. You may obtain a copy of the License at
@@ -13,10 +13,31 @@
  */
 package zipkin2.reporter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.codec.Encoding;
 import zipkin2.reporter.urlconnection.URLConnectionSender;
 
 public class URLConnectionSenderBenchmarks extends HttpSenderBenchmarks {
@@ -25,6 +46,128 @@ public class URLConnectionSenderBenchmarks extends HttpSenderBenchmarks {
     return URLConnectionSender.create(endpoint);
   }
 
+  /**
+   * Sends the same message repeatedly from one thread. Run with {@code -prof gc} to see allocation
+   * per message: {@code gc.alloc.rate.norm} is bytes allocated by each send.
+   */
+  @Measurement(iterations = 5, time = 1)
+  @Warmup(iterations = 10, time = 1)
+  @Fork(3)
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @State(Scope.Benchmark)
+  @Threads(1)
+  public static class SendMessage {
+    // 64KiB, 500KB (default messageMaxBytes)
+    @Param({"65536", "500000"})
+    public int messageSizeInBytes;
+
+    @Param({"true", "false"})
+    public boolean compressionEnabled;
+
+    DiscardingHttpServer server;
+    URLConnectionSender sender;
+    MessageBuffer message;
+
+    @Setup(Level.Trial) public void setup() throws IOException {
+      server = new DiscardingHttpServer();
+
+      sender = URLConnectionSender.newBuilder()
+        .endpoint("http://127.0.0.1:" + server.port() + "/api/v2/spans")
+        .compressionEnabled(compressionEnabled)
+        .build();
+
+      message = MessageBuffer.create(Encoding.JSON);
+      while (message.sizeInBytes() + clientSpanBytes.length + 1 <= messageSizeInBytes) {
+        message.add(clientSpanBytes);
+      }
+    }
+
+    @Benchmark public void sendMessage() throws IOException {
+      sender.sendMessage(message).execute();
+    }
+
+    @TearDown(Level.Trial) public void close() throws IOException {
+      sender.close();
+      server.close();
+    }
+  }
+
+  /**
+   * Reads requests into a fixed buffer and replies 202. This runs in the same JVM as the sender, so
+   * unlike a typical HTTP server, it must not allocate per request or it would skew the results.
+   */
+  static final class DiscardingHttpServer implements Runnable {
+    static final byte[] CONTENT_LENGTH = "content-length:".getBytes();
+    static final byte[] RESPONSE = "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n".getBytes();
+
+    final ServerSocket serverSocket = new ServerSocket(0);
+    final byte[] line = new byte[1024], body = new byte[8192];
+
+    DiscardingHttpServer() throws IOException {
+      Thread thread = new Thread(this, "DiscardingHttpServer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int port() {
+      return serverSocket.getLocalPort();
+    }
+
+    @Override public void run() {
+      while (!serverSocket.isClosed()) {
+        try (Socket socket = serverSocket.accept()) {
+          InputStream in = socket.getInputStream();
+          OutputStream out = socket.getOutputStream();
+          while (true) {
+            long contentLength = readHeaders(in);
+            if (contentLength < 0) break; // connection closed
+            while (contentLength > 0) {
+              int read = in.read(body, 0, (int) Math.min(body.length, contentLength));
+              if (read == -1) break;
+              contentLength -= read;
+            }
+            out.write(RESPONSE);
+            out.flush();
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    }
+
+    /** Returns the content length of the next request or -1 at the end of the stream. */
+    long readHeaders(InputStream in) throws IOException {
+      long contentLength = 0;
+      while (true) {
+        int length = 0;
+        for (int b; (b = in.read()) != '\n'; ) {
+          if (b == -1) return -1;
+          if (b != '\r' && length < line.length) line[length++] = (byte) b;
+        }
+        if (length == 0) return contentLength; // end of headers
+        if (startsWithIgnoreCase(line, length, CONTENT_LENGTH)) {
+          contentLength = 0;
+          for (int i = CONTENT_LENGTH.length; i < length; i++) {
+            if (line[i] >= '0' && line[i] <= '9') contentLength = contentLength * 10 + line[i] - '0';
+          }
+        }
+      }
+    }
+
+    static boolean startsWithIgnoreCase(byte[] line, int length, byte[] prefix) {
+      if (length < prefix.length) return false;
+      for (int i = 0; i < prefix.length; i++) {
+        if (Character.toLowerCase(line[i]) != prefix[i]) return false;
+      }
+      return true;
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
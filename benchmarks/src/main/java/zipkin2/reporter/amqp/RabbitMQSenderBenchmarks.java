@@ -38,7 +38,7 @@ public class RabbitMQSenderBenchmarks extends SenderBenchmarks {
       throw new AssumptionViolatedException(check.error().getMessage(), check.error());
     }
 
-    channel = result.localChannel();
+    channel = result.get().createChannel();
     channel.queueDelete(result.queue);
     channel.queueDeclare(result.queue, false, true, true, null);
 
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.brave;
+
+import brave.handler.MutableSpan;
+import brave.handler.SpanHandler;
+import brave.propagation.TraceContext;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin2.reporter.AsyncReporter.QueueType;
+import zipkin2.reporter.ReporterMetrics;
+import zipkin2.reporter.okhttp3.OkHttpSender;
+
+import static zipkin2.reporter.brave.MutableSpanBenchmarks.newBigClientSpan;
+import static zipkin2.reporter.brave.MutableSpanBenchmarks.newServerSpan;
+
+/**
+ * Measures the path from {@link SpanHandler#end} into the reporter's queue, which runs on
+ * application threads. There's no flush thread, so only that path is measured.
+ *
+ * <p>Each iteration reports a fixed batch of {@link #BATCH_SIZE} spans, then clears the queue. A
+ * timed iteration would report more spans than the queue holds, and the rest would measure the
+ * drop path instead, so teardown also fails if any span was dropped. Scores are per batch.
+ *
+ * <p>{@link #main} runs with the gc profiler and fails if {@code gc.alloc.rate.norm} divided by
+ * the batch size, the bytes allocated per reported span, exceeds {@link #MAX_BYTES_PER_SPAN}.
+ */
+@Measurement(iterations = 50, batchSize = AsyncZipkinSpanHandlerBenchmarks.BATCH_SIZE)
+@Warmup(iterations = 50, batchSize = AsyncZipkinSpanHandlerBenchmarks.BATCH_SIZE)
+@Fork(3)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(1)
+public class AsyncZipkinSpanHandlerBenchmarks {
+  /** Allows for profiler noise, while failing on any per-span allocation, such as a byte[] */
+  static final double MAX_BYTES_PER_SPAN = 8;
+  /** Spans reported per iteration, well under what the queue holds. */
+  static final int BATCH_SIZE = 10_000;
+
+  @Param
+  public QueueType queueType;
+
+  final TraceContext context = TraceContext.newBuilder().traceId(1).spanId(2).sampled(true).build();
+  final MutableSpan serverSpan = newServerSpan();
+  final MutableSpan bigClientSpan = newBigClientSpan();
+  final DroppedSpans metrics = new DroppedSpans();
+  OkHttpSender sender;
+  AsyncZipkinSpanHandler handler;
+  Object pending;
+  Method clear;
+
+  /**
+   * The handler is created once, as creating it allocates its queue. Queues pre-allocate, so a new
+   * handler per iteration would attribute that to the spans reported.
+   */
+  @Setup(Level.Trial) public void setup() throws Exception {
+    sender = OkHttpSender.create("http://127.0.0.1:9411/api/v2/spans"); // never sends
+    handler = AsyncZipkinSpanHandler.newBuilder(sender)
+        .queueType(queueType)
+        .metrics(metrics)
+        .queuedMaxSpans(10_000_000)
+        .queuedMaxBytes(Integer.MAX_VALUE)
+        .messageTimeout(0, TimeUnit.MILLISECONDS) // no flush thread
+        .build();
+
+    // The queue is package-private in another package, so use reflection to clear it.
+    Field pendingField = handler.spanReporter.getClass().getDeclaredField("pending");
+    pendingField.setAccessible(true);
+    pending = pendingField.get(handler.spanReporter);
+    clear = Class.forName("zipkin2.reporter.BoundedQueue").getDeclaredMethod("clear");
+    clear.setAccessible(true);
+  }
+
+  /** Like AsyncReporterBenchmarks, clear the queue so that spans aren't dropped. */
+  @TearDown(Level.Iteration) public void clear() throws Exception {
+    clear.invoke(pending);
+    long spansDropped = metrics.spansDropped.get();
+    if (spansDropped != 0) {
+      throw new IllegalStateException(spansDropped + " spans were dropped, so the "
+          + "drop path was measured instead of the queue. Lower BATCH_SIZE.");
+    }
+  }
+
+  @TearDown(Level.Trial) public void close() {
+    handler.close();
+    sender.close();
+  }
+
+  @Benchmark public boolean endServerSpan() {
+    return handler.end(context, serverSpan, SpanHandler.Cause.FINISHED);
+  }
+
+  @Benchmark public boolean endBigClientSpan() {
+    return handler.end(context, bigClientSpan, SpanHandler.Cause.FINISHED);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .addProfiler(GCProfiler.class)
+        .include(".*" + AsyncZipkinSpanHandlerBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    for (RunResult result : new Runner(opt).run()) {
+      for (Result<?> secondary : result.getSecondaryResults().values()) {
+        if (!secondary.getLabel().endsWith("gc.alloc.rate.norm")) continue;
+        double bytesPerSpan = secondary.getScore() / BATCH_SIZE; // scores are per batch
+        if (bytesPerSpan > MAX_BYTES_PER_SPAN) {
+          throw new IllegalStateException(result.getParams().getBenchmark() + " "
+              + result.getParams().getParam("queueType") + " allocated "
+              + bytesPerSpan + " bytes per span, more than " + MAX_BYTES_PER_SPAN);
+        }
+      }
+    }
+  }
+
+  /** Only counts dropped spans, so that metrics don't add allocation to what's measured. */
+  static final class DroppedSpans implements ReporterMetrics {
+    final AtomicLong spansDropped = new AtomicLong();
+
+    @Override public void incrementMessages() {
+    }
+
+    @Override public void incrementMessagesDropped(Throwable cause) {
+    }
+
+    @Override public void incrementSpans(int quantity) {
+    }
+
+    @Override public void incrementSpanBytes(int quantity) {
+    }
+
+    @Override public void incrementMessageBytes(int quantity) {
+    }
+
+    @Override public void incrementSpansDropped(int quantity) {
+      spansDropped.addAndGet(quantity);
+    }
+
+    @Override public void updateQueuedSpans(int update) {
+    }
+
+    @Override public void updateQueuedBytes(int update) {
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package zipkin2.reporter.brave;
 
 import brave.Span;
+import brave.Tags;
 import brave.handler.MutableSpan;
 import java.util.concurrent.TimeUnit;
 import org.openjdk.jmh.annotations.Benchmark;
@@ -39,6 +40,10 @@ import org.openjdk.jmh.runner.options.OptionsBuilder;
 @State(Scope.Thread)
 @Threads(1)
 public class MutableSpanBenchmarks {
+  static final JsonV2Encoder JSON_ENCODER = new JsonV2Encoder(Tags.ERROR);
+  static final Proto3Encoder PROTO3_ENCODER = new Proto3Encoder(Tags.ERROR);
+
+  final MutableSpan serverSpan = newServerSpan(), bigClientSpan = newBigClientSpan();
 
   @Benchmark public MutableSpan makeServerSpan() {
     return newServerSpan();
@@ -83,6 +88,38 @@ public class MutableSpanBenchmarks {
     return span;
   }
 
+  @Benchmark public int sizeInBytesServerSpan_json() {
+    return JSON_ENCODER.sizeInBytes(serverSpan);
+  }
+
+  @Benchmark public int sizeInBytesServerSpan_proto3() {
+    return PROTO3_ENCODER.sizeInBytes(serverSpan);
+  }
+
+  @Benchmark public byte[] encodeServerSpan_json() {
+    return JSON_ENCODER.encode(serverSpan);
+  }
+
+  @Benchmark public byte[] encodeServerSpan_proto3() {
+    return PROTO3_ENCODER.encode(serverSpan);
+  }
+
+  @Benchmark public int sizeInBytesBigClientSpan_json() {
+    return JSON_ENCODER.sizeInBytes(bigClientSpan);
+  }
+
+  @Benchmark public int sizeInBytesBigClientSpan_proto3() {
+    return PROTO3_ENCODER.sizeInBytes(bigClientSpan);
+  }
+
+  @Benchmark public byte[] encodeBigClientSpan_json() {
+    return JSON_ENCODER.encode(bigClientSpan);
+  }
+
+  @Benchmark public byte[] encodeBigClientSpan_proto3() {
+    return PROTO3_ENCODER.encode(bigClientSpan);
+  }
+
   // Convenience main entry-point
   public static void main(String[] args) throws RunnerException {
     Options opt = new OptionsBuilder()
@@ -14,11 +14,15 @@
 package zipkin2.reporter.brave;
 
 import brave.Tag;
+import brave.handler.MutableSpan;
 import brave.handler.SpanHandler;
 import java.io.Closeable;
+import java.io.File;
 import java.io.Flushable;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import zipkin2.codec.BytesEncoder;
+import zipkin2.codec.Encoding;
 import zipkin2.reporter.AsyncReporter;
 import zipkin2.reporter.ReporterMetrics;
 import zipkin2.reporter.Sender;
@@ -29,6 +33,10 @@ import zipkin2.reporter.internal.InternalReporter;
  * bulk <a href="https://zipkin.io/zipkin-api/#/">Zipkin JSON V2</a> message. When the {@link
  * Sender} is HTTP, the endpoint is usually "http://zipkinhost:9411/api/v2/spans".
  *
+ * <p>When {@link Sender#encoding()} is {@link Encoding#PROTO3}, spans are instead encoded as
+ * <a href="https://github.com/openzipkin/zipkin-api/blob/master/zipkin.proto">Zipkin Proto3</a>,
+ * which is smaller and cheaper to encode. Neither format converts to {@link zipkin2.Span} first.
+ *
  * <p>Example:
  * <pre>{@code
  * sender = URLConnectionSender.create("http://localhost:9411/api/v2/spans");
@@ -60,15 +68,18 @@ public final class AsyncZipkinSpanHandler extends ZipkinSpanHandler
   /** @since 2.14 */
   public static final class Builder extends ZipkinSpanHandler.Builder {
     final AsyncReporter.Builder delegate;
+    final Encoding encoding;
 
     Builder(AsyncZipkinSpanHandler zipkinSpanHandler) {
       super(zipkinSpanHandler);
       delegate = InternalReporter.instance.toBuilder(
           (AsyncReporter<?>) zipkinSpanHandler.spanReporter);
+      encoding = zipkinSpanHandler.encoding;
     }
 
     Builder(Sender sender) {
       this.delegate = AsyncReporter.builder(sender);
+      this.encoding = sender.encoding();
     }
 
     /**
@@ -134,6 +145,114 @@ public final class AsyncZipkinSpanHandler extends ZipkinSpanHandler
       return this;
     }
 
+    /**
+     * @see AsyncReporter.Builder#queueType(AsyncReporter.QueueType)
+     * @since 2.17
+     */
+    public Builder queueType(AsyncReporter.QueueType queueType) {
+      delegate.queueType(queueType);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#encodeOnReport(boolean)
+     * @since 2.17
+     */
+    public Builder encodeOnReport(boolean encodeOnReport) {
+      delegate.encodeOnReport(encodeOnReport);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#queueOffHeap(boolean)
+     * @since 2.17
+     */
+    public Builder queueOffHeap(boolean queueOffHeap) {
+      delegate.queueOffHeap(queueOffHeap);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#messagesInFlight(int)
+     * @since 2.17
+     */
+    public Builder messagesInFlight(int messagesInFlight) {
+      delegate.messagesInFlight(messagesInFlight);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#virtualThreads(boolean)
+     * @since 2.17
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      delegate.virtualThreads(virtualThreads);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#adaptiveBatching(boolean)
+     * @since 2.17
+     */
+    public Builder adaptiveBatching(boolean adaptiveBatching) {
+      delegate.adaptiveBatching(adaptiveBatching);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#spillDirectory(File)
+     * @since 2.17
+     */
+    public Builder spillDirectory(File spillDirectory) {
+      delegate.spillDirectory(spillDirectory);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#spillMaxBytes(long)
+     * @since 2.17
+     */
+    public Builder spillMaxBytes(long spillMaxBytes) {
+      delegate.spillMaxBytes(spillMaxBytes);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#retries(int)
+     * @since 2.17
+     */
+    public Builder retries(int retries) {
+      delegate.retries(retries);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#retryBackoff(long, TimeUnit)
+     * @since 2.17
+     */
+    public Builder retryBackoff(long backoff, TimeUnit unit) {
+      delegate.retryBackoff(backoff, unit);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#retryMaxBackoff(long, TimeUnit)
+     * @since 2.17
+     */
+    public Builder retryMaxBackoff(long maxBackoff, TimeUnit unit) {
+      delegate.retryMaxBackoff(maxBackoff, unit);
+      return this;
+    }
+
+    /**
+     * @see AsyncReporter.Builder#retryMaxBytes(int)
+     * @since 2.17
+     */
+    public Builder retryMaxBytes(int retryMaxBytes) {
+      delegate.retryMaxBytes(retryMaxBytes);
+      return this;
+    }
+
     @Override public Builder errorTag(Tag<Throwable> errorTag) {
       return (Builder) super.errorTag(errorTag);
     }
@@ -148,9 +267,23 @@ public final class AsyncZipkinSpanHandler extends ZipkinSpanHandler
     }
   }
 
+  final Encoding encoding;
+
   AsyncZipkinSpanHandler(Builder builder) {
-    super(builder.delegate.build(new JsonV2Encoder(builder.errorTag)),
+    super(builder.delegate.build(encoder(builder.encoding, builder.errorTag)),
         builder.errorTag, builder.alwaysReportSpans);
+    this.encoding = builder.encoding;
+  }
+
+  static BytesEncoder<MutableSpan> encoder(Encoding encoding, Tag<Throwable> errorTag) {
+    switch (encoding) {
+      case JSON:
+        return new JsonV2Encoder(errorTag);
+      case PROTO3:
+        return new Proto3Encoder(errorTag);
+      default:
+        throw new UnsupportedOperationException(encoding.name());
+    }
   }
 
   @Override public void flush() {
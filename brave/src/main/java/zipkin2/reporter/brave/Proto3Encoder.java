@@ -0,0 +1,452 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.brave;
+
+import brave.Tag;
+import brave.handler.MutableSpan;
+import java.util.List;
+import zipkin2.codec.BytesEncoder;
+import zipkin2.codec.Encoding;
+
+/**
+ * Writes <a href="https://github.com/openzipkin/zipkin-api/blob/master/zipkin.proto">zipkin.proto</a>
+ * directly from a {@link MutableSpan}, without an intermediate {@link zipkin2.Span}.
+ *
+ * <p>Like {@link zipkin2.codec.SpanBytesEncoder#PROTO3}, each span is encoded as a list of one
+ * span. This allows a message to be a concatenation of encoded spans.
+ */
+final class Proto3Encoder implements BytesEncoder<MutableSpan> {
+  static final int
+      SPAN_KEY = (1 << 3) | 2, // Spans are field 1 of ListOfSpans
+      TRACE_ID_KEY = (1 << 3) | 2,
+      PARENT_ID_KEY = (2 << 3) | 2,
+      ID_KEY = (3 << 3) | 2,
+      KIND_KEY = 4 << 3,
+      NAME_KEY = (5 << 3) | 2,
+      TIMESTAMP_KEY = (6 << 3) | 1,
+      DURATION_KEY = 7 << 3,
+      LOCAL_ENDPOINT_KEY = (8 << 3) | 2,
+      REMOTE_ENDPOINT_KEY = (9 << 3) | 2,
+      ANNOTATION_KEY = (10 << 3) | 2,
+      TAG_KEY = (11 << 3) | 2,
+      DEBUG_KEY = 12 << 3,
+      SHARED_KEY = 13 << 3;
+
+  static final int
+      SERVICE_NAME_KEY = (1 << 3) | 2,
+      IPV4_KEY = (2 << 3) | 2,
+      IPV6_KEY = (3 << 3) | 2,
+      PORT_KEY = 4 << 3;
+
+  static final int
+      ANNOTATION_TIMESTAMP_KEY = (1 << 3) | 1,
+      ANNOTATION_VALUE_KEY = (2 << 3) | 2;
+
+  static final int
+      TAG_KEY_KEY = (1 << 3) | 2,
+      TAG_VALUE_KEY = (2 << 3) | 2;
+
+  final Tag<Throwable> errorTag;
+
+  Proto3Encoder(Tag<Throwable> errorTag) {
+    if (errorTag == null) throw new NullPointerException("errorTag == null");
+    this.errorTag = errorTag;
+  }
+
+  @Override public Encoding encoding() {
+    return Encoding.PROTO3;
+  }
+
+  @Override public int sizeInBytes(MutableSpan span) {
+    return sizeOfLengthDelimitedField(spanSizeInBytes(span, errorValue(span)));
+  }
+
+  @Override public byte[] encode(MutableSpan span) {
+    String errorValue = errorValue(span);
+    int spanSizeInBytes = spanSizeInBytes(span, errorValue);
+    WriteBuffer b = new WriteBuffer(new byte[sizeOfLengthDelimitedField(spanSizeInBytes)]);
+    writeSpan(b, span, spanSizeInBytes, errorValue);
+    return b.buf;
+  }
+
+  @Override public byte[] encodeList(List<MutableSpan> spans) {
+    int sizeInBytes = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      sizeInBytes += sizeInBytes(spans.get(i));
+    }
+    WriteBuffer b = new WriteBuffer(new byte[sizeInBytes]);
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      MutableSpan span = spans.get(i);
+      String errorValue = errorValue(span);
+      writeSpan(b, span, spanSizeInBytes(span, errorValue), errorValue);
+    }
+    return b.buf;
+  }
+
+  /** Like the JSON encoder, the error tag is only added when there isn't already one. */
+  String errorValue(MutableSpan span) {
+    Throwable error = span.error();
+    if (error == null || span.tag("error") != null) return null;
+    return errorTag.value(error, null);
+  }
+
+  int spanSizeInBytes(MutableSpan span, String errorValue) {
+    int sizeInBytes = 0;
+    sizeInBytes += idSizeInBytes(span.traceId());
+    sizeInBytes += idSizeInBytes(span.parentId());
+    sizeInBytes += idSizeInBytes(span.id());
+    if (span.kind() != null) sizeInBytes += 2; // key + kind, which is less than 128
+    sizeInBytes += stringSizeInBytes(span.name());
+
+    long startTimestamp = span.startTimestamp(), finishTimestamp = span.finishTimestamp();
+    if (startTimestamp != 0L) {
+      sizeInBytes += 9; // key + fixed64
+      long duration = finishTimestamp != 0L ? finishTimestamp - startTimestamp : 0L;
+      if (duration != 0L) sizeInBytes += 1 + varintSizeInBytes(duration);
+    }
+
+    if (span.localServiceName() != null || span.localIp() != null) {
+      sizeInBytes += sizeOfLengthDelimitedField(
+          endpointSizeInBytes(span.localServiceName(), span.localIp(), span.localPort()));
+    }
+    if (span.remoteServiceName() != null || span.remoteIp() != null) {
+      sizeInBytes += sizeOfLengthDelimitedField(
+          endpointSizeInBytes(span.remoteServiceName(), span.remoteIp(), span.remotePort()));
+    }
+
+    for (int i = 0, length = span.annotationCount(); i < length; i++) {
+      sizeInBytes += sizeOfLengthDelimitedField(annotationSizeInBytes(span.annotationValueAt(i)));
+    }
+
+    for (int i = 0, length = span.tagCount(); i < length; i++) {
+      sizeInBytes +=
+          sizeOfLengthDelimitedField(tagSizeInBytes(span.tagKeyAt(i), span.tagValueAt(i)));
+    }
+    if (errorValue != null) {
+      sizeInBytes += sizeOfLengthDelimitedField(tagSizeInBytes(errorTag.key(), errorValue));
+    }
+
+    if (span.debug()) sizeInBytes += 2;
+    if (span.shared()) sizeInBytes += 2;
+    return sizeInBytes;
+  }
+
+  void writeSpan(WriteBuffer b, MutableSpan span, int spanSizeInBytes, String errorValue) {
+    b.writeByte(SPAN_KEY);
+    b.writeVarint(spanSizeInBytes);
+
+    writeId(b, TRACE_ID_KEY, span.traceId());
+    writeId(b, PARENT_ID_KEY, span.parentId());
+    writeId(b, ID_KEY, span.id());
+    if (span.kind() != null) {
+      b.writeByte(KIND_KEY);
+      b.writeByte(span.kind().ordinal() + 1); // brave.Span.Kind is in the same order as the proto
+    }
+    writeString(b, NAME_KEY, span.name());
+
+    long startTimestamp = span.startTimestamp(), finishTimestamp = span.finishTimestamp();
+    if (startTimestamp != 0L) {
+      b.writeByte(TIMESTAMP_KEY);
+      b.writeLongLe(startTimestamp);
+      long duration = finishTimestamp != 0L ? finishTimestamp - startTimestamp : 0L;
+      if (duration != 0L) {
+        b.writeByte(DURATION_KEY);
+        b.writeVarint(duration);
+      }
+    }
+
+    if (span.localServiceName() != null || span.localIp() != null) {
+      writeEndpoint(b, LOCAL_ENDPOINT_KEY,
+          span.localServiceName(), span.localIp(), span.localPort());
+    }
+    if (span.remoteServiceName() != null || span.remoteIp() != null) {
+      writeEndpoint(b, REMOTE_ENDPOINT_KEY,
+          span.remoteServiceName(), span.remoteIp(), span.remotePort());
+    }
+
+    for (int i = 0, length = span.annotationCount(); i < length; i++) {
+      String value = span.annotationValueAt(i);
+      b.writeByte(ANNOTATION_KEY);
+      b.writeVarint(annotationSizeInBytes(value));
+      b.writeByte(ANNOTATION_TIMESTAMP_KEY);
+      b.writeLongLe(span.annotationTimestampAt(i));
+      writeString(b, ANNOTATION_VALUE_KEY, value);
+    }
+
+    for (int i = 0, length = span.tagCount(); i < length; i++) {
+      writeTag(b, span.tagKeyAt(i), span.tagValueAt(i));
+    }
+    if (errorValue != null) writeTag(b, errorTag.key(), errorValue);
+
+    if (span.debug()) {
+      b.writeByte(DEBUG_KEY);
+      b.writeByte(1);
+    }
+    if (span.shared()) {
+      b.writeByte(SHARED_KEY);
+      b.writeByte(1);
+    }
+  }
+
+  static int idSizeInBytes(String lowerHex) {
+    if (lowerHex == null) return 0;
+    return 2 + lowerHex.length() / 2; // key + length + bytes. IDs are at most 16 bytes.
+  }
+
+  static void writeId(WriteBuffer b, int key, String lowerHex) {
+    if (lowerHex == null) return;
+    int length = lowerHex.length();
+    b.writeByte(key);
+    b.writeByte(length / 2);
+    for (int i = 0; i < length; i += 2) {
+      b.writeByte((decodeHex(lowerHex.charAt(i)) << 4) | decodeHex(lowerHex.charAt(i + 1)));
+    }
+  }
+
+  static int decodeHex(char c) {
+    if (c >= '0' && c <= '9') return c - '0';
+    if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+    throw new IllegalArgumentException(c + " isn't lower-hex");
+  }
+
+  static int endpointSizeInBytes(String serviceName, String ip, int port) {
+    int sizeInBytes = stringSizeInBytes(serviceName);
+    if (ip != null) sizeInBytes += isIpv6(ip) ? 18 : 6; // key + length + 16 or 4 bytes
+    if (port != 0) sizeInBytes += 1 + varintSizeInBytes(port);
+    return sizeInBytes;
+  }
+
+  static void writeEndpoint(WriteBuffer b, int key, String serviceName, String ip, int port) {
+    b.writeByte(key);
+    b.writeVarint(endpointSizeInBytes(serviceName, ip, port));
+    writeString(b, SERVICE_NAME_KEY, serviceName);
+    if (ip != null) {
+      if (isIpv6(ip)) {
+        b.writeByte(IPV6_KEY);
+        b.writeByte(16);
+        writeIpv6(b, ip);
+      } else {
+        b.writeByte(IPV4_KEY);
+        b.writeByte(4);
+        writeIpv4(b, ip, 0, ip.length());
+      }
+    }
+    if (port != 0) {
+      b.writeByte(PORT_KEY);
+      b.writeVarint(port);
+    }
+  }
+
+  /** Brave normalizes IP literals, so IPv4-mapped addresses are already in IPv4 form. */
+  static boolean isIpv6(String ip) {
+    return ip.indexOf(':') != -1;
+  }
+
+  /** Writes 4 bytes from a dotted-quad between {@code start} and {@code end} */
+  static void writeIpv4(WriteBuffer b, String ip, int start, int end) {
+    int octet = 0;
+    for (int i = start; i < end; i++) {
+      char c = ip.charAt(i);
+      if (c == '.') {
+        b.writeByte(octet);
+        octet = 0;
+      } else {
+        octet = octet * 10 + (c - '0');
+      }
+    }
+    b.writeByte(octet);
+  }
+
+  /** Writes 16 bytes from an IPv6 literal, which can be compressed or end in a dotted-quad. */
+  static void writeIpv6(WriteBuffer b, String ip) {
+    int length = ip.length(), compressed = ip.indexOf("::");
+    int head = compressed != -1 ? compressed : length;
+    int headBytes = writeIpv6Groups(b, ip, 0, head);
+    if (compressed == -1) return;
+
+    int tail = compressed + 2, tailBytes = ipv6GroupsSizeInBytes(ip, tail, length);
+    for (int i = headBytes + tailBytes; i < 16; i++) b.writeByte(0);
+    writeIpv6Groups(b, ip, tail, length);
+  }
+
+  static int ipv6GroupsSizeInBytes(String ip, int start, int end) {
+    if (start == end) return 0;
+    int sizeInBytes = 2;
+    for (int i = start; i < end; i++) {
+      char c = ip.charAt(i);
+      if (c == ':') sizeInBytes += 2;
+      if (c == '.') return sizeInBytes + 2; // The last group is a dotted-quad.
+    }
+    return sizeInBytes;
+  }
+
+  static int writeIpv6Groups(WriteBuffer b, String ip, int start, int end) {
+    if (start == end) return 0;
+    int sizeInBytes = 0, groupStart = start, group = 0;
+    for (int i = start; i < end; i++) {
+      char c = ip.charAt(i);
+      if (c == ':') {
+        b.writeByte(group >>> 8);
+        b.writeByte(group & 0xff);
+        sizeInBytes += 2;
+        group = 0;
+        groupStart = i + 1;
+      } else if (c == '.') {
+        writeIpv4(b, ip, groupStart, end);
+        return sizeInBytes + 4;
+      } else {
+        group = (group << 4) | Character.digit(c, 16);
+      }
+    }
+    b.writeByte(group >>> 8);
+    b.writeByte(group & 0xff);
+    return sizeInBytes + 2;
+  }
+
+  static int annotationSizeInBytes(String value) {
+    return 9 + stringSizeInBytes(value); // key + fixed64 timestamp
+  }
+
+  static int tagSizeInBytes(String key, String value) {
+    return stringSizeInBytes(key) + stringSizeInBytes(value);
+  }
+
+  static void writeTag(WriteBuffer b, String key, String value) {
+    b.writeByte(TAG_KEY);
+    b.writeVarint(tagSizeInBytes(key, value));
+    writeString(b, TAG_KEY_KEY, key);
+    writeString(b, TAG_VALUE_KEY, value);
+  }
+
+  /** Empty strings are the proto3 default, so aren't written. */
+  static int stringSizeInBytes(String value) {
+    if (value == null || value.isEmpty()) return 0;
+    return sizeOfLengthDelimitedField(utf8SizeInBytes(value));
+  }
+
+  static void writeString(WriteBuffer b, int key, String value) {
+    if (value == null || value.isEmpty()) return;
+    b.writeByte(key);
+    b.writeVarint(utf8SizeInBytes(value));
+    b.writeUtf8(value);
+  }
+
+  /** All fields numbers are less than 16, so keys are a single byte. */
+  static int sizeOfLengthDelimitedField(int sizeInBytes) {
+    return 1 + varintSizeInBytes(sizeInBytes) + sizeInBytes;
+  }
+
+  static int varintSizeInBytes(int v) {
+    if ((v & (0xffffffff << 7)) == 0) return 1;
+    if ((v & (0xffffffff << 14)) == 0) return 2;
+    if ((v & (0xffffffff << 21)) == 0) return 3;
+    if ((v & (0xffffffff << 28)) == 0) return 4;
+    return 5;
+  }
+
+  static int varintSizeInBytes(long v) {
+    int sizeInBytes = 1;
+    while ((v & ~0x7fL) != 0L) {
+      sizeInBytes++;
+      v >>>= 7;
+    }
+    return sizeInBytes;
+  }
+
+  /** Malformed surrogates are replaced with '?', the same as {@link String#getBytes}. */
+  static int utf8SizeInBytes(String string) {
+    int sizeInBytes = 0;
+    for (int i = 0, length = string.length(); i < length; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        sizeInBytes++;
+      } else if (c < 0x800) {
+        sizeInBytes += 2;
+      } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+        sizeInBytes += 3;
+      } else if (isSurrogatePair(string, i, length)) {
+        sizeInBytes += 4;
+        i++;
+      } else {
+        sizeInBytes++;
+      }
+    }
+    return sizeInBytes;
+  }
+
+  static boolean isSurrogatePair(String string, int i, int length) {
+    return Character.isHighSurrogate(string.charAt(i))
+        && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1));
+  }
+
+  static final class WriteBuffer {
+    final byte[] buf;
+    int pos;
+
+    WriteBuffer(byte[] buf) {
+      this.buf = buf;
+    }
+
+    void writeByte(int b) {
+      buf[pos++] = (byte) b;
+    }
+
+    void writeVarint(int v) {
+      while ((v & ~0x7f) != 0) {
+        writeByte((v & 0x7f) | 0x80);
+        v >>>= 7;
+      }
+      writeByte(v);
+    }
+
+    void writeVarint(long v) {
+      while ((v & ~0x7fL) != 0L) {
+        writeByte((int) ((v & 0x7f) | 0x80));
+        v >>>= 7;
+      }
+      writeByte((int) v);
+    }
+
+    void writeLongLe(long v) {
+      for (int i = 0; i < 8; i++) {
+        writeByte((int) (v & 0xff));
+        v >>>= 8;
+      }
+    }
+
+    void writeUtf8(String string) {
+      for (int i = 0, length = string.length(); i < length; i++) {
+        char c = string.charAt(i);
+        if (c < 0x80) {
+          writeByte(c);
+        } else if (c < 0x800) {
+          writeByte(0xc0 | (c >> 6));
+          writeByte(0x80 | (c & 0x3f));
+        } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+          writeByte(0xe0 | (c >> 12));
+          writeByte(0x80 | ((c >> 6) & 0x3f));
+          writeByte(0x80 | (c & 0x3f));
+        } else if (isSurrogatePair(string, i, length)) {
+          int codePoint = Character.toCodePoint(c, string.charAt(++i));
+          writeByte(0xf0 | (codePoint >> 18));
+          writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+          writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+          writeByte(0x80 | (codePoint & 0x3f));
+        } else {
+          writeByte('?');
+        }
+      }
+    }
+  }
+}
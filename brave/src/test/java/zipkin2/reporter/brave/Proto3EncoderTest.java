@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.brave;
+
+import brave.Tags;
+import brave.handler.MutableSpan;
+import brave.propagation.TraceContext;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Proto3EncoderTest {
+  Proto3Encoder encoder = new Proto3Encoder(Tags.ERROR);
+  TraceContext context = TraceContext.newBuilder().traceId(1).spanId(2).sampled(true).build();
+  MutableSpan span;
+
+  @Before public void init() {
+    span = new MutableSpan(context, null);
+    span.localServiceName("frontend");
+    span.localIp("1.2.3.4");
+    span.localPort(80);
+  }
+
+  @Test public void serverSpan() {
+    span.name("get /");
+    span.kind(brave.Span.Kind.SERVER);
+    span.remoteIpAndPort("::1", 63596);
+    span.startTimestamp(1533706251750057L);
+    span.finishTimestamp(1533706251935296L);
+    span.tag("http.method", "GET");
+    span.tag("http.path", "/");
+
+    assertRoundTrip(span);
+  }
+
+  /** Tags and annotations are in insertion order, so exact bytes are only checked when sorted. */
+  @Test public void sameBytesAsSpanBytesEncoder() {
+    span.parentId("0000000000000003");
+    span.name("get /");
+    span.kind(brave.Span.Kind.SERVER);
+    span.remoteServiceName("backend");
+    span.remoteIpAndPort("2001:db8::c001", 8080);
+    span.startTimestamp(1533706251750057L);
+    span.finishTimestamp(1533706251935296L);
+    span.annotate(1533706251750058L, "wire send");
+    span.annotate(1533706251935295L, "wire recv");
+    span.tag("http.method", "GET");
+    span.tag("http.path", "/");
+    span.setShared();
+
+    assertThat(encoder.encode(span))
+        .containsExactly(SpanBytesEncoder.PROTO3.encode(ConvertingSpanReporter.convert(span)));
+  }
+
+  @Test public void traceId128() {
+    span = new MutableSpan(context.toBuilder().traceIdHigh(0xcafebabeL).build(), null);
+
+    assertRoundTrip(span);
+  }
+
+  @Test public void allKinds() {
+    for (brave.Span.Kind kind : brave.Span.Kind.values()) {
+      span.kind(kind);
+
+      assertRoundTrip(span);
+    }
+  }
+
+  @Test public void ipv6() {
+    for (String ip : Arrays.asList("2001:db8::c001", "fe80::", "1:2:3:4:5:6:7:8",
+        "2001:db8:0:0:1::1", "::1.2.3.4")) {
+      span.remoteIpAndPort(ip, 443);
+      assertThat(span.remoteIp()).isNotNull();
+
+      assertRoundTrip(span);
+    }
+  }
+
+  @Test public void endpointWithoutIp() {
+    span.localIp(null);
+    span.remoteServiceName("backend");
+
+    assertRoundTrip(span);
+  }
+
+  @Test public void utf8() {
+    span.name("☃ 💩 é");
+    span.tag("emoji", "💩");
+    span.annotate(1L, "☃");
+
+    assertRoundTrip(span);
+  }
+
+  @Test public void malformedSurrogate() {
+    span.tag("broken", "\uD83D");
+
+    byte[] encoded = encoder.encode(span);
+    assertThat(encoded).hasSize(encoder.sizeInBytes(span));
+    assertThat(SpanBytesDecoder.PROTO3.decodeOne(encoded).tags()).containsEntry("broken", "?");
+  }
+
+  @Test public void debug() {
+    span.setDebug();
+
+    assertRoundTrip(span);
+  }
+
+  @Test public void backfillsErrorTag() {
+    span.error(new RuntimeException("this cake is a lie"));
+
+    Span decoded = assertEncodedSize(span);
+    assertThat(decoded.tags()).containsEntry("error", "this cake is a lie");
+  }
+
+  @Test public void doesntOverwriteErrorTag() {
+    span.error(new RuntimeException("this cake is a lie"));
+    span.tag("error", "");
+
+    Span decoded = assertEncodedSize(span);
+    assertThat(decoded.tags()).containsEntry("error", "");
+  }
+
+  @Test public void encodeList_concatenatesSpans() {
+    MutableSpan span2 = new MutableSpan(span);
+    span2.name("get /");
+
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(encoder.encodeList(Arrays.asList(span, span2))))
+        .containsExactly(ConvertingSpanReporter.convert(span),
+            ConvertingSpanReporter.convert(span2));
+  }
+
+  void assertRoundTrip(MutableSpan span) {
+    assertThat(assertEncodedSize(span)).isEqualTo(ConvertingSpanReporter.convert(span));
+  }
+
+  Span assertEncodedSize(MutableSpan span) {
+    byte[] encoded = encoder.encode(span);
+    assertThat(encoded).hasSize(encoder.sizeInBytes(span));
+    return SpanBytesDecoder.PROTO3.decodeOne(encoded);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes when a flusher's message is ready, based on moving averages of send latency and the rate
+ * spans arrive. This is bounded by {@link AsyncReporter.Builder#messageMaxBytes(int)} and {@link
+ * AsyncReporter.Builder#messageTimeout(long, TimeUnit)}.
+ *
+ * <p>A message is ready once it holds the bytes expected to arrive during one send, or once it has
+ * waited as long as one send takes. When idle, messages are sent after about one round trip
+ * instead of the full message timeout. At peak, spans arrive faster than they can be sent, so
+ * messages fill to the max size.
+ *
+ * <p>This type is not thread-safe: there is one instance per flusher thread.
+ */
+final class AdaptiveBatching {
+  static final long MIN_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  /** Weight of the latest observation in a moving average. */
+  static final double ALPHA = 0.25;
+
+  final int maxBytes;
+  final long maxLingerNanos;
+  double sendNanos = -1, bytesPerNano = -1; // unset until the first send
+
+  AdaptiveBatching(int maxBytes, long maxLingerNanos) {
+    this.maxBytes = maxBytes;
+    this.maxLingerNanos = maxLingerNanos;
+  }
+
+  /** Starts optimistic: a short linger until a send says otherwise. */
+  void attach(BufferNextMessage<?> bundler) {
+    bundler.adaptiveBatching = this;
+    bundler.lingerNanos = Math.min(MIN_LINGER_NANOS, maxLingerNanos);
+    bundler.readyBytes = maxBytes;
+  }
+
+  /**
+   * Records a successful send, then updates the linger time and size at which the bundler's next
+   * message is ready.
+   *
+   * @param messageSizeInBytes size of the message sent
+   * @param bundleNanos how long spans were bundled into the message before it was sent
+   * @param sendNanos how long the send took
+   */
+  void onSent(BufferNextMessage<?> bundler, int messageSizeInBytes, long bundleNanos,
+      long sendNanos) {
+    this.sendNanos = average(this.sendNanos, sendNanos);
+    // a backlog drained at once has a tiny bundle time, implying a high arrival rate
+    this.bytesPerNano =
+        average(this.bytesPerNano, messageSizeInBytes / (double) Math.max(bundleNanos, 1));
+
+    long lingerNanos = (long) this.sendNanos;
+    bundler.lingerNanos = Math.max(Math.min(lingerNanos, maxLingerNanos),
+        Math.min(MIN_LINGER_NANOS, maxLingerNanos));
+    double readyBytes = this.bytesPerNano * this.sendNanos;
+    bundler.readyBytes = (int) Math.max(Math.min(readyBytes, maxBytes), 1);
+  }
+
+  static double average(double average, double next) {
+    return average < 0 ? next : average + ALPHA * (next - average);
+  }
+}
@@ -17,8 +17,11 @@ import static java.lang.String.format;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.WARNING;
 
+import java.io.File;
 import java.io.Flushable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -33,6 +36,7 @@ import zipkin2.CheckResult;
 import zipkin2.Component;
 import zipkin2.Span;
 import zipkin2.codec.BytesEncoder;
+import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesEncoder;
 
 /**
@@ -42,11 +46,14 @@ import zipkin2.codec.SpanBytesEncoder;
  *
  * <p>Spans are bundled into messages based on size in bytes or a timeout, whichever happens first.
  *
- * <p>The thread that sends flushes spans to the {@linkplain Sender} does so in a synchronous loop.
- * This means that even asynchronous transports will wait for an ack before sending a next message.
- * We do this so that a surge of spans doesn't overrun memory or bandwidth via hundreds or
- * thousands of in-flight messages. The downside of this is that reporting is limited in speed to
- * what a single thread can clear. When a thread cannot clear the backlog, new spans are dropped.
+ * <p>Each thread that flushes spans to the {@linkplain Sender} does so in a synchronous loop. This
+ * means that even asynchronous transports will wait for an ack before that thread sends its next
+ * message. There are {@linkplain Builder#messagesInFlight(int) messagesInFlight} such threads, one
+ * by default, so that a surge of spans can't overrun memory or bandwidth via hundreds or thousands
+ * of in-flight messages. Reporting is limited in speed to what those threads can clear. Each
+ * additional thread raises that limit, at the cost of another message being bundled in memory and
+ * another request outstanding to the collector. When the threads cannot clear the backlog, new
+ * spans are dropped.
  *
  * @param <S> type of the span, usually {@link zipkin2.Span}
  */
@@ -80,6 +87,40 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
   /** Shuts down the sender thread, and increments drop metrics if there were any unsent spans. */
   @Override public abstract void close();
 
+  /** Backs {@link zipkin2.reporter.internal.InternalReporter#toBuilder(AsyncReporter)}. */
+  Builder toBuilder() {
+    // For testing, this is easier than making the type abstract: It is package sealed anyway!
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Controls how application threads hand spans to the thread that bundles them into messages.
+   * Regardless of type, the backlog is bounded by {@link Builder#queuedMaxSpans(int)} and {@link
+   * Builder#queuedMaxBytes(int)}.
+   *
+   * @see Builder#queueType(QueueType)
+   * @since 2.17
+   */
+  public enum QueueType {
+    /**
+     * Application threads share a lock with the reporting thread. This is the default, and works
+     * well until many threads report at the same time.
+     */
+    LOCKING,
+    /**
+     * Application threads reserve space with atomic operations and never block each other or the
+     * reporting thread. Consider this when many cores report spans at a high rate.
+     */
+    LOCK_FREE,
+    /**
+     * Like {@link #LOCK_FREE}, except application threads write to one of several buffers, sized
+     * by the count of available processors. The reporting thread harvests them all in turn. This
+     * allows reporting to scale with cores, at the cost of enforcing {@link
+     * Builder#queuedMaxSpans(int)} and {@link Builder#queuedMaxBytes(int)} approximately.
+     */
+    STRIPED
+  }
+
   public static final class Builder {
     final Sender sender;
     ThreadFactory threadFactory = Executors.defaultThreadFactory();
@@ -89,6 +130,16 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
     long closeTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
     int queuedMaxSpans = 10000;
     int queuedMaxBytes = onePercentOfMemory();
+    QueueType queueType = QueueType.LOCKING;
+    boolean encodeOnReport, queueOffHeap;
+    int messagesInFlight = 1;
+    boolean virtualThreads, adaptiveBatching;
+    File spillDirectory;
+    long spillMaxBytes = 128 * 1024 * 1024;
+    int retries;
+    long retryBackoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    long retryMaxBackoffNanos = TimeUnit.SECONDS.toNanos(10);
+    int retryMaxBytes = onePercentOfMemory();
 
     Builder(BoundedAsyncReporter<?> asyncReporter) {
       this.sender = asyncReporter.sender;
@@ -99,6 +150,18 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
       this.closeTimeoutNanos = asyncReporter.closeTimeoutNanos;
       this.queuedMaxSpans = asyncReporter.pending.maxSize;
       this.queuedMaxBytes = asyncReporter.pending.maxBytes;
+      this.queueType = asyncReporter.queueType;
+      this.encodeOnReport = asyncReporter.encodeOnReport;
+      this.queueOffHeap = asyncReporter.queueOffHeap;
+      this.messagesInFlight = asyncReporter.messagesInFlight;
+      this.virtualThreads = asyncReporter.virtualThreads;
+      this.adaptiveBatching = asyncReporter.adaptiveBatching;
+      this.spillDirectory = asyncReporter.spillDirectory;
+      this.spillMaxBytes = asyncReporter.spillMaxBytes;
+      this.retries = asyncReporter.retries;
+      this.retryBackoffNanos = asyncReporter.retryBackoffNanos;
+      this.retryMaxBackoffNanos = asyncReporter.retryMaxBackoffNanos;
+      this.retryMaxBytes = asyncReporter.retryMaxBytes;
     }
 
     static int onePercentOfMemory() {
@@ -179,6 +242,209 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
       return this;
     }
 
+    /**
+     * Controls how reported spans are queued for the reporting thread. Defaults to {@link
+     * QueueType#LOCKING}.
+     *
+     * @since 2.17
+     */
+    public Builder queueType(QueueType queueType) {
+      if (queueType == null) throw new NullPointerException("queueType == null");
+      this.queueType = queueType;
+      return this;
+    }
+
+    /**
+     * When true, spans are encoded on the calling thread and the queue holds the encoded bytes
+     * instead of the span. Defaults to false.
+     *
+     * <p>By default, spans are only sized when reported, and encoded later when bundled into a
+     * message. This walks each span twice, and keeps the span and everything it references in
+     * memory until sent. Encoding on report walks each span once and releases it immediately, so
+     * that {@link #queuedMaxBytes(int)} precisely reflects retained memory.
+     *
+     * @since 2.17
+     */
+    public Builder encodeOnReport(boolean encodeOnReport) {
+      this.encodeOnReport = encodeOnReport;
+      return this;
+    }
+
+    /**
+     * When true, spans are {@link #encodeOnReport(boolean) encoded on report} and copied into a
+     * direct buffer of {@link #queuedMaxBytes(int)}, allocated when the reporter is built. Defaults
+     * to false.
+     *
+     * <p>This keeps a backlog of spans, such as during a collector outage, from growing the heap.
+     * The buffer is sized independently of the heap, and counts against {@code
+     * -XX:MaxDirectMemorySize} instead. As the buffer is guarded by a lock, this requires {@link
+     * QueueType#LOCKING}.
+     *
+     * @since 2.17
+     */
+    public Builder queueOffHeap(boolean queueOffHeap) {
+      this.queueOffHeap = queueOffHeap;
+      return this;
+    }
+
+    /**
+     * Maximum count of messages sent concurrently. Defaults to 1.
+     *
+     * <p>Each in-flight message has its own flushing thread, which bundles spans from the shared
+     * queue and blocks on {@link Sender#sendMessage(MessageBuffer)}. With the default, throughput
+     * is at most one message per round trip to the collector. Raise this when that round trip
+     * dominates, and the sender is thread-safe, such as an HTTP sender.
+     *
+     * <p>This has no effect when {@link #messageTimeout(long, TimeUnit)} is zero, as there are no
+     * flushing threads.
+     *
+     * @since 2.17
+     */
+    public Builder messagesInFlight(int messagesInFlight) {
+      if (messagesInFlight < 1) {
+        throw new IllegalArgumentException("messagesInFlight < 1: " + messagesInFlight);
+      }
+      this.messagesInFlight = messagesInFlight;
+      return this;
+    }
+
+    /**
+     * When true and the runtime supports them (JDK 21+), flushing threads are virtual threads
+     * instead of those from {@link #threadFactory(ThreadFactory)}. Defaults to false.
+     *
+     * <p>Flushing threads spend most of their time parked, waiting for spans or for a blocking
+     * sender such as {@code URLConnectionSender}. A virtual thread doesn't hold a platform thread
+     * or its stack while parked, which adds up when there are many reporters or {@link
+     * #messagesInFlight(int) messages in flight}. On older runtimes, this falls back to the
+     * configured thread factory.
+     *
+     * @since 2.17
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /**
+     * When true, each flushing thread tunes when its message is ready from the observed send
+     * latency and the rate spans arrive. Defaults to false.
+     *
+     * <p>By default, a message is sent once it reaches {@link #messageMaxBytes(int)} or {@link
+     * #messageTimeout(long, TimeUnit)} expires. That sends small messages at low load, or delays
+     * spans when the timeout is raised for high load. Adaptive batching treats those settings as
+     * upper bounds. A message is sent once it holds the bytes expected to arrive during one send,
+     * or has waited as long as one send takes. When idle, spans are delayed by about one round
+     * trip to the collector. At peak, messages fill to their max size.
+     *
+     * <p>This has no effect when {@link #messageTimeout(long, TimeUnit)} is zero, as there are no
+     * flushing threads.
+     *
+     * @since 2.17
+     */
+    public Builder adaptiveBatching(boolean adaptiveBatching) {
+      this.adaptiveBatching = adaptiveBatching;
+      return this;
+    }
+
+    /**
+     * When set, messages that fail to send, and spans that don't fit in the queue, are written to
+     * memory-mapped files in this directory instead of being dropped. Defaults to null, which
+     * drops them.
+     *
+     * <p>After a failed send, the flushing thread spills messages without trying to send them,
+     * and probes {@link Sender#check()} about once a second. Once the check passes, spilled
+     * messages are replayed in the order they were written, alongside new ones. As files are
+     * reopened on startup, spans spilled before a process restart are also replayed. Spans are
+     * only dropped once the spill holds {@link #spillMaxBytes(long)}.
+     *
+     * <p>Application threads never write to the spill themselves. Spans that don't fit in the
+     * queue are handed to the flushing threads through a second queue, bounded by {@link
+     * #messageMaxBytes(int)}, and are dropped when that is also full.
+     *
+     * <p>The spill lives outside the heap and isn't forced to disk: it survives the process
+     * crashing, but not the operating system. The directory has one owner: building a reporter
+     * fails with an {@link IllegalArgumentException} while another, in this process or another,
+     * holds its lock, until that reporter is closed.
+     *
+     * @see SpillMetrics
+     * @since 2.17
+     */
+    public Builder spillDirectory(File spillDirectory) {
+      this.spillDirectory = spillDirectory;
+      return this;
+    }
+
+    /**
+     * Maximum bytes of {@link #spillDirectory(File) spilled} messages kept on disk. Defaults to
+     * 128MiB. The spill is made of files of up to 8MiB each, and holds at least one file.
+     *
+     * @since 2.17
+     */
+    public Builder spillMaxBytes(long spillMaxBytes) {
+      if (spillMaxBytes <= 0) throw new IllegalArgumentException("spillMaxBytes <= 0: " + spillMaxBytes);
+      this.spillMaxBytes = spillMaxBytes;
+      return this;
+    }
+
+    /**
+     * Maximum times a message that failed to send is sent again. Defaults to 0, which drops it, or
+     * {@link #spillDirectory(File) spills} it when configured.
+     *
+     * <p>Failed messages are copied into a buffer of up to {@link #retryMaxBytes(int)}, so that
+     * flushing threads keep bundling new spans while they back off. Before each retry, a message
+     * waits a random time up to {@link #retryBackoff(long, TimeUnit)}, doubled for each attempt
+     * and capped at {@link #retryMaxBackoff(long, TimeUnit)}. On close, each message still waiting
+     * is tried once more, within the {@link #closeTimeout(long, TimeUnit)}.
+     *
+     * <p>Spans are dropped, or spilled, when a message runs out of retries or doesn't fit in the
+     * buffer.
+     *
+     * @since 2.17
+     */
+    public Builder retries(int retries) {
+      if (retries < 0) throw new IllegalArgumentException("retries < 0: " + retries);
+      this.retries = retries;
+      return this;
+    }
+
+    /**
+     * Backoff ceiling before the first {@link #retries(int) retry} of a message, doubled for each
+     * attempt after. Defaults to 100 milliseconds.
+     *
+     * @since 2.17
+     */
+    public Builder retryBackoff(long backoff, TimeUnit unit) {
+      if (backoff < 0) throw new IllegalArgumentException("retryBackoff < 0: " + backoff);
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.retryBackoffNanos = unit.toNanos(backoff);
+      return this;
+    }
+
+    /**
+     * Maximum backoff before a {@link #retries(int) retry}, regardless of the attempt. Defaults to
+     * 10 seconds.
+     *
+     * @since 2.17
+     */
+    public Builder retryMaxBackoff(long maxBackoff, TimeUnit unit) {
+      if (maxBackoff < 0) throw new IllegalArgumentException("retryMaxBackoff < 0: " + maxBackoff);
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.retryMaxBackoffNanos = unit.toNanos(maxBackoff);
+      return this;
+    }
+
+    /**
+     * Maximum bytes of messages waiting to be {@link #retries(int) retried}. Defaults to 1% of
+     * heap.
+     *
+     * @since 2.17
+     */
+    public Builder retryMaxBytes(int retryMaxBytes) {
+      if (retryMaxBytes < 0) throw new IllegalArgumentException("retryMaxBytes < 0: " + retryMaxBytes);
+      this.retryMaxBytes = retryMaxBytes;
+      return this;
+    }
+
     /** Builds an async reporter that encodes zipkin spans as they are reported. */
     public AsyncReporter<Span> build() {
       switch (sender.encoding()) {
@@ -202,27 +468,135 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
             "Encoder doesn't match Sender: %s %s", encoder.encoding(), sender.encoding()));
       }
 
+      if (queueOffHeap && queueType != QueueType.LOCKING) {
+        throw new IllegalArgumentException("queueOffHeap requires QueueType.LOCKING: " + queueType);
+      }
+
+      if (encodeOnReport || queueOffHeap) return new EncodingAsyncReporter<>(this, encoder);
       return new BoundedAsyncReporter<>(this, encoder);
     }
   }
 
+  /** Encodes spans as they are reported, so that the queue only holds the encoded bytes. */
+  static final class EncodingAsyncReporter<S> extends AsyncReporter<S> {
+    final BytesEncoder<S> encoder;
+    final BoundedAsyncReporter<byte[]> delegate;
+
+    EncodingAsyncReporter(Builder builder, BytesEncoder<S> encoder) {
+      this.encoder = encoder;
+      BoundedQueue<byte[]> pending = builder.queueOffHeap
+          ? new OffHeapByteBoundedQueue(builder.queuedMaxSpans, builder.queuedMaxBytes)
+          : BoundedQueue.<byte[]>create(
+              builder.queueType, builder.queuedMaxSpans, builder.queuedMaxBytes);
+      this.delegate =
+          new BoundedAsyncReporter<>(builder, new EncodedSpans(encoder.encoding()), pending);
+    }
+
+    @Override public void report(S next) {
+      if (next == null) throw new NullPointerException("span == null");
+      delegate.report(encoder.encode(next));
+    }
+
+    @Override public void flush() {
+      delegate.flush();
+    }
+
+    @Override public CheckResult check() {
+      return delegate.check();
+    }
+
+    @Override public void close() {
+      delegate.close();
+    }
+
+    @Override Builder toBuilder() {
+      return delegate.toBuilder();
+    }
+
+    @Override public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  /** Passes through spans encoded by {@link EncodingAsyncReporter}. */
+  static final class EncodedSpans implements BytesEncoder<byte[]> {
+    final Encoding encoding;
+
+    EncodedSpans(Encoding encoding) {
+      this.encoding = encoding;
+    }
+
+    @Override public Encoding encoding() {
+      return encoding;
+    }
+
+    @Override public int sizeInBytes(byte[] encodedSpan) {
+      return encodedSpan.length;
+    }
+
+    @Override public byte[] encode(byte[] encodedSpan) {
+      return encodedSpan;
+    }
+
+    @Override public byte[] encodeList(List<byte[]> encodedSpans) {
+      return BytesMessageEncoder.forEncoding(encoding).encode(encodedSpans);
+    }
+  }
+
   static final class BoundedAsyncReporter<S> extends AsyncReporter<S> {
     static final Logger logger = Logger.getLogger(BoundedAsyncReporter.class.getName());
+    static final int SPILL_SEGMENT_BYTES = 8 * 1024 * 1024, SPILL_SEGMENT_MAX_BYTES = 64 * 1024 * 1024;
+    static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
     final AtomicBoolean started, closed;
     final BytesEncoder<S> encoder;
-    final ByteBoundedQueue<S> pending;
+    final BoundedQueue<S> pending;
+    final QueueType queueType;
+    final boolean encodeOnReport, queueOffHeap;
+    final int messagesInFlight;
+    final boolean virtualThreads, adaptiveBatching;
     final Sender sender;
-    final int messageMaxBytes;
+    final int messageMaxBytes, emptyMessageSizeInBytes;
+    final boolean jsonEncoding;
     final long messageTimeoutNanos, closeTimeoutNanos;
     final CountDownLatch close;
     final ReporterMetrics metrics;
     final ThreadFactory threadFactory;
+    final File spillDirectory;
+    final long spillMaxBytes;
+    final DiskSpill spill; // null unless spillDirectory is set
+    final SpillMetrics spillMetrics; // null unless metrics implement it
+    final MessageBuffer replayMessage; // guarded by replaying
+    final AtomicBoolean replaying = new AtomicBoolean();
+    // Spans that didn't fit in the queue, which flushing threads spill. null unless spilling.
+    final BoundedQueue<S> overflow;
+    final BufferNextMessage<S> overflowBundler; // guarded by spillingOverflow
+    final AtomicBoolean spillingOverflow = new AtomicBoolean();
+    // When true, the last send failed. Messages are spilled until the sender passes its check.
+    volatile boolean senderDown;
+    volatile long nextCheckNanoTime;
+    final int retries, retryMaxBytes;
+    final long retryBackoffNanos, retryMaxBackoffNanos;
+    final RetryBuffer retryBuffer; // null unless retries are enabled
+    final CircuitBreakerSender breaker; // null unless the sender is one
+    final CircuitBreakerMetrics circuitMetrics; // null unless metrics implement it
+    final AtomicBoolean circuitOpen = new AtomicBoolean(); // last state seen by flushing threads
 
     /** Tracks if we should log the first instance of an exception in flush(). */
-    private boolean shouldWarnException = true;
+    private volatile boolean shouldWarnException = true;
 
     BoundedAsyncReporter(Builder builder, BytesEncoder<S> encoder) {
-      this.pending = new ByteBoundedQueue<>(builder.queuedMaxSpans, builder.queuedMaxBytes);
+      this(builder, encoder,
+          BoundedQueue.<S>create(builder.queueType, builder.queuedMaxSpans, builder.queuedMaxBytes));
+    }
+
+    BoundedAsyncReporter(Builder builder, BytesEncoder<S> encoder, BoundedQueue<S> pending) {
+      this.pending = pending;
+      this.queueType = builder.queueType;
+      this.encodeOnReport = builder.encodeOnReport;
+      this.queueOffHeap = builder.queueOffHeap;
+      this.messagesInFlight = builder.messagesInFlight;
+      this.virtualThreads = builder.virtualThreads;
+      this.adaptiveBatching = builder.adaptiveBatching;
       this.sender = builder.sender;
       this.messageMaxBytes = builder.messageMaxBytes;
       this.messageTimeoutNanos = builder.messageTimeoutNanos;
@@ -230,19 +604,73 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
       this.closed = new AtomicBoolean(false);
       // pretend we already started when config implies no thread that flushes the queue in a loop.
       this.started = new AtomicBoolean(builder.messageTimeoutNanos == 0);
-      this.close = new CountDownLatch(builder.messageTimeoutNanos > 0 ? 1 : 0);
+      // each flusher thread counts down once it has sent what it had bundled
+      this.close =
+          new CountDownLatch(builder.messageTimeoutNanos > 0 ? builder.messagesInFlight : 0);
       this.metrics = builder.metrics;
       this.threadFactory = builder.threadFactory;
       this.encoder = encoder;
+      this.emptyMessageSizeInBytes = sender.messageSizeInBytes(Collections.<byte[]>emptyList());
+      this.jsonEncoding = encoder.encoding() == Encoding.JSON;
+      this.spillDirectory = builder.spillDirectory;
+      this.spillMaxBytes = builder.spillMaxBytes;
+      this.spill = spillDirectory != null ? openSpill() : null;
+      this.spillMetrics =
+          spill != null && metrics instanceof SpillMetrics ? (SpillMetrics) metrics : null;
+      this.replayMessage = spill != null ? MessageBuffer.create(encoder.encoding()) : null;
+      // Bounded by one message, so that spilling it is a single write to the spill.
+      this.overflow = spill != null
+          ? BoundedQueue.<S>create(queueType, builder.queuedMaxSpans, messageMaxBytes)
+          : null;
+      this.overflowBundler = spill != null
+          ? BufferNextMessage.<S>create(encoder.encoding(), messageMaxBytes, 0)
+          : null;
+      if (spillMetrics != null) spillMetrics.updateSpillBytes(spill.sizeInBytes());
+      this.retries = builder.retries;
+      this.retryBackoffNanos = builder.retryBackoffNanos;
+      this.retryMaxBackoffNanos = builder.retryMaxBackoffNanos;
+      this.retryMaxBytes = builder.retryMaxBytes;
+      this.retryBuffer = retries > 0
+          ? new RetryBuffer(retryMaxBytes, retries, retryBackoffNanos, retryMaxBackoffNanos)
+          : null;
+      this.breaker = sender instanceof CircuitBreakerSender ? (CircuitBreakerSender) sender : null;
+      this.circuitMetrics = breaker != null && metrics instanceof CircuitBreakerMetrics
+          ? (CircuitBreakerMetrics) metrics : null;
+    }
+
+    DiskSpill openSpill() {
+      // A record holds a message and the size of each span, so leave room for one twice as big.
+      // Messages over the largest segment, when messageMaxBytes is unusually high, are dropped.
+      int segmentBytes = (int) Math.max(Math.min(spillMaxBytes, SPILL_SEGMENT_BYTES),
+          Math.min(2L * messageMaxBytes + DiskSpill.RECORD_HEADER, SPILL_SEGMENT_MAX_BYTES));
+      try {
+        return new DiskSpill(spillDirectory, spillMaxBytes, segmentBytes);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("couldn't open spillDirectory " + spillDirectory, e);
+      }
     }
 
     void startFlusherThread() {
-      BufferNextMessage<S> consumer =
-          BufferNextMessage.create(encoder.encoding(), messageMaxBytes, messageTimeoutNanos);
-      Thread flushThread = threadFactory.newThread(new Flusher<>(this, consumer));
-      flushThread.setName("AsyncReporter{" + sender + "}");
-      flushThread.setDaemon(true);
-      flushThread.start();
+      ThreadFactory threadFactory =
+          virtualThreads ? VirtualThreads.factory(this.threadFactory) : this.threadFactory;
+      for (int i = 0; i < messagesInFlight; i++) {
+        BufferNextMessage<S> consumer = newBundler(messageTimeoutNanos);
+        if (adaptiveBatching) {
+          new AdaptiveBatching(messageMaxBytes, messageTimeoutNanos).attach(consumer);
+        }
+        Thread flushThread = threadFactory.newThread(new Flusher<>(this, consumer));
+        flushThread.setName("AsyncReporter{" + sender + "}");
+        flushThread.setDaemon(true);
+        flushThread.start();
+      }
+    }
+
+    BufferNextMessage<S> newBundler(long timeoutNanos) {
+      BufferNextMessage<S> result =
+          BufferNextMessage.create(encoder.encoding(), messageMaxBytes, timeoutNanos);
+      // Spans queued off-heap are already encoded, so can be copied straight into the message.
+      if (pending instanceof OffHeapByteBoundedQueue) result.copyDirect(sender);
+      return result;
     }
 
     @Override public void report(S next) {
@@ -250,83 +678,339 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
       // Lazy start so that reporters never used don't spawn threads
       if (started.compareAndSet(false, true)) startFlusherThread();
       metrics.incrementSpans(1);
+      if (breaker != null && breaker.isOpen() && !closed.get()) {
+        // Shed load before the span is queued: it would only fail to send.
+        if (overflow == null || !overflow.offer(next, encoder.sizeInBytes(next))) {
+          metrics.incrementSpansDropped(1);
+        }
+        return;
+      }
       int nextSizeInBytes = encoder.sizeInBytes(next);
       int messageSizeOfNextSpan = sender.messageSizeInBytes(nextSizeInBytes);
       metrics.incrementSpanBytes(nextSizeInBytes);
       if (closed.get() ||
           // don't enqueue something larger than we can drain
-          messageSizeOfNextSpan > messageMaxBytes ||
-          !pending.offer(next, nextSizeInBytes)) {
+          messageSizeOfNextSpan > messageMaxBytes) {
         metrics.incrementSpansDropped(1);
+      } else if (!pending.offer(next, nextSizeInBytes)
+          // Don't write to the spill here, as that would block the caller on disk I/O.
+          && (overflow == null || !overflow.offer(next, nextSizeInBytes))) {
+        metrics.incrementSpansDropped(1);
+      }
+    }
+
+    /** Spills spans that didn't fit in the queue, unless another thread already is. */
+    void spillOverflow() {
+      if (overflow.count() == 0 || !spillingOverflow.compareAndSet(false, true)) return;
+      try {
+        BufferNextMessage<S> bundler = overflowBundler;
+        overflow.drainTo(bundler, 0);
+        int count = bundler.count();
+        if (count == 0) return;
+
+        // Like flush, encode outside the lock shared with writers.
+        final MessageBuffer message = bundler.message;
+        message.clear();
+        bundler.drain(new SpanWithSizeConsumer<S>() {
+          @Override public boolean offer(S next, int nextSizeInBytes) {
+            message.add(encoder.encode(next));
+            return true;
+          }
+        });
+        if (!spillMessage(message)) metrics.incrementSpansDropped(count);
+      } finally {
+        spillingOverflow.set(false);
       }
     }
 
     @Override public final void flush() {
       if (closed.get()) throw new ClosedSenderException();
-      flush(BufferNextMessage.create(encoder.encoding(), messageMaxBytes, 0));
+      if (spill != null) {
+        while (replaySpilled()) ; // send everything spilled, unless the sender is still down
+      }
+      flush(newBundler(0));
     }
 
     void flush(BufferNextMessage<S> bundler) {
-      pending.drainTo(bundler, bundler.remainingNanos());
+      if (overflow != null) spillOverflow();
+      boolean open = false;
+      if (breaker != null) {
+        breaker.probeIfDue();
+        open = updateCircuit();
+      }
+      // Replay at most one spilled message per loop, so that new spans are sent in between.
+      boolean replayed = spill != null && !closed.get() && replaySpilled();
+      // Likewise, resend at most one failed message whose backoff elapsed.
+      boolean retried = retryBuffer != null && !closed.get() && !open && retryDue();
+      // Don't wait for spans when there's more to replay, or longer than the next retry.
+      long waitNanos = replayed || retried ? 0 : bundler.remainingNanos();
+      if (retryBuffer != null) {
+        waitNanos = Math.min(waitNanos, retryBuffer.nanosUntilDue(System.nanoTime()));
+      }
+      pending.drainTo(bundler, waitNanos);
 
       // record after flushing reduces the amount of gauge events vs on doing this on report
-      metrics.updateQueuedSpans(pending.count);
-      metrics.updateQueuedBytes(pending.sizeInBytes);
+      metrics.updateQueuedSpans(pending.count());
+      metrics.updateQueuedBytes(pending.sizeInBytes());
 
       // loop around if we are running, and the bundle isn't full
       // if we are closed, try to send what's pending
       if (!bundler.isReady() && !closed.get()) return;
 
+      // Don't send an empty message on close, which would otherwise happen once per flusher thread
+      if (bundler.count() == 0 && closed.get()) return;
+
+      // While the circuit is open, drop what was queued before it opened, without encoding it.
+      if (open && spill == null) {
+        metrics.incrementSpansDropped(bundler.count());
+        bundler.clear();
+        return;
+      }
+
       // Signal that we are about to send a message of a known size in bytes
+      int bundleSizeInBytes = bundler.sizeInBytes();
       metrics.incrementMessages();
-      metrics.incrementMessageBytes(bundler.sizeInBytes());
+      metrics.incrementMessageBytes(bundleSizeInBytes);
+      long sendStartNanoTime = System.nanoTime();
+      long bundleNanos = sendStartNanoTime - bundler.startNanoTime;
 
-      // Create the next message. Since we are outside the lock shared with writers, we can encode
-      ArrayList<byte[]> nextMessage = new ArrayList<>(bundler.count());
-      bundler.drain(new SpanWithSizeConsumer<S>() {
-        @Override public boolean offer(S next, int nextSizeInBytes) {
-          nextMessage.add(encoder.encode(next)); // speculatively add to the pending message
-          if (sender.messageSizeInBytes(nextMessage) > messageMaxBytes) {
-            // if we overran the message size, remove the encoded message.
-            nextMessage.remove(nextMessage.size() - 1);
-            return false;
+      // Create the next message, unless spans were copied into it as they were drained. Since we
+      // are outside the lock shared with writers, we can encode.
+      final MessageBuffer nextMessage = bundler.message;
+      if (bundler.directSender == null) {
+        nextMessage.clear();
+        bundler.drain(new SpanWithSizeConsumer<S>() {
+          // Sized incrementally, as re-measuring the whole message for each span is quadratic
+          int messageSizeInBytes = emptyMessageSizeInBytes;
+
+          @Override public boolean offer(S next, int nextSizeInBytes) {
+            byte[] encoded = encoder.encode(next);
+            int x = messageSizeInBytes
+              + sender.messageSizeInBytes(encoded.length) - emptyMessageSizeInBytes
+              + (jsonEncoding && nextMessage.count() > 0 ? 1 : 0); // comma
+            if (x > messageMaxBytes) return false; // leave the span for the next message
+            nextMessage.add(encoded);
+            messageSizeInBytes = x;
+            return true;
           }
-          return true;
+        });
+      }
+
+      try {
+        // While the sender is down, spill without waiting for another send to fail.
+        // Likewise, spill while the circuit is open.
+        if (spill != null && ((senderDown && !spill.isEmpty()) || open)
+            && spillMessage(nextMessage)) {
+          return;
+        }
+
+        try {
+          sender.sendMessage(nextMessage).execute();
+          AdaptiveBatching adaptiveBatching = bundler.adaptiveBatching;
+          if (adaptiveBatching != null) {
+            adaptiveBatching.onSent(bundler, bundleSizeInBytes, bundleNanos,
+                System.nanoTime() - sendStartNanoTime);
+          }
+        } catch (Throwable t) {
+          Call.propagateIfFatal(t);
+          onFailure(nextMessage, null, t);
+        }
+      } finally {
+        // Spans copied directly stay in the message until it is sent, retried, spilled or dropped.
+        if (bundler.directSender != null) bundler.clear();
+      }
+    }
+
+    /**
+     * Retries, spills or drops a message that failed to send, in that order of preference. The
+     * retry is null unless this was already a retry.
+     */
+    void onFailure(MessageBuffer message, RetryBuffer.Retry retry, Throwable t) {
+      int count = message.count();
+      boolean closedSender = isClosedSender(t);
+      String outcome, action; // for logging
+      if (!closedSender && retryBuffer != null && (retry != null
+          ? retryBuffer.retry(retry, System.nanoTime())
+          : retryBuffer.offer(message, System.nanoTime()))) {
+        outcome = "retried";
+        action = "Retrying";
+      } else {
+        if (retry != null) retryBuffer.release(retry);
+        if (!closedSender && onSendFailure() && spillMessage(message)) {
+          outcome = "spilled";
+          action = "Spilled";
+        } else { // In failure case, we increment messages and spans dropped.
+          metrics.incrementMessagesDropped(t);
+          metrics.incrementSpansDropped(count);
+          outcome = "dropped";
+          action = "Dropped";
         }
-      });
+      }
+
+      Level logLevel = FINE;
+
+      if (shouldWarnException) {
+        logger.log(WARNING, "Spans were " + outcome + " due to exceptions. "
+          + "All subsequent errors will be logged at FINE level.");
+        logLevel = WARNING;
+        shouldWarnException = false;
+      }
+
+      if (logger.isLoggable(logLevel)) {
+        logger.log(logLevel,
+          format("%s %s spans due to %s(%s)", action, count, t.getClass().getSimpleName(),
+            t.getMessage() == null ? "" : t.getMessage()), t);
+      }
+
+      // Raise in case the sender was closed out-of-band.
+      if (t instanceof ClosedSenderException) throw (ClosedSenderException) t;
+
+      // Old senders in other artifacts may be using this less precise way of indicating they've been closed
+      // out-of-band.
+      if (t instanceof IllegalStateException && t.getMessage().equals("closed"))
+        throw (IllegalStateException) t;
+    }
+
+    /** Reports when the circuit opens or closes, returning true if it is open. */
+    boolean updateCircuit() {
+      boolean open = breaker.isOpen();
+      if (!circuitOpen.compareAndSet(!open, open)) return open; // unchanged, or another thread saw it
+      logger.info((open ? "Opened circuit to " : "Closed circuit to ") + breaker.delegate());
+      if (circuitMetrics != null) {
+        if (open) circuitMetrics.incrementCircuitOpened();
+        circuitMetrics.updateCircuitOpen(open);
+      }
+      return open;
+    }
 
+    /** Resends the failed message that is due next, returning false if none are due. */
+    boolean retryDue() {
+      RetryBuffer.Retry retry = retryBuffer.pollDue(System.nanoTime());
+      if (retry == null) return false;
       try {
-        sender.sendSpans(nextMessage).execute();
+        sender.sendMessage(retry.message).execute();
       } catch (Throwable t) {
-        // In failure case, we increment messages and spans dropped.
-        int count = nextMessage.size();
         Call.propagateIfFatal(t);
-        metrics.incrementMessagesDropped(t);
-        metrics.incrementSpansDropped(count);
+        onFailure(retry.message, retry, t);
+        return true;
+      }
+      retryBuffer.release(retry);
+      return true;
+    }
 
-        Level logLevel = FINE;
+    /** Tries each message waiting for a retry once more, until the deadline. */
+    void retryOnClose(long deadlineNanoTime) {
+      for (RetryBuffer.Retry retry : retryBuffer.close()) {
+        MessageBuffer message = retry.message;
+        Throwable failure;
+        if (deadlineNanoTime - System.nanoTime() > 0) {
+          try {
+            sender.sendMessage(message).execute();
+            continue;
+          } catch (Throwable t) {
+            Call.propagateIfFatal(t);
+            failure = t;
+          }
+        } else {
+          failure = new IllegalStateException("timed out retrying on close");
+        }
+        if (spill == null || isClosedSender(failure) || !spillMessage(message)) {
+          metrics.incrementMessagesDropped(failure);
+          metrics.incrementSpansDropped(message.count());
+          logger.warning("Dropped " + message.count() + " spans due to AsyncReporter.close()");
+        }
+      }
+    }
+
+    static boolean isClosedSender(Throwable t) {
+      return t instanceof ClosedSenderException
+        || (t instanceof IllegalStateException && "closed".equals(t.getMessage()));
+    }
+
+    /** Returns true when the failed message should be spilled. */
+    boolean onSendFailure() {
+      if (spill == null) return false;
+      if (!senderDown) {
+        nextCheckNanoTime = System.nanoTime() + CHECK_INTERVAL_NANOS;
+        senderDown = true;
+      }
+      return true;
+    }
+
+    boolean spillMessage(MessageBuffer message) {
+      if (!spill.append(message)) return false;
+      if (spillMetrics != null) {
+        spillMetrics.incrementSpilledBytes(DiskSpill.spanBytes(message));
+        spillMetrics.updateSpillBytes(spill.sizeInBytes());
+      }
+      return true;
+    }
 
-        if (shouldWarnException) {
-          logger.log(WARNING, "Spans were dropped due to exceptions. "
-            + "All subsequent errors will be logged at FINE level.");
-          logLevel = WARNING;
-          shouldWarnException = false;
+    /**
+     * Sends the oldest spilled message, unless another thread is already, or the sender hasn't yet
+     * recovered. Returns true if a message was replayed.
+     */
+    boolean replaySpilled() {
+      if (spill.isEmpty() || !replaying.compareAndSet(false, true)) return false;
+      try {
+        if (senderDown) {
+          long nanoTime = System.nanoTime();
+          if (nanoTime - nextCheckNanoTime < 0) return false;
+          nextCheckNanoTime = nanoTime + CHECK_INTERVAL_NANOS;
+          if (!sender.check().ok()) return false;
+          senderDown = false;
         }
 
-        if (logger.isLoggable(logLevel)) {
-          logger.log(logLevel,
-            format("Dropped %s spans due to %s(%s)", count, t.getClass().getSimpleName(),
-              t.getMessage() == null ? "" : t.getMessage()), t);
+        if (spill.peek(replayMessage, sender, messageMaxBytes) == 0) return false;
+        try {
+          sender.sendMessage(replayMessage).execute();
+        } catch (Throwable t) {
+          Call.propagateIfFatal(t);
+          onSendFailure();
+          if (logger.isLoggable(FINE)) {
+            logger.log(FINE, "Couldn't replay spilled spans due to " + t, t);
+          }
+          return false;
+        }
+        spill.commit();
+        if (spillMetrics != null) {
+          spillMetrics.incrementReplayedBytes(DiskSpill.spanBytes(replayMessage));
+          spillMetrics.updateSpillBytes(spill.sizeInBytes());
         }
+        return true;
+      } finally {
+        replaying.set(false);
+      }
+    }
 
-        // Raise in case the sender was closed out-of-band.
-        if (t instanceof ClosedSenderException) throw (ClosedSenderException) t;
+    /** Spills spans that would otherwise be dropped on close, returning the count spilled. */
+    int spillOnClose(final List<byte[]> encodedSpans) {
+      int spilled = 0;
+      for (byte[] encoded : encodedSpans) {
+        if (!spill.append(encoded)) break;
+        if (spillMetrics != null) spillMetrics.incrementSpilledBytes(encoded.length);
+        spilled++;
+      }
+      if (spilled > 0) logger.info("Spilled " + spilled + " spans due to AsyncReporter.close()");
+      return spilled;
+    }
 
-        // Old senders in other artifacts may be using this less precise way of indicating they've been closed
-        // out-of-band.
-        if (t instanceof IllegalStateException && t.getMessage().equals("closed"))
-          throw (IllegalStateException) t;
+    /** Encodes what's left in the queues or a bundler, so that it can be spilled on close. */
+    List<byte[]> drainEncoded(final BufferNextMessage<S> bundler) {
+      final List<byte[]> result = new ArrayList<>();
+      SpanWithSizeConsumer<S> consumer = new SpanWithSizeConsumer<S>() {
+        @Override public boolean offer(S next, int nextSizeInBytes) {
+          result.add(encoder.encode(next));
+          return true;
+        }
+      };
+      if (bundler != null) {
+        bundler.drain(consumer);
+      } else {
+        pending.drainTo(consumer, 0);
+        overflow.drainTo(consumer, 0); // spans that didn't fit in the queue are newer
       }
+      return result;
     }
 
     @Override public CheckResult check() {
@@ -335,6 +1019,7 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
 
     @Override public void close() {
       if (!closed.compareAndSet(false, true)) return; // already closed
+      long deadlineNanoTime = System.nanoTime() + closeTimeoutNanos;
       started.set(true); // prevent anything from starting the thread after close!
       try {
         // wait for in-flight spans to send
@@ -345,6 +1030,17 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
         logger.warning("Interrupted waiting for in-flight spans to send");
         Thread.currentThread().interrupt();
       }
+      if (retryBuffer != null) retryOnClose(deadlineNanoTime);
+      if (spill != null) {
+        List<byte[]> remaining = drainEncoded(null);
+        int dropped = remaining.size() - spillOnClose(remaining);
+        if (dropped > 0) {
+          metrics.incrementSpansDropped(dropped);
+          logger.warning("Dropped " + dropped + " spans due to AsyncReporter.close()");
+        }
+        spill.close();
+        return;
+      }
       int count = pending.clear();
       if (count > 0) {
         metrics.incrementSpansDropped(count);
@@ -352,7 +1048,7 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
       }
     }
 
-    Builder toBuilder() {
+    @Override Builder toBuilder() {
       return new Builder(this);
     }
 
@@ -382,6 +1078,9 @@ public abstract class AsyncReporter<S> extends Component implements Reporter<S>,
         throw e;
       } finally {
         int count = consumer.count();
+        if (count > 0 && result.spill != null) {
+          count -= result.spillOnClose(result.drainEncoded(consumer));
+        }
         if (count > 0) {
           result.metrics.incrementSpansDropped(count);
           logger.warning("Dropped " + count + " spans due to AsyncReporter.close()");
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import zipkin2.reporter.AsyncReporter.QueueType;
+
+/**
+ * Queue of reported spans that is bounded by both count and size. Many application threads offer
+ * spans, while the reporting thread drains them into the next message.
+ */
+abstract class BoundedQueue<S> implements SpanWithSizeConsumer<S> {
+
+  static <S> BoundedQueue<S> create(QueueType queueType, int maxSize, int maxBytes) {
+    switch (queueType) {
+      case LOCKING:
+        return new ByteBoundedQueue<>(maxSize, maxBytes);
+      case LOCK_FREE:
+        return new LockFreeByteBoundedQueue<>(maxSize, maxBytes);
+      case STRIPED:
+        return new StripedByteBoundedQueue<>(maxSize, maxBytes);
+    }
+    throw new UnsupportedOperationException("queueType: " + queueType);
+  }
+
+  final int maxSize;
+  final int maxBytes;
+
+  BoundedQueue(int maxSize, int maxBytes) {
+    this.maxSize = maxSize;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Blocks for up to nanosTimeout for spans to appear. Then, consume as many as possible. */
+  abstract int drainTo(SpanWithSizeConsumer<S> consumer, long nanosTimeout);
+
+  /** Clears the queue unconditionally and returns count of spans cleared. */
+  abstract int clear();
+
+  /** Returns the count of spans pending. This is only used for metrics, so needn't be exact. */
+  abstract int count();
+
+  /** Returns the encoded size of spans pending. This is only used for metrics. */
+  abstract int sizeInBytes();
+}
@@ -13,8 +13,9 @@
  */
 package zipkin2.reporter;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import zipkin2.codec.Encoding;
 
 /** Use of this type happens off the application's main thread. This type is not thread-safe */
@@ -34,16 +35,47 @@ abstract class BufferNextMessage<S> implements SpanWithSizeConsumer<S> {
 
   final int maxBytes;
   final long timeoutNanos;
-  final ArrayList<S> spans = new ArrayList<>();
-  final ArrayList<Integer> sizes = new ArrayList<>();
+  // Parallel arrays, reused across messages. Sizes are primitive to avoid boxing each span.
+  Object[] spans = new Object[16];
+  int[] sizes = new int[16];
+  // Spans are at [head, head + count), so that a partial drain needn't move those that remain.
+  int head, count;
+  int spansSizeInBytes; // sum of sizes, excluding message overhead
+  /** Reused across messages sent by the same flusher. */
+  final MessageBuffer message;
 
-  long deadlineNanoTime;
+  /** Effective linger time and message size, which are lowered by {@link AdaptiveBatching}. */
+  long lingerNanos;
+  int readyBytes;
+  AdaptiveBatching adaptiveBatching;
+
+  long startNanoTime, deadlineNanoTime;
   int messageSizeInBytes;
   boolean bufferFull;
 
-  BufferNextMessage(int maxBytes, long timeoutNanos) {
+  /**
+   * Non-null when spans are copied from an {@link OffHeapByteBoundedQueue} straight into {@link
+   * #message} as they are drained, instead of each into its own array first.
+   */
+  Sender directSender;
+  int emptyMessageSizeInBytes;
+
+  BufferNextMessage(Encoding encoding, int maxBytes, long timeoutNanos) {
+    this.message = MessageBuffer.create(encoding);
     this.maxBytes = maxBytes;
     this.timeoutNanos = timeoutNanos;
+    this.lingerNanos = timeoutNanos;
+    this.readyBytes = maxBytes;
+  }
+
+  /**
+   * Bundles spans directly into {@link #message}, sized as the sender would, so that the message is
+   * ready to send as soon as it is full. See {@link #offerDirect(int)}.
+   */
+  void copyDirect(Sender sender) {
+    directSender = sender;
+    emptyMessageSizeInBytes = sender.messageSizeInBytes(Collections.<byte[]>emptyList());
+    messageSizeInBytes = emptyMessageSizeInBytes;
   }
 
   abstract int messageSizeInBytes(int nextSizeInBytes);
@@ -54,7 +86,7 @@ abstract class BufferNextMessage<S> implements SpanWithSizeConsumer<S> {
     boolean hasAtLeastOneSpan;
 
     BufferNextJsonMessage(int maxBytes, long timeoutNanos) {
-      super(maxBytes, timeoutNanos);
+      super(Encoding.JSON, maxBytes, timeoutNanos);
       messageSizeInBytes = 2;
       hasAtLeastOneSpan = false;
     }
@@ -66,17 +98,9 @@ abstract class BufferNextMessage<S> implements SpanWithSizeConsumer<S> {
 
     @Override
     void resetMessageSizeInBytes() {
-      int length = sizes.size();
-      hasAtLeastOneSpan = length > 0;
-      if (length < 2) {
-        messageSizeInBytes = 2;
-        if (hasAtLeastOneSpan) messageSizeInBytes += sizes.get(0);
-      } else {
-        messageSizeInBytes = 2 + length - 1; // [] and commas
-        for (int i = 0; i < length; i++) {
-          messageSizeInBytes += sizes.get(i);
-        }
-      }
+      hasAtLeastOneSpan = count > 0;
+      messageSizeInBytes = 2 + spansSizeInBytes; // []
+      if (count > 1) messageSizeInBytes += count - 1; // commas
     }
 
     @Override
@@ -89,7 +113,7 @@ abstract class BufferNextMessage<S> implements SpanWithSizeConsumer<S> {
   static final class BufferNextThriftMessage<S> extends BufferNextMessage<S> {
 
     BufferNextThriftMessage(int maxBytes, long timeoutNanos) {
-      super(maxBytes, timeoutNanos);
+      super(Encoding.THRIFT, maxBytes, timeoutNanos);
       messageSizeInBytes = 5;
     }
 
@@ -100,16 +124,13 @@ abstract class BufferNextMessage<S> implements SpanWithSizeConsumer<S> {
 
     @Override
     void resetMessageSizeInBytes() {
-      messageSizeInBytes = 5;
-      for (int i = 0, length = sizes.size(); i < length; i++) {
-        messageSizeInBytes += sizes.get(i);
-      }
+      messageSizeInBytes = 5 + spansSizeInBytes;
     }
   }
 
   static final class BufferNextProto3Message<S> extends BufferNextMessage<S> {
     BufferNextProto3Message(int maxBytes, long timeoutNanos) {
-      super(maxBytes, timeoutNanos);
+      super(Encoding.PROTO3, maxBytes, timeoutNanos);
     }
 
     /** proto3 repeated fields are simply concatenated. there is no other overhead */
@@ -120,10 +141,7 @@ abstract class BufferNextMessage<S> implements SpanWithSizeConsumer<S> {
 
     @Override
     void resetMessageSizeInBytes() {
-      messageSizeInBytes = 0;
-      for (int i = 0, length = sizes.size(); i < length; i++) {
-        messageSizeInBytes += sizes.get(i);
-      }
+      messageSizeInBytes = spansSizeInBytes;
     }
   }
 
@@ -146,41 +164,118 @@ abstract class BufferNextMessage<S> implements SpanWithSizeConsumer<S> {
     return true;
   }
 
+  /**
+   * Frames the next span in {@link #message} and returns the offset to copy it to, or -1 if it
+   * doesn't fit. Like {@link #offer}, this is done inside the queue's lock.
+   */
+  int offerDirect(int nextSizeInBytes) {
+    int x = messageSizeInBytes
+      + directSender.messageSizeInBytes(nextSizeInBytes) - emptyMessageSizeInBytes
+      + (message.encoding() == Encoding.JSON && count > 0 ? 1 : 0); // comma
+    if (x > maxBytes) {
+      bufferFull = true;
+      return -1;
+    }
+
+    if (x == maxBytes) bufferFull = true;
+    messageSizeInBytes = x;
+    count++;
+    return message.append(nextSizeInBytes);
+  }
+
   void addSpanToBuffer(S next, int nextSizeInBytes) {
-    spans.add(next);
-    sizes.add(nextSizeInBytes);
+    int tail = head + count;
+    if (tail == spans.length) {
+      // Move what a partial drain left behind to the front, growing only when mostly full.
+      int capacity = count < spans.length / 2 ? spans.length : spans.length * 2;
+      Object[] newSpans = capacity == spans.length ? spans : new Object[capacity];
+      int[] newSizes = capacity == sizes.length ? sizes : new int[capacity];
+      System.arraycopy(spans, head, newSpans, 0, count);
+      System.arraycopy(sizes, head, newSizes, 0, count);
+      if (newSpans == spans) Arrays.fill(spans, count, tail, null);
+      spans = newSpans;
+      sizes = newSizes;
+      head = 0;
+      tail = count;
+    }
+    spans[tail] = next;
+    sizes[tail] = nextSizeInBytes;
+    count++;
+    spansSizeInBytes += nextSizeInBytes;
   }
 
   long remainingNanos() {
-    if (spans.isEmpty()) {
-      deadlineNanoTime = System.nanoTime() + timeoutNanos;
+    if (count == 0) {
+      startNanoTime = System.nanoTime();
+      deadlineNanoTime = startNanoTime + lingerNanos;
     }
     return Math.max(deadlineNanoTime - System.nanoTime(), 0);
   }
 
   boolean isReady() {
-    return bufferFull || remainingNanos() <= 0;
+    if (bufferFull) return true;
+    if (count > 0 && messageSizeInBytes >= readyBytes) return true;
+    return remainingNanos() <= 0;
   }
 
   // this occurs off the application thread
   void drain(SpanWithSizeConsumer<S> consumer) {
-    Iterator<S> spanIterator = spans.iterator();
-    Iterator<Integer> sizeIterator = sizes.iterator();
-    while (spanIterator.hasNext()) {
-      if (consumer.offer(spanIterator.next(), sizeIterator.next())) {
-        bufferFull = false;
-        spanIterator.remove();
-        sizeIterator.remove();
-      }
+    if (directSender != null) {
+      drainDirect(consumer);
+      return;
+    }
+
+    // Drains in order until the consumer rejects a span, which leaves it and those after it for
+    // the next message. Advancing the head instead of shifting what remains keeps this linear in
+    // the count of spans drained.
+    int i = head, tail = head + count;
+    for (; i < tail; i++) {
+      @SuppressWarnings("unchecked") S next = (S) spans[i];
+      if (!consumer.offer(next, sizes[i])) break;
+      bufferFull = false;
+      spans[i] = null; // release drained span
+      spansSizeInBytes -= sizes[i];
+      sizes[i] = 0;
     }
+    count = tail - i;
+    head = count == 0 ? 0 : i;
 
     resetMessageSizeInBytes();
     // regardless, reset the clock
     deadlineNanoTime = 0;
   }
 
+  /**
+   * Spans copied directly are already in the message, so are only copied out again when they need
+   * to be handled one at a time, such as on close. Every span is drained, regardless of whether the
+   * consumer accepts it.
+   */
+  void drainDirect(SpanWithSizeConsumer<S> consumer) {
+    @SuppressWarnings("unchecked") List<S> encodedSpans = (List<S>) message.encodedSpans();
+    for (S next : encodedSpans) {
+      consumer.offer(next, ((byte[]) next).length);
+    }
+    clear();
+  }
+
+  /** Discards the spans in this bundle, for example once its message was sent. */
+  void clear() {
+    if (directSender != null) {
+      message.clear();
+      count = 0;
+      messageSizeInBytes = emptyMessageSizeInBytes;
+    } else {
+      Arrays.fill(spans, head, head + count, null);
+      Arrays.fill(sizes, head, head + count, 0);
+      head = count = spansSizeInBytes = 0;
+      resetMessageSizeInBytes();
+    }
+    bufferFull = false;
+    deadlineNanoTime = 0;
+  }
+
   int count() {
-    return spans.size();
+    return count;
   }
 
   int sizeInBytes() {
@@ -22,14 +22,11 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * <p>This is similar to {@link java.util.concurrent.ArrayBlockingQueue} in implementation.
  */
-final class ByteBoundedQueue<S> implements SpanWithSizeConsumer<S> {
+final class ByteBoundedQueue<S> extends BoundedQueue<S> {
 
   final ReentrantLock lock = new ReentrantLock(false);
   final Condition available = lock.newCondition();
 
-  final int maxSize;
-  final int maxBytes;
-
   final S[] elements;
   final int[] sizesInBytes;
   int count;
@@ -38,10 +35,9 @@ final class ByteBoundedQueue<S> implements SpanWithSizeConsumer<S> {
   int readPos;
 
   @SuppressWarnings("unchecked") ByteBoundedQueue(int maxSize, int maxBytes) {
+    super(maxSize, maxBytes);
     this.elements = (S[]) new Object[maxSize];
     this.sizesInBytes = new int[maxSize];
-    this.maxSize = maxSize;
-    this.maxBytes = maxBytes;
   }
 
   /**
@@ -68,8 +64,7 @@ final class ByteBoundedQueue<S> implements SpanWithSizeConsumer<S> {
     }
   }
 
-  /** Blocks for up to nanosTimeout for spans to appear. Then, consume as many as possible. */
-  int drainTo(SpanWithSizeConsumer<S> consumer, long nanosTimeout) {
+  @Override int drainTo(SpanWithSizeConsumer<S> consumer, long nanosTimeout) {
     try {
       // This may be called by multiple threads. If one is holding a lock, another is waiting. We
       // use lockInterruptibly to ensure the one waiting can be interrupted.
@@ -89,8 +84,7 @@ final class ByteBoundedQueue<S> implements SpanWithSizeConsumer<S> {
     }
   }
 
-  /** Clears the queue unconditionally and returns count of spans cleared. */
-  int clear() {
+  @Override int clear() {
     lock.lock();
     try {
       int result = count;
@@ -102,6 +96,14 @@ final class ByteBoundedQueue<S> implements SpanWithSizeConsumer<S> {
     }
   }
 
+  @Override int count() {
+    return count;
+  }
+
+  @Override int sizeInBytes() {
+    return sizeInBytes;
+  }
+
   int doDrain(SpanWithSizeConsumer<S> consumer) {
     int drainedCount = 0;
     int drainedSizeInBytes = 0;
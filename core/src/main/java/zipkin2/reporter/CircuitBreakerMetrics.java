@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+/**
+ * Optional callbacks for a {@link ReporterMetrics} that also wants to track a {@link
+ * CircuitBreakerSender}. The reporter invokes these when its configured metrics implement this
+ * type and its sender is a circuit breaker.
+ *
+ * <p>Alert when the circuit stays open, as spans reported meanwhile are dropped, or spilled.
+ *
+ * @since 2.17
+ */
+public interface CircuitBreakerMetrics {
+  /** Increments the count of times the circuit opened. */
+  void incrementCircuitOpened();
+
+  /** Updates whether the circuit is currently open. */
+  void updateCircuitOpen(boolean open);
+}
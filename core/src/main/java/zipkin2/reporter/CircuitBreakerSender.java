@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.codec.Encoding;
+
+/**
+ * Wraps a sender so that a collector outage costs little. After {@link
+ * Builder#failureThreshold(int) consecutive failures}, the circuit opens. While open, sends fail
+ * immediately with {@link OpenCircuitException}, instead of each waiting on a connect or read
+ * timeout.
+ *
+ * <p>When used by an {@link AsyncReporter}, spans reported while the circuit is open are dropped,
+ * or {@link AsyncReporter.Builder#spillDirectory(java.io.File) spilled}, before they are queued
+ * or encoded. After the {@link Builder#openTimeout(long, TimeUnit) open timeout}, the flushing
+ * thread probes the delegate with {@link Sender#check()}, closing the circuit once it passes.
+ * Metrics implementing {@link CircuitBreakerMetrics} are told when the circuit opens or closes.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * sender = CircuitBreakerSender.create(URLConnectionSender.create("http://localhost:9411/api/v2/spans"));
+ * reporter = AsyncReporter.create(sender);
+ * }</pre>
+ *
+ * @since 2.17
+ */
+public final class CircuitBreakerSender extends Sender {
+  /** Creates a circuit breaker with default settings. */
+  public static CircuitBreakerSender create(Sender delegate) {
+    return newBuilder(delegate).build();
+  }
+
+  public static Builder newBuilder(Sender delegate) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    return new Builder(delegate);
+  }
+
+  public static final class Builder {
+    final Sender delegate;
+    int failureThreshold = 5;
+    long openTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+
+    Builder(Sender delegate) {
+      this.delegate = delegate;
+    }
+
+    /** Count of consecutive failed sends that opens the circuit. Defaults to 5. */
+    public Builder failureThreshold(int failureThreshold) {
+      if (failureThreshold < 1) {
+        throw new IllegalArgumentException("failureThreshold < 1: " + failureThreshold);
+      }
+      this.failureThreshold = failureThreshold;
+      return this;
+    }
+
+    /**
+     * How long the circuit stays open before the delegate is probed with {@link Sender#check()}.
+     * While the check fails, it is repeated at this interval. Defaults to 5 seconds.
+     */
+    public Builder openTimeout(long timeout, TimeUnit unit) {
+      if (timeout < 0) throw new IllegalArgumentException("openTimeout < 0: " + timeout);
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.openTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    public CircuitBreakerSender build() {
+      return new CircuitBreakerSender(this);
+    }
+  }
+
+  /** Thrown by sends while the circuit is open. */
+  public static final class OpenCircuitException extends IllegalStateException {
+    static final long serialVersionUID = 5306286339530413513L;
+
+    OpenCircuitException(Sender delegate) {
+      super("circuit open to " + delegate);
+    }
+  }
+
+  final Sender delegate;
+  final int failureThreshold;
+  final long openTimeoutNanos;
+  final AtomicInteger consecutiveFailures = new AtomicInteger();
+  final AtomicBoolean probing = new AtomicBoolean();
+  volatile boolean open;
+  volatile long openedNanoTime;
+
+  CircuitBreakerSender(Builder builder) {
+    this.delegate = builder.delegate;
+    this.failureThreshold = builder.failureThreshold;
+    this.openTimeoutNanos = builder.openTimeoutNanos;
+  }
+
+  /** Returns the sender this wraps. */
+  public Sender delegate() {
+    return delegate;
+  }
+
+  /** Returns true when sends fail without reaching the delegate. */
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override public Encoding encoding() {
+    return delegate.encoding();
+  }
+
+  @Override public int messageMaxBytes() {
+    return delegate.messageMaxBytes();
+  }
+
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    return delegate.messageSizeInBytes(encodedSpans);
+  }
+
+  @Override public int messageSizeInBytes(int encodedSizeInBytes) {
+    return delegate.messageSizeInBytes(encodedSizeInBytes);
+  }
+
+  @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+    if (open) return new OpenCircuitCall(this);
+    Call<Void> call;
+    try {
+      call = delegate.sendSpans(encodedSpans);
+    } catch (RuntimeException e) { // some senders fail before returning a call
+      onFailure();
+      throw e;
+    }
+    return new CircuitBreakerCall(this, call);
+  }
+
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    if (open) return new OpenCircuitCall(this);
+    Call<Void> call;
+    try {
+      call = delegate.sendMessage(message);
+    } catch (RuntimeException e) {
+      onFailure();
+      throw e;
+    }
+    return new CircuitBreakerCall(this, call);
+  }
+
+  /** Checks the delegate, closing the circuit when it passes. */
+  @Override public CheckResult check() {
+    CheckResult result = delegate.check();
+    if (result.ok()) onSuccess();
+    return result;
+  }
+
+  /**
+   * Checks the delegate if the circuit has been open for the {@link Builder#openTimeout(long,
+   * TimeUnit) open timeout}, unless another thread is already. Called by flushing threads, as no
+   * sends reach the delegate while the circuit is open.
+   */
+  void probeIfDue() {
+    if (!open || System.nanoTime() - openedNanoTime < openTimeoutNanos) return;
+    if (!probing.compareAndSet(false, true)) return;
+    try {
+      if (!check().ok()) openedNanoTime = System.nanoTime(); // wait another timeout
+    } finally {
+      probing.set(false);
+    }
+  }
+
+  void onSuccess() {
+    consecutiveFailures.set(0);
+    open = false;
+  }
+
+  void onFailure() {
+    if (consecutiveFailures.incrementAndGet() < failureThreshold || open) return;
+    openedNanoTime = System.nanoTime();
+    open = true;
+  }
+
+  @Override public void close() throws IOException {
+    delegate.close();
+  }
+
+  @Override public String toString() {
+    return "CircuitBreakerSender{" + delegate + "}";
+  }
+
+  static final class CircuitBreakerCall extends Call.Base<Void> {
+    final CircuitBreakerSender breaker;
+    final Call<Void> delegate;
+
+    CircuitBreakerCall(CircuitBreakerSender breaker, Call<Void> delegate) {
+      this.breaker = breaker;
+      this.delegate = delegate;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      try {
+        delegate.execute();
+      } catch (IOException e) {
+        breaker.onFailure();
+        throw e;
+      } catch (RuntimeException | Error e) {
+        breaker.onFailure();
+        throw e;
+      }
+      breaker.onSuccess();
+      return null;
+    }
+
+    @Override protected void doEnqueue(final Callback<Void> callback) {
+      delegate.enqueue(new Callback<Void>() {
+        @Override public void onSuccess(Void value) {
+          breaker.onSuccess();
+          callback.onSuccess(value);
+        }
+
+        @Override public void onError(Throwable t) {
+          breaker.onFailure();
+          callback.onError(t);
+        }
+      });
+    }
+
+    @Override protected void doCancel() {
+      delegate.cancel();
+    }
+
+    @Override public Call<Void> clone() {
+      return new CircuitBreakerCall(breaker, delegate.clone());
+    }
+
+    @Override public String toString() {
+      return "CircuitBreakerCall{" + delegate + "}";
+    }
+  }
+
+  static final class OpenCircuitCall extends Call.Base<Void> {
+    final CircuitBreakerSender breaker;
+
+    OpenCircuitCall(CircuitBreakerSender breaker) {
+      this.breaker = breaker;
+    }
+
+    @Override protected Void doExecute() {
+      throw new OpenCircuitException(breaker.delegate);
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      callback.onError(new OpenCircuitException(breaker.delegate));
+    }
+
+    @Override public Call<Void> clone() {
+      return new OpenCircuitCall(breaker);
+    }
+
+    @Override public String toString() {
+      return "OpenCircuitCall{" + breaker.delegate + "}";
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses messages before a {@link Sender} sends them. The sender adds {@link #encoding()} to
+ * the message, for example as the HTTP "Content-Encoding" header, so that the collector can
+ * decompress it.
+ *
+ * <p>{@link #gzip(int) gzip} is built-in. Other formats, such as zstd, LZ4 or snappy, can be added
+ * by wrapping their library's output stream. For example, with zstd-jni:
+ * <pre>
+ * zstd = new Compression() {
+ *   &#64;Override public String encoding() {
+ *     return "zstd";
+ *   }
+ *
+ *   &#64;Override public OutputStream compress(OutputStream out) throws IOException {
+ *     return new ZstdOutputStream(new FilterOutputStream(out) {
+ *       &#64;Override public void write(byte[] b, int off, int len) throws IOException {
+ *         out.write(b, off, len);
+ *       }
+ *
+ *       &#64;Override public void close() throws IOException {
+ *         flush(); // the sender owns out
+ *       }
+ *     });
+ *   }
+ * };
+ * sender = OkHttpSender.newBuilder().endpoint(endpoint).compression(zstd).build();
+ * </pre>
+ *
+ * <p>Implementations must be thread-safe, as senders can compress several messages at once.
+ *
+ * @since 2.17
+ */
+public abstract class Compression {
+  /** gzip, at {@link Deflater#DEFAULT_COMPRESSION the default level}. */
+  public static final Compression GZIP = new Gzip(Deflater.DEFAULT_COMPRESSION);
+
+  /**
+   * Returns gzip at the given {@link Deflater} level, from {@link Deflater#NO_COMPRESSION} (0) to
+   * {@link Deflater#BEST_COMPRESSION} (9), or {@link Deflater#DEFAULT_COMPRESSION}.
+   *
+   * <p>Deflaters are reused across messages, so there's no native memory churn per message.
+   */
+  public static Compression gzip(int level) {
+    if (level == Deflater.DEFAULT_COMPRESSION) return GZIP;
+    if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("invalid compressionLevel: " + level);
+    }
+    return new Gzip(level);
+  }
+
+  /**
+   * The name of this format, as used in the HTTP "Content-Encoding" header. For example, "gzip"
+   * or "zstd".
+   */
+  public abstract String encoding();
+
+  /**
+   * Returns a stream that compresses what's written to it into {@code out}. Closing the returned
+   * stream finishes the compressed data, but does not close {@code out}.
+   *
+   * <p>The returned stream must not be used after it is closed, as its resources may be reused.
+   */
+  public abstract OutputStream compress(OutputStream out) throws IOException;
+
+  /**
+   * Compresses part of a message into a new array, for transports that send byte arrays. For
+   * example, {@code compress(message.array(), 0, message.sizeInBytes())}.
+   */
+  public byte[] compress(byte[] message, int offset, int length) throws IOException {
+    if (message == null) throw new NullPointerException("message == null");
+    ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max(32, length / 2));
+    OutputStream compressor = compress(result);
+    boolean written = false;
+    try {
+      compressor.write(message, offset, length);
+      written = true;
+    } finally {
+      if (written) {
+        compressor.close();
+      } else {
+        closeQuietly(compressor);
+      }
+    }
+    return result.toByteArray();
+  }
+
+  /** Releases the stream after a failed write, without masking that failure. */
+  static void closeQuietly(OutputStream compressor) {
+    try {
+      compressor.close();
+    } catch (IOException e) {
+      // ignored, as the write already failed. Throwable.addSuppressed doesn't exist before JRE 7
+    } catch (RuntimeException e) {
+      // ignored for the same reason
+    }
+  }
+
+  @Override public String toString() {
+    return encoding();
+  }
+
+  static final class Gzip extends Compression {
+    /** Bounds the deflaters held between messages. More are created under load. */
+    static final int MAX_IDLE = 8;
+
+    final int level;
+    final BlockingQueue<GzipOutputStream> idle =
+        new ArrayBlockingQueue<GzipOutputStream>(MAX_IDLE);
+
+    Gzip(int level) {
+      this.level = level;
+    }
+
+    @Override public String encoding() {
+      return "gzip";
+    }
+
+    @Override public OutputStream compress(OutputStream out) throws IOException {
+      if (out == null) throw new NullPointerException("out == null");
+      GzipOutputStream result = idle.poll();
+      if (result == null) result = new GzipOutputStream(this);
+      boolean begun = false;
+      try {
+        result.begin(out);
+        begun = true;
+      } finally {
+        if (!begun) result.release(); // the caller never sees the stream, so can't close it
+      }
+      return result;
+    }
+
+    void release(GzipOutputStream stream) {
+      if (!idle.offer(stream)) stream.deflater.end();
+    }
+  }
+
+  /**
+   * Like {@link java.util.zip.GZIPOutputStream}, except the deflater and buffer are reused, and
+   * closing doesn't close the destination.
+   */
+  static final class GzipOutputStream extends OutputStream {
+    static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, // Two-byte gzip ID.
+        0x08, // 8 == Deflate compression method.
+        0, // No flags.
+        0, 0, 0, 0, // No modification time.
+        0, // No extra flags.
+        0 // No OS.
+    };
+
+    final Gzip gzip;
+    final Deflater deflater;
+    final CRC32 crc = new CRC32();
+    final byte[] buf = new byte[8192], single = new byte[1];
+    OutputStream out;
+    int inputSize;
+    boolean failed; // when a write failed, the gzip trailer would be wrong, so isn't written
+
+    GzipOutputStream(Gzip gzip) {
+      this.gzip = gzip;
+      this.deflater = new Deflater(gzip.level, true /* nowrap: we write the gzip framing */);
+    }
+
+    void begin(OutputStream out) throws IOException {
+      this.out = out;
+      out.write(HEADER);
+    }
+
+    @Override public void write(int b) throws IOException {
+      single[0] = (byte) b;
+      write(single, 0, 1);
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      if (out == null) throw new IOException("closed");
+      boolean written = false;
+      try {
+        crc.update(b, off, len);
+        inputSize += len;
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) deflate();
+        written = true;
+      } finally {
+        if (!written) failed = true;
+      }
+    }
+
+    void deflate() throws IOException {
+      int deflated = deflater.deflate(buf, 0, buf.length);
+      if (deflated > 0) out.write(buf, 0, deflated);
+    }
+
+    @Override public void flush() throws IOException {
+      if (out != null) out.flush();
+    }
+
+    /**
+     * Writes the remaining data and gzip trailer, unless a write failed, then returns this for
+     * reuse. This is returned even if writing the trailer fails.
+     */
+    @Override public void close() throws IOException {
+      if (out == null) return;
+      try {
+        if (!failed) {
+          deflater.finish();
+          while (!deflater.finished()) deflate();
+          writeIntLe((int) crc.getValue());
+          writeIntLe(inputSize);
+        }
+      } finally {
+        release();
+      }
+    }
+
+    void release() {
+      out = null;
+      failed = false;
+      deflater.reset();
+      crc.reset();
+      inputSize = 0;
+      gzip.release(this);
+    }
+
+    void writeIntLe(int i) throws IOException {
+      out.write(i & 0xff);
+      out.write((i >>> 8) & 0xff);
+      out.write((i >>> 16) & 0xff);
+      out.write((i >>> 24) & 0xff);
+    }
+  }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+import zipkin2.codec.Encoding;
+
+/**
+ * Append-only log of messages that could not be sent, kept in memory-mapped segment files under a
+ * directory. This keeps a backlog of spans during a collector outage off the heap and outside the
+ * queue, and lets it survive a restart of the process.
+ *
+ * <p>Each segment is a file named {@code spill-<sequence>.log} of a fixed size. Records are
+ * written one after another: an int length, an int count of spans, then each span as an int length
+ * followed by its encoded bytes. A length of zero marks the end of what was written. Once a record
+ * is replayed, its length is negated, so that it is skipped after a restart. A segment is deleted
+ * once all of its records are replayed, unless it is the only one, in which case it is rewound.
+ *
+ * <p>The record length is written last, so a record torn by a crash is never read. Writes are not
+ * forced to disk: what's spilled survives the process crashing, but not the operating system.
+ *
+ * <p>Only one thread should {@link #peek} and {@link #commit} at a time. Any thread can append.
+ *
+ * <p>The directory has one owner: an exclusive lock on {@code spill.lock} is held until {@link
+ * #close()}, so that another spill, in this process or another, fails to open it instead of
+ * replaying and overwriting the same segments.
+ */
+final class DiskSpill {
+  static final Logger logger = Logger.getLogger(DiskSpill.class.getName());
+  static final String PREFIX = "spill-", SUFFIX = ".log", LOCK_FILE = "spill.lock";
+  static final int RECORD_HEADER = 8, SPAN_HEADER = 4;
+
+  final File directory;
+  final int segmentBytes, maxSegments;
+  final ArrayDeque<Segment> segments = new ArrayDeque<>();
+  final RandomAccessFile lockFile;
+  final FileLock lock;
+  long nextSequence, sizeInBytes;
+  boolean closed;
+
+  // Records read by the last peek, consumed on commit
+  int peekEnd, peekRecords;
+  long peekSizeInBytes;
+
+  DiskSpill(File directory, long maxBytes, int segmentBytes) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes));
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("couldn't create spill directory: " + directory);
+    }
+    lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    boolean opened = false;
+    try {
+      lock = tryLock(lockFile.getChannel(), directory);
+      recover();
+      opened = true;
+    } finally {
+      if (!opened) lockFile.close(); // also releases the lock
+    }
+  }
+
+  static FileLock tryLock(FileChannel channel, File directory) throws IOException {
+    FileLock result;
+    try {
+      result = channel.tryLock(); // null when another process holds it
+    } catch (OverlappingFileLockException e) { // this process holds it
+      result = null;
+    }
+    if (result == null) {
+      throw new IllegalArgumentException("spill directory is already in use: " + directory);
+    }
+    return result;
+  }
+
+  /** Returns true when there is nothing left to replay. */
+  synchronized boolean isEmpty() {
+    return sizeInBytes == 0;
+  }
+
+  /** Returns the bytes of records not yet replayed. */
+  synchronized long sizeInBytes() {
+    return sizeInBytes;
+  }
+
+  /** Returns false if the message doesn't fit in the remaining space. */
+  synchronized boolean append(MessageBuffer message) {
+    int count = message.count();
+    int recordLength = RECORD_HEADER + count * SPAN_HEADER + spanBytes(message);
+    Segment segment = reserve(recordLength);
+    if (segment == null) return false;
+
+    ByteBuffer buffer = segment.buffer;
+    int pos = segment.writePos + RECORD_HEADER;
+    for (int i = 0; i < count; i++) {
+      pos = writeSpan(buffer, pos, message.buf, message.spanOffsets[i], message.spanLengths[i]);
+    }
+    commitAppend(segment, recordLength, count);
+    return true;
+  }
+
+  /** Returns false if the span doesn't fit in the remaining space. */
+  synchronized boolean append(byte[] encodedSpan) {
+    int recordLength = RECORD_HEADER + SPAN_HEADER + encodedSpan.length;
+    Segment segment = reserve(recordLength);
+    if (segment == null) return false;
+
+    writeSpan(segment.buffer, segment.writePos + RECORD_HEADER, encodedSpan, 0,
+      encodedSpan.length);
+    commitAppend(segment, recordLength, 1);
+    return true;
+  }
+
+  /**
+   * Adds the spans of the oldest records to the message, as long as its size according to the
+   * sender stays under the max. The first record is always added. Returns the size in bytes of the
+   * records added, which are only consumed once {@link #commit() committed}.
+   */
+  synchronized long peek(MessageBuffer message, Sender sender, int messageMaxBytes) {
+    message.clear();
+    peekRecords = 0;
+    peekSizeInBytes = 0;
+    Segment segment = segments.peekFirst();
+    if (segment == null || closed) return 0;
+
+    int emptyMessageSizeInBytes = sender.messageSizeInBytes(Collections.<byte[]>emptyList());
+    int messageSizeInBytes = emptyMessageSizeInBytes;
+    boolean json = message.encoding() == Encoding.JSON;
+    ByteBuffer buffer = segment.buffer;
+    int pos = segment.readPos;
+    List<byte[]> spans = new ArrayList<>();
+    while (pos < segment.writePos) {
+      int recordLength = buffer.getInt(pos);
+      if (recordLength < 0) { // already replayed
+        pos -= recordLength;
+        continue;
+      }
+
+      spans.clear();
+      int count = buffer.getInt(pos + 4), spanPos = pos + RECORD_HEADER;
+      int x = messageSizeInBytes;
+      for (int i = 0; i < count; i++) {
+        byte[] span = new byte[buffer.getInt(spanPos)];
+        ByteBuffer duplicate = buffer.duplicate();
+        ((Buffer) duplicate).position(spanPos + SPAN_HEADER);
+        duplicate.get(span);
+        spanPos += SPAN_HEADER + span.length;
+        x += sender.messageSizeInBytes(span.length) - emptyMessageSizeInBytes
+          + (json && (message.count() + i) > 0 ? 1 : 0); // comma
+        spans.add(span);
+      }
+      if (x > messageMaxBytes && peekRecords > 0) break; // leave the record for the next message
+
+      for (byte[] span : spans) message.add(span);
+      messageSizeInBytes = x;
+      peekRecords++;
+      peekSizeInBytes += recordLength;
+      pos += recordLength;
+    }
+    peekEnd = pos;
+    return peekSizeInBytes;
+  }
+
+  /** Marks the records added by the last {@link #peek} as replayed. */
+  synchronized void commit() {
+    Segment segment = segments.peekFirst();
+    if (peekRecords == 0 || segment == null || closed) return;
+
+    ByteBuffer buffer = segment.buffer;
+    int pos = segment.readPos;
+    while (pos < peekEnd) {
+      int recordLength = buffer.getInt(pos);
+      if (recordLength > 0) buffer.putInt(pos, -recordLength);
+      pos += Math.abs(recordLength);
+    }
+    segment.readPos = peekEnd;
+    sizeInBytes -= peekSizeInBytes;
+    peekRecords = 0;
+    peekSizeInBytes = 0;
+
+    if (segment.readPos < segment.writePos) return;
+    if (segments.size() > 1) {
+      segments.removeFirst();
+      segment.delete();
+    } else { // rewind so that the file is reused
+      segment.buffer.putInt(0, 0);
+      segment.readPos = segment.writePos = 0;
+    }
+  }
+
+  synchronized void close() {
+    if (closed) return;
+    closed = true;
+    for (Segment segment : segments) {
+      segment.buffer.force();
+      segment.unmap();
+    }
+    segments.clear();
+    try {
+      lockFile.close(); // also releases the lock
+    } catch (IOException e) {
+      logger.warning("Couldn't release the spill directory lock: " + e);
+    }
+  }
+
+  /** Returns the segment with room for the record, adding one if needed, or null if full. */
+  Segment reserve(int recordLength) {
+    if (closed || recordLength > segmentBytes) return null;
+    Segment segment = segments.peekLast();
+    if (segment != null && segment.writePos + recordLength <= segment.capacity) return segment;
+    if (segments.size() >= maxSegments) return null;
+    try {
+      segment = Segment.create(new File(directory, fileName(nextSequence++)), segmentBytes);
+    } catch (IOException e) {
+      logger.warning("Couldn't add a spill segment: " + e);
+      return null;
+    }
+    segments.addLast(segment);
+    return segment;
+  }
+
+  void commitAppend(Segment segment, int recordLength, int count) {
+    ByteBuffer buffer = segment.buffer;
+    int pos = segment.writePos, end = pos + recordLength;
+    // Clear the next length, in case the segment was rewound over older records.
+    if (end + 4 <= segment.capacity) buffer.putInt(end, 0);
+    buffer.putInt(pos + 4, count);
+    buffer.putInt(pos, recordLength); // written last, so that a torn record is never read
+    segment.writePos = end;
+    sizeInBytes += recordLength;
+  }
+
+  static int writeSpan(ByteBuffer buffer, int pos, byte[] src, int offset, int length) {
+    buffer.putInt(pos, length);
+    ByteBuffer duplicate = buffer.duplicate();
+    ((Buffer) duplicate).position(pos + SPAN_HEADER);
+    duplicate.put(src, offset, length);
+    return pos + SPAN_HEADER + length;
+  }
+
+  static int spanBytes(MessageBuffer message) {
+    int result = 0;
+    for (int i = 0; i < message.count; i++) result += message.spanLengths[i];
+    return result;
+  }
+
+  /** Maps existing segments in sequence order, skipping records already replayed. */
+  void recover() throws IOException {
+    File[] files = directory.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.isFile() && parseSequence(file.getName()) >= 0;
+      }
+    });
+    if (files == null) throw new IOException("couldn't list spill directory: " + directory);
+    long[] sequences = new long[files.length];
+    for (int i = 0; i < files.length; i++) sequences[i] = parseSequence(files[i].getName());
+    Arrays.sort(sequences);
+
+    for (long sequence : sequences) {
+      nextSequence = sequence + 1;
+      File file = new File(directory, fileName(sequence));
+      Segment segment = Segment.create(file, (int) Math.min(file.length(), Integer.MAX_VALUE));
+      segment.scan();
+      if (segment.readPos == segment.writePos) { // nothing left to replay
+        segment.delete();
+        continue;
+      }
+      sizeInBytes += segment.liveBytes;
+      segments.addLast(segment);
+    }
+    // Drop the oldest segments if the directory holds more than we are allowed to.
+    for (Iterator<Segment> i = segments.iterator(); segments.size() > maxSegments; ) {
+      Segment segment = i.next();
+      i.remove();
+      sizeInBytes -= segment.liveBytes;
+      segment.delete();
+      logger.warning("Dropped spill segment over the limit: " + segment.file);
+    }
+  }
+
+  static String fileName(long sequence) {
+    // zero-padded, so that a directory listing is in sequence order
+    return PREFIX + String.format("%019d", sequence) + SUFFIX;
+  }
+
+  static long parseSequence(String fileName) {
+    if (!fileName.startsWith(PREFIX) || !fileName.endsWith(SUFFIX)) return -1;
+    try {
+      return Long.parseLong(fileName.substring(PREFIX.length(), fileName.length() - SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  static final class Segment {
+    static Segment create(File file, int capacity) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        FileChannel channel = raf.getChannel();
+        // the channel can be closed once mapped: the mapping stays valid until collected
+        return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+      } finally {
+        raf.close();
+      }
+    }
+
+    final File file;
+    final MappedByteBuffer buffer;
+    final int capacity;
+    int readPos, writePos;
+    long liveBytes; // only used during recovery
+
+    Segment(File file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+      this.capacity = buffer.capacity();
+    }
+
+    /** Finds the first record not yet replayed and the end of what was written. */
+    void scan() {
+      int pos = 0;
+      boolean foundLive = false;
+      while (pos + RECORD_HEADER <= capacity) {
+        int recordLength = buffer.getInt(pos);
+        int length = Math.abs(recordLength);
+        if (length < RECORD_HEADER || pos + length > capacity) break; // end or garbage
+        if (recordLength > 0) {
+          foundLive = true;
+          liveBytes += recordLength;
+        } else if (!foundLive) {
+          readPos = pos + length;
+        }
+        pos += length;
+      }
+      writePos = pos;
+      if (!foundLive) readPos = writePos;
+    }
+
+    /** Unmaps before deleting, as Windows won't delete a file that is still mapped. */
+    void delete() {
+      unmap();
+      if (!file.delete()) logger.fine("Couldn't delete spill segment: " + file);
+    }
+
+    /** The buffer must not be used after this, which is why all access is synchronized. */
+    void unmap() {
+      Unmapper.unmap(buffer);
+    }
+  }
+
+  /**
+   * Releases a mapping before it is collected. There's no public API for this, so this is best
+   * effort: when unavailable, the mapping is released when the buffer is collected, as before.
+   */
+  static final class Unmapper {
+    static final Object UNSAFE; // JRE 9+
+    static final Method INVOKE_CLEANER; // JRE 9+: Unsafe.invokeCleaner(ByteBuffer)
+
+    static {
+      Object unsafe = null;
+      Method invokeCleaner = null;
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        unsafe = theUnsafe.get(null);
+      } catch (Exception e) {
+        invokeCleaner = null; // before JRE 9, or not allowed
+      }
+      UNSAFE = unsafe;
+      INVOKE_CLEANER = invokeCleaner;
+    }
+
+    static void unmap(MappedByteBuffer buffer) {
+      try {
+        if (INVOKE_CLEANER != null) {
+          INVOKE_CLEANER.invoke(UNSAFE, buffer);
+          return;
+        }
+        // Before JRE 9, direct buffers expose their cleaner via sun.nio.ch.DirectBuffer.cleaner()
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+      } catch (Exception e) {
+        logger.fine("Couldn't unmap spill segment: " + e);
+      }
+    }
+  }
+}
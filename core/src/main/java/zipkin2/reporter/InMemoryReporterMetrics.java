@@ -18,7 +18,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
-public final class InMemoryReporterMetrics implements ReporterMetrics {
+public final class InMemoryReporterMetrics
+    implements ReporterMetrics, SpillMetrics, CircuitBreakerMetrics {
   enum MetricKey {
     messages,
     messageBytes,
@@ -26,7 +27,12 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
     spanBytes,
     spansDropped,
     spansPending,
-    spanBytesPending;
+    spanBytesPending,
+    spilledBytes,
+    replayedBytes,
+    spillBytes,
+    circuitOpened,
+    circuitOpen;
   }
 
   private final ConcurrentHashMap<MetricKey, AtomicLong> metrics =
@@ -111,6 +117,46 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
     return get(MetricKey.spanBytesPending);
   }
 
+  @Override public void incrementSpilledBytes(int quantity) {
+    increment(MetricKey.spilledBytes, quantity);
+  }
+
+  public long spilledBytes() {
+    return get(MetricKey.spilledBytes);
+  }
+
+  @Override public void incrementReplayedBytes(int quantity) {
+    increment(MetricKey.replayedBytes, quantity);
+  }
+
+  public long replayedBytes() {
+    return get(MetricKey.replayedBytes);
+  }
+
+  @Override public void updateSpillBytes(long update) {
+    update(MetricKey.spillBytes, update);
+  }
+
+  public long spillBytes() {
+    return get(MetricKey.spillBytes);
+  }
+
+  @Override public void incrementCircuitOpened() {
+    increment(MetricKey.circuitOpened, 1);
+  }
+
+  public long circuitOpened() {
+    return get(MetricKey.circuitOpened);
+  }
+
+  @Override public void updateCircuitOpen(boolean open) {
+    update(MetricKey.circuitOpen, open ? 1 : 0);
+  }
+
+  public boolean circuitOpen() {
+    return get(MetricKey.circuitOpen) == 1;
+  }
+
   public void clear() {
     metrics.clear();
   }
@@ -141,7 +187,7 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
     }
   }
 
-  private void update(MetricKey key, int update) {
+  private void update(MetricKey key, long update) {
     AtomicLong metric = metrics.get(key);
     if (metric == null) {
       metric = metrics.putIfAbsent(key, new AtomicLong(update));
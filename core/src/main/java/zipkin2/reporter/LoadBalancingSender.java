@@ -0,0 +1,383 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.codec.Encoding;
+
+/**
+ * Spreads messages across several senders, such as one per collector, so that no single collector
+ * limits throughput.
+ *
+ * <p>Each message goes to one sender, chosen by the {@link Strategy}. A sender is ejected after
+ * {@link Builder#ejectionThreshold(int) consecutive failures}, or when it fails {@link #check()}.
+ * After the {@link Builder#ejectionTimeout(long, TimeUnit) ejection timeout}, it gets messages
+ * again, and is ejected again on the next failure. If all senders are ejected, messages are
+ * spread across all of them, as there's nowhere better to send them.
+ *
+ * <p>All senders must have the same {@link #encoding()}. Messages are sized for the most
+ * restrictive sender: {@link #messageMaxBytes()} is the smallest of all senders, and {@link
+ * #messageSizeInBytes(List)} is the largest.
+ *
+ * <p>Ex.
+ * <pre>{@code
+ * sender = LoadBalancingSender.newBuilder()
+ *   .addSender(URLConnectionSender.create("http://zipkin1:9411/api/v2/spans"))
+ *   .addSender(URLConnectionSender.create("http://zipkin2:9411/api/v2/spans"))
+ *   .build();
+ * reporter = AsyncReporter.builder(sender).messagesInFlight(2).build();
+ * }</pre>
+ *
+ * @since 2.17
+ */
+public final class LoadBalancingSender extends Sender {
+  /** How the sender of each message is chosen among those not ejected. */
+  public enum Strategy {
+    /** Each sender in turn. */
+    ROUND_ROBIN,
+    /**
+     * The sender with the fewest messages in flight, which favors faster collectors. Ties are
+     * broken in turn. A message counts from when its call is created until it completes, so calls
+     * should be executed or enqueued.
+     */
+    LEAST_OUTSTANDING
+  }
+
+  /** Creates a round-robin sender over the given senders, with default settings. */
+  public static LoadBalancingSender create(List<? extends Sender> senders) {
+    Builder builder = newBuilder();
+    for (Sender sender : senders) builder.addSender(sender);
+    return builder.build();
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    final List<Sender> senders = new ArrayList<>();
+    Strategy strategy = Strategy.ROUND_ROBIN;
+    int ejectionThreshold = 3;
+    long ejectionTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+    Builder() {
+    }
+
+    /** Adds a sender to spread messages across. */
+    public Builder addSender(Sender sender) {
+      if (sender == null) throw new NullPointerException("sender == null");
+      senders.add(sender);
+      return this;
+    }
+
+    /** Defaults to {@link Strategy#ROUND_ROBIN}. */
+    public Builder strategy(Strategy strategy) {
+      if (strategy == null) throw new NullPointerException("strategy == null");
+      this.strategy = strategy;
+      return this;
+    }
+
+    /** Count of consecutive failed sends that ejects a sender. Defaults to 3. */
+    public Builder ejectionThreshold(int ejectionThreshold) {
+      if (ejectionThreshold < 1) {
+        throw new IllegalArgumentException("ejectionThreshold < 1: " + ejectionThreshold);
+      }
+      this.ejectionThreshold = ejectionThreshold;
+      return this;
+    }
+
+    /** How long an ejected sender gets no messages. Defaults to 10 seconds. */
+    public Builder ejectionTimeout(long timeout, TimeUnit unit) {
+      if (timeout < 0) throw new IllegalArgumentException("ejectionTimeout < 0: " + timeout);
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.ejectionTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    public LoadBalancingSender build() {
+      if (senders.isEmpty()) throw new IllegalArgumentException("no senders added");
+      Encoding encoding = senders.get(0).encoding();
+      for (Sender sender : senders) {
+        if (sender.encoding() != encoding) {
+          throw new IllegalArgumentException(String.format(
+              "Senders have different encodings: %s %s", encoding, sender.encoding()));
+        }
+      }
+      return new LoadBalancingSender(this);
+    }
+  }
+
+  final List<Endpoint> endpoints;
+  final Strategy strategy;
+  final int ejectionThreshold;
+  final long ejectionTimeoutNanos;
+  final Encoding encoding;
+  final int messageMaxBytes;
+  final AtomicInteger next = new AtomicInteger();
+
+  LoadBalancingSender(Builder builder) {
+    List<Endpoint> endpoints = new ArrayList<>(builder.senders.size());
+    int messageMaxBytes = Integer.MAX_VALUE;
+    for (Sender sender : builder.senders) {
+      endpoints.add(new Endpoint(sender));
+      messageMaxBytes = Math.min(messageMaxBytes, sender.messageMaxBytes());
+    }
+    this.endpoints = Collections.unmodifiableList(endpoints);
+    this.strategy = builder.strategy;
+    this.ejectionThreshold = builder.ejectionThreshold;
+    this.ejectionTimeoutNanos = builder.ejectionTimeoutNanos;
+    this.encoding = builder.senders.get(0).encoding();
+    this.messageMaxBytes = messageMaxBytes;
+  }
+
+  /** Returns the senders messages are spread across. */
+  public List<Sender> senders() {
+    List<Sender> result = new ArrayList<>(endpoints.size());
+    for (Endpoint endpoint : endpoints) result.add(endpoint.sender);
+    return result;
+  }
+
+  @Override public Encoding encoding() {
+    return encoding;
+  }
+
+  @Override public int messageMaxBytes() {
+    return messageMaxBytes;
+  }
+
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    int result = 0;
+    for (Endpoint endpoint : endpoints) {
+      result = Math.max(result, endpoint.sender.messageSizeInBytes(encodedSpans));
+    }
+    return result;
+  }
+
+  @Override public int messageSizeInBytes(int encodedSizeInBytes) {
+    int result = 0;
+    for (Endpoint endpoint : endpoints) {
+      result = Math.max(result, endpoint.sender.messageSizeInBytes(encodedSizeInBytes));
+    }
+    return result;
+  }
+
+  @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+    Endpoint endpoint = choose();
+    Call<Void> call;
+    try {
+      call = endpoint.sender.sendSpans(encodedSpans);
+    } catch (RuntimeException e) { // some senders fail before returning a call
+      endpoint.outstanding.decrementAndGet();
+      endpoint.onFailure();
+      throw e;
+    }
+    return new LoadBalancedCall(endpoint, call, new AtomicBoolean(true));
+  }
+
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    Endpoint endpoint = choose();
+    Call<Void> call;
+    try {
+      call = endpoint.sender.sendMessage(message);
+    } catch (RuntimeException e) {
+      endpoint.outstanding.decrementAndGet();
+      endpoint.onFailure();
+      throw e;
+    }
+    return new LoadBalancedCall(endpoint, call, new AtomicBoolean(true));
+  }
+
+  /**
+   * Checks each sender, ejecting those that fail and restoring those that pass. Returns {@link
+   * CheckResult#OK} if any sender passed, or else the first failure.
+   */
+  @Override public CheckResult check() {
+    CheckResult failure = null;
+    boolean ok = false;
+    for (Endpoint endpoint : endpoints) {
+      CheckResult result = endpoint.sender.check();
+      if (result.ok()) {
+        endpoint.onSuccess();
+        ok = true;
+      } else {
+        endpoint.eject();
+        if (failure == null) failure = result;
+      }
+    }
+    return ok ? CheckResult.OK : failure;
+  }
+
+  /**
+   * Chooses among the endpoints not ejected, or all of them if all are. The result's outstanding
+   * count is incremented before returning, so that concurrent callers see it.
+   */
+  Endpoint choose() {
+    Endpoint result = doChoose();
+    result.outstanding.incrementAndGet();
+    return result;
+  }
+
+  Endpoint doChoose() {
+    long nanoTime = System.nanoTime();
+    int size = endpoints.size();
+    int current = next.getAndIncrement();
+    int start = current & Integer.MAX_VALUE; // stays positive on overflow
+    Endpoint result = null;
+    for (int i = 0; i < size; i++) {
+      Endpoint endpoint = endpoints.get((start + i) % size);
+      if (endpoint.isEjected(nanoTime)) continue;
+      if (strategy == Strategy.ROUND_ROBIN) {
+        // Skip what we skipped, so the next caller doesn't choose this endpoint again. If another
+        // caller already moved on, leave it be.
+        if (i > 0) next.compareAndSet(current + 1, current + 1 + i);
+        return endpoint;
+      }
+      if (result == null || endpoint.outstanding.get() < result.outstanding.get()) {
+        result = endpoint;
+      }
+    }
+    return result != null ? result : endpoints.get(start % size);
+  }
+
+  /** Closes every sender, then throws the first failure, if any. */
+  @Override public void close() throws IOException {
+    Exception failure = null;
+    for (Endpoint endpoint : endpoints) {
+      try {
+        endpoint.sender.close();
+      } catch (IOException | RuntimeException e) {
+        if (failure == null) failure = e;
+      }
+    }
+    if (failure instanceof IOException) throw (IOException) failure;
+    if (failure != null) throw (RuntimeException) failure;
+  }
+
+  @Override public String toString() {
+    return "LoadBalancingSender{" + senders() + "}";
+  }
+
+  final class Endpoint {
+    final Sender sender;
+    final AtomicInteger outstanding = new AtomicInteger(), consecutiveFailures = new AtomicInteger();
+    volatile long ejectedNanoTime;
+    volatile boolean ejected;
+
+    Endpoint(Sender sender) {
+      this.sender = sender;
+    }
+
+    boolean isEjected(long nanoTime) {
+      return ejected && nanoTime - ejectedNanoTime < ejectionTimeoutNanos;
+    }
+
+    void onSuccess() {
+      consecutiveFailures.set(0);
+      ejected = false;
+    }
+
+    void onFailure() {
+      // After the ejection timeout, one more failure ejects the endpoint again.
+      if (consecutiveFailures.incrementAndGet() >= ejectionThreshold || ejected) eject();
+    }
+
+    void eject() {
+      ejectedNanoTime = System.nanoTime();
+      ejected = true;
+    }
+  }
+
+  static final class LoadBalancedCall extends Call.Base<Void> {
+    final Endpoint endpoint;
+    final Call<Void> delegate;
+    // Set when choosing the endpoint counted a call that hasn't run yet. Clones share it, so that
+    // whichever of them runs first takes that count instead of adding another.
+    final AtomicBoolean counted;
+
+    LoadBalancedCall(Endpoint endpoint, Call<Void> delegate, AtomicBoolean counted) {
+      this.endpoint = endpoint;
+      this.delegate = delegate;
+      this.counted = counted;
+    }
+
+    void countOutstanding() {
+      if (!counted.getAndSet(false)) endpoint.outstanding.incrementAndGet();
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      countOutstanding();
+      try {
+        delegate.execute();
+      } catch (IOException e) {
+        endpoint.onFailure();
+        throw e;
+      } catch (RuntimeException | Error e) {
+        endpoint.onFailure();
+        throw e;
+      } finally {
+        endpoint.outstanding.decrementAndGet();
+      }
+      endpoint.onSuccess();
+      return null;
+    }
+
+    @Override protected void doEnqueue(final Callback<Void> callback) {
+      countOutstanding();
+      try {
+        enqueueDelegate(callback);
+      } catch (RuntimeException | Error e) {
+        endpoint.outstanding.decrementAndGet();
+        endpoint.onFailure();
+        throw e;
+      }
+    }
+
+    void enqueueDelegate(final Callback<Void> callback) {
+      delegate.enqueue(new Callback<Void>() {
+        @Override public void onSuccess(Void value) {
+          endpoint.outstanding.decrementAndGet();
+          endpoint.onSuccess();
+          callback.onSuccess(value);
+        }
+
+        @Override public void onError(Throwable t) {
+          endpoint.outstanding.decrementAndGet();
+          endpoint.onFailure();
+          callback.onError(t);
+        }
+      });
+    }
+
+    @Override protected void doCancel() {
+      delegate.cancel();
+    }
+
+    @Override public Call<Void> clone() {
+      return new LoadBalancedCall(endpoint, delegate.clone(), counted);
+    }
+
+    @Override public String toString() {
+      return "LoadBalancedCall{" + endpoint.sender + "}";
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Multi-producer, single-consumer ring buffer that is bounded by both count and size.
+ *
+ * <p>Unlike {@link ByteBoundedQueue}, application threads never take a lock. A producer reserves
+ * its count and size with a single compare-and-set, claims the next slot, then publishes the span
+ * into it. The reporting thread drains published slots in order, and only releases the
+ * reservation once a slot is cleared. This means a reservation always implies a free slot.
+ *
+ * <p>Draining is guarded by a lock that producers never take, so that an external {@link
+ * AsyncReporter#flush()} can safely overlap with the reporting thread.
+ */
+final class LockFreeByteBoundedQueue<S> extends BoundedQueue<S> {
+
+  /** Count in the high 32 bits and size in bytes in the low 32 bits, reserved together. */
+  final AtomicLong countAndSizeInBytes = new AtomicLong();
+  final AtomicLong writePos = new AtomicLong();
+  final AtomicReferenceArray<S> elements;
+  final int[] sizesInBytes; // visibility piggybacks on the write to elements
+
+  final ReentrantLock drainLock = new ReentrantLock(false);
+  long readPos; // guarded by drainLock
+
+  /** The thread blocked in {@link #drainTo}, if any. This is shared when a queue is a stripe. */
+  final AtomicReference<Thread> drainer;
+
+  LockFreeByteBoundedQueue(int maxSize, int maxBytes) {
+    this(maxSize, maxBytes, new AtomicReference<Thread>());
+  }
+
+  LockFreeByteBoundedQueue(int maxSize, int maxBytes, AtomicReference<Thread> drainer) {
+    super(maxSize, maxBytes);
+    this.elements = new AtomicReferenceArray<>(maxSize);
+    this.sizesInBytes = new int[maxSize];
+    this.drainer = drainer;
+  }
+
+  /**
+   * Returns true if the element could be added or false if it could not due to its size.
+   */
+  @Override public boolean offer(S next, int nextSizeInBytes) {
+    while (true) {
+      long current = countAndSizeInBytes.get();
+      if (count(current) == maxSize) return false;
+      if ((long) sizeInBytes(current) + nextSizeInBytes > maxBytes) return false;
+
+      long update = current + (1L << 32) + nextSizeInBytes;
+      if (countAndSizeInBytes.compareAndSet(current, update)) break; // won the reservation
+    }
+
+    int index = (int) (writePos.getAndIncrement() % maxSize);
+    sizesInBytes[index] = nextSizeInBytes;
+    elements.set(index, next); // volatile write publishes the size before reading the drainer
+
+    Thread drainer = this.drainer.get();
+    if (drainer != null) LockSupport.unpark(drainer); // alert any drainer
+    return true;
+  }
+
+  @Override int drainTo(SpanWithSizeConsumer<S> consumer, long nanosTimeout) {
+    if (count() == 0 && !awaitNotEmpty(this, drainer, nanosTimeout)) return 0;
+    return drainNow(consumer);
+  }
+
+  /**
+   * Parks until a producer reserves a slot, the timeout elapses or the thread is interrupted.
+   *
+   * <p>When there are multiple drainers, only the last to park is unparked by producers. The
+   * others wake at their timeout, which is no later than when their message would be sent.
+   */
+  static boolean awaitNotEmpty(BoundedQueue<?> queue, AtomicReference<Thread> drainer,
+      long nanosTimeout) {
+    if (nanosTimeout <= 0) return false;
+    long deadlineNanoTime = System.nanoTime() + nanosTimeout;
+    drainer.set(Thread.currentThread()); // volatile write happens before the read of the count
+    try {
+      while (queue.count() == 0) {
+        long nanosLeft = deadlineNanoTime - System.nanoTime();
+        if (nanosLeft <= 0) return false;
+        LockSupport.parkNanos(queue, nanosLeft);
+        if (Thread.interrupted()) return false; // similar to Condition.awaitNanos
+      }
+      return true;
+    } finally {
+      drainer.compareAndSet(Thread.currentThread(), null); // don't unregister another drainer
+    }
+  }
+
+  /** Like {@link #drainTo}, except never blocks. This is used when harvesting stripes. */
+  int drainNow(SpanWithSizeConsumer<S> consumer) {
+    drainLock.lock();
+    try {
+      return doDrain(consumer);
+    } finally {
+      drainLock.unlock();
+    }
+  }
+
+  @Override int clear() {
+    return drainNow(new SpanWithSizeConsumer<S>() {
+      @Override public boolean offer(S next, int nextSizeInBytes) {
+        return true;
+      }
+    });
+  }
+
+  @Override int count() {
+    return count(countAndSizeInBytes.get());
+  }
+
+  @Override int sizeInBytes() {
+    return sizeInBytes(countAndSizeInBytes.get());
+  }
+
+  int doDrain(SpanWithSizeConsumer<S> consumer) {
+    if (count() == 0) return 0; // also avoids modulo by zero when maxSize is zero
+    int drainedCount = 0;
+    int drainedSizeInBytes = 0;
+    while (true) {
+      int index = (int) (readPos % maxSize);
+      S next = elements.get(index);
+
+      // Either empty, or the producer that reserved this slot hasn't yet published to it.
+      if (next == null) break;
+      int nextSizeInBytes = sizesInBytes[index];
+      if (!consumer.offer(next, nextSizeInBytes)) break;
+
+      elements.lazySet(index, null);
+      readPos++;
+      drainedCount++;
+      drainedSizeInBytes += nextSizeInBytes;
+    }
+    // Release reservations only after slots are cleared, so that producers never overwrite.
+    if (drainedCount > 0) {
+      countAndSizeInBytes.addAndGet(-(((long) drainedCount << 32) + drainedSizeInBytes));
+    }
+    return drainedCount;
+  }
+
+  static int count(long countAndSizeInBytes) {
+    return (int) (countAndSizeInBytes >>> 32);
+  }
+
+  static int sizeInBytes(long countAndSizeInBytes) {
+    return (int) countAndSizeInBytes;
+  }
+}
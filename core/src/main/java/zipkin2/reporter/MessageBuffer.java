@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import zipkin2.codec.Encoding;
+
+/**
+ * A reusable buffer holding a message of encoded spans, framed according to its {@link
+ * #encoding()}. The first {@link #sizeInBytes()} bytes of {@link #array()} are always a complete
+ * message, equivalent to what {@link BytesMessageEncoder} would produce for the same spans.
+ *
+ * <p>Spans are copied into the buffer once, as they are added, so that senders can write the
+ * message directly to their transport instead of re-concatenating a list of encoded spans.
+ *
+ * <p>This type is not thread-safe.
+ *
+ * @see Sender#sendMessage(MessageBuffer)
+ * @since 2.17
+ */
+public final class MessageBuffer {
+  static final int INITIAL_CAPACITY = 1024;
+
+  /** Returns an empty message buffer for the given encoding. */
+  public static MessageBuffer create(Encoding encoding) {
+    if (encoding == null) throw new NullPointerException("encoding == null");
+    return new MessageBuffer(encoding, INITIAL_CAPACITY);
+  }
+
+  final Encoding encoding;
+  byte[] buf;
+  int sizeInBytes, count;
+  // offsets and lengths of each span, so that they can be recovered by encodedSpans()
+  int[] spanOffsets = new int[16], spanLengths = new int[16];
+  // spans passed to add(byte[]), so that encodedSpans() needn't copy them back out of buf
+  byte[][] spans = new byte[16][];
+
+  MessageBuffer(Encoding encoding, int initialCapacity) {
+    this.encoding = encoding;
+    this.buf = new byte[Math.max(initialCapacity, 5)];
+    clear();
+  }
+
+  /** Returns the encoding of the spans in this message. */
+  public Encoding encoding() {
+    return encoding;
+  }
+
+  /** Returns the count of spans in this message. */
+  public int count() {
+    return count;
+  }
+
+  /** Returns the size of the message, including any list framing. */
+  public int sizeInBytes() {
+    return sizeInBytes;
+  }
+
+  /**
+   * Returns the backing array, whose first {@link #sizeInBytes()} bytes are the message. Do not
+   * modify it, and do not retain it past the call that received this buffer.
+   */
+  public byte[] array() {
+    return buf;
+  }
+
+  /** Writes the message to the given stream, without copying it. */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buf, 0, sizeInBytes);
+  }
+
+  /** Returns a copy of the message, for transports that retain the bytes after sending. */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, sizeInBytes);
+  }
+
+  /**
+   * Returns each encoded span in this message, in the order they were added. Spans {@linkplain
+   * #add(byte[]) added} as arrays are returned as-is, so this only copies spans that were copied
+   * into the buffer some other way. The result can be retained after this buffer is cleared.
+   */
+  public List<byte[]> encodedSpans() {
+    List<byte[]> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] span = spans[i];
+      if (span == null) {
+        int offset = spanOffsets[i];
+        span = Arrays.copyOfRange(buf, offset, offset + spanLengths[i]);
+      }
+      result.add(span);
+    }
+    return result;
+  }
+
+  /** Appends a span encoded in the same {@link #encoding()} as this message. */
+  public void add(byte[] encodedSpan) {
+    if (encodedSpan == null) throw new NullPointerException("encodedSpan == null");
+    int length = encodedSpan.length;
+    int pos = append(length); // may grow buf
+    System.arraycopy(encodedSpan, 0, buf, pos, length);
+    spans[count - 1] = encodedSpan;
+  }
+
+  /**
+   * Frames a span of the given length and returns the offset in {@link #array()} to copy it to.
+   * This lets a queue copy a span in without first copying it to its own array.
+   */
+  int append(int length) {
+    ensureCapacity(sizeInBytes + length + 1);
+
+    int pos = sizeInBytes;
+    switch (encoding) {
+      case JSON:
+        pos--; // overwrite the closing bracket
+        if (count > 0) buf[pos++] = ',';
+        break;
+      case THRIFT:
+        writeThriftListHeader(count + 1);
+        break;
+      case PROTO3: // proto3 repeated fields are simply concatenated
+        break;
+      default:
+        throw new UnsupportedOperationException("encoding: " + encoding);
+    }
+
+    if (count == spanOffsets.length) {
+      spanOffsets = Arrays.copyOf(spanOffsets, count * 2);
+      spanLengths = Arrays.copyOf(spanLengths, count * 2);
+      spans = Arrays.copyOf(spans, count * 2);
+    }
+    spanOffsets[count] = pos;
+    spanLengths[count] = length;
+    count++;
+
+    int end = pos + length;
+    if (encoding == Encoding.JSON) buf[end++] = ']';
+    sizeInBytes = end;
+    return pos;
+  }
+
+  /** Returns a copy of this message, sized to fit, which can be retained after it is cleared. */
+  MessageBuffer copy() {
+    MessageBuffer result = new MessageBuffer(encoding, sizeInBytes);
+    System.arraycopy(buf, 0, result.buf, 0, sizeInBytes);
+    result.sizeInBytes = sizeInBytes;
+    result.count = count;
+    result.spanOffsets = Arrays.copyOf(spanOffsets, Math.max(count, 1));
+    result.spanLengths = Arrays.copyOf(spanLengths, Math.max(count, 1));
+    result.spans = Arrays.copyOf(spans, Math.max(count, 1));
+    return result;
+  }
+
+  /** Empties this message so that it can be reused. The backing array is retained. */
+  public void clear() {
+    Arrays.fill(spans, 0, count, null); // release spans added as arrays
+    count = 0;
+    switch (encoding) {
+      case JSON:
+        buf[0] = '[';
+        buf[1] = ']';
+        sizeInBytes = 2;
+        break;
+      case THRIFT:
+        writeThriftListHeader(0);
+        sizeInBytes = 5;
+        break;
+      default:
+        sizeInBytes = 0;
+    }
+  }
+
+  /** TBinaryProtocol List header is element type followed by count */
+  void writeThriftListHeader(int length) {
+    buf[0] = 12; // TYPE_STRUCT
+    buf[1] = (byte) ((length >>> 24L) & 0xff);
+    buf[2] = (byte) ((length >>> 16L) & 0xff);
+    buf[3] = (byte) ((length >>> 8L) & 0xff);
+    buf[4] = (byte) (length & 0xff);
+  }
+
+  void ensureCapacity(int minCapacity) {
+    if (minCapacity <= buf.length) return;
+    int newCapacity = Math.max(buf.length << 1, minCapacity);
+    if (newCapacity < 0) newCapacity = Integer.MAX_VALUE - 8; // overflow
+    buf = Arrays.copyOf(buf, newCapacity);
+  }
+
+  @Override public String toString() {
+    return "MessageBuffer{encoding=" + encoding + ", count=" + count
+      + ", sizeInBytes=" + sizeInBytes + "}";
+  }
+}
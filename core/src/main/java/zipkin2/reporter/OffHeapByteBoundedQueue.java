@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Multi-producer, multi-consumer queue of encoded spans, which are copied into a direct buffer
+ * bounded by {@link #maxBytes}. This keeps a backlog of spans, for example during a collector
+ * outage, out of the heap.
+ *
+ * <p>The arena is a ring: each span is written after the previous one, wrapping to the front of
+ * the buffer when it reaches the end. When draining to a bundler that {@linkplain
+ * BufferNextMessage#copyDirect(Sender) copies directly}, spans are copied from the arena straight
+ * into the next message. Otherwise, they are copied back onto the heap one at a time.
+ *
+ * <p>The arena is allocated up front, so that running out of direct memory fails when the reporter
+ * is built, instead of when an application thread reports a span.
+ *
+ * <p>Like {@link ByteBoundedQueue}, this is guarded by a single lock.
+ */
+final class OffHeapByteBoundedQueue extends BoundedQueue<byte[]> {
+
+  final ReentrantLock lock = new ReentrantLock(false);
+  final Condition available = lock.newCondition();
+
+  final int[] sizesInBytes;
+  final ByteBuffer arena;
+  int count;
+  int sizeInBytes;
+  int writePos; // index into sizesInBytes
+  int readPos; // index into sizesInBytes
+  int writeOffset; // byte offset into the arena
+  int readOffset; // byte offset into the arena
+
+  OffHeapByteBoundedQueue(int maxSize, int maxBytes) {
+    super(maxSize, maxBytes);
+    this.sizesInBytes = new int[maxSize];
+    this.arena = ByteBuffer.allocateDirect(maxBytes);
+  }
+
+  /**
+   * Returns true if the element could be added or false if it could not due to its size.
+   */
+  @Override public boolean offer(byte[] next, int nextSizeInBytes) {
+    lock.lock();
+    try {
+      if (count == maxSize) return false;
+      if ((long) sizeInBytes + nextSizeInBytes > maxBytes) return false;
+
+      writeOffset = copy(next, 0, arena, writeOffset, nextSizeInBytes, true);
+      sizesInBytes[writePos++] = nextSizeInBytes;
+
+      if (writePos == maxSize) writePos = 0; // circle back to the front of the array
+
+      count++;
+      sizeInBytes += nextSizeInBytes;
+
+      available.signal(); // alert any drainers
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override int drainTo(SpanWithSizeConsumer<byte[]> consumer, long nanosTimeout) {
+    try {
+      // This may be called by multiple threads. If one is holding a lock, another is waiting. We
+      // use lockInterruptibly to ensure the one waiting can be interrupted.
+      lock.lockInterruptibly();
+      try {
+        long nanosLeft = nanosTimeout;
+        while (count == 0) {
+          if (nanosLeft <= 0) return 0;
+          nanosLeft = available.awaitNanos(nanosLeft);
+        }
+        return doDrain(consumer);
+      } finally {
+        lock.unlock();
+      }
+    } catch (InterruptedException e) {
+      return 0;
+    }
+  }
+
+  @Override int clear() {
+    lock.lock();
+    try {
+      int result = count;
+      count = sizeInBytes = readPos = writePos = readOffset = writeOffset = 0;
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override int count() {
+    return count;
+  }
+
+  @Override int sizeInBytes() {
+    return sizeInBytes;
+  }
+
+  int doDrain(SpanWithSizeConsumer<byte[]> consumer) {
+    BufferNextMessage<byte[]> direct = null;
+    if (consumer instanceof BufferNextMessage
+        && ((BufferNextMessage<byte[]>) consumer).directSender != null) {
+      direct = (BufferNextMessage<byte[]>) consumer;
+    }
+
+    int drainedCount = 0;
+    int drainedSizeInBytes = 0;
+    while (drainedCount < count) {
+      int nextSizeInBytes = sizesInBytes[readPos];
+      int nextReadOffset;
+      if (direct != null) {
+        int messageOffset = direct.offerDirect(nextSizeInBytes);
+        if (messageOffset == -1) break;
+        nextReadOffset =
+            copy(direct.message.buf, messageOffset, arena, readOffset, nextSizeInBytes, false);
+      } else {
+        byte[] next = new byte[nextSizeInBytes];
+        nextReadOffset = copy(next, 0, arena, readOffset, nextSizeInBytes, false);
+        if (!consumer.offer(next, nextSizeInBytes)) break;
+      }
+
+      drainedCount++;
+      drainedSizeInBytes += nextSizeInBytes;
+
+      readOffset = nextReadOffset;
+      if (++readPos == sizesInBytes.length) readPos = 0; // circle back to the front of the array
+    }
+    count -= drainedCount;
+    sizeInBytes -= drainedSizeInBytes;
+    // When empty, rewind so that the next span is less likely to wrap.
+    if (count == 0) readOffset = writeOffset = 0;
+    return drainedCount;
+  }
+
+  /**
+   * Copies between the array, starting at the array offset, and the arena starting at the offset,
+   * wrapping at the end of the arena. Returns the arena offset after the last byte copied.
+   */
+  static int copy(byte[] array, int arrayOffset, ByteBuffer arena, int offset, int length,
+      boolean toArena) {
+    int capacity = arena.capacity();
+    int beforeWrap = Math.min(length, capacity - offset);
+    copyRange(array, arrayOffset, arena, offset, beforeWrap, toArena);
+    if (beforeWrap < length) {
+      copyRange(array, arrayOffset + beforeWrap, arena, 0, length - beforeWrap, toArena);
+      return length - beforeWrap;
+    }
+    int result = offset + length;
+    return result == capacity ? 0 : result;
+  }
+
+  static void copyRange(byte[] array, int arrayOffset, ByteBuffer arena, int offset, int length,
+      boolean toArena) {
+    // Cast to Buffer as ByteBuffer.position(int) doesn't exist before JRE 9
+    ((Buffer) arena).position(offset);
+    if (toArena) {
+      arena.put(array, arrayOffset, length);
+    } else {
+      arena.get(array, arrayOffset, length);
+    }
+  }
+}
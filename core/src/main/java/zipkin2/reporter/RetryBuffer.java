@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Holds copies of messages that failed to send until they are due to be resent. This lets flushing
+ * threads keep bundling new spans while a failed message backs off.
+ *
+ * <p>The delay before each retry is chosen at random between zero and an exponentially growing
+ * ceiling, capped by the max backoff. Randomizing the whole delay ("full jitter") spreads out
+ * retries from many reporters that failed at the same time.
+ *
+ * <p>Messages count against {@link #maxBytes} from when they are {@link #offer offered} until they
+ * are {@link #release released}, including while a retry is in flight.
+ */
+final class RetryBuffer {
+  final int maxBytes, maxRetries;
+  final long backoffNanos, maxBackoffNanos;
+  final PriorityQueue<Retry> due = new PriorityQueue<>();
+  final Random random = new Random();
+  int sizeInBytes;
+  boolean closed;
+
+  RetryBuffer(int maxBytes, int maxRetries, long backoffNanos, long maxBackoffNanos) {
+    this.maxBytes = maxBytes;
+    this.maxRetries = maxRetries;
+    this.backoffNanos = backoffNanos;
+    this.maxBackoffNanos = maxBackoffNanos;
+  }
+
+  /** Copies a message that failed for the first time, returning false if there is no room. */
+  synchronized boolean offer(MessageBuffer message, long nanoTime) {
+    int messageSizeInBytes = message.sizeInBytes();
+    if (closed || (long) sizeInBytes + messageSizeInBytes > maxBytes) return false;
+    sizeInBytes += messageSizeInBytes;
+    Retry retry = new Retry(message.copy());
+    schedule(retry, nanoTime);
+    return true;
+  }
+
+  /** Returns the next message whose backoff elapsed, or null if there isn't one. */
+  synchronized Retry pollDue(long nanoTime) {
+    Retry next = due.peek();
+    if (next == null || next.dueNanoTime - nanoTime > 0) return null;
+    return due.poll();
+  }
+
+  /** Returns how long until the next message is due, or {@link Long#MAX_VALUE} if empty. */
+  synchronized long nanosUntilDue(long nanoTime) {
+    Retry next = due.peek();
+    return next == null ? Long.MAX_VALUE : Math.max(0L, next.dueNanoTime - nanoTime);
+  }
+
+  /**
+   * Schedules another attempt of a message that failed again. Returns false, without releasing
+   * it, when it has no retries left.
+   */
+  synchronized boolean retry(Retry retry, long nanoTime) {
+    if (closed || retry.attempts >= maxRetries) return false;
+    schedule(retry, nanoTime);
+    return true;
+  }
+
+  /** Frees the space of a message that was sent or given up on. */
+  synchronized void release(Retry retry) {
+    sizeInBytes -= retry.message.sizeInBytes();
+  }
+
+  /**
+   * Removes and releases all messages not in flight, regardless of their backoff. Messages that
+   * fail afterwards are not retried.
+   */
+  synchronized List<Retry> close() {
+    closed = true;
+    List<Retry> result = new ArrayList<>(due);
+    due.clear();
+    for (Retry retry : result) release(retry);
+    return result;
+  }
+
+  synchronized int count() {
+    return due.size();
+  }
+
+  void schedule(Retry retry, long nanoTime) {
+    retry.attempts++;
+    retry.dueNanoTime = nanoTime + backoffNanos(retry.attempts);
+    due.add(retry);
+  }
+
+  /** Returns a random delay up to the backoff for this attempt, which doubles each time. */
+  long backoffNanos(int attempt) {
+    // don't shift past the sign bit, or the ceiling would overflow
+    int shift = Math.min(attempt - 1, Long.numberOfLeadingZeros(backoffNanos) - 1);
+    long ceiling = Math.min(backoffNanos << shift, maxBackoffNanos);
+    return (long) (random.nextDouble() * ceiling);
+  }
+
+  static final class Retry implements Comparable<Retry> {
+    final MessageBuffer message;
+    int attempts;
+    long dueNanoTime;
+
+    Retry(MessageBuffer message) {
+      this.message = message;
+    }
+
+    @Override public int compareTo(Retry that) {
+      long diff = dueNanoTime - that.dueNanoTime; // nanoTime can wrap, so compare the difference
+      return diff < 0 ? -1 : diff == 0 ? 0 : 1;
+    }
+  }
+}
@@ -76,6 +76,10 @@ public abstract class Sender extends Component {
    *
    * <p>Always override this, which is only abstract as added after version 2.0
    *
+   * <p>{@link AsyncReporter} sizes a message incrementally: it sums the result of this for each
+   * span, less the overhead of an empty message. Implementations should keep list overhead
+   * independent of the count of spans, except for the delimiters implied by {@link #encoding()}.
+   *
    * @param encodedSizeInBytes the {@link BytesEncoder#sizeInBytes(Object) encoded size} of a span
    * @since 2.2
    */
@@ -91,10 +95,34 @@ public abstract class Sender extends Component {
    */
   public abstract Call<Void> sendSpans(List<byte[]> encodedSpans);
 
+  /**
+   * Sends a message of encoded spans, already framed according to {@link #encoding()}. {@link
+   * AsyncReporter} uses this to avoid building a list of encoded spans only to concatenate them
+   * again.
+   *
+   * <p>The default implementation calls {@link #sendSpans(List)} with {@link
+   * MessageBuffer#encodedSpans()}, which passes through the arrays each span was encoded to
+   * instead of slicing them out of the message. However, the buffer still copies each span when it
+   * is added, in order to frame and size the message, so senders that don't override this copy
+   * each message once more than with {@link #sendSpans(List)}. Senders that transmit the message
+   * as-is should override this to write {@link MessageBuffer#array()} directly.
+   *
+   * <p>The caller reuses the buffer once the returned call completes. Implementations that send
+   * asynchronously must not read it after that point, or should {@link MessageBuffer#toByteArray()
+   * copy} it.
+   *
+   * @param message encoded spans, framed as a list.
+   * @throws IllegalStateException if {@link #close() close} was called.
+   * @since 2.17
+   */
+  public Call<Void> sendMessage(MessageBuffer message) {
+    return sendSpans(message.encodedSpans());
+  }
+
   static {
     InternalReporter.instance = new InternalReporter() {
       @Override public AsyncReporter.Builder toBuilder(AsyncReporter<?> asyncReporter) {
-        return ((AsyncReporter.BoundedAsyncReporter) asyncReporter).toBuilder();
+        return asyncReporter.toBuilder();
       }
     };
   }
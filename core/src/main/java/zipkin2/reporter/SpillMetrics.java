@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+/**
+ * Optional callbacks for a {@link ReporterMetrics} that also wants to track the {@link
+ * AsyncReporter.Builder#spillDirectory(java.io.File) disk spill}. The reporter invokes these when
+ * its configured metrics implement this type.
+ *
+ * <p>While a collector is unreachable, {@link #incrementSpilledBytes(int) spilled bytes} grow
+ * instead of dropped spans. Once it recovers, {@link #incrementReplayedBytes(int) replayed bytes}
+ * catch up and the {@link #updateSpillBytes(long) spill size} returns to zero. Spans are only
+ * dropped when the spill is full.
+ *
+ * @since 2.17
+ */
+public interface SpillMetrics {
+  /** Increments the bytes of encoded spans written to disk instead of sent. */
+  void incrementSpilledBytes(int quantity);
+
+  /** Increments the bytes of encoded spans read back from disk and sent. */
+  void incrementReplayedBytes(int quantity);
+
+  /** Updates the bytes on disk, including framing, that have not yet been replayed. */
+  void updateSpillBytes(long update);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads reporting threads across {@link LockFreeByteBoundedQueue stripes}, so that threads on
+ * different cores rarely touch the same memory. The reporting thread harvests all stripes in turn.
+ *
+ * <p>Each stripe holds an equal share of {@link #maxSize} and {@link #maxBytes}. When a thread's
+ * home stripe is full, it tries the others before dropping the span. This means the global limits
+ * are enforced approximately: a span larger than a stripe's share of bytes is dropped even if the
+ * queue is otherwise empty.
+ */
+final class StripedByteBoundedQueue<S> extends BoundedQueue<S> {
+  final LockFreeByteBoundedQueue<S>[] stripes;
+  final int mask;
+  final AtomicReference<Thread> drainer = new AtomicReference<>();
+  int nextStripeToDrain; // guarded by the reporting thread, so races only affect fairness
+
+  StripedByteBoundedQueue(int maxSize, int maxBytes) {
+    this(maxSize, maxBytes, Runtime.getRuntime().availableProcessors());
+  }
+
+  @SuppressWarnings("unchecked")
+  StripedByteBoundedQueue(int maxSize, int maxBytes, int concurrency) {
+    super(maxSize, maxBytes);
+    // Stripes are a power of two so that a mask selects them. Never make a stripe hold nothing.
+    int stripeCount = 1;
+    while (stripeCount < concurrency && stripeCount * 2 <= maxSize) stripeCount *= 2;
+    this.stripes = new LockFreeByteBoundedQueue[stripeCount];
+    this.mask = stripeCount - 1;
+    int maxSizePerStripe = ceilDiv(maxSize, stripeCount);
+    int maxBytesPerStripe = ceilDiv(maxBytes, stripeCount);
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new LockFreeByteBoundedQueue<>(maxSizePerStripe, maxBytesPerStripe, drainer);
+    }
+  }
+
+  /**
+   * Returns true if the element could be added or false if it could not due to its size.
+   */
+  @Override public boolean offer(S next, int nextSizeInBytes) {
+    int home = homeStripe();
+    for (int i = 0; i <= mask; i++) {
+      if (stripes[(home + i) & mask].offer(next, nextSizeInBytes)) return true;
+    }
+    return false;
+  }
+
+  /** Thread IDs are allocated sequentially, so this spreads threads created together evenly. */
+  int homeStripe() {
+    return (int) Thread.currentThread().getId() & mask;
+  }
+
+  @Override int drainTo(SpanWithSizeConsumer<S> consumer, long nanosTimeout) {
+    if (count() == 0
+        && !LockFreeByteBoundedQueue.awaitNotEmpty(this, drainer, nanosTimeout)) {
+      return 0;
+    }
+
+    // Rotate the first stripe harvested, so that a full message doesn't starve later stripes.
+    int first = nextStripeToDrain++ & mask;
+    int drainedCount = 0;
+    for (int i = 0; i <= mask; i++) {
+      drainedCount += stripes[(first + i) & mask].drainNow(consumer);
+    }
+    return drainedCount;
+  }
+
+  @Override int clear() {
+    int result = 0;
+    for (LockFreeByteBoundedQueue<S> stripe : stripes) {
+      result += stripe.clear();
+    }
+    return result;
+  }
+
+  @Override int count() {
+    int result = 0;
+    for (LockFreeByteBoundedQueue<S> stripe : stripes) {
+      result += stripe.count();
+    }
+    return result;
+  }
+
+  @Override int sizeInBytes() {
+    int result = 0;
+    for (LockFreeByteBoundedQueue<S> stripe : stripes) {
+      result += stripe.sizeInBytes();
+    }
+    return result;
+  }
+
+  static int ceilDiv(int dividend, int divisor) {
+    return (int) (((long) dividend + divisor - 1) / divisor);
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Looks up a virtual thread factory via reflection, as this library is compiled for Java 6.
+ * Virtual threads are final in JDK 21.
+ */
+final class VirtualThreads {
+  /** Null when the current runtime doesn't support virtual threads. */
+  static final ThreadFactory FACTORY = findFactory();
+
+  /** Returns a virtual thread factory, or the fallback when unsupported. */
+  static ThreadFactory factory(ThreadFactory fallback) {
+    return FACTORY != null ? FACTORY : fallback;
+  }
+
+  static ThreadFactory findFactory() {
+    try {
+      // Thread.ofVirtual().factory()
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (Exception e) {
+      // NoSuchMethodException before JDK 19, or UnsupportedOperationException without preview
+      return null;
+    }
+  }
+}
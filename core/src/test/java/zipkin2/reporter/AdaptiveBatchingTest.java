@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import zipkin2.codec.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveBatchingTest {
+  static final long SECOND = TimeUnit.SECONDS.toNanos(1), MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  BufferNextMessage<Integer> bundler = BufferNextMessage.create(Encoding.JSON, 1000, SECOND);
+  AdaptiveBatching adaptiveBatching = new AdaptiveBatching(1000, SECOND);
+
+  @Test public void attach_startsWithShortLinger() {
+    adaptiveBatching.attach(bundler);
+
+    assertThat(bundler.adaptiveBatching).isSameAs(adaptiveBatching);
+    assertThat(bundler.lingerNanos).isEqualTo(AdaptiveBatching.MIN_LINGER_NANOS);
+    assertThat(bundler.readyBytes).isEqualTo(1000);
+  }
+
+  @Test public void attach_lingerBoundedByTimeout() {
+    new AdaptiveBatching(1000, 10).attach(bundler);
+
+    assertThat(bundler.lingerNanos).isEqualTo(10);
+  }
+
+  @Test public void onSent_lingersAboutOneSend() {
+    adaptiveBatching.attach(bundler);
+    adaptiveBatching.onSent(bundler, 100, 100 * MILLI, 20 * MILLI);
+
+    assertThat(bundler.lingerNanos).isEqualTo(20 * MILLI);
+    // 1 byte per millisecond arrives during a 20ms send
+    assertThat(bundler.readyBytes).isEqualTo(20);
+  }
+
+  @Test public void onSent_movingAverage() {
+    adaptiveBatching.attach(bundler);
+    adaptiveBatching.onSent(bundler, 100, 100 * MILLI, 20 * MILLI);
+    adaptiveBatching.onSent(bundler, 100, 100 * MILLI, 60 * MILLI);
+
+    assertThat(bundler.lingerNanos).isEqualTo(30 * MILLI); // 20 + 0.25 * (60 - 20)
+  }
+
+  @Test public void onSent_backlogFillsMessages() {
+    adaptiveBatching.attach(bundler);
+    adaptiveBatching.onSent(bundler, 1000, 1, 20 * MILLI);
+
+    assertThat(bundler.readyBytes).isEqualTo(1000);
+  }
+
+  @Test public void onSent_slowSendsBoundedByTimeout() {
+    adaptiveBatching.attach(bundler);
+    adaptiveBatching.onSent(bundler, 1, SECOND, 10 * SECOND);
+
+    assertThat(bundler.lingerNanos).isEqualTo(SECOND);
+  }
+
+  @Test public void onSent_fastSendsLingerAtLeastMin() {
+    adaptiveBatching.attach(bundler);
+    adaptiveBatching.onSent(bundler, 1, SECOND, 1);
+
+    assertThat(bundler.lingerNanos).isEqualTo(AdaptiveBatching.MIN_LINGER_NANOS);
+    assertThat(bundler.readyBytes).isEqualTo(1);
+  }
+
+  @Test public void isReady_whenReadyBytesReached() {
+    adaptiveBatching.attach(bundler);
+    adaptiveBatching.onSent(bundler, 100, 100 * MILLI, 20 * MILLI);
+
+    bundler.remainingNanos(); // starts the clock
+    bundler.offer(1, 10);
+    assertThat(bundler.isReady()).isFalse();
+
+    bundler.offer(2, 10);
+    assertThat(bundler.isReady()).isTrue();
+  }
+}
@@ -23,6 +23,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -30,12 +31,16 @@ import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import zipkin2.Call;
 import zipkin2.Span;
 import zipkin2.TestObjects;
 import zipkin2.codec.BytesEncoder;
 import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.reporter.AsyncReporter.BoundedAsyncReporter;
 
@@ -48,6 +53,7 @@ public class AsyncReporterTest {
 
   AsyncReporter<Span> reporter;
   InMemoryReporterMetrics metrics = new InMemoryReporterMetrics();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
 
   @After
   public void close() {
@@ -101,6 +107,136 @@ public class AsyncReporterTest {
     assertThat(sentSpans.get()).isEqualTo(0);
   }
 
+  /** Like scribe, this sender has overhead per span in addition to list overhead. */
+  @Test
+  public void messageMaxBytes_considersSenderOverheadPerSpan() {
+    List<Integer> messageSizes = new ArrayList<>();
+    int spanSizeInBytes = SpanBytesEncoder.PROTO3.sizeInBytes(span);
+    Sender sender = new Sender() {
+      @Override public Encoding encoding() {
+        return Encoding.PROTO3;
+      }
+
+      @Override public int messageMaxBytes() {
+        return 10 + 2 * (spanSizeInBytes + 3); // room for only two spans
+      }
+
+      @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+        int result = 10;
+        for (byte[] encodedSpan : encodedSpans) result += encodedSpan.length + 3;
+        return result;
+      }
+
+      @Override public int messageSizeInBytes(int encodedSizeInBytes) {
+        return 10 + encodedSizeInBytes + 3;
+      }
+
+      @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+        messageSizes.add(messageSizeInBytes(encodedSpans));
+        return Call.create(null);
+      }
+    };
+
+    reporter = AsyncReporter.builder(sender)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.report(span);
+    reporter.flush();
+    reporter.flush();
+
+    assertThat(messageSizes)
+        .containsExactly(sender.messageMaxBytes(), sender.messageSizeInBytes(spanSizeInBytes));
+  }
+
+  @Test
+  public void sendMessage_framesMessageOnce() {
+    List<byte[]> messages = new ArrayList<>();
+    reporter = AsyncReporter.builder(new Sender() {
+      @Override public Encoding encoding() {
+        return Encoding.JSON;
+      }
+
+      @Override public int messageMaxBytes() {
+        return Integer.MAX_VALUE;
+      }
+
+      @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+        return Encoding.JSON.listSizeInBytes(encodedSpans);
+      }
+
+      @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+        throw new AssertionError("sendMessage should be used instead");
+      }
+
+      @Override public Call<Void> sendMessage(MessageBuffer message) {
+        messages.add(message.toByteArray());
+        return Call.create(null);
+      }
+    }).messageTimeout(0, TimeUnit.MILLISECONDS).build();
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.flush();
+
+    assertThat(messages).hasSize(1);
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(messages.get(0)))
+        .containsExactly(span, span);
+  }
+
+  @Test
+  public void sendMessage_defaultPassesThroughEncodedSpans() {
+    List<byte[]> encoded = new ArrayList<>(), sent = new ArrayList<>();
+    BytesEncoder<Span> encoder = new BytesEncoder<Span>() {
+      @Override public Encoding encoding() {
+        return Encoding.JSON;
+      }
+
+      @Override public int sizeInBytes(Span input) {
+        return SpanBytesEncoder.JSON_V2.sizeInBytes(input);
+      }
+
+      @Override public byte[] encode(Span input) {
+        byte[] result = SpanBytesEncoder.JSON_V2.encode(input);
+        encoded.add(result);
+        return result;
+      }
+
+      @Override public byte[] encodeList(List<Span> input) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    // Doesn't override sendMessage, like senders written before it existed
+    reporter = AsyncReporter.builder(new Sender() {
+      @Override public Encoding encoding() {
+        return Encoding.JSON;
+      }
+
+      @Override public int messageMaxBytes() {
+        return Integer.MAX_VALUE;
+      }
+
+      @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+        return Encoding.JSON.listSizeInBytes(encodedSpans);
+      }
+
+      @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+        sent.addAll(encodedSpans);
+        return Call.create(null);
+      }
+    }).messageTimeout(0, TimeUnit.MILLISECONDS).build(encoder);
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.flush();
+
+    assertThat(sent).hasSize(2);
+    assertThat(sent.get(0)).isSameAs(encoded.get(0));
+    assertThat(sent.get(1)).isSameAs(encoded.get(1));
+  }
+
   @Test
   public void queuedMaxSpans_dropsWhenOverqueuing() {
     AtomicInteger sentSpans = new AtomicInteger();
@@ -117,6 +253,210 @@ public class AsyncReporterTest {
     assertThat(sentSpans.get()).isEqualTo(1);
   }
 
+  @Test
+  public void queueType_lockFree() {
+    AtomicInteger sentSpans = new AtomicInteger();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> sentSpans.addAndGet(spans.size())))
+        .queueType(AsyncReporter.QueueType.LOCK_FREE)
+        .queuedMaxSpans(2)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+
+    assertThat(((BoundedAsyncReporter<Span>) reporter).pending)
+        .isInstanceOf(LockFreeByteBoundedQueue.class);
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.report(span); // dropped the one that queued more than allowed count
+    reporter.flush();
+
+    assertThat(sentSpans.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void queueType_striped() {
+    AtomicInteger sentSpans = new AtomicInteger();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> sentSpans.addAndGet(spans.size())))
+        .queueType(AsyncReporter.QueueType.STRIPED)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+
+    assertThat(((BoundedAsyncReporter<Span>) reporter).pending)
+        .isInstanceOf(StripedByteBoundedQueue.class);
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.flush();
+
+    assertThat(sentSpans.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void messagesInFlight_sendsConcurrently() throws InterruptedException {
+    for (AsyncReporter.QueueType queueType : AsyncReporter.QueueType.values()) {
+      CountDownLatch sending = new CountDownLatch(2);
+      AtomicInteger concurrentSends = new AtomicInteger();
+      reporter = AsyncReporter.builder(FakeSender.create()
+          .onSpans(spans -> {
+            sending.countDown();
+            try { // blocks until both messages are in flight
+              if (sending.await(1, TimeUnit.SECONDS)) concurrentSends.incrementAndGet();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }))
+          .queueType(queueType)
+          .messageMaxBytes(sizeInBytesOfSingleSpanMessage)
+          .messageTimeout(10, TimeUnit.MILLISECONDS)
+          .closeTimeout(2, TimeUnit.SECONDS)
+          .messagesInFlight(2)
+          .metrics(metrics)
+          .build();
+
+      reporter.report(span);
+      reporter.report(span);
+      assertThat(sending.await(1, TimeUnit.SECONDS)).isTrue();
+      reporter.close();
+
+      assertThat(concurrentSends.get()).as(queueType.name()).isEqualTo(2);
+      assertThat(metrics.spansDropped()).isZero();
+    }
+  }
+
+  @Test
+  public void virtualThreads_fallsBackToThreadFactory() throws InterruptedException {
+    CountDownLatch sent = new CountDownLatch(1);
+    AtomicBoolean usedThreadFactory = new AtomicBoolean();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> sent.countDown()))
+        .threadFactory(r -> {
+          usedThreadFactory.set(true);
+          return new Thread(r);
+        })
+        .virtualThreads(true)
+        .messageTimeout(10, TimeUnit.MILLISECONDS)
+        .build();
+
+    reporter.report(span);
+
+    assertThat(sent.await(1, TimeUnit.SECONDS)).isTrue();
+    // only falls back when the runtime doesn't support virtual threads
+    assertThat(usedThreadFactory.get()).isEqualTo(VirtualThreads.FACTORY == null);
+  }
+
+  @Test
+  public void adaptiveBatching_sendsBeforeMessageTimeoutWhenIdle() throws InterruptedException {
+    CountDownLatch sent = new CountDownLatch(1);
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> sent.countDown()))
+        .adaptiveBatching(true)
+        .messageTimeout(30, TimeUnit.SECONDS)
+        .build();
+
+    reporter.report(span);
+
+    assertThat(sent.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void messagesInFlight_mustBePositive() {
+    AsyncReporter.builder(FakeSender.create()).messagesInFlight(0);
+  }
+
+  @Test
+  public void encodeOnReport_queuesEncodedSpans() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(sentSpans::addAll))
+        .encodeOnReport(true)
+        .metrics(metrics)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+
+    reporter.report(span);
+
+    BoundedAsyncReporter<byte[]> delegate =
+        ((AsyncReporter.EncodingAsyncReporter<Span>) reporter).delegate;
+    assertThat(delegate.pending.sizeInBytes())
+        .isEqualTo(SpanBytesEncoder.JSON_V2.sizeInBytes(span));
+    assertThat(metrics.spanBytes()).isEqualTo(SpanBytesEncoder.JSON_V2.sizeInBytes(span));
+
+    reporter.flush();
+
+    assertThat(sentSpans).containsExactly(span);
+    assertThat(delegate.pending.count()).isZero();
+  }
+
+  @Test
+  public void encodeOnReport_dropsWhenTooLarge() {
+    AtomicInteger sentSpans = new AtomicInteger();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> sentSpans.addAndGet(spans.size())))
+        .encodeOnReport(true)
+        .metrics(metrics)
+        .messageMaxBytes(sizeInBytesOfSingleSpanMessage)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+
+    reporter.report(span.toBuilder().addAnnotation(1L, "fooooo").build());
+    reporter.flush();
+
+    assertThat(sentSpans.get()).isZero();
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
+  @Test
+  public void queueOffHeap_queuesEncodedSpans() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(sentSpans::addAll))
+        .queueOffHeap(true)
+        .queuedMaxBytes(1024)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+
+    BoundedAsyncReporter<byte[]> delegate =
+        ((AsyncReporter.EncodingAsyncReporter<Span>) reporter).delegate;
+    assertThat(delegate.pending).isInstanceOf(OffHeapByteBoundedQueue.class);
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.flush();
+
+    assertThat(sentSpans).containsExactly(span, span);
+  }
+
+  @Test
+  public void queueOffHeap_leavesSpansForNextMessage() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(sentSpans::addAll))
+        .queueOffHeap(true)
+        .queuedMaxBytes(1024)
+        .messageMaxBytes(sizeInBytesOfSingleSpanMessage)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+
+    reporter.report(span);
+    reporter.report(span);
+
+    reporter.flush();
+    assertThat(sentSpans).containsExactly(span);
+
+    reporter.flush();
+    assertThat(sentSpans).containsExactly(span, span);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void queueOffHeap_requiresLockingQueue() {
+    AsyncReporter.builder(FakeSender.create())
+        .queueOffHeap(true)
+        .queueType(AsyncReporter.QueueType.LOCK_FREE)
+        .build();
+  }
+
   @Test
   public void report_incrementsMetrics() {
     reporter = AsyncReporter.builder(FakeSender.create())
@@ -499,6 +839,358 @@ public class AsyncReporterTest {
         });
   }
 
+  @Test
+  public void spillDirectory_spillsFailedMessages_replaysWhenSenderRecovers() {
+    AtomicBoolean down = new AtomicBoolean(true);
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> {
+          if (down.get()) throw new IllegalStateException("down");
+          sentSpans.addAll(spans);
+        }))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .spillDirectory(folder.getRoot())
+        .build();
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.flush();
+
+    assertThat(metrics.spansDropped()).isZero();
+    assertThat(metrics.messagesDropped()).isZero();
+    assertThat(metrics.spilledBytes()).isEqualTo(2 * (sizeInBytesOfSingleSpanMessage - 2));
+    assertThat(metrics.spillBytes()).isPositive();
+
+    // Until the next check, messages are spilled without trying to send them
+    down.set(false);
+    reporter.report(span);
+    reporter.flush();
+    assertThat(sentSpans).isEmpty();
+
+    ((BoundedAsyncReporter<Span>) reporter).nextCheckNanoTime = System.nanoTime();
+    reporter.flush();
+
+    assertThat(sentSpans).containsExactly(span, span, span);
+    assertThat(metrics.replayedBytes()).isEqualTo(metrics.spilledBytes());
+    assertThat(metrics.spillBytes()).isZero();
+  }
+
+  @Test
+  public void spillDirectory_spillsWhenQueueFull() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(FakeSender.create().onSpans(sentSpans::addAll))
+        .queuedMaxSpans(1)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .spillDirectory(folder.getRoot())
+        .build();
+
+    reporter.report(span);
+    reporter.report(span); // spilled instead of dropped
+    assertThat(metrics.spilledBytes()).isZero(); // not by the caller
+    reporter.flush();
+
+    assertThat(sentSpans).containsExactly(span, span);
+    assertThat(metrics.spansDropped()).isZero();
+    assertThat(metrics.spilledBytes()).isEqualTo(sizeInBytesOfSingleSpanMessage - 2);
+  }
+
+  @Test
+  public void spillDirectory_dropsWhenOverflowFull() {
+    reporter = AsyncReporter.builder(FakeSender.create())
+        .queuedMaxSpans(1)
+        .messageMaxBytes(sizeInBytesOfSingleSpanMessage)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .spillDirectory(folder.getRoot())
+        .build();
+
+    reporter.report(span);
+    reporter.report(span); // handed to the flusher to spill
+    reporter.report(span); // dropped, as there's only room for one message
+
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
+  @Test
+  public void spillDirectory_spillsOverflowOnClose() {
+    reporter = AsyncReporter.builder(FakeSender.create())
+        .queuedMaxSpans(1)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .spillDirectory(folder.getRoot())
+        .build();
+
+    reporter.report(span);
+    reporter.report(span);
+    reporter.close();
+
+    assertThat(metrics.spansDropped()).isZero();
+    assertThat(metrics.spilledBytes()).isEqualTo(2 * (sizeInBytesOfSingleSpanMessage - 2));
+  }
+
+  @Test
+  public void spillDirectory_replaysAfterRestart() {
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> {
+          throw new IllegalStateException("down");
+        }))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .spillDirectory(folder.getRoot())
+        .build();
+
+    reporter.report(span);
+    reporter.flush();
+    reporter.close();
+
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(FakeSender.create().onSpans(sentSpans::addAll))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .spillDirectory(folder.getRoot())
+        .build();
+    reporter.flush();
+
+    assertThat(sentSpans).containsExactly(span);
+  }
+
+  @Test
+  public void spillDirectory_spillsPendingOnClose() {
+    reporter = AsyncReporter.builder(FakeSender.create())
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .spillDirectory(folder.getRoot())
+        .build();
+
+    reporter.report(span);
+    reporter.close();
+
+    assertThat(metrics.spansDropped()).isZero();
+    assertThat(metrics.spilledBytes()).isEqualTo(sizeInBytesOfSingleSpanMessage - 2);
+  }
+
+  @Test
+  public void spillMaxBytes_dropsWhenFull() {
+    reporter = AsyncReporter.builder(FakeSender.create()
+        .onSpans(spans -> {
+          throw new IllegalStateException("down");
+        }))
+        .messageMaxBytes(sizeInBytesOfSingleSpanMessage)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .spillDirectory(folder.getRoot())
+        .spillMaxBytes(1) // one file, which holds only one message this size
+        .build();
+
+    reporter.report(span);
+    reporter.flush();
+    reporter.report(span);
+    reporter.flush();
+
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+    assertThat(metrics.messagesDropped()).isEqualTo(1);
+    assertThat(metrics.spilledBytes()).isEqualTo(sizeInBytesOfSingleSpanMessage - 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void spillMaxBytes_positive() {
+    AsyncReporter.builder(FakeSender.create()).spillMaxBytes(0);
+  }
+
+  /** Fails the first count of sends */
+  FakeSender failingSender(int count, List<Span> sentSpans) {
+    AtomicInteger failures = new AtomicInteger(count);
+    return FakeSender.create().onSpans(spans -> {
+      if (failures.getAndDecrement() > 0) throw new IllegalStateException("failed");
+      sentSpans.addAll(spans);
+    });
+  }
+
+  @Test
+  public void retries_resendsFailedMessage() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(failingSender(2, sentSpans))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .retries(2)
+        .retryBackoff(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .build();
+
+    reporter.report(span);
+    reporter.flush(); // fails
+    reporter.flush(); // first retry fails
+    assertThat(sentSpans).isEmpty();
+
+    reporter.flush(); // second retry succeeds
+    assertThat(sentSpans).containsExactly(span);
+    assertThat(metrics.spansDropped()).isZero();
+    assertThat(metrics.messagesDropped()).isZero();
+  }
+
+  @Test
+  public void retries_dropsWhenExhausted() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(failingSender(2, sentSpans))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .retries(1)
+        .retryBackoff(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .build();
+
+    reporter.report(span);
+    reporter.flush();
+    reporter.flush();
+
+    assertThat(sentSpans).isEmpty();
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+    assertThat(metrics.messagesDropped()).isEqualTo(1);
+  }
+
+  @Test
+  public void retryMaxBytes_dropsWhenFull() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(failingSender(1, sentSpans))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .retries(1)
+        .retryMaxBytes(sizeInBytesOfSingleSpanMessage - 1)
+        .metrics(metrics)
+        .build();
+
+    reporter.report(span);
+    reporter.flush();
+
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
+  @Test
+  public void retries_newMessagesSendWhileBackingOff() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(failingSender(1, sentSpans))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .retries(1)
+        .retryBackoff(1, TimeUnit.DAYS)
+        .retryMaxBackoff(1, TimeUnit.DAYS)
+        .build();
+
+    Span next = span.toBuilder().name("next").build();
+    reporter.report(span);
+    reporter.flush(); // fails, backing off
+    ((BoundedAsyncReporter<Span>) reporter).retryBuffer.due.peek().dueNanoTime =
+        System.nanoTime() + TimeUnit.DAYS.toNanos(1); // in case the jitter was near zero
+    reporter.report(next);
+    reporter.flush();
+
+    assertThat(sentSpans).containsExactly(next);
+  }
+
+  @Test
+  public void retries_triedOnceMoreOnClose() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(failingSender(1, sentSpans))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .retries(1)
+        .retryBackoff(1, TimeUnit.DAYS)
+        .retryMaxBackoff(1, TimeUnit.DAYS)
+        .metrics(metrics)
+        .build();
+
+    reporter.report(span);
+    reporter.flush();
+    ((BoundedAsyncReporter<Span>) reporter).retryBuffer.due.peek().dueNanoTime =
+        System.nanoTime() + TimeUnit.DAYS.toNanos(1);
+    reporter.close();
+
+    assertThat(sentSpans).containsExactly(span);
+    assertThat(metrics.spansDropped()).isZero();
+  }
+
+  @Test
+  public void retries_spillWhenExhausted() {
+    List<Span> sentSpans = new ArrayList<>();
+    reporter = AsyncReporter.builder(failingSender(2, sentSpans))
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .retries(1)
+        .retryBackoff(0, TimeUnit.MILLISECONDS)
+        .spillDirectory(folder.getRoot())
+        .metrics(metrics)
+        .build();
+
+    reporter.report(span);
+    reporter.flush();
+    reporter.flush();
+
+    assertThat(metrics.spansDropped()).isZero();
+    assertThat(metrics.spilledBytes()).isEqualTo(sizeInBytesOfSingleSpanMessage - 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void retries_notNegative() {
+    AsyncReporter.builder(FakeSender.create()).retries(-1);
+  }
+
+  @Test
+  public void circuitBreaker_shedsSpansWhileOpen() {
+    AtomicBoolean down = new AtomicBoolean(true);
+    List<Span> sentSpans = new ArrayList<>();
+    CircuitBreakerSender breaker = CircuitBreakerSender.newBuilder(FakeSender.create()
+        .onSpans(spans -> {
+          if (down.get()) throw new IllegalStateException("down");
+          sentSpans.addAll(spans);
+        }))
+        .failureThreshold(1)
+        .openTimeout(1, TimeUnit.DAYS)
+        .build();
+    reporter = AsyncReporter.builder(breaker)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .metrics(metrics)
+        .build();
+
+    reporter.report(span);
+    reporter.flush(); // opens the circuit
+    assertThat(breaker.isOpen()).isTrue();
+
+    reporter.report(span); // dropped before it is sized
+    reporter.flush();
+    assertThat(metrics.spans()).isEqualTo(2);
+    assertThat(metrics.spanBytes()).isEqualTo(sizeInBytesOfSingleSpanMessage - 2);
+    assertThat(metrics.spansDropped()).isEqualTo(2);
+    assertThat(metrics.circuitOpen()).isTrue();
+    assertThat(metrics.circuitOpened()).isEqualTo(1);
+
+    down.set(false);
+    breaker.openedNanoTime = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    reporter.flush(); // probes with Sender.check()
+    assertThat(metrics.circuitOpen()).isFalse();
+
+    reporter.report(span);
+    reporter.flush();
+    assertThat(sentSpans).containsExactly(span);
+  }
+
+  @Test
+  public void circuitBreaker_spillsWhileOpen() {
+    CircuitBreakerSender breaker = CircuitBreakerSender.newBuilder(FakeSender.create()
+        .onSpans(spans -> {
+          throw new IllegalStateException("down");
+        }))
+        .failureThreshold(1)
+        .openTimeout(1, TimeUnit.DAYS)
+        .build();
+    reporter = AsyncReporter.builder(breaker)
+        .messageTimeout(0, TimeUnit.MILLISECONDS)
+        .spillDirectory(folder.getRoot())
+        .metrics(metrics)
+        .build();
+
+    reporter.report(span);
+    reporter.flush(); // opens the circuit, spilling the message
+    reporter.report(span); // handed to the flusher to spill, instead of queued
+    reporter.flush();
+
+    assertThat(metrics.spansDropped()).isZero();
+    assertThat(metrics.spilledBytes()).isEqualTo(2 * (sizeInBytesOfSingleSpanMessage - 2));
+  }
+
   @Test public void build_thrift() {
     AsyncReporter.builder(FakeSender.create().encoding(Encoding.THRIFT))
         .messageTimeout(0, TimeUnit.MILLISECONDS)
@@ -13,6 +13,8 @@
  */
 package zipkin2.reporter;
 
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Test;
 import zipkin2.codec.Encoding;
 
@@ -90,7 +92,7 @@ public class BufferNextMessageTest {
     // partial drain
     pending.drain((s, n) -> s < 2);
 
-    assertThat(pending.spans)
+    assertThat(spans(pending))
         .containsExactly(2, 3);
     assertThat(pending.messageSizeInBytes)
         .isEqualTo(5 /* [2,3] */);
@@ -98,7 +100,7 @@ public class BufferNextMessageTest {
     // partial drain again
     pending.drain((s, n) -> s < 3);
 
-    assertThat(pending.spans)
+    assertThat(spans(pending))
         .containsExactly(3);
     assertThat(pending.messageSizeInBytes)
         .isEqualTo(3 /* [3] */);
@@ -174,7 +176,7 @@ public class BufferNextMessageTest {
     // partial drain
     pending.drain((s, n) -> s < 2);
 
-    assertThat(pending.spans)
+    assertThat(spans(pending))
         .containsExactly(2, 3);
     assertThat(pending.messageSizeInBytes)
         .isEqualTo(2 /* 23 */);
@@ -182,9 +184,88 @@ public class BufferNextMessageTest {
     // partial drain again
     pending.drain((s, n) -> s < 3);
 
-    assertThat(pending.spans)
+    assertThat(spans(pending))
         .containsExactly(3);
     assertThat(pending.messageSizeInBytes)
         .isEqualTo(1 /* 3 */);
   }
+
+  @Test public void drain_reusesArrays() {
+    BufferNextMessage<Integer> pending = BufferNextMessage.create(Encoding.PROTO3, 1000, 0L);
+    for (int i = 0; i < 100; i++) {
+      pending.offer(i, 1);
+    }
+    Object[] spans = pending.spans;
+    int[] sizes = pending.sizes;
+
+    pending.drain((s, n) -> true);
+    for (int i = 0; i < 100; i++) {
+      pending.offer(i, 1);
+    }
+
+    assertThat(pending.spans).isSameAs(spans);
+    assertThat(pending.sizes).isSameAs(sizes);
+    assertThat(spans(pending)).hasSize(100);
+  }
+
+  @Test public void drain_releasesDrainedSpans() {
+    BufferNextMessage<Integer> pending = BufferNextMessage.create(Encoding.PROTO3, 10, 0L);
+    for (int i = 0; i < 4; i++) {
+      pending.offer(i, 1);
+    }
+
+    pending.drain((s, n) -> s < 2);
+
+    assertThat(spans(pending))
+        .containsExactly(2, 3);
+    assertThat(pending.spans)
+        .containsOnly(2, 3, null);
+  }
+
+  @Test public void drain_leavesSpansAfterFirstRejected() {
+    BufferNextMessage<Integer> pending = BufferNextMessage.create(Encoding.PROTO3, 10, 0L);
+    for (int i = 0; i < 4; i++) {
+      pending.offer(i, 1);
+    }
+
+    // 2 would be accepted, but isn't offered once 1 is rejected, so that order is preserved
+    pending.drain((s, n) -> s != 1);
+
+    assertThat(spans(pending))
+        .containsExactly(1, 2, 3);
+  }
+
+  @Test public void drain_partialDoesntMoveRemainingSpans() {
+    BufferNextMessage<Integer> pending = BufferNextMessage.create(Encoding.PROTO3, 1000, 0L);
+    for (int i = 0; i < 10; i++) {
+      pending.offer(i, 1);
+    }
+
+    pending.drain((s, n) -> s < 4);
+
+    assertThat(pending.head).isEqualTo(4);
+    assertThat(pending.spans[4]).isEqualTo(4);
+    assertThat(pending.messageSizeInBytes).isEqualTo(6);
+  }
+
+  @Test public void offer_movesRemainingSpansToFrontWhenAtEnd() {
+    BufferNextMessage<Integer> pending = BufferNextMessage.create(Encoding.PROTO3, 1000, 0L);
+    int capacity = pending.spans.length;
+    for (int i = 0; i < capacity; i++) {
+      pending.offer(i, 1);
+    }
+    pending.drain((s, n) -> s < capacity - 2);
+
+    pending.offer(capacity, 1);
+
+    assertThat(pending.spans).hasSize(capacity); // moved instead of grown
+    assertThat(pending.head).isZero();
+    assertThat(spans(pending))
+        .containsExactly(capacity - 2, capacity - 1, capacity);
+    assertThat(pending.messageSizeInBytes).isEqualTo(3);
+  }
+
+  static List<Object> spans(BufferNextMessage<?> pending) {
+    return Arrays.asList(pending.spans).subList(pending.head, pending.head + pending.count);
+  }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.codec.Encoding;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CircuitBreakerSenderTest {
+  FlakySender delegate = new FlakySender();
+  CircuitBreakerSender breaker = CircuitBreakerSender.newBuilder(delegate)
+      .failureThreshold(2)
+      .openTimeout(0, TimeUnit.MILLISECONDS)
+      .build();
+
+  @Test public void opensAfterConsecutiveFailures() {
+    delegate.fail = true;
+    send();
+    assertThat(breaker.isOpen()).isFalse();
+    send();
+    assertThat(breaker.isOpen()).isTrue();
+
+    // fails without reaching the delegate
+    int sends = delegate.sends.get();
+    assertThatThrownBy(() -> breaker.sendSpans(emptyList()).execute())
+        .isInstanceOf(CircuitBreakerSender.OpenCircuitException.class);
+    assertThat(delegate.sends.get()).isEqualTo(sends);
+  }
+
+  @Test public void successResetsFailures() {
+    delegate.fail = true;
+    send();
+    delegate.fail = false;
+    send();
+    delegate.fail = true;
+    send();
+
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test public void enqueue_countsFailures() {
+    delegate.fail = true;
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    for (int i = 0; i < 3; i++) {
+      breaker.sendMessage(MessageBuffer.create(Encoding.JSON)).enqueue(new Callback<Void>() {
+        @Override public void onSuccess(Void value) {
+        }
+
+        @Override public void onError(Throwable t) {
+          error.set(t);
+        }
+      });
+    }
+
+    assertThat(breaker.isOpen()).isTrue();
+    assertThat(error.get()).isInstanceOf(CircuitBreakerSender.OpenCircuitException.class);
+  }
+
+  @Test public void probeIfDue_closesWhenCheckPasses() {
+    delegate.fail = true;
+    send();
+    send();
+
+    delegate.checkResult = CheckResult.failed(new IOException("still down"));
+    breaker.probeIfDue();
+    assertThat(breaker.isOpen()).isTrue();
+
+    delegate.checkResult = CheckResult.OK;
+    breaker.probeIfDue();
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test public void probeIfDue_waitsForOpenTimeout() {
+    breaker = CircuitBreakerSender.newBuilder(delegate)
+        .failureThreshold(1)
+        .openTimeout(1, TimeUnit.DAYS)
+        .build();
+    delegate.fail = true;
+    send();
+
+    breaker.probeIfDue();
+    assertThat(delegate.checks.get()).isZero();
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  @Test public void delegatesSizing() {
+    assertThat(breaker.encoding()).isEqualTo(delegate.encoding());
+    assertThat(breaker.messageMaxBytes()).isEqualTo(delegate.messageMaxBytes());
+    assertThat(breaker.messageSizeInBytes(10)).isEqualTo(delegate.messageSizeInBytes(10));
+  }
+
+  void send() {
+    try {
+      breaker.sendSpans(emptyList()).execute();
+    } catch (IOException | RuntimeException e) {
+      // expected when failing
+    }
+  }
+
+  static class FlakySender extends Sender {
+    volatile boolean fail;
+    volatile CheckResult checkResult = CheckResult.OK;
+    final AtomicInteger sends = new AtomicInteger(), checks = new AtomicInteger();
+
+    @Override public Encoding encoding() {
+      return Encoding.JSON;
+    }
+
+    @Override public int messageMaxBytes() {
+      return 1024;
+    }
+
+    @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+      return Encoding.JSON.listSizeInBytes(encodedSpans);
+    }
+
+    @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+      sends.incrementAndGet();
+      return fail ? new FailedCall() : Call.create(null);
+    }
+
+    @Override public CheckResult check() {
+      checks.incrementAndGet();
+      return checkResult;
+    }
+  }
+
+  static final class FailedCall extends Call.Base<Void> {
+    @Override protected Void doExecute() throws IOException {
+      throw new IOException("failed");
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      callback.onError(new IOException("failed"));
+    }
+
+    @Override public Call<Void> clone() {
+      return new FailedCall();
+    }
+  }
+}
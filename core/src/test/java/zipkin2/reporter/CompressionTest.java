@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+import zipkin2.codec.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CompressionTest {
+  MessageBuffer message = MessageBuffer.create(Encoding.JSON);
+
+  @Test public void gzip_roundTrip() throws IOException {
+    message.add("{\"k\":\"1\"}".getBytes("UTF-8"));
+    message.add("{\"k\":\"2\"}".getBytes("UTF-8"));
+
+    assertThat(gunzip(compress(Compression.GZIP)))
+        .containsExactly(message.toByteArray());
+  }
+
+  @Test public void gzip_emptyMessage() throws IOException {
+    assertThat(gunzip(compress(Compression.GZIP)))
+        .containsExactly('[', ']');
+  }
+
+  /** Writes larger than the deflate buffer are written in several passes */
+  @Test public void gzip_largeMessage() throws IOException {
+    byte[] span = new byte[100];
+    for (int i = 0; i < 1000; i++) {
+      for (int j = 0; j < span.length; j++) span[j] = (byte) ('a' + (i * j) % 26);
+      message.add(span);
+    }
+
+    assertThat(gunzip(compress(Compression.gzip(Deflater.BEST_SPEED))))
+        .containsExactly(message.toByteArray());
+  }
+
+  @Test public void gzip_reusesDeflater() throws IOException {
+    Compression.Gzip gzip = (Compression.Gzip) Compression.gzip(Deflater.BEST_COMPRESSION);
+    message.add("{\"k\":\"1\"}".getBytes("UTF-8"));
+
+    byte[] first = compress(gzip);
+    assertThat(gzip.idle).hasSize(1);
+    Compression.GzipOutputStream idle = gzip.idle.peek();
+
+    assertThat(compress(gzip)).containsExactly(first);
+    assertThat(gzip.idle).containsExactly(idle);
+  }
+
+  @Test public void gzip_doesntCloseDestination() throws IOException {
+    final boolean[] closed = {false};
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override public void close() {
+        closed[0] = true;
+      }
+    };
+
+    OutputStream compressor = Compression.GZIP.compress(out);
+    compressor.write('a');
+    compressor.close();
+    compressor.close(); // idempotent
+
+    assertThat(closed[0]).isFalse();
+    assertThat(gunzip(out.toByteArray())).containsExactly('a');
+  }
+
+  @Test public void gzip_failedWrite_closeDoesntMaskErrorAndReturnsDeflater() throws IOException {
+    Compression.Gzip gzip = (Compression.Gzip) Compression.gzip(Deflater.NO_COMPRESSION);
+    OutputStream out = new OutputStream() {
+      int writes;
+
+      @Override public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override public void write(byte[] b, int off, int len) throws IOException {
+        if (writes++ > 0) throw new IOException("broken pipe"); // after the gzip header
+      }
+    };
+
+    OutputStream compressor = gzip.compress(out);
+    assertThatThrownBy(() -> compressor.write(new byte[100_000]))
+        .hasMessage("broken pipe");
+    compressor.close(); // doesn't try to write the trailer
+
+    assertThat(gzip.idle).containsExactly((Compression.GzipOutputStream) compressor);
+    assertThat(gunzip(compress(gzip))).containsExactly('[', ']'); // reusable
+  }
+
+  @Test public void gzip_failedHeader_returnsDeflater() {
+    Compression.Gzip gzip = (Compression.Gzip) Compression.gzip(Deflater.BEST_SPEED);
+    OutputStream out = new OutputStream() {
+      @Override public void write(int b) throws IOException {
+        throw new IOException("broken pipe");
+      }
+    };
+
+    assertThatThrownBy(() -> gzip.compress(out))
+        .hasMessage("broken pipe");
+
+    assertThat(gzip.idle).hasSize(1);
+  }
+
+  @Test public void gzip_level() {
+    assertThat(Compression.gzip(Deflater.DEFAULT_COMPRESSION)).isSameAs(Compression.GZIP);
+    assertThat(Compression.gzip(Deflater.BEST_SPEED).encoding()).isEqualTo("gzip");
+
+    assertThatThrownBy(() -> Compression.gzip(10))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("invalid compressionLevel: 10");
+    assertThatThrownBy(() -> Compression.gzip(-2))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("invalid compressionLevel: -2");
+  }
+
+  byte[] compress(Compression compression) throws IOException {
+    return compression.compress(message.array(), 0, message.sizeInBytes());
+  }
+
+  static byte[] gunzip(byte[] gzipped) throws IOException {
+    GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buf = new byte[1024];
+    for (int read; (read = in.read(buf)) != -1; ) result.write(buf, 0, read);
+    return result.toByteArray();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin2.codec.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DiskSpillTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  FakeSender sender = FakeSender.create();
+  MessageBuffer message = MessageBuffer.create(Encoding.JSON);
+
+  @Test public void append_peek_commit() throws IOException {
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 1024, 1024);
+    assertThat(spill.isEmpty()).isTrue();
+
+    assertThat(spill.append(message("1", "22"))).isTrue();
+    assertThat(spill.append(span("333"))).isTrue();
+    assertThat(spill.sizeInBytes()).isEqualTo((8 + 4 + 1 + 4 + 2) + (8 + 4 + 3));
+
+    assertThat(spill.peek(message, sender, 1024)).isEqualTo(spill.sizeInBytes());
+    assertThat(utf8(message)).isEqualTo("[1,22,333]");
+    assertThat(spill.isEmpty()).isFalse(); // not yet committed
+
+    spill.commit();
+    assertThat(spill.isEmpty()).isTrue();
+    assertThat(spill.peek(message, sender, 1024)).isZero();
+    assertThat(message.count()).isZero();
+  }
+
+  @Test public void peek_leavesRecordsOverMessageMaxBytes() throws IOException {
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 1024, 1024);
+    spill.append(message("1", "22"));
+    spill.append(span("333"));
+
+    spill.peek(message, sender, "[1,22]".length());
+    assertThat(utf8(message)).isEqualTo("[1,22]");
+    spill.commit();
+
+    spill.peek(message, sender, 1); // the first record is always added
+    assertThat(utf8(message)).isEqualTo("[333]");
+  }
+
+  @Test public void append_falseWhenFull() throws IOException {
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 40, 40);
+
+    assertThat(spill.append(span("1234567890"))).isTrue(); // 22 bytes
+    assertThat(spill.append(span("1234567890"))).isFalse();
+    assertThat(spill.append(span("1"))).isTrue(); // 13 bytes
+    assertThat(spill.append(new byte[100])).isFalse(); // larger than a segment
+  }
+
+  @Test public void append_addsSegments_deletesReplayed() throws IOException {
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 64, 32);
+    spill.append(span("1234567890"));
+    spill.append(span("1234567890"));
+    assertThat(segmentFiles()).hasSize(2);
+    assertThat(spill.append(span("1234567890"))).isFalse(); // max two segments
+
+    spill.peek(message, sender, 1024);
+    spill.commit();
+    assertThat(segmentFiles()).hasSize(1);
+
+    // The last segment is rewound instead of deleted
+    spill.peek(message, sender, 1024);
+    spill.commit();
+    assertThat(segmentFiles()).hasSize(1);
+    assertThat(spill.append(span("1234567890"))).isTrue();
+    spill.peek(message, sender, 1024);
+    assertThat(utf8(message)).isEqualTo("[1234567890]");
+  }
+
+  @Test public void recover_skipsReplayed() throws IOException {
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 1024, 64);
+    spill.append(span("1"));
+    spill.append(span("22"));
+    spill.peek(message, sender, "[1]".length());
+    spill.commit();
+    spill.append(span("333"));
+    spill.close();
+
+    spill = new DiskSpill(folder.getRoot(), 1024, 64);
+    assertThat(spill.sizeInBytes()).isEqualTo((8 + 4 + 2) + (8 + 4 + 3));
+    spill.peek(message, sender, 1024);
+    assertThat(utf8(message)).isEqualTo("[22,333]");
+
+    // appends continue after the recovered records
+    spill.append(span("4444"));
+    spill.commit();
+    spill.peek(message, sender, 1024);
+    assertThat(utf8(message)).isEqualTo("[4444]");
+  }
+
+  @Test public void recover_deletesReplayedSegments_inSequenceOrder() throws IOException {
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 1024, 32);
+    for (int i = 0; i < 12; i++) spill.append(span("1234567890" + (char) ('a' + i)));
+    spill.peek(message, sender, 1024);
+    spill.commit(); // the first segment
+    spill.close();
+    assertThat(segmentFiles()).hasSize(11);
+
+    spill = new DiskSpill(folder.getRoot(), 1024, 32);
+    spill.peek(message, sender, 1024);
+    assertThat(utf8(message)).isEqualTo("[1234567890b]"); // not confused by "10" < "2"
+  }
+
+  @Test public void recover_ignoresUnrelatedFiles() throws IOException {
+    folder.newFile("spill-foo.log");
+    folder.newFile("README");
+
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 1024, 32);
+    assertThat(spill.isEmpty()).isTrue();
+  }
+
+  @Test(expected = IOException.class) public void directoryMustBeCreatable() throws IOException {
+    File file = folder.newFile();
+    new DiskSpill(new File(file, "spill"), 1024, 32);
+  }
+
+  @Test public void directoryHasOneOwner() throws IOException {
+    DiskSpill spill = new DiskSpill(folder.getRoot(), 1024, 32);
+
+    assertThatThrownBy(() -> new DiskSpill(folder.getRoot(), 1024, 32))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("spill directory is already in use: " + folder.getRoot());
+
+    spill.close();
+    new DiskSpill(folder.getRoot(), 1024, 32).close(); // released on close
+  }
+
+  String[] segmentFiles() {
+    return folder.getRoot().list((dir, name) -> DiskSpill.parseSequence(name) >= 0);
+  }
+
+  MessageBuffer message(String... spans) {
+    MessageBuffer result = MessageBuffer.create(Encoding.JSON);
+    for (String span : spans) result.add(span(span));
+    return result;
+  }
+
+  static byte[] span(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+
+  static String utf8(MessageBuffer message) {
+    return new String(message.array(), 0, message.sizeInBytes(), StandardCharsets.UTF_8);
+  }
+}
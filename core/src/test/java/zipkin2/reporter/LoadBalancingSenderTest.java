@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.codec.Encoding;
+import zipkin2.reporter.CircuitBreakerSenderTest.FlakySender;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LoadBalancingSenderTest {
+  FlakySender a = new FlakySender(), b = new FlakySender(), c = new FlakySender();
+  LoadBalancingSender sender = LoadBalancingSender.create(Arrays.asList(a, b, c));
+
+  @Test public void roundRobin() {
+    for (int i = 0; i < 6; i++) send();
+
+    assertThat(a.sends.get()).isEqualTo(2);
+    assertThat(b.sends.get()).isEqualTo(2);
+    assertThat(c.sends.get()).isEqualTo(2);
+  }
+
+  @Test public void roundRobin_skipsEjectedWithoutDoublingNext() {
+    sender = LoadBalancingSender.newBuilder()
+        .addSender(a).addSender(b).addSender(c)
+        .ejectionThreshold(1)
+        .ejectionTimeout(1, TimeUnit.DAYS)
+        .build();
+    a.fail = true;
+    send(); // ejects a
+
+    for (int i = 0; i < 6; i++) send();
+
+    assertThat(a.sends.get()).isEqualTo(1);
+    assertThat(b.sends.get()).isEqualTo(3);
+    assertThat(c.sends.get()).isEqualTo(3);
+  }
+
+  @Test public void ejectsAfterConsecutiveFailures() {
+    sender = LoadBalancingSender.newBuilder()
+        .addSender(a).addSender(b)
+        .ejectionThreshold(2)
+        .ejectionTimeout(1, TimeUnit.DAYS)
+        .build();
+    a.fail = true;
+
+    for (int i = 0; i < 4; i++) send(); // a fails twice
+    assertThat(a.sends.get()).isEqualTo(2);
+
+    for (int i = 0; i < 4; i++) send();
+    assertThat(a.sends.get()).isEqualTo(2); // ejected
+    assertThat(b.sends.get()).isEqualTo(6);
+  }
+
+  @Test public void readmitsAfterEjectionTimeout_ejectsOnNextFailure() {
+    sender = LoadBalancingSender.newBuilder()
+        .addSender(a).addSender(b)
+        .ejectionThreshold(2)
+        .ejectionTimeout(0, TimeUnit.MILLISECONDS)
+        .build();
+    a.fail = true;
+    for (int i = 0; i < 4; i++) send();
+
+    LoadBalancingSender.Endpoint endpoint = sender.endpoints.get(0);
+    assertThat(endpoint.ejected).isTrue();
+    long ejectedNanoTime = endpoint.ejectedNanoTime;
+    for (int i = 0; i < 2; i++) send(); // timeout elapsed, so a gets another try
+    assertThat(a.sends.get()).isEqualTo(3);
+    assertThat(endpoint.ejectedNanoTime).isNotEqualTo(ejectedNanoTime); // ejected again
+  }
+
+  @Test public void allEjected_sendsAnyway() {
+    sender = LoadBalancingSender.newBuilder()
+        .addSender(a)
+        .ejectionThreshold(1)
+        .ejectionTimeout(1, TimeUnit.DAYS)
+        .build();
+    a.fail = true;
+    send();
+    send();
+
+    assertThat(a.sends.get()).isEqualTo(2);
+  }
+
+  @Test public void leastOutstanding() throws IOException {
+    AtomicInteger slowSends = new AtomicInteger();
+    Sender slow = new FlakySender() {
+      @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+        slowSends.incrementAndGet();
+        return new NeverCompletes();
+      }
+    };
+    sender = LoadBalancingSender.newBuilder()
+        .addSender(slow).addSender(a)
+        .strategy(LoadBalancingSender.Strategy.LEAST_OUTSTANDING)
+        .build();
+
+    for (int i = 0; i < 5; i++) {
+      sender.sendSpans(emptyList()).enqueue(new NoopCallback());
+    }
+
+    assertThat(slowSends.get()).isEqualTo(1); // the rest avoided it while its send was in flight
+    assertThat(a.sends.get()).isEqualTo(4);
+  }
+
+  @Test public void leastOutstanding_countsWhenChosen() {
+    sender = LoadBalancingSender.newBuilder()
+        .addSender(a).addSender(b)
+        .strategy(LoadBalancingSender.Strategy.LEAST_OUTSTANDING)
+        .build();
+
+    // Like concurrent flushers, neither call is in flight yet when the other chooses.
+    LoadBalancingSender.LoadBalancedCall call1 =
+        (LoadBalancingSender.LoadBalancedCall) sender.sendSpans(emptyList());
+    LoadBalancingSender.LoadBalancedCall call2 =
+        (LoadBalancingSender.LoadBalancedCall) sender.sendSpans(emptyList());
+
+    assertThat(call1.endpoint).isNotSameAs(call2.endpoint);
+  }
+
+  @Test public void outstanding_decrementsOnCompletion() throws IOException {
+    sender.sendSpans(emptyList()).execute();
+    sender.sendSpans(emptyList()).clone().execute();
+
+    for (LoadBalancingSender.Endpoint endpoint : sender.endpoints) {
+      assertThat(endpoint.outstanding.get()).isZero();
+    }
+  }
+
+  @Test public void close_throwsFirstFailureAfterClosingAll() {
+    RuntimeException failure = new IllegalStateException("close");
+    AtomicInteger closes = new AtomicInteger();
+    Sender failing = new FlakySender() {
+      @Override public void close() {
+        closes.incrementAndGet();
+        throw failure;
+      }
+    };
+    Sender closing = new FlakySender() {
+      @Override public void close() {
+        closes.incrementAndGet();
+      }
+    };
+    sender = LoadBalancingSender.create(Arrays.asList(failing, closing));
+
+    assertThatThrownBy(sender::close).isSameAs(failure);
+    assertThat(closes.get()).isEqualTo(2);
+  }
+
+  @Test public void check_ejectsFailing_okIfAnyPass() {
+    a.checkResult = CheckResult.failed(new IOException("down"));
+    assertThat(sender.check().ok()).isTrue();
+    assertThat(sender.endpoints.get(0).ejected).isTrue();
+
+    b.checkResult = c.checkResult = a.checkResult;
+    assertThat(sender.check()).isSameAs(a.checkResult);
+
+    a.checkResult = CheckResult.OK;
+    sender.check();
+    assertThat(sender.endpoints.get(0).ejected).isFalse();
+  }
+
+  @Test public void messageSizing_mostRestrictive() {
+    FakeSender small = FakeSender.create().messageMaxBytes(100);
+    sender = LoadBalancingSender.create(Arrays.asList(a, small));
+
+    assertThat(sender.messageMaxBytes()).isEqualTo(100);
+    assertThat(sender.encoding()).isEqualTo(Encoding.JSON);
+  }
+
+  @Test public void differentEncodings() {
+    assertThatThrownBy(() -> LoadBalancingSender.create(
+        Arrays.asList(a, FakeSender.create().encoding(Encoding.PROTO3))))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test public void noSenders() {
+    assertThatThrownBy(() -> LoadBalancingSender.newBuilder().build())
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  void send() {
+    try {
+      sender.sendSpans(emptyList()).execute();
+    } catch (IOException | RuntimeException e) {
+      // expected when failing
+    }
+  }
+
+  static final class NeverCompletes extends Call.Base<Void> {
+    @Override protected Void doExecute() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+    }
+
+    @Override public Call<Void> clone() {
+      return new NeverCompletes();
+    }
+  }
+
+  static final class NoopCallback implements Callback<Void> {
+    @Override public void onSuccess(Void value) {
+    }
+
+    @Override public void onError(Throwable t) {
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LockFreeByteBoundedQueueTest {
+  LockFreeByteBoundedQueue<byte[]> queue = new LockFreeByteBoundedQueue<>(10, 10);
+
+  @Test
+  public void offer_failsWhenFull_size() {
+    for (int i = 0; i < queue.maxSize; i++) {
+      assertThat(queue.offer(new byte[1], 1)).isTrue();
+    }
+    assertThat(queue.offer(new byte[1], 1)).isFalse();
+  }
+
+  @Test
+  public void offer_failsWhenFull_sizeInBytes() {
+    assertThat(queue.offer(new byte[10], 10)).isTrue();
+    assertThat(queue.offer(new byte[1], 1)).isFalse();
+  }
+
+  @Test
+  public void offer_updatesCount() {
+    for (int i = 0; i < queue.maxSize; i++) {
+      queue.offer(new byte[1], 1);
+    }
+    assertThat(queue.count()).isEqualTo(10);
+  }
+
+  @Test
+  public void offer_sizeInBytes() {
+    for (int i = 0; i < queue.maxSize; i++) {
+      queue.offer(new byte[1], 1);
+    }
+    assertThat(queue.sizeInBytes()).isEqualTo(queue.maxSize);
+  }
+
+  @Test
+  public void drainTo_leavesRejectedSpans() {
+    LockFreeByteBoundedQueue<Integer> queue = new LockFreeByteBoundedQueue<>(10, 10);
+    for (int i = 0; i < 4; i++) {
+      queue.offer(i, 1);
+    }
+
+    List<Integer> polled = new ArrayList<>();
+    assertThat(queue.drainTo((next, ignored) -> next < 2 && polled.add(next), 0))
+        .isEqualTo(2);
+
+    assertThat(polled).containsExactly(0, 1);
+    assertThat(queue.count()).isEqualTo(2);
+    assertThat(queue.sizeInBytes()).isEqualTo(2);
+  }
+
+  @Test
+  public void drainTo_timesOutWhenEmpty() {
+    long start = System.nanoTime();
+    assertThat(queue.drainTo((next, ignored) -> true, TimeUnit.MILLISECONDS.toNanos(10)))
+        .isZero();
+    assertThat(System.nanoTime() - start)
+        .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+  }
+
+  @Test
+  public void drainTo_wakesOnOffer() throws InterruptedException {
+    CountDownLatch drained = new CountDownLatch(1);
+    Thread drainer = new Thread(() -> {
+      if (queue.drainTo((next, ignored) -> true, TimeUnit.SECONDS.toNanos(10)) == 1) {
+        drained.countDown();
+      }
+    });
+    drainer.start();
+
+    Thread.sleep(10); // wait for the drainer to park
+    queue.offer(new byte[1], 1);
+
+    assertThat(drained.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void clear() {
+    for (int i = 0; i < queue.maxSize; i++) {
+      queue.offer(new byte[1], 1);
+    }
+
+    assertThat(queue.clear()).isEqualTo(10);
+    assertThat(queue.count()).isZero();
+    assertThat(queue.sizeInBytes()).isZero();
+    assertThat(queue.offer(new byte[1], 1)).isTrue();
+  }
+
+  @Test
+  public void circular() {
+    LockFreeByteBoundedQueue<Integer> queue = new LockFreeByteBoundedQueue<>(10, 10);
+
+    List<Integer> polled = new ArrayList<>();
+    SpanWithSizeConsumer<Integer> consumer = (next, ignored) -> polled.add(next);
+
+    // Offer more than the capacity, flushing via poll on interval
+    for (int i = 0; i < 15; i++) {
+      queue.offer(i, 1);
+      queue.drainTo(consumer, 1);
+    }
+
+    // ensure we have all of the spans
+    assertThat(polled)
+        .containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14);
+  }
+
+  @Test
+  public void multipleProducers() throws InterruptedException {
+    int producers = 8, spansPerProducer = 10000;
+    LockFreeByteBoundedQueue<Integer> queue = new LockFreeByteBoundedQueue<>(100, 100);
+
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      executor.execute(() -> {
+        for (int i = 0; i < spansPerProducer; ) {
+          if (queue.offer(producer, 1)) i++; // retry until the drainer catches up
+        }
+      });
+    }
+
+    int[] drained = new int[producers];
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    int total = 0;
+    while (total < producers * spansPerProducer && System.nanoTime() < deadline) {
+      total += queue.drainTo((next, ignored) -> {
+        drained[next]++;
+        return true;
+      }, TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    executor.shutdownNow();
+
+    assertThat(drained).containsOnly(spansPerProducer);
+    assertThat(queue.count()).isZero();
+    assertThat(queue.sizeInBytes()).isZero();
+  }
+}
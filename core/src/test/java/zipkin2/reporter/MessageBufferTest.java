@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.codec.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MessageBufferTest {
+  List<byte[]> json = Arrays.asList(
+      "{\"k\":\"1\"}".getBytes(),
+      "{\"k\":\"2\"}".getBytes(),
+      "{\"k\":\"3\"}".getBytes()
+  );
+  List<byte[]> proto3 = Arrays.asList(
+      new byte[] {1, 1, 'a'},
+      new byte[] {1, 1, 'b'},
+      new byte[] {1, 1, 'c'}
+  );
+
+  @Test public void emptyMessage_json() {
+    assertThat(MessageBuffer.create(Encoding.JSON).toByteArray())
+        .containsExactly('[', ']');
+  }
+
+  @Test public void emptyMessage_proto3() {
+    assertThat(MessageBuffer.create(Encoding.PROTO3).toByteArray())
+        .isEmpty();
+  }
+
+  @Test public void emptyMessage_thrift() {
+    assertThat(MessageBuffer.create(Encoding.THRIFT).toByteArray())
+        .isEqualTo(BytesMessageEncoder.THRIFT.encode(Arrays.<byte[]>asList()));
+  }
+
+  @Test public void multiItemList_json() {
+    MessageBuffer message = add(MessageBuffer.create(Encoding.JSON), json);
+
+    assertThat(message.toByteArray())
+        .isEqualTo(BytesMessageEncoder.JSON.encode(json));
+    assertThat(message.count()).isEqualTo(3);
+    assertThat(message.sizeInBytes()).isEqualTo(Encoding.JSON.listSizeInBytes(json));
+  }
+
+  @Test public void multiItemList_proto3() {
+    MessageBuffer message = add(MessageBuffer.create(Encoding.PROTO3), proto3);
+
+    assertThat(message.toByteArray())
+        .isEqualTo(BytesMessageEncoder.PROTO3.encode(proto3));
+    assertThat(message.sizeInBytes()).isEqualTo(Encoding.PROTO3.listSizeInBytes(proto3));
+  }
+
+  @Test public void multiItemList_thrift() {
+    MessageBuffer message = add(MessageBuffer.create(Encoding.THRIFT), proto3);
+
+    assertThat(message.toByteArray())
+        .isEqualTo(BytesMessageEncoder.THRIFT.encode(proto3));
+    assertThat(message.sizeInBytes()).isEqualTo(Encoding.THRIFT.listSizeInBytes(proto3));
+  }
+
+  @Test public void encodedSpans() {
+    for (Encoding encoding : Encoding.values()) {
+      List<byte[]> spans = encoding == Encoding.JSON ? json : proto3;
+      MessageBuffer message = add(MessageBuffer.create(encoding), spans);
+
+      assertThat(message.encodedSpans())
+          .containsExactlyElementsOf(spans);
+    }
+  }
+
+  @Test public void encodedSpans_passesThroughAddedSpans() {
+    MessageBuffer message = add(MessageBuffer.create(Encoding.JSON), json);
+
+    List<byte[]> encodedSpans = message.encodedSpans();
+    for (int i = 0; i < json.size(); i++) {
+      assertThat(encodedSpans.get(i)).isSameAs(json.get(i));
+    }
+  }
+
+  @Test public void encodedSpans_copiesAppendedSpans() {
+    MessageBuffer message = MessageBuffer.create(Encoding.PROTO3);
+    byte[] span = proto3.get(0);
+    System.arraycopy(span, 0, message.buf, message.append(span.length), span.length);
+
+    assertThat(message.encodedSpans())
+        .containsExactly(span);
+  }
+
+  @Test public void writeTo() throws Exception {
+    MessageBuffer message = add(MessageBuffer.create(Encoding.JSON), json);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    message.writeTo(out);
+
+    assertThat(out.toByteArray())
+        .isEqualTo(message.toByteArray());
+  }
+
+  @Test public void clear_reusesBuffer() {
+    MessageBuffer message = add(MessageBuffer.create(Encoding.JSON), json);
+    byte[] array = message.array();
+
+    message.clear();
+    assertThat(message.toByteArray()).containsExactly('[', ']');
+    assertThat(message.count()).isZero();
+
+    add(message, json.subList(0, 1));
+    assertThat(message.array()).isSameAs(array);
+    assertThat(new String(message.toByteArray()))
+        .isEqualTo("[{\"k\":\"1\"}]");
+  }
+
+  @Test public void growsWhenFull() {
+    MessageBuffer message = new MessageBuffer(Encoding.JSON, 8);
+    add(message, json);
+    add(message, json);
+
+    assertThat(message.count()).isEqualTo(6);
+    assertThat(message.encodedSpans().get(5))
+        .isEqualTo(json.get(2));
+    assertThat(message.array().length)
+        .isGreaterThanOrEqualTo(message.sizeInBytes());
+  }
+
+  @Test public void growsSpanOffsets() {
+    MessageBuffer message = MessageBuffer.create(Encoding.PROTO3);
+    for (int i = 0; i < 100; i++) message.add(proto3.get(i % 3));
+
+    assertThat(message.encodedSpans())
+        .hasSize(100)
+        .last().isEqualTo(proto3.get(0));
+  }
+
+  @Test public void add_null() {
+    assertThatThrownBy(() -> MessageBuffer.create(Encoding.JSON).add(null))
+        .isInstanceOf(NullPointerException.class)
+        .hasMessage("encodedSpan == null");
+  }
+
+  static MessageBuffer add(MessageBuffer message, List<byte[]> spans) {
+    for (byte[] span : spans) message.add(span);
+    return message;
+  }
+}
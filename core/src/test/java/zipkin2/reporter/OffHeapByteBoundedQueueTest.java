@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import zipkin2.codec.Encoding;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OffHeapByteBoundedQueueTest {
+  OffHeapByteBoundedQueue queue = new OffHeapByteBoundedQueue(10, 10);
+
+  @Test
+  public void offer_failsWhenFull_size() {
+    for (int i = 0; i < queue.maxSize; i++) {
+      assertThat(queue.offer(new byte[1], 1)).isTrue();
+    }
+    assertThat(queue.offer(new byte[1], 1)).isFalse();
+  }
+
+  @Test
+  public void offer_failsWhenFull_sizeInBytes() {
+    assertThat(queue.offer(new byte[10], 10)).isTrue();
+    assertThat(queue.offer(new byte[1], 1)).isFalse();
+  }
+
+  @Test
+  public void allocatesArenaUpFront() {
+    assertThat(queue.arena.isDirect()).isTrue();
+    assertThat(queue.arena.capacity()).isEqualTo(queue.maxBytes);
+  }
+
+  @Test
+  public void offer_sizeInBytes() {
+    for (int i = 0; i < queue.maxSize; i++) {
+      queue.offer(new byte[1], 1);
+    }
+    assertThat(queue.count()).isEqualTo(10);
+    assertThat(queue.sizeInBytes()).isEqualTo(queue.maxSize);
+  }
+
+  @Test
+  public void drainTo_copiesSpans() {
+    queue.offer(new byte[] {1, 2, 3}, 3);
+    queue.offer(new byte[] {4, 5}, 2);
+
+    List<byte[]> polled = new ArrayList<>();
+    assertThat(queue.drainTo((next, ignored) -> polled.add(next), 0)).isEqualTo(2);
+
+    assertThat(polled).containsExactly(new byte[] {1, 2, 3}, new byte[] {4, 5});
+    assertThat(queue.count()).isZero();
+    assertThat(queue.sizeInBytes()).isZero();
+  }
+
+  @Test
+  public void drainTo_leavesRejectedSpans() {
+    queue.offer(new byte[] {1, 2, 3}, 3);
+    queue.offer(new byte[] {4, 5}, 2);
+
+    List<byte[]> polled = new ArrayList<>();
+    assertThat(queue.drainTo((next, ignored) -> next.length == 3 && polled.add(next), 0))
+        .isEqualTo(1);
+    assertThat(queue.drainTo((next, ignored) -> polled.add(next), 0))
+        .isEqualTo(1);
+
+    assertThat(polled).containsExactly(new byte[] {1, 2, 3}, new byte[] {4, 5});
+  }
+
+  @Test
+  public void drainTo_copiesDirectlyIntoMessage() {
+    queue = new OffHeapByteBoundedQueue(10, 100);
+    queue.offer(new byte[] {'1'}, 1);
+    queue.offer(new byte[] {'2', '3'}, 2);
+
+    BufferNextMessage<byte[]> bundler = BufferNextMessage.create(Encoding.JSON, 100, 0);
+    bundler.copyDirect(FakeSender.create());
+    assertThat(queue.drainTo(bundler, 0)).isEqualTo(2);
+
+    assertThat(bundler.count()).isEqualTo(2);
+    assertThat(bundler.sizeInBytes()).isEqualTo(6);
+    assertThat(new String(bundler.message.toByteArray(), UTF_8)).isEqualTo("[1,23]");
+  }
+
+  @Test
+  public void drainTo_leavesSpansThatDontFitMessage() {
+    queue.offer(new byte[] {'1', '2', '3'}, 3);
+    queue.offer(new byte[] {'4', '5'}, 2);
+
+    // Room for the first span and its brackets, but not the second span and its comma
+    BufferNextMessage<byte[]> bundler = BufferNextMessage.create(Encoding.JSON, 7, 0);
+    bundler.copyDirect(FakeSender.create());
+    assertThat(queue.drainTo(bundler, 0)).isEqualTo(1);
+
+    assertThat(new String(bundler.message.toByteArray(), UTF_8)).isEqualTo("[123]");
+    assertThat(queue.count()).isEqualTo(1);
+
+    bundler.clear();
+    assertThat(queue.drainTo(bundler, 0)).isEqualTo(1);
+    assertThat(new String(bundler.message.toByteArray(), UTF_8)).isEqualTo("[45]");
+  }
+
+  @Test
+  public void wrapsAroundEndOfArena() {
+    List<byte[]> polled = new ArrayList<>();
+    queue.offer(new byte[] {1, 2, 3, 4, 5, 6}, 6);
+    queue.offer(new byte[] {7, 8}, 2);
+    queue.drainTo((next, ignored) -> next.length == 6 && polled.add(next), 0);
+
+    // writes the last two bytes at the end of the arena, and the rest at the front
+    queue.offer(new byte[] {9, 10, 11, 12, 13}, 5);
+    queue.drainTo((next, ignored) -> polled.add(next), 0);
+
+    assertThat(polled).containsExactly(
+        new byte[] {1, 2, 3, 4, 5, 6}, new byte[] {7, 8}, new byte[] {9, 10, 11, 12, 13});
+  }
+
+  @Test
+  public void clear() {
+    for (int i = 0; i < queue.maxSize; i++) {
+      queue.offer(new byte[1], 1);
+    }
+
+    assertThat(queue.clear()).isEqualTo(10);
+    assertThat(queue.count()).isZero();
+    assertThat(queue.sizeInBytes()).isZero();
+    assertThat(queue.offer(new byte[10], 10)).isTrue();
+  }
+
+  @Test
+  public void circular() {
+    List<byte[]> polled = new ArrayList<>();
+    SpanWithSizeConsumer<byte[]> consumer = (next, ignored) -> polled.add(next);
+
+    // Offer more than the capacity, flushing via poll on interval
+    for (int i = 0; i < 15; i++) {
+      queue.offer(new byte[] {(byte) i, (byte) i}, 2);
+      queue.drainTo(consumer, 1);
+    }
+
+    // ensure we have all of the spans
+    assertThat(polled).hasSize(15);
+    for (int i = 0; i < 15; i++) {
+      assertThat(polled.get(i)).containsExactly(i, i);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import zipkin2.codec.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryBufferTest {
+  static final long BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+  static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+
+  RetryBuffer buffer = new RetryBuffer(100, 2, BACKOFF, MAX_BACKOFF);
+  MessageBuffer message = MessageBuffer.create(Encoding.JSON);
+
+  @Test public void offer_copiesMessage() {
+    message.add(new byte[] {'1'});
+    assertThat(buffer.offer(message, 0)).isTrue();
+    message.clear();
+
+    RetryBuffer.Retry retry = buffer.pollDue(MAX_BACKOFF);
+    assertThat(retry.message.toByteArray()).containsExactly('[', '1', ']');
+    assertThat(retry.message.encodedSpans()).hasSize(1);
+    assertThat(retry.attempts).isEqualTo(1);
+  }
+
+  @Test public void offer_falseWhenFull() {
+    message.add(new byte[97]); // 99 bytes with brackets
+    assertThat(buffer.offer(message, 0)).isTrue();
+    message.clear();
+    assertThat(buffer.offer(message, 0)).isFalse();
+  }
+
+  @Test public void sizeInBytes_heldUntilReleased() {
+    assertThat(buffer.offer(message, 0)).isTrue();
+    RetryBuffer.Retry retry = buffer.pollDue(MAX_BACKOFF);
+    assertThat(buffer.sizeInBytes).isEqualTo(2); // in flight
+
+    buffer.release(retry);
+    assertThat(buffer.sizeInBytes).isZero();
+  }
+
+  @Test public void pollDue_nullUntilBackoffElapses() {
+    buffer.offer(message, 0);
+    RetryBuffer.Retry retry = buffer.due.peek();
+
+    assertThat(buffer.pollDue(retry.dueNanoTime - 1)).isNull();
+    assertThat(buffer.nanosUntilDue(retry.dueNanoTime - 1)).isEqualTo(1);
+    assertThat(buffer.pollDue(retry.dueNanoTime)).isSameAs(retry);
+    assertThat(buffer.nanosUntilDue(0)).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test public void pollDue_earliestFirst() {
+    RetryBuffer noJitter = new RetryBuffer(100, 2, 0, 0);
+    noJitter.offer(message, 20);
+    noJitter.offer(message, 10);
+
+    assertThat(noJitter.pollDue(30).dueNanoTime).isEqualTo(10);
+    assertThat(noJitter.pollDue(30).dueNanoTime).isEqualTo(20);
+  }
+
+  @Test public void retry_falseWhenNoRetriesLeft() {
+    buffer.offer(message, 0);
+    RetryBuffer.Retry retry = buffer.pollDue(MAX_BACKOFF);
+    assertThat(buffer.retry(retry, 0)).isTrue();
+    retry = buffer.pollDue(MAX_BACKOFF);
+    assertThat(buffer.retry(retry, 0)).isFalse();
+  }
+
+  @Test public void backoffNanos_doublesUpToMax() {
+    for (int i = 0; i < 100; i++) {
+      assertThat(buffer.backoffNanos(1)).isBetween(0L, BACKOFF);
+      assertThat(buffer.backoffNanos(2)).isBetween(0L, BACKOFF * 2);
+      assertThat(buffer.backoffNanos(100)).isBetween(0L, MAX_BACKOFF);
+    }
+  }
+
+  @Test public void backoffNanos_doesntOverflow() {
+    RetryBuffer buffer = new RetryBuffer(100, 2, Long.MAX_VALUE / 3, Long.MAX_VALUE);
+    for (int i = 0; i < 100; i++) {
+      assertThat(buffer.backoffNanos(100)).isNotNegative();
+    }
+  }
+
+  @Test public void close_drainsAndRejects() {
+    buffer.offer(message, 0);
+    assertThat(buffer.close()).hasSize(1);
+    assertThat(buffer.sizeInBytes).isZero();
+    assertThat(buffer.offer(message, 0)).isFalse();
+  }
+}
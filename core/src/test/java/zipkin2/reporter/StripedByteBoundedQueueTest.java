@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StripedByteBoundedQueueTest {
+  StripedByteBoundedQueue<byte[]> queue = new StripedByteBoundedQueue<>(10, 10, 4);
+
+  @Test
+  public void stripes_powerOfTwoSharingLimits() {
+    assertThat(queue.stripes).hasSize(4);
+    assertThat(queue.stripes[0].maxSize).isEqualTo(3);
+    assertThat(queue.stripes[0].maxBytes).isEqualTo(3);
+  }
+
+  @Test
+  public void stripes_neverEmpty() {
+    assertThat(new StripedByteBoundedQueue<>(2, 10, 64).stripes).hasSize(2);
+    assertThat(new StripedByteBoundedQueue<>(0, 0, 64).stripes).hasSize(1);
+  }
+
+  @Test
+  public void offer_spillsToOtherStripes() {
+    for (int i = 0; i < 10; i++) {
+      assertThat(queue.offer(new byte[1], 1)).isTrue();
+    }
+    assertThat(queue.count()).isEqualTo(10);
+    assertThat(queue.sizeInBytes()).isEqualTo(10);
+  }
+
+  @Test
+  public void offer_failsWhenAllStripesFull() {
+    while (queue.offer(new byte[1], 1)) ;
+    assertThat(queue.count()).isEqualTo(12); // approximate as each stripe holds 3
+  }
+
+  @Test
+  public void offer_failsWhenLargerThanStripe() {
+    assertThat(queue.offer(new byte[4], 4)).isFalse();
+  }
+
+  @Test
+  public void drainTo_harvestsAllStripes() {
+    StripedByteBoundedQueue<Integer> queue = new StripedByteBoundedQueue<>(10, 10, 4);
+    for (int i = 0; i < 10; i++) {
+      queue.offer(i, 1);
+    }
+
+    List<Integer> polled = new ArrayList<>();
+    assertThat(queue.drainTo((next, ignored) -> polled.add(next), 0))
+        .isEqualTo(10);
+
+    assertThat(polled).containsExactlyInAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    assertThat(queue.count()).isZero();
+    assertThat(queue.sizeInBytes()).isZero();
+  }
+
+  @Test
+  public void drainTo_wakesOnOffer() throws InterruptedException {
+    CountDownLatch drained = new CountDownLatch(1);
+    Thread drainer = new Thread(() -> {
+      if (queue.drainTo((next, ignored) -> true, TimeUnit.SECONDS.toNanos(10)) == 1) {
+        drained.countDown();
+      }
+    });
+    drainer.start();
+
+    Thread.sleep(10); // wait for the drainer to park
+    queue.offer(new byte[1], 1);
+
+    assertThat(drained.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void clear() {
+    while (queue.offer(new byte[1], 1)) ;
+
+    assertThat(queue.clear()).isEqualTo(12);
+    assertThat(queue.count()).isZero();
+    assertThat(queue.sizeInBytes()).isZero();
+  }
+
+  @Test
+  public void multipleProducers() throws InterruptedException {
+    int producers = 8, spansPerProducer = 10000;
+    StripedByteBoundedQueue<Integer> queue = new StripedByteBoundedQueue<>(100, 100, 4);
+
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      executor.execute(() -> {
+        for (int i = 0; i < spansPerProducer; ) {
+          if (queue.offer(producer, 1)) i++; // retry until the drainer catches up
+        }
+      });
+    }
+
+    int[] drained = new int[producers];
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    int total = 0;
+    while (total < producers * spansPerProducer && System.nanoTime() < deadline) {
+      total += queue.drainTo((next, ignored) -> {
+        drained[next]++;
+        return true;
+      }, TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    executor.shutdownNow();
+
+    assertThat(drained).containsOnly(spansPerProducer);
+    assertThat(queue.count()).isZero();
+  }
+}
@@ -55,4 +55,12 @@ public class InternalReporterTest {
         .usingRecursiveComparison()
         .isEqualTo(input);
   }
+
+  @Test public void toBuilder_encodeOnReport() {
+    AsyncReporter<String> input =
+        AsyncReporter.builder(sender).encodeOnReport(true).build(bytesEncoder);
+    assertThat(InternalReporter.instance.toBuilder(input).build(bytesEncoder))
+        .usingRecursiveComparison()
+        .isEqualTo(input);
+  }
 }
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.httpclient;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.codec.Encoding;
+import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.BytesMessageEncoder;
+import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
+import zipkin2.reporter.Sender;
+
+/**
+ * Reports spans to Zipkin, using its <a href="https://zipkin.io/zipkin-api/#/">POST</a> endpoint,
+ * with the JDK 11+ {@link HttpClient}.
+ *
+ * <h3>Usage</h3>
+ *
+ * This type is designed for {@link AsyncReporter.Builder#builder(Sender) the async reporter}.
+ *
+ * <p>Here's a simple configuration, configured for json:
+ *
+ * <pre>{@code
+ * sender = HttpClientSender.create("http://127.0.0.1:9411/api/v2/spans");
+ * }</pre>
+ *
+ * <p>Here's an example that sends several messages at once, multiplexed over one connection:
+ *
+ * <pre>{@code
+ * sender = HttpClientSender.newBuilder()
+ *   .endpoint("http://127.0.0.1:9411/api/v2/spans")
+ *   .encoding(Encoding.PROTO3)
+ *   .build();
+ * reporter = AsyncReporter.builder(sender).messagesInFlight(4).build();
+ * }</pre>
+ *
+ * <h3>Implementation Notes</h3>
+ *
+ * <p>Connections are kept alive and reused. Unlike {@code URLConnectionSender}, the default
+ * {@linkplain HttpClient.Version#HTTP_2 HTTP/2} multiplexes concurrent messages over a single
+ * connection. The client falls back to HTTP/1.1 when the server doesn't support HTTP/2, in which
+ * case there is a connection per {@linkplain Builder#maxRequests(int) in-flight request}.
+ *
+ * <p>This sender is thread-safe.
+ */
+public final class HttpClientSender extends Sender {
+
+  /** Creates a sender that posts {@link Encoding#JSON} messages. */
+  public static HttpClientSender create(String endpoint) {
+    return newBuilder().endpoint(endpoint).build();
+  }
+
+  public static Builder newBuilder() {
+    return new Builder(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2));
+  }
+
+  public static final class Builder {
+    final HttpClient.Builder clientBuilder;
+    URI endpoint;
+    Encoding encoding = Encoding.JSON;
+    int messageMaxBytes = 500_000;
+    int maxRequests = 64;
+    int connectTimeout = 10 * 1000, readTimeout = 60 * 1000;
+    boolean compressionEnabled = true;
+    Compression compression = Compression.GZIP;
+
+    Builder(HttpClient.Builder clientBuilder) {
+      this.clientBuilder = clientBuilder;
+    }
+
+    Builder(HttpClientSender sender) {
+      this(copyOf(sender.client));
+      this.endpoint = sender.endpoint;
+      this.encoding = sender.encoding;
+      this.messageMaxBytes = sender.messageMaxBytes;
+      this.maxRequests = sender.maxRequests;
+      this.connectTimeout = sender.connectTimeout;
+      this.readTimeout = sender.readTimeout;
+      this.compressionEnabled = sender.compressionEnabled;
+      this.compression = sender.compression;
+    }
+
+    /**
+     * No default. The POST URL for zipkin's <a href="https://zipkin.io/zipkin-api/#/">v2 api</a>,
+     * usually "http://zipkinhost:9411/api/v2/spans"
+     */
+    // customizable so that users can re-map /api/v2/spans ex for browser-originated traces
+    public Builder endpoint(String endpoint) {
+      if (endpoint == null) throw new NullPointerException("endpoint == null");
+      URI parsed;
+      try {
+        parsed = URI.create(endpoint);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("invalid POST url: " + endpoint);
+      }
+      return endpoint(parsed);
+    }
+
+    public Builder endpoint(URI endpoint) {
+      if (endpoint == null) throw new NullPointerException("endpoint == null");
+      String scheme = endpoint.getScheme();
+      if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+        throw new IllegalArgumentException("invalid POST url: " + endpoint);
+      }
+      this.endpoint = endpoint;
+      return this;
+    }
+
+    /** Default 10 * 1000 milliseconds. 0 implies no timeout. */
+    public Builder connectTimeout(int connectTimeout) {
+      if (connectTimeout < 0) throw new IllegalArgumentException("connectTimeout < 0");
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /** Time to wait for each response. Default 60 * 1000 milliseconds. 0 implies no timeout. */
+    public Builder readTimeout(int readTimeout) {
+      if (readTimeout < 0) throw new IllegalArgumentException("readTimeout < 0");
+      this.readTimeout = readTimeout;
+      return this;
+    }
+
+    /**
+     * Maximum in-flight requests. When reached, sending blocks the caller until a response is
+     * received. Default 64.
+     *
+     * <p>Over HTTP/1.1, this is also the maximum number of connections to the endpoint. Over
+     * HTTP/2, these are concurrent streams on one connection.
+     */
+    public Builder maxRequests(int maxRequests) {
+      if (maxRequests < 1) throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+      this.maxRequests = maxRequests;
+      return this;
+    }
+
+    /**
+     * Default true. true implies that spans will be {@link #compression(Compression) compressed},
+     * with gzip by default, before transport.
+     */
+    public Builder compressionEnabled(boolean compressionEnabled) {
+      this.compressionEnabled = compressionEnabled;
+      return this;
+    }
+
+    /**
+     * The format used when {@link #compressionEnabled(boolean) compression is enabled}. Its
+     * {@link Compression#encoding()} is sent as the "Content-Encoding" header. Default {@link
+     * Compression#GZIP}.
+     *
+     * <p>Only change this when the collector accepts the format, for example "zstd".
+     */
+    public Builder compression(Compression compression) {
+      if (compression == null) throw new NullPointerException("compression == null");
+      this.compression = compression;
+      return this;
+    }
+
+    /** Maximum size of a message. Default 500KB */
+    public Builder messageMaxBytes(int messageMaxBytes) {
+      this.messageMaxBytes = messageMaxBytes;
+      return this;
+    }
+
+    /**
+     * Use this to change the encoding used in messages. Default is {@linkplain Encoding#JSON}
+     * This also controls the "Content-Type" header when sending spans.
+     *
+     * <p>Note: If ultimately sending to Zipkin, version 2.8+ is required to process protobuf.
+     */
+    public Builder encoding(Encoding encoding) {
+      if (encoding == null) throw new NullPointerException("encoding == null");
+      this.encoding = encoding;
+      return this;
+    }
+
+    /**
+     * Use this to customize the client, for example its {@link HttpClient.Builder#sslContext
+     * TLS}, {@link HttpClient.Builder#proxy proxy} or {@link HttpClient.Builder#executor
+     * executor}. Defaults to {@link HttpClient.Version#HTTP_2}.
+     */
+    public HttpClient.Builder clientBuilder() {
+      return clientBuilder;
+    }
+
+    public final HttpClientSender build() {
+      return new HttpClientSender(this);
+    }
+  }
+
+  final URI endpoint;
+  final HttpClient client;
+  final Encoding encoding;
+  final String mediaType;
+  final BytesMessageEncoder encoder;
+  final int messageMaxBytes, maxRequests;
+  final int connectTimeout, readTimeout;
+  final boolean compressionEnabled;
+  final Compression compression;
+  final Semaphore inFlight;
+
+  HttpClientSender(Builder builder) {
+    if (builder.endpoint == null) throw new NullPointerException("endpoint == null");
+    endpoint = builder.endpoint;
+    encoding = builder.encoding;
+    switch (encoding) {
+      case JSON:
+        mediaType = "application/json";
+        break;
+      case THRIFT:
+        mediaType = "application/x-thrift";
+        break;
+      case PROTO3:
+        mediaType = "application/x-protobuf";
+        break;
+      default:
+        throw new UnsupportedOperationException("Unsupported encoding: " + encoding.name());
+    }
+    encoder = BytesMessageEncoder.forEncoding(encoding);
+    messageMaxBytes = builder.messageMaxBytes;
+    maxRequests = builder.maxRequests;
+    connectTimeout = builder.connectTimeout;
+    readTimeout = builder.readTimeout;
+    compressionEnabled = builder.compressionEnabled;
+    compression = builder.compression;
+    inFlight = new Semaphore(maxRequests);
+    // HttpClient rejects a zero or null duration, and doesn't time out unless one is set.
+    if (connectTimeout != 0) {
+      builder.clientBuilder.connectTimeout(Duration.ofMillis(connectTimeout));
+    }
+    client = builder.clientBuilder.build();
+  }
+
+  /**
+   * Creates a builder out of this object. Unlike other settings, {@link Builder#clientBuilder()}
+   * customizations are copied from the client, except its authenticator and cookie handler.
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  static HttpClient.Builder copyOf(HttpClient client) {
+    HttpClient.Builder result = HttpClient.newBuilder()
+      .version(client.version())
+      .followRedirects(client.followRedirects())
+      .sslContext(client.sslContext())
+      .sslParameters(client.sslParameters());
+    client.proxy().ifPresent(result::proxy);
+    client.executor().ifPresent(result::executor);
+    client.authenticator().ifPresent(result::authenticator);
+    client.cookieHandler().ifPresent(result::cookieHandler);
+    return result;
+  }
+
+  /** close is typically called from a different thread */
+  volatile boolean closeCalled;
+
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    return encoding.listSizeInBytes(encodedSpans);
+  }
+
+  @Override public int messageSizeInBytes(int encodedSizeInBytes) {
+    return encoding.listSizeInBytes(encodedSizeInBytes);
+  }
+
+  @Override public Encoding encoding() {
+    return encoding;
+  }
+
+  @Override public int messageMaxBytes() {
+    return messageMaxBytes;
+  }
+
+  /** The returned call sends spans as a POST to {@link Builder#endpoint}. */
+  @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+    if (closeCalled) throw new ClosedSenderException();
+    byte[] message = encoder.encode(encodedSpans);
+    return new HttpPostCall(message, message.length, mediaType);
+  }
+
+  /**
+   * Like {@link #sendSpans(List)}, except the message is posted as-is. The message must not be
+   * changed until the call completes.
+   */
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    return new HttpPostCall(message.array(), message.sizeInBytes(), mediaType);
+  }
+
+  /** Sends an empty json message to the configured endpoint. */
+  @Override public CheckResult check() {
+    try {
+      new HttpPostCall(new byte[] {'[', ']'}, 2, "application/json").execute();
+      return CheckResult.OK;
+    } catch (Throwable e) {
+      Call.propagateIfFatal(e);
+      return CheckResult.failed(e);
+    }
+  }
+
+  /** Subsequent sends fail. Requests already in flight are allowed to complete. */
+  @Override public void close() {
+    closeCalled = true;
+  }
+
+  HttpRequest newRequest(byte[] body, int length, String mediaType) throws IOException {
+    HttpRequest.Builder request = HttpRequest.newBuilder(endpoint)
+      // Amplification can occur when the Zipkin endpoint is proxied, and the proxy is
+      // instrumented. This prevents that in proxies, such as Envoy, that understand B3 single.
+      .header("b3", "0")
+      .header("Content-Type", mediaType);
+    if (readTimeout != 0) request.timeout(Duration.ofMillis(readTimeout));
+    BodyPublisher publisher;
+    if (compressionEnabled) {
+      request.header("Content-Encoding", compression.encoding());
+      publisher = BodyPublishers.ofByteArray(compression.compress(body, 0, length));
+    } else {
+      publisher = BodyPublishers.ofByteArray(body, 0, length);
+    }
+    return request.POST(publisher).build();
+  }
+
+  static void parseResponse(HttpResponse<String> response) throws IOException {
+    int status = response.statusCode();
+    if (status >= 200 && status < 300) return;
+    throw new IOException("response for " + response.uri() + " failed: " + status + " "
+      + response.body());
+  }
+
+  @Override public final String toString() {
+    return "HttpClientSender{" + endpoint + "}";
+  }
+
+  final class HttpPostCall extends Call.Base<Void> {
+    final byte[] message;
+    final int length;
+    final String mediaType;
+    volatile CompletableFuture<HttpResponse<String>> future;
+
+    HttpPostCall(byte[] message, int length, String mediaType) {
+      this.message = message;
+      this.length = length;
+      this.mediaType = mediaType;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      HttpRequest request = newRequest(message, length, mediaType);
+      acquire();
+      try {
+        parseResponse(client.send(request, BodyHandlers.ofString()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      } finally {
+        inFlight.release();
+      }
+      return null;
+    }
+
+    /** Unlike {@link #doExecute()}, this doesn't wait for the response. */
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      boolean acquired = false;
+      try {
+        HttpRequest request = newRequest(message, length, mediaType);
+        acquire();
+        acquired = true;
+        future = client.sendAsync(request, BodyHandlers.ofString());
+      } catch (IOException | RuntimeException | Error e) {
+        if (acquired) inFlight.release(); // no future will release it
+        callback.onError(e);
+        return;
+      }
+      // Cancel goes to the request's future, so nothing needs this one.
+      CompletableFuture<HttpResponse<String>> unused = future.whenComplete((response, error) -> {
+        inFlight.release();
+        if (error == null) {
+          try {
+            parseResponse(response);
+          } catch (IOException e) {
+            error = e;
+          }
+        }
+        if (error != null) {
+          callback.onError(error);
+        } else {
+          callback.onSuccess(null);
+        }
+      });
+    }
+
+    /** Blocks the caller when there are already {@link Builder#maxRequests} in flight. */
+    void acquire() throws InterruptedIOException {
+      try {
+        inFlight.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+    }
+
+    @Override protected void doCancel() {
+      CompletableFuture<HttpResponse<String>> future = this.future;
+      if (future != null) future.cancel(true);
+    }
+
+    @Override public Call<Void> clone() {
+      return new HttpPostCall(message, length, mediaType);
+    }
+  }
+}
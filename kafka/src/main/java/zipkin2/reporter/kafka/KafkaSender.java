@@ -14,11 +14,17 @@
 package zipkin2.reporter.kafka;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.producer.KafkaProducer;
@@ -26,7 +32,10 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.utils.Utils;
 import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.CheckResult;
@@ -35,6 +44,9 @@ import zipkin2.reporter.AsyncReporter;
 import zipkin2.reporter.AwaitableCallback;
 import zipkin2.reporter.BytesMessageEncoder;
 import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
+import zipkin2.reporter.ReporterMetrics;
 import zipkin2.reporter.Sender;
 
 /**
@@ -96,6 +108,9 @@ public final class KafkaSender extends Sender {
     Encoding encoding = Encoding.JSON;
     String topic = "zipkin";
     int messageMaxBytes = 500_000;
+    Compression compression;
+    boolean producerBatching, partitionByTraceId;
+    ReporterMetrics metrics = ReporterMetrics.NOOP_METRICS;
 
     Builder(Properties properties) {
       this.properties = properties;
@@ -107,6 +122,10 @@ public final class KafkaSender extends Sender {
       encoding = sender.encoding;
       topic = sender.topic;
       messageMaxBytes = sender.messageMaxBytes;
+      compression = sender.compression;
+      producerBatching = sender.producerBatching;
+      partitionByTraceId = sender.partitionByTraceId;
+      metrics = sender.metrics;
     }
 
     /** Topic zipkin spans will be send to. Defaults to "zipkin" */
@@ -195,6 +214,77 @@ public final class KafkaSender extends Sender {
       return this;
     }
 
+    /**
+     * Compresses each message, and adds a "Content-Encoding" header with its {@link
+     * Compression#encoding()}. Default none.
+     *
+     * <p>The producer can also compress, via {@link ProducerConfig#COMPRESSION_TYPE_CONFIG}. That
+     * is transparent to consumers, so prefer it unless the collector expects this header. Headers
+     * require Kafka 0.11+ brokers.
+     *
+     * @since 2.17
+     */
+    public Builder compression(Compression compression) {
+      if (compression == null) throw new NullPointerException("compression == null");
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * When true, each span is sent as its own record, keyed by its trace ID. This lets the producer
+     * batch and compress records per partition, and keeps the spans of a trace on one partition.
+     * Default false.
+     *
+     * <p>Each record value is a list of one span, so collectors read them as usual. The call
+     * completes once records are handed to the producer: failures after that are reported to
+     * {@link #metrics(ReporterMetrics)}, as one dropped message per call and one dropped span per
+     * failed record.
+     *
+     * <p>Unless overridden, "batch.size" becomes 16384 and "linger.ms" becomes 5 in this mode.
+     * Consider {@link ProducerConfig#COMPRESSION_TYPE_CONFIG} instead of {@link
+     * #compression(Compression)}, as the latter compresses each span separately.
+     *
+     * @since 2.17
+     */
+    public Builder producerBatching(boolean producerBatching) {
+      this.producerBatching = producerBatching;
+      return this;
+    }
+
+    /**
+     * When true, each message is split into one record per partition, choosing the partition by
+     * the hash of each span's trace ID. These records are sent at the same time, and the call
+     * completes when all are acknowledged. Default false.
+     *
+     * <p>This keeps the spans of a trace on one partition, so that collectors can aggregate traces
+     * locally, while still sending bundles. The partition is the same as Kafka's default
+     * partitioner would choose for a record keyed by trace ID, as in {@link
+     * #producerBatching(boolean)}, which takes precedence when both are set.
+     *
+     * <p>The call fails when any record fails, but records for other partitions may have been
+     * written. So, when the call is retried, such as by {@link AsyncReporter.Builder#retries(int)},
+     * those spans are sent again: delivery is at-least-once.
+     *
+     * @since 2.17
+     */
+    public Builder partitionByTraceId(boolean partitionByTraceId) {
+      this.partitionByTraceId = partitionByTraceId;
+      return this;
+    }
+
+    /**
+     * Records spans and messages dropped by the producer after the call completed, such as on
+     * {@link #producerBatching(boolean) producer batching}. Usually the same as {@link
+     * AsyncReporter.Builder#metrics(ReporterMetrics)}. Default no-op.
+     *
+     * @since 2.17
+     */
+    public Builder metrics(ReporterMetrics metrics) {
+      if (metrics == null) throw new NullPointerException("metrics == null");
+      this.metrics = metrics;
+      return this;
+    }
+
     public KafkaSender build() {
       return new KafkaSender(this);
     }
@@ -205,14 +295,35 @@ public final class KafkaSender extends Sender {
   final Encoding encoding;
   final BytesMessageEncoder encoder;
   final int messageMaxBytes;
+  final Compression compression;
+  final Iterable<Header> headers;
+  final boolean producerBatching, partitionByTraceId;
+  final ReporterMetrics metrics;
 
   KafkaSender(Builder builder) {
     properties = new Properties();
     properties.putAll(builder.properties);
+    producerBatching = builder.producerBatching;
+    partitionByTraceId = builder.partitionByTraceId;
+    metrics = builder.metrics;
+    if (producerBatching) {
+      // replace the default that disables batching, but not other overrides
+      if ("0".equals(String.valueOf(properties.get(ProducerConfig.BATCH_SIZE_CONFIG)))) {
+        properties.put(ProducerConfig.BATCH_SIZE_CONFIG, 16384);
+      }
+      if (!properties.containsKey(ProducerConfig.LINGER_MS_CONFIG)) {
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+      }
+    }
     topic = builder.topic;
     encoding = builder.encoding;
     encoder = BytesMessageEncoder.forEncoding(builder.encoding);
     messageMaxBytes = builder.messageMaxBytes;
+    compression = builder.compression;
+    headers = compression != null
+        ? Collections.<Header>singletonList(new RecordHeader("Content-Encoding",
+        compression.encoding().getBytes(Charset.forName("UTF-8"))))
+        : null;
   }
 
   /**
@@ -263,10 +374,20 @@ public final class KafkaSender extends Sender {
    */
   @Override public zipkin2.Call<Void> sendSpans(List<byte[]> encodedSpans) {
     if (closeCalled) throw new ClosedSenderException();
+    if (producerBatching) return new PerSpanCall(encodedSpans);
+    if (partitionByTraceId) return new PartitionedCall(encodedSpans);
     byte[] message = encoder.encode(encodedSpans);
     return new KafkaCall(message);
   }
 
+  /** Like {@link #sendSpans(List)}, except the message is copied once, as it is already framed. */
+  @Override public zipkin2.Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    if (producerBatching) return new PerSpanCall(message.encodedSpans());
+    if (partitionByTraceId) return new PartitionedCall(message.encodedSpans());
+    return new KafkaCall(message.toByteArray());
+  }
+
   /** Ensures there are no problems reading metadata about the topic. */
   @Override public CheckResult check() {
     try {
@@ -326,13 +447,26 @@ public final class KafkaSender extends Sender {
 
     @Override protected Void doExecute() throws IOException {
       AwaitableCallback callback = new AwaitableCallback();
-      get().send(new ProducerRecord<>(topic, message), new CallbackAdapter(callback));
+      get().send(newRecord(), new CallbackAdapter(callback));
       callback.await();
       return null;
     }
 
     @Override protected void doEnqueue(Callback<Void> callback) {
-      get().send(new ProducerRecord<>(topic, message), new CallbackAdapter(callback));
+      ProducerRecord<byte[], byte[]> record;
+      try {
+        record = newRecord();
+      } catch (IOException e) {
+        callback.onError(e);
+        return;
+      }
+      get().send(record, new CallbackAdapter(callback));
+    }
+
+    ProducerRecord<byte[], byte[]> newRecord() throws IOException {
+      if (compression == null) return new ProducerRecord<>(topic, message);
+      byte[] compressed = compression.compress(message, 0, message.length);
+      return new ProducerRecord<>(topic, null, (byte[]) null, compressed, headers);
     }
 
     @Override public Call<Void> clone() {
@@ -340,6 +474,172 @@ public final class KafkaSender extends Sender {
     }
   }
 
+  /** Sends each span as a record keyed by trace ID, leaving batching to the producer. */
+  class PerSpanCall extends Call.Base<Void> {
+    final List<byte[]> encodedSpans;
+
+    PerSpanCall(List<byte[]> encodedSpans) {
+      this.encodedSpans = encodedSpans;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      KafkaProducer<byte[], byte[]> producer = get();
+      DroppedSpanCallback dropped = new DroppedSpanCallback(metrics);
+      for (byte[] encodedSpan : encodedSpans) {
+        // The call completes when records are handed off: the callback reports failures instead.
+        Future<RecordMetadata> unused = producer.send(newRecord(encodedSpan), dropped);
+      }
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      try {
+        doExecute();
+      } catch (IOException | RuntimeException e) {
+        callback.onError(e);
+        return;
+      }
+      callback.onSuccess(null);
+    }
+
+    ProducerRecord<byte[], byte[]> newRecord(byte[] encodedSpan) throws IOException {
+      byte[] key = TraceIdKeys.traceIdKey(encoding, encodedSpan);
+      byte[] value = encoder.encode(Collections.singletonList(encodedSpan));
+      if (compression == null) return new ProducerRecord<>(topic, key, value);
+      byte[] compressed = compression.compress(value, 0, value.length);
+      return new ProducerRecord<>(topic, null, key, compressed, headers);
+    }
+
+    @Override public Call<Void> clone() {
+      return new PerSpanCall(encodedSpans);
+    }
+  }
+
+  /** Sends one record per partition, grouping spans by the hash of their trace ID. */
+  class PartitionedCall extends Call.Base<Void> {
+    final List<byte[]> encodedSpans;
+
+    PartitionedCall(List<byte[]> encodedSpans) {
+      this.encodedSpans = encodedSpans;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      AwaitableCallback callback = new AwaitableCallback();
+      send(callback);
+      callback.await();
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      try {
+        send(callback);
+      } catch (IOException | RuntimeException e) {
+        callback.onError(e);
+      }
+    }
+
+    void send(Callback<Void> callback) throws IOException {
+      // The reporter flushes empty messages when idle. With no records, the adapter would never
+      // complete the callback, so there's nothing to send.
+      if (encodedSpans.isEmpty()) {
+        callback.onSuccess(null);
+        return;
+      }
+      KafkaProducer<byte[], byte[]> producer = get();
+      List<ProducerRecord<byte[], byte[]>> records = newRecords(producer);
+      // Records are sent together, so bundles for different partitions are in flight at once
+      CountingCallbackAdapter adapter = new CountingCallbackAdapter(callback, records.size());
+      for (ProducerRecord<byte[], byte[]> record : records) {
+        try {
+          // The adapter completes the callback, so there's nothing to read from the future.
+          Future<RecordMetadata> unused = producer.send(record, adapter);
+        } catch (RuntimeException e) {
+          // Mark failed first, so that records already sent don't complete the callback again.
+          if (adapter.failed.compareAndSet(false, true)) throw e;
+          return; // an earlier record already failed the callback
+        }
+      }
+    }
+
+    List<ProducerRecord<byte[], byte[]>> newRecords(KafkaProducer<byte[], byte[]> producer)
+      throws IOException {
+      int partitionCount = producer.partitionsFor(topic).size();
+      // A null partition holds spans whose trace ID couldn't be read, leaving it to the producer
+      Map<Integer, List<byte[]>> partitions = new LinkedHashMap<>();
+      for (byte[] encodedSpan : encodedSpans) {
+        byte[] key = TraceIdKeys.traceIdKey(encoding, encodedSpan);
+        // same as the default partitioner: toPositive(murmur2(key)) % partitionCount
+        Integer partition = key != null
+          ? (Utils.murmur2(key) & 0x7fffffff) % partitionCount
+          : null;
+        List<byte[]> bundle = partitions.get(partition);
+        if (bundle == null) partitions.put(partition, bundle = new ArrayList<>());
+        bundle.add(encodedSpan);
+      }
+
+      List<ProducerRecord<byte[], byte[]>> result = new ArrayList<>(partitions.size());
+      for (Map.Entry<Integer, List<byte[]>> entry : partitions.entrySet()) {
+        byte[] message = encoder.encode(entry.getValue());
+        if (compression == null) {
+          result.add(new ProducerRecord<>(topic, entry.getKey(), (byte[]) null, message));
+        } else {
+          byte[] compressed = compression.compress(message, 0, message.length);
+          result.add(
+            new ProducerRecord<>(topic, entry.getKey(), (byte[]) null, compressed, headers));
+        }
+      }
+      return result;
+    }
+
+    @Override public Call<Void> clone() {
+      return new PartitionedCall(encodedSpans);
+    }
+  }
+
+  /** Completes the delegate once all records are sent, or on the first error. */
+  static final class CountingCallbackAdapter
+    implements org.apache.kafka.clients.producer.Callback {
+    final Callback<Void> delegate;
+    final AtomicInteger remaining;
+    final AtomicBoolean failed = new AtomicBoolean();
+
+    CountingCallbackAdapter(Callback<Void> delegate, int count) {
+      this.delegate = delegate;
+      this.remaining = new AtomicInteger(count);
+    }
+
+    @Override public void onCompletion(RecordMetadata metadata, Exception exception) {
+      if (exception != null) {
+        if (failed.compareAndSet(false, true)) delegate.onError(exception);
+      } else if (remaining.decrementAndGet() == 0 && !failed.get()) {
+        delegate.onSuccess(null);
+      }
+    }
+
+    @Override public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  /**
+   * Shared by the records of one call, which was one message from the reporter's point of view. So,
+   * each failed record counts a dropped span, but only the first counts a dropped message.
+   */
+  static final class DroppedSpanCallback implements org.apache.kafka.clients.producer.Callback {
+    final ReporterMetrics metrics;
+    final AtomicBoolean failed = new AtomicBoolean();
+
+    DroppedSpanCallback(ReporterMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    @Override public void onCompletion(RecordMetadata metadata, Exception exception) {
+      if (exception == null) return;
+      if (failed.compareAndSet(false, true)) metrics.incrementMessagesDropped(exception);
+      metrics.incrementSpansDropped(1);
+    }
+  }
+
   static final class CallbackAdapter implements org.apache.kafka.clients.producer.Callback {
     final Callback<Void> delegate;
 
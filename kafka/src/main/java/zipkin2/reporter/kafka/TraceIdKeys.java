@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.kafka;
+
+import zipkin2.codec.Encoding;
+
+/**
+ * Reads the trace ID of an encoded span as lower-hex ASCII, suitable as a record key. This avoids
+ * decoding the span, as only the trace ID is needed to choose a partition.
+ */
+final class TraceIdKeys {
+  static final char[] HEX_DIGITS =
+    {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+  static final byte[] JSON_TRACE_ID = {
+    '"', 't', 'r', 'a', 'c', 'e', 'I', 'd', '"', ':', '"'
+  };
+
+  /** Returns null if the trace ID could not be read. */
+  static byte[] traceIdKey(Encoding encoding, byte[] span) {
+    switch (encoding) {
+      case JSON:
+        return jsonTraceId(span);
+      case PROTO3:
+        return proto3TraceId(span);
+      case THRIFT:
+        return thriftTraceId(span);
+      default:
+        return null;
+    }
+  }
+
+  static byte[] jsonTraceId(byte[] span) {
+    int start = indexOf(span, JSON_TRACE_ID);
+    if (start == -1) return null;
+    start += JSON_TRACE_ID.length;
+    for (int i = start; i < span.length; i++) {
+      if (span[i] != '"') continue;
+      if (i == start) return null;
+      byte[] result = new byte[i - start];
+      System.arraycopy(span, start, result, 0, result.length);
+      return result;
+    }
+    return null;
+  }
+
+  /** A listed span is field 1 of ListOfSpans, and the trace ID is field 1 of Span. */
+  static byte[] proto3TraceId(byte[] span) {
+    if (span.length == 0 || span[0] != 0x0a) return null;
+    int pos = 1;
+    while (pos < span.length && (span[pos] & 0x80) != 0) pos++; // skip the span length varint
+    pos++;
+    if (pos + 2 > span.length || span[pos] != 0x0a) return null;
+    int length = span[pos + 1];
+    if (length != 8 && length != 16) return null;
+    return hex(span, pos + 2, length);
+  }
+
+  /** Thrift writes the lower 64-bits of the trace ID first: an i64 with field ID 1. */
+  static byte[] thriftTraceId(byte[] span) {
+    if (span.length < 3 || span[0] != 10 || span[1] != 0 || span[2] != 1) return null;
+    return hex(span, 3, 8);
+  }
+
+  static byte[] hex(byte[] bytes, int offset, int length) {
+    if (offset + length > bytes.length) return null;
+    byte[] result = new byte[length * 2];
+    for (int i = 0; i < length; i++) {
+      int b = bytes[offset + i];
+      result[i * 2] = (byte) HEX_DIGITS[(b >> 4) & 0xf];
+      result[i * 2 + 1] = (byte) HEX_DIGITS[b & 0xf];
+    }
+    return result;
+  }
+
+  static int indexOf(byte[] bytes, byte[] target) {
+    outer:
+    for (int i = 0, last = bytes.length - target.length; i <= last; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (bytes[i + j] != target[j]) continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  TraceIdKeys() {
+  }
+}
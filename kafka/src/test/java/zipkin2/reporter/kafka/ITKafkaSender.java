@@ -15,19 +15,29 @@ package zipkin2.reporter.kafka;
 
 import com.github.charithe.kafka.EphemeralKafkaBroker;
 import com.github.charithe.kafka.KafkaJunitRule;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import javax.management.ObjectName;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.errors.RecordTooLargeException;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.utils.Utils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -39,8 +49,11 @@ import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.InMemoryReporterMetrics;
 import zipkin2.reporter.Sender;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -90,6 +103,107 @@ public class ITKafkaSender {
       .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
   }
 
+  @Test
+  public void compression() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().compression(Compression.GZIP).build();
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    ConsumerRecord<byte[], byte[]> record = readRecord("zipkin");
+    assertThat(record.headers().lastHeader("Content-Encoding").value())
+      .isEqualTo("gzip".getBytes(UTF_8));
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(record.value()))) {
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(readAllBytes(in)))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+    }
+  }
+
+  @Test
+  public void producerBatching_sendsRecordPerSpanKeyedByTraceId() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().producerBatching(true).build();
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    for (ConsumerRecord<byte[], byte[]> record : readRecords("zipkin", 2)) {
+      assertThat(new String(record.key(), UTF_8)).isEqualTo(CLIENT_SPAN.traceId());
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(record.value()))
+        .containsExactly(CLIENT_SPAN);
+    }
+  }
+
+  @Test
+  public void producerBatching_PROTO3() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().encoding(Encoding.PROTO3).producerBatching(true).build();
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    for (ConsumerRecord<byte[], byte[]> record : readRecords("zipkin", 2)) {
+      assertThat(new String(record.key(), UTF_8)).isEqualTo(CLIENT_SPAN.traceId());
+      assertThat(SpanBytesDecoder.PROTO3.decodeList(record.value()))
+        .containsExactly(CLIENT_SPAN);
+    }
+  }
+
+  @Test
+  public void producerBatching_replacesDefaultBatchSize() {
+    sender.close();
+    sender = sender.toBuilder().producerBatching(true).build();
+
+    assertThat(sender.properties)
+      .containsEntry(ProducerConfig.BATCH_SIZE_CONFIG, 16384)
+      .containsEntry(ProducerConfig.LINGER_MS_CONFIG, 5);
+  }
+
+  @Test
+  public void producerBatching_keepsOverriddenBatchSize() {
+    sender.close();
+    Map<String, Object> overrides = new LinkedHashMap<>();
+    overrides.put(ProducerConfig.BATCH_SIZE_CONFIG, "1024");
+    overrides.put(ProducerConfig.LINGER_MS_CONFIG, "100");
+    sender = sender.toBuilder().overrides(overrides).producerBatching(true).build();
+
+    assertThat(sender.properties)
+      .containsEntry(ProducerConfig.BATCH_SIZE_CONFIG, "1024")
+      .containsEntry(ProducerConfig.LINGER_MS_CONFIG, "100");
+  }
+
+  @Test
+  public void partitionByTraceId_sendsBundlePerPartition() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().topic("partitioned").partitionByTraceId(true).build();
+    sender.getAdminClient()
+      .createTopics(Collections.singletonList(new NewTopic("partitioned", 3, (short) 1)))
+      .all().get();
+
+    List<Span> spans = new ArrayList<>();
+    Map<Integer, List<Span>> expected = new LinkedHashMap<>();
+    for (int i = 1; i <= 10; i++) {
+      Span span = CLIENT_SPAN.toBuilder().traceId(Long.toHexString(i * 0x1234567L)).build();
+      spans.add(span);
+      int partition = (Utils.murmur2(span.traceId().getBytes(UTF_8)) & 0x7fffffff) % 3;
+      expected.computeIfAbsent(partition, p -> new ArrayList<>()).add(span);
+    }
+
+    send(spans.toArray(new Span[0])).execute();
+
+    Map<Integer, List<Span>> actual = new LinkedHashMap<>();
+    for (ConsumerRecord<byte[], byte[]> record : readRecords("partitioned", expected.size())) {
+      actual.put(record.partition(), SpanBytesDecoder.JSON_V2.decodeList(record.value()));
+    }
+    assertThat(actual).isEqualTo(expected);
+  }
+
+  @Test(timeout = 10_000L)
+  public void partitionByTraceId_emptyMessageCompletes() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().topic("partitioned").partitionByTraceId(true).build();
+
+    sender.sendSpans(Collections.emptyList()).execute();
+  }
+
   @Test
   public void sendsSpansToCorrectTopic() throws Exception {
     sender.close();
@@ -185,6 +299,40 @@ public class ITKafkaSender {
     assertThat(filteredProperties.get(ProducerConfig.SECURITY_PROVIDERS_CONFIG)).isNotNull();
   }
 
+  @Test
+  public void droppedSpanCallback_countsOneMessagePerCall() {
+    InMemoryReporterMetrics metrics = new InMemoryReporterMetrics();
+    KafkaSender.DroppedSpanCallback callback = new KafkaSender.DroppedSpanCallback(metrics);
+
+    callback.onCompletion(null, null);
+    callback.onCompletion(null, new TimeoutException());
+    callback.onCompletion(null, new TimeoutException());
+
+    assertThat(metrics.messagesDropped()).isEqualTo(1);
+    assertThat(metrics.spansDropped()).isEqualTo(2);
+  }
+
+  @Test
+  public void countingCallbackAdapter_completesOnce() {
+    List<Object> results = new ArrayList<>();
+    KafkaSender.CountingCallbackAdapter adapter =
+      new KafkaSender.CountingCallbackAdapter(new zipkin2.Callback<Void>() {
+        @Override public void onSuccess(Void value) {
+          results.add("success");
+        }
+
+        @Override public void onError(Throwable t) {
+          results.add(t);
+        }
+      }, 2);
+    adapter.failed.set(true); // as if a later send threw, which the caller reports
+
+    adapter.onCompletion(null, null);
+    adapter.onCompletion(null, new TimeoutException());
+
+    assertThat(results).isEmpty();
+  }
+
   Call<Void> send(Span... spans) {
     SpanBytesEncoder bytesEncoder;
     switch (sender.encoding()) {
@@ -204,9 +352,24 @@ public class ITKafkaSender {
   }
 
   private byte[] readMessage(String topic) throws Exception {
+    return readRecord(topic).value();
+  }
+
+  private ConsumerRecord<byte[], byte[]> readRecord(String topic) throws Exception {
+    return readRecords(topic, 1).get(0);
+  }
+
+  private List<ConsumerRecord<byte[], byte[]>> readRecords(String topic, int count)
+    throws Exception {
     KafkaConsumer<byte[], byte[]> consumer = kafka.helper().createByteConsumer();
-    return kafka.helper().consume(topic, consumer, 1)
-      .get().stream().map(ConsumerRecord::value).findFirst().get();
+    return kafka.helper().consume(topic, consumer, count).get();
+  }
+
+  static byte[] readAllBytes(InputStream in) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buf = new byte[1024];
+    for (int read; (read = in.read(buf)) != -1; ) result.write(buf, 0, read);
+    return result.toByteArray();
   }
 
   private byte[] readMessage() throws Exception {
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.kafka;
+
+import org.junit.Test;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesEncoder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+public class TraceIdKeysTest {
+  @Test public void json() {
+    byte[] key = TraceIdKeys.traceIdKey(Encoding.JSON, SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+
+    assertThat(new String(key, UTF_8)).isEqualTo(CLIENT_SPAN.traceId());
+  }
+
+  @Test public void json_v1() {
+    byte[] key = TraceIdKeys.traceIdKey(Encoding.JSON, SpanBytesEncoder.JSON_V1.encode(CLIENT_SPAN));
+
+    assertThat(new String(key, UTF_8)).isEqualTo(CLIENT_SPAN.traceId());
+  }
+
+  @Test public void proto3() {
+    byte[] key = TraceIdKeys.traceIdKey(Encoding.PROTO3, SpanBytesEncoder.PROTO3.encode(CLIENT_SPAN));
+
+    assertThat(new String(key, UTF_8)).isEqualTo(CLIENT_SPAN.traceId());
+  }
+
+  /** Thrift only has the lower 64-bits up front, which is enough to pick a partition. */
+  @Test public void thrift() {
+    byte[] key = TraceIdKeys.traceIdKey(Encoding.THRIFT, SpanBytesEncoder.THRIFT.encode(CLIENT_SPAN));
+
+    String traceId = CLIENT_SPAN.traceId();
+    assertThat(new String(key, UTF_8)).isEqualTo(traceId.substring(traceId.length() - 16));
+  }
+
+  @Test public void nullWhenMissing() {
+    assertThat(TraceIdKeys.traceIdKey(Encoding.JSON, "{}".getBytes(UTF_8))).isNull();
+    assertThat(TraceIdKeys.traceIdKey(Encoding.PROTO3, new byte[0])).isNull();
+    assertThat(TraceIdKeys.traceIdKey(Encoding.THRIFT, new byte[] {0})).isNull();
+  }
+}
@@ -28,6 +28,7 @@ import zipkin2.codec.Encoding;
 import zipkin2.reporter.AwaitableCallback;
 import zipkin2.reporter.BytesMessageEncoder;
 import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.MessageBuffer;
 import zipkin2.reporter.Sender;
 
 /**
@@ -191,6 +192,12 @@ public final class KafkaSender extends Sender {
     return new KafkaCall(message);
   }
 
+  /** Like {@link #sendSpans(List)}, except the message is copied once, as it is already framed. */
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    return new KafkaCall(message.toByteArray());
+  }
+
   /** Ensures there are no problems reading metadata about the topic. */
   @Override public CheckResult check() {
     try {
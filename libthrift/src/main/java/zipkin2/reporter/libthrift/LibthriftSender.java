@@ -14,8 +14,16 @@
 package zipkin2.reporter.libthrift;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.thrift.TException;
 import zipkin2.Call;
 import zipkin2.Callback;
@@ -27,7 +35,10 @@ import zipkin2.reporter.Sender;
 /**
  * Blocking reporter that sends spans to Zipkin via Scribe.
  *
- * <p>This sender is not thread-safe.
+ * <p>This sender is thread-safe: each call borrows a connection from a pool of at most {@link
+ * Builder#connectionPoolSize(int)} connections, as a Scribe connection can only have one request
+ * in flight. {@link Call#enqueue(Callback)} runs the call on a daemon thread, or fails it when as
+ * many calls already wait for a thread as there are connections.
  */
 public final class LibthriftSender extends Sender {
   /** Creates a sender that sends {@link Encoding#THRIFT} messages. */
@@ -44,6 +55,7 @@ public final class LibthriftSender extends Sender {
     int port = 9410;
     int messageMaxBytes = 500_000; // TFramedTransport.DEFAULT_MAX_LENGTH
     int connectTimeout = 10 * 1000, socketTimeout = 60 * 1000;
+    int connectionPoolSize = 4;
 
     Builder(LibthriftSender sender) {
       this.host = sender.host;
@@ -51,6 +63,7 @@ public final class LibthriftSender extends Sender {
       this.connectTimeout = sender.connectTimeout;
       this.socketTimeout = sender.socketTimeout;
       this.port = sender.port;
+      this.connectionPoolSize = sender.connectionPoolSize;
     }
 
     /** No default. The host listening for scribe messages. */
@@ -83,6 +96,23 @@ public final class LibthriftSender extends Sender {
       return this;
     }
 
+    /**
+     * Maximum count of connections, and so of Scribe requests in flight. Connections are opened as
+     * needed, and a call waits for one when all are in use. Default 4.
+     *
+     * <p>Raise {@link zipkin2.reporter.AsyncReporter.Builder#messagesInFlight(int)} to send on
+     * several connections at the same time.
+     *
+     * @since 2.17
+     */
+    public Builder connectionPoolSize(int connectionPoolSize) {
+      if (connectionPoolSize <= 0) {
+        throw new IllegalArgumentException("connectionPoolSize <= 0: " + connectionPoolSize);
+      }
+      this.connectionPoolSize = connectionPoolSize;
+      return this;
+    }
+
     public final LibthriftSender build() {
       return new LibthriftSender(this);
     }
@@ -94,6 +124,9 @@ public final class LibthriftSender extends Sender {
   final int port;
   final int messageMaxBytes;
   final int connectTimeout, socketTimeout;
+  final int connectionPoolSize;
+  final BlockingQueue<ScribeClient> idleClients;
+  final AtomicInteger clientCount = new AtomicInteger();
 
   LibthriftSender(Builder builder) {
     if (builder.host == null) throw new NullPointerException("host == null");
@@ -102,6 +135,8 @@ public final class LibthriftSender extends Sender {
     this.connectTimeout = builder.connectTimeout;
     this.socketTimeout = builder.socketTimeout;
     this.port = builder.port;
+    this.connectionPoolSize = builder.connectionPoolSize;
+    this.idleClients = new ArrayBlockingQueue<>(connectionPoolSize);
   }
 
   public Builder toBuilder() {
@@ -132,26 +167,76 @@ public final class LibthriftSender extends Sender {
     return new ScribeCall(encodedSpans);
   }
 
-  ScribeClient get() {
-    if (client == null) {
+  /** Returns true if the log was accepted, or false if Scribe said to try later. */
+  boolean log(List<byte[]> encodedSpans) throws TException, InterruptedIOException {
+    ScribeClient client = borrowClient();
+    try {
+      return client.log(encodedSpans);
+    } finally {
+      releaseClient(client);
+    }
+  }
+
+  /** Clients are reused, as a client reopens its socket after a transport error. */
+  ScribeClient borrowClient() throws InterruptedIOException {
+    if (closeCalled) throw new ClosedSenderException();
+    ScribeClient client = idleClients.poll();
+    if (client != null) return client;
+    if (clientCount.incrementAndGet() <= connectionPoolSize) {
+      return new ScribeClient(host, port, socketTimeout, connectTimeout);
+    }
+    clientCount.decrementAndGet();
+    try {
+      return idleClients.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting for a connection");
+    }
+  }
+
+  void releaseClient(ScribeClient client) {
+    idleClients.offer(client);
+    if (closeCalled) closeIdleClients(); // in case close() ran while this client was in use
+  }
+
+  void closeIdleClients() {
+    for (ScribeClient client; (client = idleClients.poll()) != null; ) {
+      client.close();
+    }
+  }
+
+  ThreadPoolExecutor enqueueExecutor() {
+    if (enqueueExecutor == null) {
       synchronized (this) {
-        if (client == null) {
-          client = new ScribeClient(host, port, socketTimeout, connectTimeout);
+        if (enqueueExecutor == null) {
+          ThreadPoolExecutor executor = new ThreadPoolExecutor(connectionPoolSize,
+            connectionPoolSize, 60, TimeUnit.SECONDS,
+            // bounded, so that enqueued calls can't pile up while Scribe is slow
+            new ArrayBlockingQueue<Runnable>(connectionPoolSize),
+            new ThreadFactory() {
+              @Override public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LibthriftSender.this.toString());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+          executor.allowCoreThreadTimeOut(true);
+          enqueueExecutor = executor;
         }
       }
     }
-    return client;
+    return enqueueExecutor;
   }
 
   /** close is typically called from a different thread */
   private volatile boolean closeCalled;
-  private volatile ScribeClient client;
+  private volatile ThreadPoolExecutor enqueueExecutor;
 
   /** Sends an empty log message to the configured host. */
   @Override
   public CheckResult check() {
     try {
-      if (get().log(Collections.emptyList())) {
+      if (log(Collections.<byte[]>emptyList())) {
         return CheckResult.OK;
       }
       throw new IllegalStateException("try later");
@@ -163,8 +248,9 @@ public final class LibthriftSender extends Sender {
   @Override public void close() {
     if (closeCalled) return;
     closeCalled = true;
-    ScribeClient client = this.client;
-    if (client != null) client.close();
+    closeIdleClients();
+    ThreadPoolExecutor enqueueExecutor = this.enqueueExecutor;
+    if (enqueueExecutor != null) enqueueExecutor.shutdown(); // lets enqueued calls finish
   }
 
   @Override public final String toString() {
@@ -180,7 +266,7 @@ public final class LibthriftSender extends Sender {
 
     @Override protected Void doExecute() throws IOException {
       try {
-        if (!get().log(encodedSpans)) {
+        if (!log(encodedSpans)) {
           throw new IllegalStateException("try later");
         }
       } catch (TException e) {
@@ -189,16 +275,26 @@ public final class LibthriftSender extends Sender {
       return null;
     }
 
-    @Override protected void doEnqueue(Callback<Void> callback) {
+    /** Runs on another thread, so that the caller doesn't wait for Scribe to respond. */
+    @Override protected void doEnqueue(final Callback<Void> callback) {
+      ThreadPoolExecutor executor = enqueueExecutor();
       try {
-        if (get().log(encodedSpans)) {
-          callback.onSuccess(null);
-        } else {
-          callback.onError(new IllegalStateException("try later"));
-        }
-        callback.onSuccess(null);
-      } catch (TException |RuntimeException | Error e) {
-        callback.onError(e);
+        executor.execute(new Runnable() {
+          @Override public void run() {
+            try {
+              if (log(encodedSpans)) {
+                callback.onSuccess(null);
+              } else {
+                callback.onError(new IllegalStateException("try later"));
+              }
+            } catch (TException | IOException | RuntimeException | Error e) {
+              callback.onError(e);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // either close() raced with enqueue, or too many calls wait for a thread
+        callback.onError(executor.isShutdown() ? new ClosedSenderException() : e);
       }
     }
 
@@ -14,17 +14,28 @@
 package zipkin2.reporter.libthrift;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import zipkin2.Callback;
 import zipkin2.Span;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.collector.InMemoryCollectorMetrics;
 import zipkin2.collector.scribe.Access;
 import zipkin2.collector.scribe.ScribeCollector;
+import zipkin2.reporter.ClosedSenderException;
 import zipkin2.storage.InMemoryStorage;
 
 import static java.util.Arrays.asList;
@@ -86,6 +97,84 @@ public class ITLibthriftSender {
     assertThat(scribeCollectorMetrics.bytes()).isEqualTo(thrift.length * 2);
   }
 
+  @Test public void connectionPool_sendsConcurrently() throws Exception {
+    sender = sender.toBuilder().connectionPoolSize(2).build();
+
+    ExecutorService executor = Executors.newFixedThreadPool(10);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        futures.add(executor.submit(() -> {
+          send(CLIENT_SPAN);
+          return null;
+        }));
+      }
+      for (Future<Void> future : futures) future.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(scribeCollectorMetrics.messages()).isEqualTo(10);
+    assertThat(sender.clientCount.get()).isBetween(1, 2);
+  }
+
+  @Test public void connectionPoolSize_mustBePositive() {
+    assertThatThrownBy(() -> sender.toBuilder().connectionPoolSize(0))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("connectionPoolSize <= 0: 0");
+  }
+
+  @Test public void enqueue_runsOnAnotherThread() throws Exception {
+    AtomicReference<Thread> callbackThread = new AtomicReference<>();
+    CountDownLatch latch = new CountDownLatch(1);
+    List<byte[]> encodedSpans = asList(SpanBytesEncoder.THRIFT.encode(CLIENT_SPAN));
+    sender.sendSpans(encodedSpans).enqueue(new Callback<Void>() {
+      @Override public void onSuccess(Void value) {
+        callbackThread.set(Thread.currentThread());
+        latch.countDown();
+      }
+
+      @Override public void onError(Throwable t) {
+        latch.countDown();
+      }
+    });
+
+    assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(callbackThread.get())
+      .isNotNull()
+      .isNotSameAs(Thread.currentThread());
+    assertThat(storage.spanStore().getTraces()).containsExactly(asList(CLIENT_SPAN));
+  }
+
+  @Test public void enqueue_failsWhenTooManyCallsWait() throws Exception {
+    sender = sender.toBuilder().connectionPoolSize(1).build();
+    ScribeClient client = sender.borrowClient(); // so that the enqueue thread waits
+    List<byte[]> encodedSpans = asList(SpanBytesEncoder.THRIFT.encode(CLIENT_SPAN));
+    CountDownLatch latch = new CountDownLatch(2);
+    List<Throwable> errors = new CopyOnWriteArrayList<>();
+    Callback<Void> callback = new Callback<Void>() {
+      @Override public void onSuccess(Void value) {
+        latch.countDown();
+      }
+
+      @Override public void onError(Throwable t) {
+        errors.add(t);
+        latch.countDown();
+      }
+    };
+
+    sender.sendSpans(encodedSpans).enqueue(callback); // runs
+    sender.sendSpans(encodedSpans).enqueue(callback); // waits for the thread
+    sender.sendSpans(encodedSpans).enqueue(callback); // rejected
+
+    assertThat(errors).hasSize(1).first().isInstanceOf(RejectedExecutionException.class);
+
+    sender.releaseClient(client);
+    assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(errors).hasSize(1);
+    sender.close();
+  }
+
   @Test public void check_okWhenScribeIsListening() {
     assertThat(sender.check().ok()).isTrue();
   }
@@ -117,6 +206,14 @@ public class ITLibthriftSender {
       .isInstanceOf(IllegalStateException.class);
   }
 
+  @Test public void illegalToBorrowClientWhenClosed() {
+    sender.close();
+
+    assertThatThrownBy(sender::borrowClient)
+      .isInstanceOf(ClosedSenderException.class);
+    assertThat(sender.clientCount.get()).isZero();
+  }
+
   /**
    * The output of toString() on {@link zipkin2.reporter.Sender} implementations appears in thread
    * names created by {@link zipkin2.reporter.AsyncReporter}. Since thread names are likely to be
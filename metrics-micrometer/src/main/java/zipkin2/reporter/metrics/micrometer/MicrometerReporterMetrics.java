@@ -18,15 +18,20 @@ import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.Tags;
+import zipkin2.reporter.CircuitBreakerMetrics;
 import zipkin2.reporter.ReporterMetrics;
+import zipkin2.reporter.SpillMetrics;
 
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Implementation of {@link ReporterMetrics} with Micrometer.
+ * Implementation of {@link ReporterMetrics}, {@link SpillMetrics} and {@link
+ * CircuitBreakerMetrics} with Micrometer.
  */
-public class MicrometerReporterMetrics implements ReporterMetrics {
+public class MicrometerReporterMetrics
+  implements ReporterMetrics, SpillMetrics, CircuitBreakerMetrics {
 
   private static final String PREFIX = "zipkin.reporter.";
 
@@ -40,6 +45,11 @@ public class MicrometerReporterMetrics implements ReporterMetrics {
   final Counter spansDropped;
   final AtomicInteger queuedSpans;
   final AtomicInteger queuedBytes;
+  final Counter spilledBytes;
+  final Counter replayedBytes;
+  final AtomicLong spillBytes;
+  final Counter circuitOpened;
+  final AtomicInteger circuitOpen;
 
   /**
    * Creates a {@link MicrometerReporterMetrics} instance that registers all metrics to the given {@link MeterRegistry}.
@@ -88,6 +98,26 @@ public class MicrometerReporterMetrics implements ReporterMetrics {
       .description("Total size of all encoded spans queued for reporting")
       .baseUnit("bytes")
       .tags(this.extraTags).register(meterRegistry);
+    spilledBytes = Counter.builder(PREFIX + "spill.spilled")
+      .description("Total bytes of encoded spans written to disk instead of sent")
+      .baseUnit("bytes")
+      .tags(this.extraTags).register(meterRegistry);
+    replayedBytes = Counter.builder(PREFIX + "spill.replayed")
+      .description("Total bytes of encoded spans read back from disk and sent")
+      .baseUnit("bytes")
+      .tags(this.extraTags).register(meterRegistry);
+    spillBytes = new AtomicLong();
+    Gauge.builder(PREFIX + "spill.bytes", spillBytes, AtomicLong::get)
+      .description("Total size of spilled spans on disk not yet replayed")
+      .baseUnit("bytes")
+      .tags(this.extraTags).register(meterRegistry);
+    circuitOpened = Counter.builder(PREFIX + "circuit.opened")
+      .description("Times the circuit to the collector opened")
+      .tags(this.extraTags).register(meterRegistry);
+    circuitOpen = new AtomicInteger();
+    Gauge.builder(PREFIX + "circuit.open", circuitOpen, AtomicInteger::get)
+      .description("1 while the circuit to the collector is open, 0 otherwise")
+      .tags(this.extraTags).register(meterRegistry);
   }
 
   @Override
@@ -131,6 +161,31 @@ public class MicrometerReporterMetrics implements ReporterMetrics {
     queuedBytes.set(i);
   }
 
+  @Override
+  public void incrementSpilledBytes(int i) {
+    spilledBytes.increment(i);
+  }
+
+  @Override
+  public void incrementReplayedBytes(int i) {
+    replayedBytes.increment(i);
+  }
+
+  @Override
+  public void updateSpillBytes(long i) {
+    spillBytes.set(i);
+  }
+
+  @Override
+  public void incrementCircuitOpened() {
+    circuitOpened.increment();
+  }
+
+  @Override
+  public void updateCircuitOpen(boolean open) {
+    circuitOpen.set(open ? 1 : 0);
+  }
+
   public static final class Builder {
     final MeterRegistry meterRegistry;
     Tag[] extraTags = new Tag[0];
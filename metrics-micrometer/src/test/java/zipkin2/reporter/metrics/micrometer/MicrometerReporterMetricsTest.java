@@ -36,7 +36,12 @@ public class MicrometerReporterMetricsTest {
         "zipkin.reporter.spans",
         "zipkin.reporter.spans.dropped",
         "zipkin.reporter.queue.spans",
-        "zipkin.reporter.queue.bytes"
+        "zipkin.reporter.queue.bytes",
+        "zipkin.reporter.spill.spilled",
+        "zipkin.reporter.spill.replayed",
+        "zipkin.reporter.spill.bytes",
+        "zipkin.reporter.circuit.opened",
+        "zipkin.reporter.circuit.open"
       );
   }
 
@@ -58,10 +63,14 @@ public class MicrometerReporterMetricsTest {
   public void gaugesSurviveGc() {
     reporterMetrics.updateQueuedBytes(53);
     reporterMetrics.updateQueuedSpans(2);
+    reporterMetrics.updateSpillBytes(1024);
+    reporterMetrics.updateCircuitOpen(true);
 
     System.gc();
 
     assertThat(meterRegistry.get("zipkin.reporter.queue.bytes").gauge().value()).isEqualTo(53);
     assertThat(meterRegistry.get("zipkin.reporter.queue.spans").gauge().value()).isEqualTo(2);
+    assertThat(meterRegistry.get("zipkin.reporter.spill.bytes").gauge().value()).isEqualTo(1024);
+    assertThat(meterRegistry.get("zipkin.reporter.circuit.open").gauge().value()).isEqualTo(1);
   }
 }
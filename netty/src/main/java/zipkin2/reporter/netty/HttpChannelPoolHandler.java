@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.ssl.SslContext;
+
+/** Sets up each pooled connection to send HTTP/1.1 requests and read whole responses. */
+final class HttpChannelPoolHandler extends AbstractChannelPoolHandler {
+  /** Zipkin responds with an empty body, but errors from proxies can include a page of text. */
+  static final int MAX_RESPONSE_BYTES = 1024 * 1024;
+
+  final SslContext sslContext; // nullable
+  final String host;
+  final int port;
+
+  HttpChannelPoolHandler(SslContext sslContext, String host, int port) {
+    this.sslContext = sslContext;
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override public void channelCreated(Channel channel) {
+    ChannelPipeline pipeline = channel.pipeline();
+    if (sslContext != null) pipeline.addLast(sslContext.newHandler(channel.alloc(), host, port));
+    pipeline.addLast(new HttpClientCodec());
+    pipeline.addLast(new HttpObjectAggregator(MAX_RESPONSE_BYTES));
+    pipeline.addLast(ResponseHandler.INSTANCE);
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import zipkin2.Callback;
+
+/** State of the request on a pooled connection. HTTP/1.1 allows only one at a time. */
+final class InFlightRequest {
+  final ChannelPool pool;
+  final Callback<Void> callback;
+  ScheduledFuture<?> timeout; // only accessed on the event loop
+
+  InFlightRequest(ChannelPool pool, Callback<Void> callback) {
+    this.pool = pool;
+    this.callback = callback;
+  }
+
+  /**
+   * Returns the connection to the pool, closing it first on error or if the server won't keep it
+   * alive, then completes the callback. This must only be called once, on the event loop.
+   */
+  void complete(Channel channel, Throwable error, boolean keepAlive) {
+    if (timeout != null) timeout.cancel(false);
+    if (error != null || !keepAlive) {
+      // A failed close leaves nothing to act on. The pool drops the channel once it's inactive.
+      ChannelFuture unusedClose = channel.close();
+    }
+    // The pool closes the channel if it can't take it back, so there's nothing else to do.
+    Future<Void> unusedRelease = pool.release(channel);
+    if (error != null) {
+      callback.onError(error);
+    } else {
+      callback.onSuccess(null);
+    }
+  }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLException;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.CheckResult;
+import zipkin2.codec.Encoding;
+import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.AwaitableCallback;
+import zipkin2.reporter.BytesMessageEncoder;
+import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
+import zipkin2.reporter.Sender;
+
+/**
+ * Reports spans to Zipkin, using its <a href="https://zipkin.io/zipkin-api/#/">POST</a> endpoint,
+ * over a pool of keep-alive HTTP/1.1 connections managed by Netty.
+ *
+ * <h3>Usage</h3>
+ *
+ * This type is designed for {@link AsyncReporter.Builder#builder(Sender) the async reporter}.
+ *
+ * <p>Here's a simple configuration, configured for json:
+ *
+ * <pre>{@code
+ * sender = NettySender.create("http://127.0.0.1:9411/api/v2/spans");
+ * }</pre>
+ *
+ * <p>Here's an example that shares the event loop of an existing Netty application:
+ *
+ * <pre>{@code
+ * sender = NettySender.newBuilder()
+ *   .endpoint("http://127.0.0.1:9411/api/v2/spans")
+ *   .eventLoopGroup(workerGroup, NioSocketChannel.class)
+ *   .maxConnections(4)
+ *   .build();
+ * }</pre>
+ *
+ * <h3>Implementation Notes</h3>
+ *
+ * <p>{@link Call#enqueue(Callback)} never blocks: connecting, writing and reading all happen on
+ * the event loop. Each message is copied, and compressed if enabled, into a pooled direct buffer,
+ * which Netty releases once written. When all {@linkplain Builder#maxConnections(int) connections}
+ * are busy, up to {@linkplain Builder#maxPendingRequests(int) pending requests} wait for one. More
+ * than that fail immediately.
+ *
+ * <p>{@link Call#execute()} waits for the response, so it blocks the caller as usual.
+ *
+ * <p>This sender is thread-safe.
+ */
+public final class NettySender extends Sender {
+
+  /** Creates a sender that posts {@link Encoding#JSON} messages. */
+  public static NettySender create(String endpoint) {
+    return newBuilder().endpoint(endpoint).build();
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    URI endpoint;
+    Encoding encoding = Encoding.JSON;
+    int messageMaxBytes = 500_000;
+    int connectTimeout = 10 * 1000, readTimeout = 60 * 1000;
+    int maxConnections = 8, maxPendingRequests = 64;
+    boolean compressionEnabled = true;
+    Compression compression = Compression.GZIP;
+    EventLoopGroup eventLoopGroup;
+    Class<? extends Channel> channelType = NioSocketChannel.class;
+    SslContext sslContext;
+
+    Builder(NettySender sender) {
+      endpoint = sender.endpoint;
+      encoding = sender.encoding;
+      messageMaxBytes = sender.messageMaxBytes;
+      connectTimeout = sender.connectTimeout;
+      readTimeout = sender.readTimeout;
+      maxConnections = sender.maxConnections;
+      maxPendingRequests = sender.maxPendingRequests;
+      compressionEnabled = sender.compressionEnabled;
+      compression = sender.compression;
+      if (!sender.ownsEventLoopGroup) {
+        eventLoopGroup = sender.eventLoopGroup;
+        channelType = sender.channelType;
+      }
+      sslContext = sender.sslContext;
+    }
+
+    /**
+     * No default. The POST URL for zipkin's <a href="https://zipkin.io/zipkin-api/#/">v2 api</a>,
+     * usually "http://zipkinhost:9411/api/v2/spans"
+     */
+    // customizable so that users can re-map /api/v2/spans ex for browser-originated traces
+    public Builder endpoint(String endpoint) {
+      if (endpoint == null) throw new NullPointerException("endpoint == null");
+      URI parsed;
+      try {
+        parsed = URI.create(endpoint);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("invalid POST url: " + endpoint);
+      }
+      return endpoint(parsed);
+    }
+
+    public Builder endpoint(URI endpoint) {
+      if (endpoint == null) throw new NullPointerException("endpoint == null");
+      String scheme = endpoint.getScheme();
+      if ((!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme))
+        || endpoint.getHost() == null) {
+        throw new IllegalArgumentException("invalid POST url: " + endpoint);
+      }
+      this.endpoint = endpoint;
+      return this;
+    }
+
+    /**
+     * Shares an existing event loop, such as the worker group of a Netty server. The channel type
+     * must match the group, for example {@code EpollSocketChannel.class} with an {@code
+     * EpollEventLoopGroup}. The group is not shut down when this sender is closed.
+     *
+     * <p>By default, the sender creates a single-threaded {@link NioEventLoopGroup}, which it
+     * shuts down on close.
+     */
+    public Builder eventLoopGroup(EventLoopGroup eventLoopGroup,
+      Class<? extends Channel> channelType) {
+      if (eventLoopGroup == null) throw new NullPointerException("eventLoopGroup == null");
+      if (channelType == null) throw new NullPointerException("channelType == null");
+      this.eventLoopGroup = eventLoopGroup;
+      this.channelType = channelType;
+      return this;
+    }
+
+    /**
+     * Used for "https" endpoints. Defaults to {@link SslContextBuilder#forClient()}, which trusts
+     * the JDK's certificate authorities.
+     */
+    public Builder sslContext(SslContext sslContext) {
+      if (sslContext == null) throw new NullPointerException("sslContext == null");
+      this.sslContext = sslContext;
+      return this;
+    }
+
+    /** Default 10 * 1000 milliseconds. 0 implies no timeout. */
+    public Builder connectTimeout(int connectTimeout) {
+      if (connectTimeout < 0) throw new IllegalArgumentException("connectTimeout < 0");
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /** Time to wait for each response. Default 60 * 1000 milliseconds. 0 implies no timeout. */
+    public Builder readTimeout(int readTimeout) {
+      if (readTimeout < 0) throw new IllegalArgumentException("readTimeout < 0");
+      this.readTimeout = readTimeout;
+      return this;
+    }
+
+    /** Maximum keep-alive connections, which is also the maximum requests in flight. Default 8 */
+    public Builder maxConnections(int maxConnections) {
+      if (maxConnections < 1) {
+        throw new IllegalArgumentException("maxConnections < 1: " + maxConnections);
+      }
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    /**
+     * Maximum requests waiting for a connection, when all {@link #maxConnections(int)} are busy.
+     * Requests beyond this fail immediately instead of blocking the caller. Default 64
+     */
+    public Builder maxPendingRequests(int maxPendingRequests) {
+      if (maxPendingRequests < 1) {
+        throw new IllegalArgumentException("maxPendingRequests < 1: " + maxPendingRequests);
+      }
+      this.maxPendingRequests = maxPendingRequests;
+      return this;
+    }
+
+    /**
+     * Default true. true implies that spans will be {@link #compression(Compression) compressed},
+     * with gzip by default, before transport.
+     */
+    public Builder compressionEnabled(boolean compressionEnabled) {
+      this.compressionEnabled = compressionEnabled;
+      return this;
+    }
+
+    /**
+     * The format used when {@link #compressionEnabled(boolean) compression is enabled}. Its
+     * {@link Compression#encoding()} is sent as the "Content-Encoding" header. Default {@link
+     * Compression#GZIP}.
+     *
+     * <p>Only change this when the collector accepts the format, for example "zstd".
+     */
+    public Builder compression(Compression compression) {
+      if (compression == null) throw new NullPointerException("compression == null");
+      this.compression = compression;
+      return this;
+    }
+
+    /** Maximum size of a message. Default 500KB */
+    public Builder messageMaxBytes(int messageMaxBytes) {
+      this.messageMaxBytes = messageMaxBytes;
+      return this;
+    }
+
+    /**
+     * Use this to change the encoding used in messages. Default is {@linkplain Encoding#JSON}
+     * This also controls the "Content-Type" header when sending spans.
+     *
+     * <p>Note: If ultimately sending to Zipkin, version 2.8+ is required to process protobuf.
+     */
+    public Builder encoding(Encoding encoding) {
+      if (encoding == null) throw new NullPointerException("encoding == null");
+      this.encoding = encoding;
+      return this;
+    }
+
+    public final NettySender build() {
+      return new NettySender(this);
+    }
+
+    Builder() {
+    }
+  }
+
+  final URI endpoint;
+  final String host, path;
+  final Encoding encoding;
+  final String mediaType;
+  final BytesMessageEncoder encoder;
+  final int messageMaxBytes;
+  final int connectTimeout, readTimeout;
+  final int maxConnections, maxPendingRequests;
+  final boolean compressionEnabled;
+  final Compression compression;
+  final EventLoopGroup eventLoopGroup;
+  final Class<? extends Channel> channelType;
+  final boolean ownsEventLoopGroup;
+  final SslContext sslContext;
+  final FixedChannelPool pool;
+
+  NettySender(Builder builder) {
+    if (builder.endpoint == null) throw new NullPointerException("endpoint == null");
+    endpoint = builder.endpoint;
+    encoding = builder.encoding;
+    switch (encoding) {
+      case JSON:
+        mediaType = "application/json";
+        break;
+      case THRIFT:
+        mediaType = "application/x-thrift";
+        break;
+      case PROTO3:
+        mediaType = "application/x-protobuf";
+        break;
+      default:
+        throw new UnsupportedOperationException("Unsupported encoding: " + encoding.name());
+    }
+    encoder = BytesMessageEncoder.forEncoding(encoding);
+    messageMaxBytes = builder.messageMaxBytes;
+    connectTimeout = builder.connectTimeout;
+    readTimeout = builder.readTimeout;
+    maxConnections = builder.maxConnections;
+    maxPendingRequests = builder.maxPendingRequests;
+    compressionEnabled = builder.compressionEnabled;
+    compression = builder.compression;
+
+    boolean https = "https".equalsIgnoreCase(endpoint.getScheme());
+    int port = endpoint.getPort() != -1 ? endpoint.getPort() : https ? 443 : 80;
+    host = endpoint.getPort() != -1 ? endpoint.getHost() + ":" + port : endpoint.getHost();
+    String rawPath = endpoint.getRawPath();
+    if (rawPath == null || rawPath.isEmpty()) rawPath = "/";
+    path = endpoint.getRawQuery() != null ? rawPath + "?" + endpoint.getRawQuery() : rawPath;
+
+    try {
+      sslContext = builder.sslContext != null || !https
+        ? builder.sslContext
+        : SslContextBuilder.forClient().build();
+    } catch (SSLException e) {
+      throw new IllegalStateException("Unable to create an SslContext for " + endpoint, e);
+    }
+
+    ownsEventLoopGroup = builder.eventLoopGroup == null;
+    eventLoopGroup = ownsEventLoopGroup
+      ? new NioEventLoopGroup(1, new DefaultThreadFactory("NettySender", true))
+      : builder.eventLoopGroup;
+    channelType = builder.channelType;
+
+    Bootstrap bootstrap = new Bootstrap()
+      .group(eventLoopGroup)
+      .channel(channelType)
+      .remoteAddress(endpoint.getHost(), port)
+      .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+      .option(ChannelOption.SO_KEEPALIVE, true);
+    pool = new FixedChannelPool(bootstrap,
+      new HttpChannelPoolHandler(sslContext, endpoint.getHost(), port),
+      ChannelHealthChecker.ACTIVE, null, -1, maxConnections, maxPendingRequests);
+  }
+
+  public final Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  /** close is typically called from a different thread */
+  volatile boolean closeCalled;
+
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    return encoding.listSizeInBytes(encodedSpans);
+  }
+
+  @Override public int messageSizeInBytes(int encodedSizeInBytes) {
+    return encoding.listSizeInBytes(encodedSizeInBytes);
+  }
+
+  @Override public Encoding encoding() {
+    return encoding;
+  }
+
+  @Override public int messageMaxBytes() {
+    return messageMaxBytes;
+  }
+
+  /** The returned call sends spans as a POST to {@link Builder#endpoint}. */
+  @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
+    if (closeCalled) throw new ClosedSenderException();
+    byte[] message = encoder.encode(encodedSpans);
+    return new HttpPostCall(message, message.length, mediaType);
+  }
+
+  /**
+   * Like {@link #sendSpans(List)}, except the message is posted as-is. The message must not be
+   * changed until the call completes.
+   */
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    return new HttpPostCall(message.array(), message.sizeInBytes(), mediaType);
+  }
+
+  /** Sends an empty json message to the configured endpoint. */
+  @Override public CheckResult check() {
+    try {
+      new HttpPostCall(new byte[] {'[', ']'}, 2, "application/json").execute();
+      return CheckResult.OK;
+    } catch (Throwable e) {
+      Call.propagateIfFatal(e);
+      return CheckResult.failed(e);
+    }
+  }
+
+  /** Closes pooled connections, and the event loop unless it was supplied by the user. */
+  @Override public synchronized void close() {
+    if (closeCalled) return;
+    closeCalled = true;
+    pool.close();
+    if (ownsEventLoopGroup) {
+      // Don't wait for the event loop to terminate, as close is called from application threads.
+      Future<?> unused = eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+  }
+
+  @Override public final String toString() {
+    return "NettySender{" + endpoint + "}";
+  }
+
+  FullHttpRequest newRequest(Channel channel, byte[] body, int length, String mediaType)
+    throws IOException {
+    ByteBuf content = channel.alloc().directBuffer(compressionEnabled ? length / 2 : length);
+    FullHttpRequest request;
+    try {
+      if (compressionEnabled) {
+        OutputStream compressor = compression.compress(new ByteBufOutputStream(content));
+        try {
+          compressor.write(body, 0, length);
+        } finally {
+          compressor.close();
+        }
+      } else {
+        content.writeBytes(body, 0, length);
+      }
+      request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, path, content);
+    } catch (IOException | RuntimeException | Error e) {
+      content.release();
+      throw e;
+    }
+    request.headers()
+      .set(HttpHeaderNames.HOST, host)
+      .set(HttpHeaderNames.CONTENT_TYPE, mediaType)
+      .set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes())
+      .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE)
+      // Amplification can occur when the Zipkin endpoint is proxied, and the proxy is
+      // instrumented. This prevents that in proxies, such as Envoy, that understand B3 single.
+      .set("b3", "0");
+    if (compressionEnabled) {
+      request.headers().set(HttpHeaderNames.CONTENT_ENCODING, compression.encoding());
+    }
+    return request;
+  }
+
+  final class HttpPostCall extends Call.Base<Void> {
+    final byte[] message;
+    final int length;
+    final String mediaType;
+
+    HttpPostCall(byte[] message, int length, String mediaType) {
+      this.message = message;
+      this.length = length;
+      this.mediaType = mediaType;
+    }
+
+    @Override protected Void doExecute() throws IOException {
+      AwaitableCallback callback = new AwaitableCallback();
+      doEnqueue(callback);
+      try {
+        callback.await();
+      } catch (RuntimeException e) {
+        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+        throw e;
+      }
+      return null;
+    }
+
+    @Override protected void doEnqueue(Callback<Void> callback) {
+      pool.acquire().addListener(new SendOnAcquire(this, callback));
+    }
+
+    @Override public Call<Void> clone() {
+      return new HttpPostCall(message, length, mediaType);
+    }
+  }
+
+  /** Writes the request once a connection is available. This runs on the event loop. */
+  final class SendOnAcquire implements FutureListener<Channel> {
+    final HttpPostCall call;
+    final Callback<Void> callback;
+
+    SendOnAcquire(HttpPostCall call, Callback<Void> callback) {
+      this.call = call;
+      this.callback = callback;
+    }
+
+    @Override public void operationComplete(Future<Channel> future) {
+      if (!future.isSuccess()) {
+        callback.onError(future.cause());
+        return;
+      }
+      Channel channel = future.getNow();
+      FullHttpRequest request;
+      try {
+        request = newRequest(channel, call.message, call.length, call.mediaType);
+      } catch (Throwable e) {
+        Call.propagateIfFatal(e);
+        // The pool closes the channel if it can't take it back, so there's nothing else to do.
+        Future<Void> unused = pool.release(channel);
+        callback.onError(e);
+        return;
+      }
+      ResponseHandler.send(channel, request, new InFlightRequest(pool, callback), readTimeout);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completes the {@link InFlightRequest} of a connection when its response arrives, or when the
+ * connection fails first. The request is stored as a channel attribute, so this is shared.
+ */
+@Sharable
+final class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+  static final ResponseHandler INSTANCE = new ResponseHandler();
+  static final AttributeKey<InFlightRequest> IN_FLIGHT =
+    AttributeKey.valueOf(ResponseHandler.class, "IN_FLIGHT");
+
+  static void send(Channel channel, FullHttpRequest request, InFlightRequest inFlight,
+    int readTimeout) {
+    channel.attr(IN_FLIGHT).set(inFlight);
+    if (readTimeout > 0) {
+      inFlight.timeout =
+        channel.eventLoop().schedule(new ReadTimeout(channel), readTimeout, TimeUnit.MILLISECONDS);
+    }
+    channel.writeAndFlush(request).addListener(FailOnWriteError.INSTANCE);
+  }
+
+  static void fail(Channel channel, Throwable error) {
+    InFlightRequest inFlight = channel.attr(IN_FLIGHT).getAndSet(null);
+    if (inFlight != null) inFlight.complete(channel, error, false);
+  }
+
+  @Override protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+    Channel channel = ctx.channel();
+    InFlightRequest inFlight = channel.attr(IN_FLIGHT).getAndSet(null);
+    if (inFlight == null) return; // already timed out
+
+    IOException error = null;
+    int status = response.status().code();
+    if (status < 200 || status >= 300) {
+      error = new IOException("response failed: " + response.status() + " "
+        + response.content().toString(CharsetUtil.UTF_8));
+    }
+    inFlight.complete(channel, error, HttpUtil.isKeepAlive(response));
+  }
+
+  @Override public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    fail(ctx.channel(), new IOException("connection closed before response"));
+    super.channelInactive(ctx);
+  }
+
+  @Override public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    fail(ctx.channel(), cause);
+    ChannelFuture unused = ctx.close(); // the request already failed with the cause
+  }
+
+  enum FailOnWriteError implements ChannelFutureListener {
+    INSTANCE;
+
+    @Override public void operationComplete(ChannelFuture future) {
+      if (!future.isSuccess()) fail(future.channel(), future.cause());
+    }
+  }
+
+  static final class ReadTimeout implements Runnable {
+    final Channel channel;
+
+    ReadTimeout(Channel channel) {
+      this.channel = channel;
+    }
+
+    @Override public void run() {
+      fail(channel, new SocketTimeoutException("read timed out"));
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2016-2020 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin2.reporter.netty;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.codec.Encoding;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.MessageBuffer;
+import zipkin2.reporter.Sender;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static zipkin2.TestObjects.CLIENT_SPAN;
+
+public class NettySenderTest {
+  @Rule public MockWebServer server = new MockWebServer();
+
+  NettySender sender;
+  String endpoint = server.url("/api/v2/spans").toString();
+
+  @Before public void setUp() {
+    sender = NettySender.newBuilder()
+      .endpoint(endpoint)
+      .compressionEnabled(false)
+      .build();
+  }
+
+  @After public void close() {
+    sender.close();
+  }
+
+  @Test public void badUrlIsAnIllegalArgument() {
+    assertThatThrownBy(() -> NettySender.create("htp://localhost:9411/api/v1/spans"))
+      .isInstanceOf(IllegalArgumentException.class)
+      .hasMessage("invalid POST url: htp://localhost:9411/api/v1/spans");
+  }
+
+  @Test public void sendsSpans() throws Exception {
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    // Ensure only one request was sent
+    assertThat(server.getRequestCount()).isEqualTo(1);
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getPath()).isEqualTo("/api/v2/spans");
+    assertThat(request.getHeader("Host")).isEqualTo(server.getHostName() + ":" + server.getPort());
+    assertThat(request.getHeader("Content-Type")).isEqualTo("application/json");
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(request.getBody().readByteArray()))
+      .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void sendsSpans_PROTO3() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().encoding(Encoding.PROTO3).build();
+
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Type")).isEqualTo("application/x-protobuf");
+    assertThat(SpanBytesDecoder.PROTO3.decodeList(request.getBody().readByteArray()))
+      .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void sendsMessage() throws Exception {
+    server.enqueue(new MockResponse());
+
+    MessageBuffer message = MessageBuffer.create(Encoding.JSON);
+    message.add(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+    message.add(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+    sender.sendMessage(message).execute();
+
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(server.takeRequest().getBody().readByteArray()))
+      .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void compression_gzip() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().compressionEnabled(true).build();
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip");
+    try (BufferedSource source = Okio.buffer(new GzipSource(request.getBody()))) {
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(source.readByteArray()))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+    }
+  }
+
+  @Test public void ensuresProxiesDontTrace() throws Exception {
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    // If the Zipkin endpoint is proxied and instrumented, it will know "0" means don't trace.
+    assertThat(server.takeRequest().getHeader("b3")).isEqualTo("0");
+  }
+
+  @Test public void reusesConnection() throws Exception {
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN).execute();
+    send(CLIENT_SPAN).execute();
+
+    assertThat(server.takeRequest().getSequenceNumber()).isZero();
+    assertThat(server.takeRequest().getSequenceNumber()).isEqualTo(1); // same connection
+  }
+
+  @Test public void reconnectsWhenServerCloses() throws Exception {
+    server.enqueue(new MockResponse().addHeader("Connection", "close"));
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN).execute();
+    send(CLIENT_SPAN).execute();
+
+    assertThat(server.getRequestCount()).isEqualTo(2);
+  }
+
+  @Test public void execute_serverError() {
+    server.enqueue(new MockResponse().setResponseCode(500).setBody("oops"));
+
+    assertThatThrownBy(() -> send(CLIENT_SPAN).execute())
+      .isInstanceOf(IOException.class)
+      .hasMessage("response failed: 500 Server Error oops");
+  }
+
+  @Test public void execute_readTimeout() {
+    sender.close();
+    sender = sender.toBuilder().readTimeout(100).build();
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+    assertThatThrownBy(() -> send(CLIENT_SPAN).execute())
+      .isInstanceOf(SocketTimeoutException.class);
+  }
+
+  /** When all connections are busy, enqueue fails fast past the pending limit. */
+  @Test public void enqueue_doesntBlockWhenPoolExhausted() throws Exception {
+    sender.close();
+    sender = sender.toBuilder().maxConnections(1).maxPendingRequests(1).build();
+    server.enqueue(new MockResponse().setBodyDelay(500, TimeUnit.MILLISECONDS));
+    server.enqueue(new MockResponse());
+
+    LinkedBlockingQueue<Object> results = new LinkedBlockingQueue<>();
+    for (int i = 0; i < 3; i++) send(CLIENT_SPAN).enqueue(new QueueingCallback(results));
+
+    // The third request was rejected while the first was in flight and the second pending
+    assertThat(results.poll(3, TimeUnit.SECONDS)).isInstanceOf(IllegalStateException.class);
+    assertThat(results.poll(3, TimeUnit.SECONDS)).isEqualTo("success");
+    assertThat(results.poll(3, TimeUnit.SECONDS)).isEqualTo("success");
+  }
+
+  @Test public void eventLoopGroup_notShutdownOnClose() {
+    NioEventLoopGroup group = new NioEventLoopGroup(1);
+    try {
+      sender.close();
+      sender = sender.toBuilder().eventLoopGroup(group, NioSocketChannel.class).build();
+      server.enqueue(new MockResponse());
+
+      assertThat(sender.check().ok()).isTrue();
+      sender.close();
+
+      assertThat(group.isShuttingDown()).isFalse();
+    } finally {
+      group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test public void check_ok() {
+    server.enqueue(new MockResponse());
+
+    assertThat(sender.check().ok()).isTrue();
+
+    assertThat(server.getRequestCount()).isEqualTo(1);
+  }
+
+  @Test public void check_fail() {
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+
+    assertThat(sender.check().ok()).isFalse();
+  }
+
+  @Test public void illegalToSendWhenClosed() {
+    sender.close();
+
+    assertThatThrownBy(() -> send(CLIENT_SPAN).execute())
+      .isInstanceOf(IllegalStateException.class);
+  }
+
+  /**
+   * The output of toString() on {@link Sender} implementations appears in thread names created by
+   * {@link AsyncReporter}. Since thread names are likely to be exposed in logs and other monitoring
+   * tools, care should be taken to ensure the toString() output is a reasonable length and does not
+   * contain sensitive information.
+   */
+  @Test public void toStringContainsOnlySenderTypeAndEndpoint() {
+    assertThat(sender.toString()).isEqualTo("NettySender{" + endpoint + "}");
+  }
+
+  static final class QueueingCallback implements Callback<Void> {
+    final LinkedBlockingQueue<Object> results;
+
+    QueueingCallback(LinkedBlockingQueue<Object> results) {
+      this.results = results;
+    }
+
+    @Override public void onSuccess(Void value) {
+      results.add("success");
+    }
+
+    @Override public void onError(Throwable t) {
+      results.add(t);
+    }
+  }
+
+  Call<Void> send(Span... spans) {
+    SpanBytesEncoder bytesEncoder;
+    switch (sender.encoding()) {
+      case JSON:
+        bytesEncoder = SpanBytesEncoder.JSON_V2;
+        break;
+      case THRIFT:
+        bytesEncoder = SpanBytesEncoder.THRIFT;
+        break;
+      case PROTO3:
+        bytesEncoder = SpanBytesEncoder.PROTO3;
+        break;
+      default:
+        throw new UnsupportedOperationException("encoding: " + sender.encoding());
+    }
+    return sender.sendSpans(Stream.of(spans).map(bytesEncoder::encode).collect(toList()));
+  }
+}
@@ -16,11 +16,13 @@ package zipkin2.reporter.okhttp3;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
@@ -29,15 +31,16 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import okio.Buffer;
 import okio.BufferedSink;
-import okio.GzipSink;
 import okio.Okio;
 import zipkin2.CheckResult;
 import zipkin2.codec.Encoding;
 import zipkin2.reporter.AsyncReporter;
 import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
 import zipkin2.reporter.Sender;
+import zipkin2.reporter.okhttp3.RequestBodyMessageEncoder.MessageRequestBody;
 
 /**
  * Reports spans to Zipkin, using its <a href="https://zipkin.io/zipkin-api/#/">POST</a> endpoint.
@@ -93,6 +96,8 @@ public final class OkHttpSender extends Sender {
     HttpUrl endpoint;
     Encoding encoding = Encoding.JSON;
     boolean compressionEnabled = true;
+    Compression compression = Compression.GZIP;
+    int compressionMinBytes;
     int maxRequests = 64;
     int messageMaxBytes = 500_000;
 
@@ -105,6 +110,8 @@ public final class OkHttpSender extends Sender {
       endpoint = sender.endpoint;
       maxRequests = sender.client.dispatcher().getMaxRequests();
       compressionEnabled = sender.compressionEnabled;
+      compression = sender.compression;
+      compressionMinBytes = sender.compressionMinBytes;
       encoding = sender.encoding;
       messageMaxBytes = sender.messageMaxBytes;
     }
@@ -127,12 +134,62 @@ public final class OkHttpSender extends Sender {
       return this;
     }
 
-    /** Default true. true implies that spans will be gzipped before transport. */
+    /**
+     * Default true. true implies that spans will be {@link #compression(Compression) compressed},
+     * with gzip by default, before transport.
+     */
     public Builder compressionEnabled(boolean compressionEnabled) {
       this.compressionEnabled = compressionEnabled;
       return this;
     }
 
+    /**
+     * Shortcut for {@link #compression(Compression)} with {@link Compression#gzip(int) gzip} at the
+     * given {@link Deflater} level, from {@link Deflater#NO_COMPRESSION} (0) to {@link
+     * Deflater#BEST_COMPRESSION} (9). Default {@link Deflater#DEFAULT_COMPRESSION}.
+     *
+     * <p>Lower levels use less CPU, which matters as messages are compressed while they are
+     * written to the connection.
+     *
+     * @since 2.17
+     */
+    public Builder compressionLevel(int compressionLevel) {
+      this.compression = Compression.gzip(compressionLevel);
+      return this;
+    }
+
+    /**
+     * The format used when {@link #compressionEnabled(boolean) compression is enabled}. Its
+     * {@link Compression#encoding()} is sent as the "Content-Encoding" header. Default {@link
+     * Compression#GZIP}.
+     *
+     * <p>Only change this when the collector accepts the format, for example "zstd".
+     *
+     * @since 2.17
+     */
+    public Builder compression(Compression compression) {
+      if (compression == null) throw new NullPointerException("compression == null");
+      this.compression = compression;
+      return this;
+    }
+
+    /**
+     * Messages smaller than this are sent uncompressed, even when {@link
+     * #compressionEnabled(boolean) compression is enabled}. Default 0, which compresses all
+     * messages.
+     *
+     * <p>Small messages compress poorly, so compression can cost more than it saves.
+     *
+     * @since 2.17
+     */
+    public Builder compressionMinBytes(int compressionMinBytes) {
+      if (compressionMinBytes < 0) {
+        throw new IllegalArgumentException("compressionMinBytes < 0: " + compressionMinBytes);
+      }
+      this.compressionMinBytes = compressionMinBytes;
+      return this;
+    }
+
     /** Maximum size of a message. Default 500KB */
     public Builder messageMaxBytes(int messageMaxBytes) {
       this.messageMaxBytes = messageMaxBytes;
@@ -190,6 +247,8 @@ public final class OkHttpSender extends Sender {
   final Encoding encoding;
   final int messageMaxBytes, maxRequests;
   final boolean compressionEnabled;
+  final Compression compression;
+  final int compressionMinBytes;
 
   OkHttpSender(Builder builder) {
     if (builder.endpoint == null) throw new NullPointerException("endpoint == null");
@@ -211,6 +270,8 @@ public final class OkHttpSender extends Sender {
     maxRequests = builder.maxRequests;
     messageMaxBytes = builder.messageMaxBytes;
     compressionEnabled = builder.compressionEnabled;
+    compression = builder.compression;
+    compressionMinBytes = builder.compressionMinBytes;
     Dispatcher dispatcher = newDispatcher(maxRequests);
 
     // doing the extra "build" here prevents us from leaking our dispatcher to the builder
@@ -283,6 +344,18 @@ public final class OkHttpSender extends Sender {
     return new HttpCall(client.newCall(request));
   }
 
+  /** Like {@link #sendSpans(List)}, except the message is written to the request as-is. */
+  @Override public zipkin2.Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    Request request;
+    try {
+      request = newRequest(encoder.encode(message));
+    } catch (IOException e) {
+      throw Platform.get().uncheckedIOException(e);
+    }
+    return new HttpCall(client.newCall(request));
+  }
+
   /** Sends an empty json message to the configured endpoint. */
   @Override public CheckResult check() {
     try {
@@ -320,13 +393,9 @@ public final class OkHttpSender extends Sender {
     // Amplification can occur when the Zipkin endpoint is proxied, and the proxy is instrumented.
     // This prevents that in proxies, such as Envoy, that understand B3 single format,
     request.addHeader("b3", "0");
-    if (compressionEnabled) {
-      request.addHeader("Content-Encoding", "gzip");
-      Buffer gzipped = new Buffer();
-      BufferedSink gzipSink = Okio.buffer(new GzipSink(gzipped));
-      body.writeTo(gzipSink);
-      gzipSink.close();
-      body = new BufferRequestBody(body.contentType(), gzipped);
+    if (compressionEnabled && body.contentLength() >= compressionMinBytes) {
+      request.addHeader("Content-Encoding", compression.encoding());
+      body = new CompressedRequestBody(compression, body);
     }
     request.post(body);
     return request.build();
@@ -336,25 +405,37 @@ public final class OkHttpSender extends Sender {
     return "OkHttpSender{" + endpoint + "}";
   }
 
-  static final class BufferRequestBody extends RequestBody {
-    final MediaType contentType;
-    final Buffer body;
+  /**
+   * Compresses the body as it is written to the connection. This avoids holding both the
+   * uncompressed and compressed message in memory. As the compressed size isn't known up front,
+   * the request uses chunked encoding.
+   */
+  static final class CompressedRequestBody extends RequestBody {
+    final Compression compression;
+    final RequestBody body;
 
-    BufferRequestBody(MediaType contentType, Buffer body) {
-      this.contentType = contentType;
+    CompressedRequestBody(Compression compression, RequestBody body) {
+      this.compression = compression;
       this.body = body;
     }
 
-    @Override public long contentLength() {
-      return body.size();
-    }
-
     @Override public MediaType contentType() {
-      return contentType;
+      return body.contentType();
     }
 
     @Override public void writeTo(BufferedSink sink) throws IOException {
-      sink.write(body, body.size());
+      OutputStream compressor = compression.compress(sink.outputStream());
+      try {
+        if (body instanceof MessageRequestBody) {
+          ((MessageRequestBody) body).message.writeTo(compressor);
+        } else {
+          BufferedSink buffered = Okio.buffer(Okio.sink(compressor));
+          body.writeTo(buffered);
+          buffered.emit();
+        }
+      } finally {
+        compressor.close();
+      }
     }
   }
 }
@@ -19,23 +19,36 @@ import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okio.BufferedSink;
 import zipkin2.codec.Encoding;
+import zipkin2.reporter.MessageBuffer;
 
 enum RequestBodyMessageEncoder {
   JSON {
     @Override public RequestBody encode(List<byte[]> encodedSpans) {
       return new JsonRequestBody(encodedSpans);
     }
+
+    @Override MediaType contentType() {
+      return JsonRequestBody.CONTENT_TYPE;
+    }
   },
   @Deprecated
   THRIFT {
     @Override RequestBody encode(List<byte[]> encodedSpans) {
       return new ThriftRequestBody(encodedSpans);
     }
+
+    @Override MediaType contentType() {
+      return ThriftRequestBody.CONTENT_TYPE;
+    }
   },
   PROTO3 {
     @Override RequestBody encode(List<byte[]> encodedSpans) {
       return new Protobuf3RequestBody(encodedSpans);
     }
+
+    @Override MediaType contentType() {
+      return Protobuf3RequestBody.CONTENT_TYPE;
+    }
   };
 
   static abstract class StreamingRequestBody extends RequestBody {
@@ -116,5 +129,34 @@ enum RequestBodyMessageEncoder {
     }
   }
 
+  /** Writes an already framed message, without copying it. */
+  static final class MessageRequestBody extends RequestBody {
+    final MediaType contentType;
+    final MessageBuffer message;
+
+    MessageRequestBody(MediaType contentType, MessageBuffer message) {
+      this.contentType = contentType;
+      this.message = message;
+    }
+
+    @Override public MediaType contentType() {
+      return contentType;
+    }
+
+    @Override public long contentLength() {
+      return message.sizeInBytes();
+    }
+
+    @Override public void writeTo(BufferedSink sink) throws IOException {
+      sink.write(message.array(), 0, message.sizeInBytes());
+    }
+  }
+
   abstract RequestBody encode(List<byte[]> encodedSpans);
+
+  RequestBody encode(MessageBuffer message) {
+    return new MessageRequestBody(contentType(), message);
+  }
+
+  abstract MediaType contentType();
 }
@@ -14,17 +14,25 @@
 package zipkin2.reporter.okhttp3;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.InflaterSource;
+import okio.Okio;
 import org.junit.Rule;
 import org.junit.Test;
 import zipkin2.Call;
@@ -35,6 +43,8 @@ import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.reporter.AsyncReporter;
 import zipkin2.reporter.AwaitableCallback;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
 import zipkin2.reporter.Sender;
 
 import static java.util.Arrays.asList;
@@ -117,6 +127,19 @@ public class OkHttpSenderTest {
         .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
   }
 
+  @Test public void sendsMessage() throws Exception {
+    server.enqueue(new MockResponse());
+
+    MessageBuffer message = MessageBuffer.create(Encoding.JSON);
+    message.add(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+    message.add(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+    sender.sendMessage(message).execute();
+
+    // Now, let's read back the spans we sent!
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(server.takeRequest().getBody().readByteArray()))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
   @Test public void compression() throws Exception {
     List<RecordedRequest> requests = new ArrayList<>();
     for (boolean compressionEnabled : asList(true, false)) {
@@ -135,6 +158,83 @@ public class OkHttpSenderTest {
         .isLessThan(requests.get(1).getBodySize());
   }
 
+  @Test public void compression_streamsGzip() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).build();
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse());
+
+    MessageBuffer message = MessageBuffer.create(Encoding.JSON);
+    message.add(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+    sender.sendMessage(message).execute();
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip");
+    assertThat(request.getHeader("Transfer-Encoding")).isEqualTo("chunked");
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(gunzip(request.getBody())))
+        .containsExactly(CLIENT_SPAN);
+
+    request = server.takeRequest();
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(gunzip(request.getBody())))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void compressionLevel() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).compressionLevel(1).build();
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(gunzip(server.takeRequest().getBody())))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
+  @Test public void compressionLevel_invalid() {
+    assertThatThrownBy(() -> OkHttpSender.newBuilder().compressionLevel(10))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("invalid compressionLevel: 10");
+  }
+
+  @Test public void compression_custom() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).compression(new Compression() {
+      @Override public String encoding() {
+        return "deflate";
+      }
+
+      @Override public OutputStream compress(OutputStream out) {
+        return new DeflaterOutputStream(out) {
+          @Override public void close() throws IOException {
+            finish(); // don't close the request body
+            def.end();
+          }
+        };
+      }
+    }).build();
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Encoding")).isEqualTo("deflate");
+    try (BufferedSource source = Okio.buffer(new InflaterSource(request.getBody(), new Inflater()))) {
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(source.readByteArray()))
+          .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+    }
+  }
+
+  @Test public void compressionMinBytes() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).compressionMinBytes(1024).build();
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN).execute();
+    send(Stream.generate(() -> CLIENT_SPAN).limit(10).toArray(Span[]::new)).execute();
+
+    // The small message isn't compressed
+    assertThat(server.takeRequest().getHeader("Content-Encoding")).isNull();
+    assertThat(server.takeRequest().getHeader("Content-Encoding")).isEqualTo("gzip");
+  }
+
   @Test public void ensuresProxiesDontTrace() throws Exception {
     server.enqueue(new MockResponse());
 
@@ -316,6 +416,12 @@ public class OkHttpSenderTest {
         .isNull();
   }
 
+  static byte[] gunzip(Buffer body) throws IOException {
+    try (BufferedSource source = Okio.buffer(new GzipSource(body))) {
+      return source.readByteArray();
+    }
+  }
+
   Call<Void> send(Span... spans) {
     SpanBytesEncoder bytesEncoder;
     switch (sender.encoding()) {
@@ -25,6 +25,8 @@ public class ActiveMQSenderFactoryBean extends AbstractFactoryBean {
   String clientIdPrefix = "zipkin", connectionIdPrefix = "zipkin";
   Encoding encoding;
   Integer messageMaxBytes;
+  Integer sessionPoolSize, producerWindowSize, transactedBatchSize;
+  Boolean asyncSend;
 
   @Override protected ActiveMQSender createInstance() {
     ActiveMQSender.Builder builder = ActiveMQSender.newBuilder();
@@ -42,6 +44,10 @@ public class ActiveMQSenderFactoryBean extends AbstractFactoryBean {
     builder.connectionFactory(connectionFactory);
     if (encoding != null) builder.encoding(encoding);
     if (messageMaxBytes != null) builder.messageMaxBytes(messageMaxBytes);
+    if (sessionPoolSize != null) builder.sessionPoolSize(sessionPoolSize);
+    if (asyncSend != null) builder.asyncSend(asyncSend);
+    if (producerWindowSize != null) builder.producerWindowSize(producerWindowSize);
+    if (transactedBatchSize != null) builder.transactedBatchSize(transactedBatchSize);
     return builder.build();
   }
 
@@ -92,4 +98,20 @@ public class ActiveMQSenderFactoryBean extends AbstractFactoryBean {
   public void setMessageMaxBytes(Integer messageMaxBytes) {
     this.messageMaxBytes = messageMaxBytes;
   }
+
+  public void setSessionPoolSize(Integer sessionPoolSize) {
+    this.sessionPoolSize = sessionPoolSize;
+  }
+
+  public void setAsyncSend(Boolean asyncSend) {
+    this.asyncSend = asyncSend;
+  }
+
+  public void setProducerWindowSize(Integer producerWindowSize) {
+    this.producerWindowSize = producerWindowSize;
+  }
+
+  public void setTransactedBatchSize(Integer transactedBatchSize) {
+    this.transactedBatchSize = transactedBatchSize;
+  }
 }
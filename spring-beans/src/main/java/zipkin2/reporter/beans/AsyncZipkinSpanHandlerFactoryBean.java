@@ -36,6 +36,18 @@ public class AsyncZipkinSpanHandlerFactoryBean extends BaseAsyncFactoryBean {
     if (closeTimeout != null) builder.closeTimeout(closeTimeout, TimeUnit.MILLISECONDS);
     if (queuedMaxSpans != null) builder.queuedMaxSpans(queuedMaxSpans);
     if (queuedMaxBytes != null) builder.queuedMaxBytes(queuedMaxBytes);
+    if (queueType != null) builder.queueType(queueType);
+    if (encodeOnReport != null) builder.encodeOnReport(encodeOnReport);
+    if (queueOffHeap != null) builder.queueOffHeap(queueOffHeap);
+    if (messagesInFlight != null) builder.messagesInFlight(messagesInFlight);
+    if (virtualThreads != null) builder.virtualThreads(virtualThreads);
+    if (adaptiveBatching != null) builder.adaptiveBatching(adaptiveBatching);
+    if (spillDirectory != null) builder.spillDirectory(spillDirectory);
+    if (spillMaxBytes != null) builder.spillMaxBytes(spillMaxBytes);
+    if (retries != null) builder.retries(retries);
+    if (retryBackoff != null) builder.retryBackoff(retryBackoff, TimeUnit.MILLISECONDS);
+    if (retryMaxBackoff != null) builder.retryMaxBackoff(retryMaxBackoff, TimeUnit.MILLISECONDS);
+    if (retryMaxBytes != null) builder.retryMaxBytes(retryMaxBytes);
     return builder.build();
   }
 
@@ -13,7 +13,9 @@
  */
 package zipkin2.reporter.beans;
 
+import java.io.File;
 import org.springframework.beans.factory.config.AbstractFactoryBean;
+import zipkin2.reporter.AsyncReporter.QueueType;
 import zipkin2.reporter.ReporterMetrics;
 import zipkin2.reporter.Sender;
 
@@ -25,6 +27,18 @@ abstract class BaseAsyncFactoryBean extends AbstractFactoryBean {
   Integer closeTimeout;
   Integer queuedMaxSpans;
   Integer queuedMaxBytes;
+  QueueType queueType;
+  Boolean encodeOnReport;
+  Boolean queueOffHeap;
+  Integer messagesInFlight;
+  Boolean virtualThreads;
+  Boolean adaptiveBatching;
+  File spillDirectory;
+  Long spillMaxBytes;
+  Integer retries;
+  Integer retryBackoff;
+  Integer retryMaxBackoff;
+  Integer retryMaxBytes;
 
   @Override public boolean isSingleton() {
     return true;
@@ -57,4 +71,52 @@ abstract class BaseAsyncFactoryBean extends AbstractFactoryBean {
   public void setQueuedMaxBytes(Integer queuedMaxBytes) {
     this.queuedMaxBytes = queuedMaxBytes;
   }
+
+  public void setQueueType(QueueType queueType) {
+    this.queueType = queueType;
+  }
+
+  public void setEncodeOnReport(Boolean encodeOnReport) {
+    this.encodeOnReport = encodeOnReport;
+  }
+
+  public void setQueueOffHeap(Boolean queueOffHeap) {
+    this.queueOffHeap = queueOffHeap;
+  }
+
+  public void setMessagesInFlight(Integer messagesInFlight) {
+    this.messagesInFlight = messagesInFlight;
+  }
+
+  public void setVirtualThreads(Boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
+  public void setAdaptiveBatching(Boolean adaptiveBatching) {
+    this.adaptiveBatching = adaptiveBatching;
+  }
+
+  public void setSpillDirectory(File spillDirectory) {
+    this.spillDirectory = spillDirectory;
+  }
+
+  public void setSpillMaxBytes(Long spillMaxBytes) {
+    this.spillMaxBytes = spillMaxBytes;
+  }
+
+  public void setRetries(Integer retries) {
+    this.retries = retries;
+  }
+
+  public void setRetryBackoff(Integer retryBackoff) {
+    this.retryBackoff = retryBackoff;
+  }
+
+  public void setRetryMaxBackoff(Integer retryMaxBackoff) {
+    this.retryMaxBackoff = retryMaxBackoff;
+  }
+
+  public void setRetryMaxBytes(Integer retryMaxBytes) {
+    this.retryMaxBytes = retryMaxBytes;
+  }
 }
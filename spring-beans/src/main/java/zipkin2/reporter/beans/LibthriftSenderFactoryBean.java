@@ -23,6 +23,7 @@ public class LibthriftSenderFactoryBean extends AbstractFactoryBean {
   Integer connectTimeout, socketTimeout;
   Integer port;
   Integer messageMaxBytes;
+  Integer connectionPoolSize;
 
   @Override
   protected LibthriftSender createInstance() {
@@ -32,6 +33,7 @@ public class LibthriftSenderFactoryBean extends AbstractFactoryBean {
     if (socketTimeout != null) builder.socketTimeout(socketTimeout);
     if (connectTimeout != null) builder.connectTimeout(connectTimeout);
     if (messageMaxBytes != null) builder.messageMaxBytes(messageMaxBytes);
+    if (connectionPoolSize != null) builder.connectionPoolSize(connectionPoolSize);
     return builder.build();
   }
 
@@ -69,4 +71,8 @@ public class LibthriftSenderFactoryBean extends AbstractFactoryBean {
   public void setMessageMaxBytes(Integer messageMaxBytes) {
     this.messageMaxBytes = messageMaxBytes;
   }
+
+  public void setConnectionPoolSize(Integer connectionPoolSize) {
+    this.connectionPoolSize = connectionPoolSize;
+  }
 }
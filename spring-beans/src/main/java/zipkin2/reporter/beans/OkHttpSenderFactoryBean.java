@@ -15,6 +15,7 @@ package zipkin2.reporter.beans;
 
 import org.springframework.beans.factory.config.AbstractFactoryBean;
 import zipkin2.codec.Encoding;
+import zipkin2.reporter.Compression;
 import zipkin2.reporter.okhttp3.OkHttpSender;
 
 /** Spring XML config does not support chained builders. This converts accordingly */
@@ -25,6 +26,8 @@ public class OkHttpSenderFactoryBean extends AbstractFactoryBean {
   Integer maxRequests;
   Integer connectTimeout, readTimeout, writeTimeout;
   Boolean compressionEnabled;
+  Integer compressionLevel, compressionMinBytes;
+  Compression compression;
   Integer messageMaxBytes;
 
   @Override protected OkHttpSender createInstance() {
@@ -36,6 +39,9 @@ public class OkHttpSenderFactoryBean extends AbstractFactoryBean {
     if (writeTimeout != null) builder.writeTimeout(writeTimeout);
     if (maxRequests != null) builder.maxRequests(maxRequests);
     if (compressionEnabled != null) builder.compressionEnabled(compressionEnabled);
+    if (compressionLevel != null) builder.compressionLevel(compressionLevel);
+    if (compressionMinBytes != null) builder.compressionMinBytes(compressionMinBytes);
+    if (compression != null) builder.compression(compression);
     if (messageMaxBytes != null) builder.messageMaxBytes(messageMaxBytes);
     return builder.build();
   }
@@ -80,6 +86,18 @@ public class OkHttpSenderFactoryBean extends AbstractFactoryBean {
     this.compressionEnabled = compressionEnabled;
   }
 
+  public void setCompressionLevel(Integer compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  public void setCompressionMinBytes(Integer compressionMinBytes) {
+    this.compressionMinBytes = compressionMinBytes;
+  }
+
+  public void setCompression(Compression compression) {
+    this.compression = compression;
+  }
+
   public void setMessageMaxBytes(Integer messageMaxBytes) {
     this.messageMaxBytes = messageMaxBytes;
   }
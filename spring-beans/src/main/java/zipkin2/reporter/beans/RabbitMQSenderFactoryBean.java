@@ -27,6 +27,9 @@ public class RabbitMQSenderFactoryBean extends AbstractFactoryBean {
   String virtualHost;
   String username, password;
   Integer messageMaxBytes;
+  Boolean publisherConfirms;
+  Integer confirmTimeout;
+  Integer channelPoolSize;
 
   @Override protected RabbitMQSender createInstance() {
     RabbitMQSender.Builder builder = RabbitMQSender.newBuilder();
@@ -38,6 +41,9 @@ public class RabbitMQSenderFactoryBean extends AbstractFactoryBean {
     if (username != null) builder.username(username);
     if (password != null) builder.password(password);
     if (messageMaxBytes != null) builder.messageMaxBytes(messageMaxBytes);
+    if (publisherConfirms != null) builder.publisherConfirms(publisherConfirms);
+    if (confirmTimeout != null) builder.confirmTimeout(confirmTimeout);
+    if (channelPoolSize != null) builder.channelPoolSize(channelPoolSize);
     return builder.build();
   }
 
@@ -84,4 +90,16 @@ public class RabbitMQSenderFactoryBean extends AbstractFactoryBean {
   public void setMessageMaxBytes(Integer messageMaxBytes) {
     this.messageMaxBytes = messageMaxBytes;
   }
+
+  public void setPublisherConfirms(Boolean publisherConfirms) {
+    this.publisherConfirms = publisherConfirms;
+  }
+
+  public void setConfirmTimeout(Integer confirmTimeout) {
+    this.confirmTimeout = confirmTimeout;
+  }
+
+  public void setChannelPoolSize(Integer channelPoolSize) {
+    this.channelPoolSize = channelPoolSize;
+  }
 }
@@ -15,6 +15,7 @@ package zipkin2.reporter.beans;
 
 import org.springframework.beans.factory.config.AbstractFactoryBean;
 import zipkin2.codec.Encoding;
+import zipkin2.reporter.Compression;
 import zipkin2.reporter.urlconnection.URLConnectionSender;
 
 /** Spring XML config does not support chained builders. This converts accordingly */
@@ -24,6 +25,7 @@ public class URLConnectionSenderFactoryBean extends AbstractFactoryBean {
   Encoding encoding;
   Integer connectTimeout, readTimeout;
   Boolean compressionEnabled;
+  Compression compression;
   Integer messageMaxBytes;
 
   @Override protected URLConnectionSender createInstance() {
@@ -33,6 +35,7 @@ public class URLConnectionSenderFactoryBean extends AbstractFactoryBean {
     if (connectTimeout != null) builder.connectTimeout(connectTimeout);
     if (readTimeout != null) builder.readTimeout(readTimeout);
     if (compressionEnabled != null) builder.compressionEnabled(compressionEnabled);
+    if (compression != null) builder.compression(compression);
     if (messageMaxBytes != null) builder.messageMaxBytes(messageMaxBytes);
     return builder.build();
   }
@@ -69,6 +72,10 @@ public class URLConnectionSenderFactoryBean extends AbstractFactoryBean {
     this.compressionEnabled = compressionEnabled;
   }
 
+  public void setCompression(Compression compression) {
+    this.compression = compression;
+  }
+
   public void setMessageMaxBytes(Integer messageMaxBytes) {
     this.messageMaxBytes = messageMaxBytes;
   }
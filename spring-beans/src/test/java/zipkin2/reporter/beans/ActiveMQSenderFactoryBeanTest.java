@@ -109,6 +109,46 @@ public class ActiveMQSenderFactoryBeanTest {
       .isEqualTo(1024);
   }
 
+  @Test public void sessionPoolSize() {
+    context = new XmlBeans(""
+      + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.ActiveMQSenderFactoryBean\">\n"
+      + "  <property name=\"url\" value=\"tcp://localhost:61616\"/>\n"
+      + "  <property name=\"sessionPoolSize\" value=\"8\"/>\n"
+      + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", ActiveMQSender.class))
+      .extracting("lazyInit.sessionPoolSize")
+      .isEqualTo(8);
+  }
+
+  @Test public void asyncSend() {
+    context = new XmlBeans(""
+      + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.ActiveMQSenderFactoryBean\">\n"
+      + "  <property name=\"url\" value=\"tcp://localhost:61616\"/>\n"
+      + "  <property name=\"asyncSend\" value=\"true\"/>\n"
+      + "  <property name=\"producerWindowSize\" value=\"1024\"/>\n"
+      + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", ActiveMQSender.class))
+      .extracting("lazyInit.asyncSend", "lazyInit.producerWindowSize")
+      .isEqualTo(Arrays.asList(true, 1024));
+  }
+
+  @Test public void transactedBatchSize() {
+    context = new XmlBeans(""
+      + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.ActiveMQSenderFactoryBean\">\n"
+      + "  <property name=\"url\" value=\"tcp://localhost:61616\"/>\n"
+      + "  <property name=\"transactedBatchSize\" value=\"10\"/>\n"
+      + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", ActiveMQSender.class))
+      .extracting("lazyInit.transactedBatchSize")
+      .isEqualTo(10);
+  }
+
   @Test public void encoding() {
     context = new XmlBeans(""
       + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.ActiveMQSenderFactoryBean\">\n"
@@ -15,7 +15,9 @@ package zipkin2.reporter.beans;
 
 import java.util.concurrent.TimeUnit;
 import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.reporter.AsyncReporter;
@@ -152,6 +154,141 @@ public class AsyncReporterFactoryBeanTest {
         .isEqualTo(512);
   }
 
+  @Test public void queueType() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"queueType\" value=\"LOCK_FREE\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("queueType")
+        .isEqualTo(AsyncReporter.QueueType.LOCK_FREE);
+  }
+
+  @Test public void encodeOnReport() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"encodeOnReport\" value=\"true\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("delegate.encodeOnReport")
+        .isEqualTo(true);
+  }
+
+  @Test public void queueOffHeap() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"queueOffHeap\" value=\"true\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("delegate.queueOffHeap")
+        .isEqualTo(true);
+  }
+
+  @Test public void messagesInFlight() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"messagesInFlight\" value=\"4\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("messagesInFlight")
+        .isEqualTo(4);
+  }
+
+  @Test public void virtualThreads() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"virtualThreads\" value=\"true\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("virtualThreads")
+        .isEqualTo(true);
+  }
+
+  @Test public void adaptiveBatching() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"adaptiveBatching\" value=\"true\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("adaptiveBatching")
+        .isEqualTo(true);
+  }
+
+  @Test public void retries() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"retries\" value=\"3\"/>\n"
+        + "  <property name=\"retryBackoff\" value=\"50\"/>\n"
+        + "  <property name=\"retryMaxBackoff\" value=\"1000\"/>\n"
+        + "  <property name=\"retryMaxBytes\" value=\"1048576\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("retries", "retryBackoffNanos", "retryMaxBackoffNanos", "retryMaxBytes")
+        .containsExactly(3, TimeUnit.MILLISECONDS.toNanos(50), TimeUnit.SECONDS.toNanos(1),
+            1048576);
+  }
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test public void spillDirectory() {
+    context = new XmlBeans(""
+        + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"spillDirectory\" value=\"" + folder.getRoot() + "\"/>\n"
+        + "  <property name=\"spillMaxBytes\" value=\"1048576\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("asyncReporter", AsyncReporter.class))
+        .extracting("spillDirectory", "spillMaxBytes")
+        .containsExactly(folder.getRoot(), 1048576L);
+  }
+
   @Test public void sender_proto3() {
     context = new XmlBeans(""
         + "<bean id=\"asyncReporter\" class=\"zipkin2.reporter.beans.AsyncReporterFactoryBean\">\n"
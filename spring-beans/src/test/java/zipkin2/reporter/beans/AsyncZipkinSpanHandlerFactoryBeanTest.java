@@ -18,6 +18,7 @@ import brave.propagation.TraceContext;
 import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Test;
+import zipkin2.reporter.AsyncReporter;
 import zipkin2.reporter.ReporterMetrics;
 import zipkin2.reporter.Sender;
 import zipkin2.reporter.brave.AsyncZipkinSpanHandler;
@@ -186,4 +187,20 @@ public class AsyncZipkinSpanHandlerFactoryBeanTest {
         .extracting("spanReporter.pending.maxBytes")
         .isEqualTo(512);
   }
+
+  @Test public void queueType() {
+    context = new XmlBeans(""
+        + "<bean id=\"zipkinSpanHandler\" class=\"zipkin2.reporter.beans.AsyncZipkinSpanHandlerFactoryBean\">\n"
+        + "  <property name=\"sender\">\n"
+        + "    <util:constant static-field=\"" + getClass().getName() + ".SENDER\"/>\n"
+        + "  </property>\n"
+        + "  <property name=\"queueType\" value=\"LOCK_FREE\"/>\n"
+        + "  <property name=\"messageTimeout\" value=\"0\"/>\n" // disable thread for test
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("zipkinSpanHandler", AsyncZipkinSpanHandler.class))
+        .extracting("spanReporter.queueType")
+        .isEqualTo(AsyncReporter.QueueType.LOCK_FREE);
+  }
 }
@@ -103,6 +103,21 @@ public class LibthriftSenderFactoryBeanTest {
         .isEqualTo(1024);
   }
 
+  @Test
+  public void connectionPoolSize() {
+    context =
+        new XmlBeans(
+            ""
+                + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.LibthriftSenderFactoryBean\">\n"
+                + "  <property name=\"host\" value=\"myhost\"/>\n"
+                + "  <property name=\"connectionPoolSize\" value=\"8\"/>\n"
+                + "</bean>");
+
+    assertThat(context.getBean("sender", LibthriftSender.class))
+        .extracting("connectionPoolSize")
+        .isEqualTo(8);
+  }
+
   @Test(expected = IllegalStateException.class)
   public void close_closesSender() {
     context =
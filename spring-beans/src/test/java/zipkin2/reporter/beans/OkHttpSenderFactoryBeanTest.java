@@ -106,6 +106,32 @@ public class OkHttpSenderFactoryBeanTest {
         .isEqualTo(false);
   }
 
+  @Test public void compressionLevel() {
+    context = new XmlBeans(""
+        + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.OkHttpSenderFactoryBean\">\n"
+        + "  <property name=\"endpoint\" value=\"http://localhost:9411/api/v2/spans\"/>\n"
+        + "  <property name=\"compressionLevel\" value=\"1\"/>\n"
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", OkHttpSender.class))
+        .extracting("compression.level")
+        .isEqualTo(1);
+  }
+
+  @Test public void compressionMinBytes() {
+    context = new XmlBeans(""
+        + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.OkHttpSenderFactoryBean\">\n"
+        + "  <property name=\"endpoint\" value=\"http://localhost:9411/api/v2/spans\"/>\n"
+        + "  <property name=\"compressionMinBytes\" value=\"1024\"/>\n"
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", OkHttpSender.class))
+        .extracting("compressionMinBytes")
+        .isEqualTo(1024);
+  }
+
   @Test public void messageMaxBytes() {
     context = new XmlBeans(""
         + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.OkHttpSenderFactoryBean\">\n"
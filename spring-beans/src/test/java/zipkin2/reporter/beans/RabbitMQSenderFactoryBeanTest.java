@@ -121,6 +121,45 @@ public class RabbitMQSenderFactoryBeanTest {
         .isEqualTo(Encoding.PROTO3);
   }
 
+  @Test public void publisherConfirms() {
+    context = new XmlBeans(""
+        + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.RabbitMQSenderFactoryBean\">\n"
+        + "  <property name=\"addresses\" value=\"localhost\"/>\n"
+        + "  <property name=\"publisherConfirms\" value=\"true\"/>\n"
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", RabbitMQSender.class))
+        .extracting("publisherConfirms")
+        .isEqualTo(true);
+  }
+
+  @Test public void confirmTimeout() {
+    context = new XmlBeans(""
+        + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.RabbitMQSenderFactoryBean\">\n"
+        + "  <property name=\"addresses\" value=\"localhost\"/>\n"
+        + "  <property name=\"confirmTimeout\" value=\"1000\"/>\n"
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", RabbitMQSender.class))
+        .extracting("confirmTimeout")
+        .isEqualTo(1000);
+  }
+
+  @Test public void channelPoolSize() {
+    context = new XmlBeans(""
+        + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.RabbitMQSenderFactoryBean\">\n"
+        + "  <property name=\"addresses\" value=\"localhost\"/>\n"
+        + "  <property name=\"channelPoolSize\" value=\"8\"/>\n"
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", RabbitMQSender.class))
+        .extracting("channelPoolSize")
+        .isEqualTo(8);
+  }
+
   @Test(expected = IllegalStateException.class) public void close_closesSender() {
     context = new XmlBeans(""
         + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.RabbitMQSenderFactoryBean\">\n"
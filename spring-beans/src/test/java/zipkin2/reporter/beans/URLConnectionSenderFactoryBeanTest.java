@@ -52,6 +52,7 @@ public class URLConnectionSenderFactoryBeanTest {
 
     assertThat(context.getBean("sender", URLConnectionSender.class))
         .usingRecursiveComparison()
+        .ignoringFields("compressedBuffers") // per-instance pool
         .isEqualTo((URLConnectionSender.newBuilder()
             .endpoint("http://localhost:9411/api/v2/spans")
             .connectTimeout(0)
@@ -68,6 +69,7 @@ public class URLConnectionSenderFactoryBeanTest {
 
     assertThat(context.getBean("sender", URLConnectionSender.class))
         .usingRecursiveComparison()
+        .ignoringFields("compressedBuffers") // per-instance pool
         .isEqualTo((URLConnectionSender.newBuilder()
             .endpoint("http://localhost:9411/api/v2/spans")
             .readTimeout(0).build()));
@@ -86,6 +88,23 @@ public class URLConnectionSenderFactoryBeanTest {
         .isEqualTo(false);
   }
 
+  @Test public void compression() {
+    context = new XmlBeans(""
+        + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.URLConnectionSenderFactoryBean\">\n"
+        + "  <property name=\"endpoint\" value=\"http://localhost:9411/api/v2/spans\"/>\n"
+        + "  <property name=\"compression\">\n"
+        + "    <bean class=\"zipkin2.reporter.Compression\" factory-method=\"gzip\">\n"
+        + "      <constructor-arg value=\"1\"/>\n"
+        + "    </bean>\n"
+        + "  </property>\n"
+        + "</bean>"
+    );
+
+    assertThat(context.getBean("sender", URLConnectionSender.class))
+        .extracting("compression.level")
+        .isEqualTo(1);
+  }
+
   @Test public void messageMaxBytes() {
     context = new XmlBeans(""
         + "<bean id=\"sender\" class=\"zipkin2.reporter.beans.URLConnectionSenderFactoryBean\">\n"
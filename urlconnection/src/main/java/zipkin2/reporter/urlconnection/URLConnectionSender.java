@@ -16,17 +16,21 @@ package zipkin2.reporter.urlconnection;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import zipkin2.Call;
 import zipkin2.Callback;
 import zipkin2.CheckResult;
 import zipkin2.codec.Encoding;
 import zipkin2.reporter.BytesMessageEncoder;
 import zipkin2.reporter.ClosedSenderException;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
 import zipkin2.reporter.Sender;
 
 /**
@@ -50,6 +54,7 @@ public final class URLConnectionSender extends Sender {
     int messageMaxBytes = 500_000;
     int connectTimeout = 10 * 1000, readTimeout = 60 * 1000;
     boolean compressionEnabled = true;
+    Compression compression = Compression.GZIP;
 
     Builder(URLConnectionSender sender) {
       this.endpoint = sender.endpoint;
@@ -58,6 +63,7 @@ public final class URLConnectionSender extends Sender {
       this.connectTimeout = sender.connectTimeout;
       this.readTimeout = sender.readTimeout;
       this.compressionEnabled = sender.compressionEnabled;
+      this.compression = sender.compression;
     }
 
     /**
@@ -93,12 +99,30 @@ public final class URLConnectionSender extends Sender {
       return this;
     }
 
-    /** Default true. true implies that spans will be gzipped before transport. */
+    /**
+     * Default true. true implies that spans will be {@link #compression(Compression) compressed},
+     * with gzip by default, before transport.
+     */
     public Builder compressionEnabled(boolean compressionEnabled) {
       this.compressionEnabled = compressionEnabled;
       return this;
     }
 
+    /**
+     * The format used when {@link #compressionEnabled(boolean) compression is enabled}. Its
+     * {@link Compression#encoding()} is sent as the "Content-Encoding" header. Default {@link
+     * Compression#GZIP}.
+     *
+     * <p>Only change this when the collector accepts the format, for example "zstd".
+     *
+     * @since 2.17
+     */
+    public Builder compression(Compression compression) {
+      if (compression == null) throw new NullPointerException("compression == null");
+      this.compression = compression;
+      return this;
+    }
+
     /** Maximum size of a message. Default 500KB */
     public Builder messageMaxBytes(int messageMaxBytes) {
       this.messageMaxBytes = messageMaxBytes;
@@ -132,6 +156,7 @@ public final class URLConnectionSender extends Sender {
   final int messageMaxBytes;
   final int connectTimeout, readTimeout;
   final boolean compressionEnabled;
+  final Compression compression;
 
   URLConnectionSender(Builder builder) {
     if (builder.endpoint == null) throw new NullPointerException("endpoint == null");
@@ -157,12 +182,24 @@ public final class URLConnectionSender extends Sender {
     this.connectTimeout = builder.connectTimeout;
     this.readTimeout = builder.readTimeout;
     this.compressionEnabled = builder.compressionEnabled;
+    this.compression = builder.compression;
   }
 
   public Builder toBuilder() {
     return new Builder(this);
   }
 
+  /** Bounds the compressed buffers held between messages. More are created under load. */
+  static final int MAX_IDLE_COMPRESSED_BUFFERS = 4;
+
+  /**
+   * Usually only the {@link zipkin2.reporter.AsyncReporter} threads send, so reusing a few buffers
+   * avoids growing a new one for each compressed message. Each never exceeds the largest
+   * compressed message, which is bounded by {@link #messageMaxBytes}. These are released on close.
+   */
+  final BlockingQueue<CompressedBuffer> compressedBuffers =
+    new ArrayBlockingQueue<>(MAX_IDLE_COMPRESSED_BUFFERS);
+
   /** close is typically called from a different thread */
   volatile boolean closeCalled;
 
@@ -185,7 +222,14 @@ public final class URLConnectionSender extends Sender {
   /** The returned call sends spans as a POST to {@link Builder#endpoint}. */
   @Override public Call<Void> sendSpans(List<byte[]> encodedSpans) {
     if (closeCalled) throw new ClosedSenderException();
-    return new HttpPostCall(encoder.encode(encodedSpans));
+    byte[] message = encoder.encode(encodedSpans);
+    return new HttpPostCall(message, message.length);
+  }
+
+  /** Like {@link #sendSpans(List)}, except the message is posted as-is. */
+  @Override public Call<Void> sendMessage(MessageBuffer message) {
+    if (closeCalled) throw new ClosedSenderException();
+    return new HttpPostCall(message.array(), message.sizeInBytes());
   }
 
   /** Sends an empty json message to the configured endpoint. */
@@ -201,9 +245,14 @@ public final class URLConnectionSender extends Sender {
 
   @Override public void close() {
     closeCalled = true;
+    compressedBuffers.clear();
   }
 
   void send(byte[] body, String mediaType) throws IOException {
+    send(body, body.length, mediaType);
+  }
+
+  void send(byte[] body, int length, String mediaType) throws IOException {
     // intentionally not closing the connection, so as to use keep-alives
     HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
     connection.setConnectTimeout(connectTimeout);
@@ -214,23 +263,34 @@ public final class URLConnectionSender extends Sender {
     connection.addRequestProperty("b3", "0");
     connection.addRequestProperty("Content-Type", mediaType);
     if (compressionEnabled) {
-      connection.addRequestProperty("Content-Encoding", "gzip");
-      ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
-      GZIPOutputStream compressor = new GZIPOutputStream(gzipped);
+      connection.addRequestProperty("Content-Encoding", compression.encoding());
+      CompressedBuffer compressed = compressedBuffers.poll();
+      if (compressed == null) compressed = new CompressedBuffer();
       try {
-        compressor.write(body);
+        compressed.reset();
+        OutputStream compressor = compression.compress(compressed);
+        try {
+          compressor.write(body, 0, length);
+        } finally {
+          compressor.close();
+        }
+        write(connection, compressed.array(), compressed.size());
       } finally {
-        compressor.close();
+        if (!closeCalled) compressedBuffers.offer(compressed); // dropped when enough are idle
       }
-      body = gzipped.toByteArray();
+    } else {
+      write(connection, body, length);
     }
-    connection.setDoOutput(true);
-    connection.setFixedLengthStreamingMode(body.length);
-    connection.getOutputStream().write(body);
 
     skipAllContent(connection);
   }
 
+  static void write(HttpURLConnection connection, byte[] body, int length) throws IOException {
+    connection.setDoOutput(true);
+    connection.setFixedLengthStreamingMode(length);
+    connection.getOutputStream().write(body, 0, length);
+  }
+
   /** This utility is verbose as we have a minimum java version of 6 */
   static void skipAllContent(HttpURLConnection connection) throws IOException {
     InputStream in = connection.getInputStream();
@@ -255,25 +315,38 @@ public final class URLConnectionSender extends Sender {
     }
   }
 
+  /** Exposes the backing array, so that the compressed message isn't copied before writing. */
+  static final class CompressedBuffer extends ByteArrayOutputStream {
+    CompressedBuffer() {
+      super(8192);
+    }
+
+    byte[] array() {
+      return buf;
+    }
+  }
+
   @Override public final String toString() {
     return "URLConnectionSender{" + endpoint + "}";
   }
 
   class HttpPostCall extends Call.Base<Void> {
     private final byte[] message;
+    private final int length;
 
-    HttpPostCall(byte[] message) {
+    HttpPostCall(byte[] message, int length) {
       this.message = message;
+      this.length = length;
     }
 
     @Override protected Void doExecute() throws IOException {
-      send(message, mediaType);
+      send(message, length, mediaType);
       return null;
     }
 
     @Override protected void doEnqueue(Callback<Void> callback) {
       try {
-        send(message, mediaType);
+        send(message, length, mediaType);
         callback.onSuccess(null);
       } catch (IOException | RuntimeException | Error e) {
         callback.onError(e);
@@ -281,7 +354,7 @@ public final class URLConnectionSender extends Sender {
     }
 
     @Override public Call<Void> clone() {
-      return new HttpPostCall(message);
+      return new HttpPostCall(message, length);
     }
   }
 }
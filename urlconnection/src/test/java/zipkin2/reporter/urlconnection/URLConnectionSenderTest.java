@@ -13,13 +13,20 @@
  */
 package zipkin2.reporter.urlconnection;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import okhttp3.mockwebserver.SocketPolicy;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.InflaterSource;
+import okio.Okio;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -30,6 +37,8 @@ import zipkin2.codec.Encoding;
 import zipkin2.codec.SpanBytesDecoder;
 import zipkin2.codec.SpanBytesEncoder;
 import zipkin2.reporter.AsyncReporter;
+import zipkin2.reporter.Compression;
+import zipkin2.reporter.MessageBuffer;
 import zipkin2.reporter.Sender;
 
 import static java.util.Arrays.asList;
@@ -101,6 +110,19 @@ public class URLConnectionSenderTest {
         .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
   }
 
+  @Test public void sendsMessage() throws Exception {
+    server.enqueue(new MockResponse());
+
+    MessageBuffer message = MessageBuffer.create(Encoding.JSON);
+    message.add(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+    message.add(SpanBytesEncoder.JSON_V2.encode(CLIENT_SPAN));
+    sender.sendMessage(message).execute();
+
+    // Now, let's read back the spans we sent!
+    assertThat(SpanBytesDecoder.JSON_V2.decodeList(server.takeRequest().getBody().readByteArray()))
+        .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+  }
+
   @Test public void compression() throws Exception {
     List<RecordedRequest> requests = new ArrayList<>();
     for (boolean compressionEnabled : asList(true, false)) {
@@ -119,6 +141,73 @@ public class URLConnectionSenderTest {
         .isLessThan(requests.get(1).getBodySize());
   }
 
+  @Test public void compression_gzip() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).build();
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip");
+    try (BufferedSource source = Okio.buffer(new GzipSource(request.getBody()))) {
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(source.readByteArray()))
+          .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+    }
+  }
+
+  /** The compressed buffer is reused, so a smaller message must not include stale bytes. */
+  @Test public void compression_reusesBuffer() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).build();
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN, CLIENT_SPAN).execute();
+    URLConnectionSender.CompressedBuffer buffer = sender.compressedBuffers.peek();
+    send(CLIENT_SPAN).execute();
+
+    assertThat(sender.compressedBuffers).containsExactly(buffer);
+    server.takeRequest(); // skip the first
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Length")).isEqualTo(String.valueOf(buffer.size()));
+    try (BufferedSource source = Okio.buffer(new GzipSource(request.getBody()))) {
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(source.readByteArray()))
+          .containsExactly(CLIENT_SPAN);
+    }
+  }
+
+  @Test public void compression_closeReleasesBuffers() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).build();
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN).execute();
+    assertThat(sender.compressedBuffers).hasSize(1);
+
+    sender.close();
+    assertThat(sender.compressedBuffers).isEmpty();
+  }
+
+  @Test public void compression_custom() throws Exception {
+    sender = sender.toBuilder().compressionEnabled(true).compression(new Compression() {
+      @Override public String encoding() {
+        return "deflate";
+      }
+
+      @Override public OutputStream compress(OutputStream out) {
+        return new DeflaterOutputStream(out);
+      }
+    }).build();
+    server.enqueue(new MockResponse());
+
+    send(CLIENT_SPAN, CLIENT_SPAN).execute();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Encoding")).isEqualTo("deflate");
+    try (BufferedSource source = Okio.buffer(new InflaterSource(request.getBody(), new Inflater()))) {
+      assertThat(SpanBytesDecoder.JSON_V2.decodeList(source.readByteArray()))
+          .containsExactly(CLIENT_SPAN, CLIENT_SPAN);
+    }
+  }
+
   @Test public void ensuresProxiesDontTrace() throws Exception {
     server.enqueue(new MockResponse());
 